@@ -0,0 +1,34 @@
+package org.shop.sportwebstore.config;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * store.batch.* - chunking and cluster leases of the scheduled batch jobs, e.g.
+ * store.batch.shards.advance-orders=4
+ */
+@Getter
+@Setter
+@ConfigurationProperties(prefix = "store.batch")
+public class BatchProperties {
+
+    private int chunkSize = 500;
+    /**
+     * how long a job stays with a node that stopped renewing its lease, renewed around every chunk write
+     */
+    private Duration lease = Duration.ofMinutes(2);
+    /**
+     * name of this node in lease documents, host name and a random suffix when empty
+     */
+    private String nodeId;
+    /**
+     * job name to number of key ranges its runs are split into, ranges are leased one by one so
+     * several nodes share a run; jobs not listed run whole on one node
+     */
+    private Map<String, Integer> shards = new LinkedHashMap<>();
+}
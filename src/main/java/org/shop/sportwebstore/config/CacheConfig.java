@@ -0,0 +1,44 @@
+package org.shop.sportwebstore.config;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import org.shop.sportwebstore.model.dto.ProductDetailsDto;
+import org.shop.sportwebstore.service.cache.BigDecimalCodec;
+import org.shop.sportwebstore.service.cache.CompactRedisSerializer;
+import org.shop.sportwebstore.service.cache.JsonValueCodec;
+import org.shop.sportwebstore.service.cache.TwoLevelCacheManager;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.cache.annotation.EnableCaching;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.serializer.StringRedisSerializer;
+
+import java.util.List;
+
+@Configuration
+@EnableCaching
+@EnableConfigurationProperties(CacheProperties.class)
+public class CacheConfig {
+
+    private static final int PRODUCT_DETAILS_CODEC = 3;
+
+    @Bean
+    public RedisTemplate<String, Object> cacheRedisTemplate(RedisConnectionFactory redisConnectionFactory,
+                                                            CacheProperties cacheProperties) {
+        RedisTemplate<String, Object> template = new RedisTemplate<>();
+        template.setConnectionFactory(redisConnectionFactory);
+        template.setKeySerializer(new StringRedisSerializer());
+        template.setValueSerializer(new CompactRedisSerializer(List.of(
+                new BigDecimalCodec(),
+                new JsonValueCodec<>(PRODUCT_DETAILS_CODEC, ProductDetailsDto.class)),
+                cacheProperties.getCompressionThreshold()));
+        return template;
+    }
+
+    @Bean
+    public TwoLevelCacheManager cacheManager(RedisTemplate<String, Object> cacheRedisTemplate,
+                                             CacheProperties cacheProperties, MeterRegistry meterRegistry) {
+        return new TwoLevelCacheManager(cacheRedisTemplate, cacheProperties, meterRegistry);
+    }
+}
@@ -0,0 +1,58 @@
+package org.shop.sportwebstore.config;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.shop.sportwebstore.service.cache.CompactRedisSerializer;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * store.cache.* - defaults for every cache plus per cache name overrides, e.g.
+ * store.cache.specs.maxPrice.ttl=5m
+ */
+@Getter
+@Setter
+@ConfigurationProperties(prefix = "store.cache")
+public class CacheProperties {
+
+    /**
+     * time to live of redis (L2) entries
+     */
+    private Duration defaultTtl = Duration.ofMinutes(10);
+    /**
+     * upper bound for local (L1) entries, so a missed invalidation can't keep a node stale for long
+     */
+    private Duration localTtl = Duration.ofMinutes(1);
+    private long localMaxSize = 1000;
+    private String invalidationChannel = "cache:invalidate";
+    /**
+     * values bigger than this many bytes are deflated before going to redis
+     */
+    private int compressionThreshold = CompactRedisSerializer.DEFAULT_COMPRESSION_THRESHOLD;
+    private Map<String, Spec> specs = new HashMap<>();
+
+    public Duration ttl(String cacheName) {
+        Spec spec = specs.get(cacheName);
+        return spec == null || spec.getTtl() == null ? defaultTtl : spec.getTtl();
+    }
+
+    public Duration localTtl(String cacheName) {
+        Duration ttl = ttl(cacheName);
+        return ttl.compareTo(localTtl) < 0 ? ttl : localTtl;
+    }
+
+    public long localMaxSize(String cacheName) {
+        Spec spec = specs.get(cacheName);
+        return spec == null || spec.getLocalMaxSize() == null ? localMaxSize : spec.getLocalMaxSize();
+    }
+
+    @Getter
+    @Setter
+    public static class Spec {
+        private Duration ttl;
+        private Long localMaxSize;
+    }
+}
@@ -0,0 +1,51 @@
+package org.shop.sportwebstore.config;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import org.shop.sportwebstore.service.mail.SmtpConnection;
+import org.shop.sportwebstore.service.mail.SmtpStandIn;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.mail.MailProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.mail.javamail.JavaMailSenderImpl;
+
+import java.io.IOException;
+import java.time.Duration;
+
+@Configuration
+public class MailConfig {
+
+    @Bean(destroyMethod = "close")
+    @ConditionalOnProperty(name = "store.mail.stand-in.enabled", havingValue = "true")
+    public SmtpStandIn smtpStandIn(@Value("${store.mail.stand-in.port:0}") int port,
+                                   @Value("${store.mail.stand-in.latency:0ms}") Duration latency,
+                                   @Value("${store.mail.stand-in.failure-rate:0}") double failureRate) throws IOException {
+        return new SmtpStandIn(port, latency, failureRate);
+    }
+
+    /**
+     * replaces the auto-configured sender while the stand-in runs, without authentication or TLS
+     */
+    @Bean
+    @ConditionalOnProperty(name = "store.mail.stand-in.enabled", havingValue = "true")
+    public JavaMailSenderImpl standInMailSender(SmtpStandIn smtpStandIn, MailProperties mailProperties) {
+        JavaMailSenderImpl mailSender = new JavaMailSenderImpl();
+        mailSender.setHost(smtpStandIn.host());
+        mailSender.setPort(smtpStandIn.port());
+        mailSender.setDefaultEncoding(mailProperties.getDefaultEncoding().name());
+        mailProperties.getProperties().forEach((key, value) -> {
+            if (key.endsWith("timeout")) {
+                mailSender.getJavaMailProperties().setProperty(key, value);
+            }
+        });
+        return mailSender;
+    }
+
+    @Bean(destroyMethod = "close")
+    public SmtpConnection smtpConnection(JavaMailSenderImpl mailSender,
+                                         @Value("${store.mail.outbox.check-after:10s}") Duration checkAfter,
+                                         MeterRegistry meterRegistry) {
+        return new SmtpConnection(mailSender, checkAfter, meterRegistry);
+    }
+}
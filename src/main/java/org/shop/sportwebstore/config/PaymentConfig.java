@@ -0,0 +1,59 @@
+package org.shop.sportwebstore.config;
+
+import com.stripe.StripeClient;
+import com.stripe.net.LiveStripeResponseGetter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.shop.sportwebstore.service.payment.CircuitBreaker;
+import org.shop.sportwebstore.service.payment.PaymentGateway;
+import org.shop.sportwebstore.service.payment.PooledStripeHttpClient;
+import org.shop.sportwebstore.service.payment.StripeClientOptions;
+import org.shop.sportwebstore.service.payment.StripePaymentGateway;
+import org.shop.sportwebstore.service.payment.StripeStandIn;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.io.IOException;
+import java.net.http.HttpClient;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+@Configuration
+@EnableConfigurationProperties(PaymentProperties.class)
+public class PaymentConfig {
+
+    @Bean(destroyMethod = "close")
+    @ConditionalOnProperty(name = "store.payment.stand-in.enabled", havingValue = "true")
+    public StripeStandIn stripeStandIn(PaymentProperties properties) throws IOException {
+        PaymentProperties.StandIn standIn = properties.getStandIn();
+        return new StripeStandIn(standIn.getPort(), standIn.getThreads(), standIn.getLatency(), standIn.getJitter(),
+                standIn.getFailureRate());
+    }
+
+    @Bean
+    public PaymentGateway paymentGateway(PaymentProperties properties,
+                                         ObjectProvider<StripeStandIn> stripeStandIn,
+                                         @Value("${spring.stripe.secret}") String stripeSecretKey,
+                                         MeterRegistry meterRegistry) {
+        StripeStandIn standIn = stripeStandIn.getIfAvailable();
+        AtomicInteger counter = new AtomicInteger();
+        HttpClient httpClient = HttpClient.newBuilder()
+                .connectTimeout(properties.getConnectTimeout())
+                .executor(Executors.newFixedThreadPool(properties.getClientThreads(), runnable -> {
+                    Thread thread = new Thread(runnable, "stripe-http-" + counter.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }))
+                .build();
+        StripeClientOptions options = new StripeClientOptions(stripeSecretKey, properties.getConnectTimeout(),
+                properties.getReadTimeout(), properties.getMaxNetworkRetries(),
+                standIn != null ? standIn.baseUrl() : properties.getApiBase());
+        StripeClient client = new StripeClient(new LiveStripeResponseGetter(options, new PooledStripeHttpClient(httpClient)));
+        PaymentProperties.Breaker breaker = properties.getBreaker();
+        return new StripePaymentGateway(client, new CircuitBreaker(breaker.getWindowSize(), breaker.getMinimumCalls(),
+                breaker.getFailureRate(), breaker.getOpenDuration()), meterRegistry);
+    }
+}
@@ -0,0 +1,60 @@
+package org.shop.sportwebstore.config;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.time.Duration;
+
+/**
+ * store.payment.* - client settings of the payment provider, its circuit breaker and the local stand-in.
+ */
+@Getter
+@Setter
+@ConfigurationProperties(prefix = "store.payment")
+public class PaymentProperties {
+
+    private String currency = "eur";
+    private Duration connectTimeout = Duration.ofSeconds(2);
+    private Duration readTimeout = Duration.ofSeconds(10);
+    /**
+     * retries of connection errors and 5xx answers, Stripe sends them with the same idempotency key
+     */
+    private int maxNetworkRetries = 1;
+    /**
+     * threads completing HTTP exchanges of the shared client
+     */
+    private int clientThreads = 8;
+    /**
+     * Stripe's live api when empty
+     */
+    private String apiBase;
+    private Breaker breaker = new Breaker();
+    private StandIn standIn = new StandIn();
+
+    @Getter
+    @Setter
+    public static class Breaker {
+        private int windowSize = 50;
+        private int minimumCalls = 20;
+        private double failureRate = 0.5;
+        private Duration openDuration = Duration.ofSeconds(30);
+    }
+
+    @Getter
+    @Setter
+    public static class StandIn {
+        /**
+         * serve checkout sessions from a local stand-in instead of Stripe, for load tests only
+         */
+        private boolean enabled = false;
+        /**
+         * 0 picks a free port
+         */
+        private int port = 0;
+        private int threads = 64;
+        private Duration latency = Duration.ofMillis(300);
+        private Duration jitter = Duration.ofMillis(200);
+        private double failureRate = 0;
+    }
+}
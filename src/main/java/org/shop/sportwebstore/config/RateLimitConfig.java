@@ -0,0 +1,25 @@
+package org.shop.sportwebstore.config;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.shop.sportwebstore.service.ratelimit.RateLimitFilter;
+import org.shop.sportwebstore.service.ratelimit.RateLimiter;
+import org.shop.sportwebstore.service.user.SecurityContextWrapper;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.boot.web.servlet.FilterRegistrationBean;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+@Configuration
+@EnableConfigurationProperties(RateLimitProperties.class)
+public class RateLimitConfig {
+
+    @Bean
+    public FilterRegistrationBean<RateLimitFilter> rateLimitFilter(RateLimiter rateLimiter,
+                                                                   SecurityContextWrapper securityContextWrapper,
+                                                                   ObjectMapper objectMapper) {
+        FilterRegistrationBean<RateLimitFilter> registration = new FilterRegistrationBean<>(
+                new RateLimitFilter(rateLimiter, securityContextWrapper, objectMapper));
+        registration.addUrlPatterns("/api/*");
+        return registration;
+    }
+}
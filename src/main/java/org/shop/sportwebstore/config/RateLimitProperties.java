@@ -0,0 +1,58 @@
+package org.shop.sportwebstore.config;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * store.rate-limit.* - named rules, every rule matching a request has to admit it, e.g.
+ * store.rate-limit.rules.summary.patterns=/api/payment/summary
+ * store.rate-limit.rules.summary.limit=10
+ * store.rate-limit.rules.summary.period=1m
+ */
+@Getter
+@Setter
+@ConfigurationProperties(prefix = "store.rate-limit")
+public class RateLimitProperties {
+
+    private boolean enabled = true;
+    /**
+     * how often local buckets are reconciled with the cluster-wide buckets in redis
+     */
+    private Duration syncInterval = Duration.ofSeconds(1);
+    /**
+     * upper bound of clients tracked per node, idle buckets are dropped first
+     */
+    private long maxBuckets = 100_000;
+    private Map<String, Rule> rules = new LinkedHashMap<>();
+
+    @Getter
+    @Setter
+    public static class Rule {
+        /**
+         * ant-style path patterns sharing one bucket per client
+         */
+        private List<String> patterns = new ArrayList<>();
+        /**
+         * http method, any when empty
+         */
+        private String method;
+        private long limit;
+        private Duration period = Duration.ofMinutes(1);
+        private Key key = Key.USER;
+    }
+
+    public enum Key {
+        /**
+         * authenticated user id, the client address for anonymous requests
+         */
+        USER,
+        IP
+    }
+}
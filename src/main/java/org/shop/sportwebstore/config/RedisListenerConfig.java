@@ -0,0 +1,35 @@
+package org.shop.sportwebstore.config;
+
+import org.shop.sportwebstore.service.cache.TwoLevelCacheManager;
+import org.shop.sportwebstore.service.catalog.ProductCatalog;
+import org.shop.sportwebstore.service.user.TokenBlacklist;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+
+/**
+ * One listener container for every pub/sub channel, so a node holds a single subscription
+ * connection and dispatch thread pool instead of one per channel.
+ */
+@Configuration
+public class RedisListenerConfig {
+
+    @Bean
+    public RedisMessageListenerContainer redisMessageListenerContainer(RedisConnectionFactory redisConnectionFactory,
+                                                                       TwoLevelCacheManager cacheManager,
+                                                                       CacheProperties cacheProperties,
+                                                                       ProductCatalog productCatalog,
+                                                                       @Value("${store.catalog.channel:catalog:changed}") String catalogChannel,
+                                                                       TokenBlacklist tokenBlacklist,
+                                                                       @Value("${jwt.blacklist.channel:jwt:revoked}") String revocationChannel) {
+        RedisMessageListenerContainer container = new RedisMessageListenerContainer();
+        container.setConnectionFactory(redisConnectionFactory);
+        container.addMessageListener(cacheManager, new ChannelTopic(cacheProperties.getInvalidationChannel()));
+        container.addMessageListener(productCatalog, new ChannelTopic(catalogChannel));
+        container.addMessageListener(tokenBlacklist, new ChannelTopic(revocationChannel));
+        return container;
+    }
+}
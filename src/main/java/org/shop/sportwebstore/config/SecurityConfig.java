@@ -1,10 +1,15 @@
 package org.shop.sportwebstore.config;
 
+import io.micrometer.core.instrument.MeterRegistry;
 import lombok.RequiredArgsConstructor;
 import org.shop.sportwebstore.model.entity.Cart;
+import org.shop.sportwebstore.service.user.BoundedPasswordEncoder;
 import org.shop.sportwebstore.service.user.JwtDecoderImpl;
 import org.shop.sportwebstore.service.user.JwtService;
+import org.shop.sportwebstore.service.user.JwtUserConverter;
+import org.shop.sportwebstore.service.user.RoleVersions;
 import org.shop.sportwebstore.service.user.UserDetailsServiceImpl;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.data.redis.connection.RedisConnectionFactory;
@@ -24,10 +29,10 @@ import org.springframework.security.config.http.SessionCreationPolicy;
 import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
 import org.springframework.security.crypto.password.PasswordEncoder;
 import org.springframework.security.oauth2.jwt.JwtDecoder;
-import org.springframework.security.oauth2.server.resource.authentication.JwtAuthenticationConverter;
-import org.springframework.security.oauth2.server.resource.authentication.JwtGrantedAuthoritiesConverter;
 import org.springframework.security.web.SecurityFilterChain;
 
+import java.time.Duration;
+
 @Configuration
 @EnableWebSecurity
 @EnableMethodSecurity
@@ -38,7 +43,7 @@ public class SecurityConfig {
     private final UserDetailsServiceImpl userDetailsServiceImpl;
 
     @Bean
-    public SecurityFilterChain securityFilterChain(HttpSecurity http) throws Exception {
+    public SecurityFilterChain securityFilterChain(HttpSecurity http, JwtDecoder jwtDecoder) throws Exception {
         http
                 .csrf(AbstractHttpConfigurer::disable)
                 .authorizeHttpRequests(authorize -> authorize
@@ -50,7 +55,7 @@ public class SecurityConfig {
                 .oauth2ResourceServer(oauth2 -> oauth2
                         .jwt(jwt -> jwt
                                 .jwtAuthenticationConverter(jwtAuthenticationConverter())
-                                .decoder(jwtDecoder())
+                                .decoder(jwtDecoder)
                         )
                 )
                 .formLogin(form -> form
@@ -63,33 +68,31 @@ public class SecurityConfig {
     }
 
     @Bean
-    public JwtDecoder jwtDecoder() {
-        return new JwtDecoderImpl(jwtService);
+    public JwtDecoder jwtDecoder(@Value("${jwt.cache.max-size:10000}") long cacheSize,
+                                 @Value("${jwt.cache.ttl:300000}") long cacheTtl,
+                                 RoleVersions roleVersions,
+                                 MeterRegistry meterRegistry) {
+        return new JwtDecoderImpl(jwtService, roleVersions, cacheSize, Duration.ofMillis(cacheTtl), meterRegistry);
     }
 
     @Bean
-    public JwtAuthenticationConverter jwtAuthenticationConverter() {
-        JwtGrantedAuthoritiesConverter authoritiesConverter = new JwtGrantedAuthoritiesConverter();
-        authoritiesConverter.setAuthorityPrefix("");
-        authoritiesConverter.setAuthoritiesClaimName("role");
-
-        JwtAuthenticationConverter authenticationConverter = new JwtAuthenticationConverter();
-        authenticationConverter.setJwtGrantedAuthoritiesConverter(authoritiesConverter);
-
-        return authenticationConverter;
+    public JwtUserConverter jwtAuthenticationConverter() {
+        return new JwtUserConverter();
     }
 
     @Bean
-    public AuthenticationProvider authenticationProvider() {
+    public AuthenticationProvider authenticationProvider(PasswordEncoder passwordEncoder) {
         DaoAuthenticationProvider authProvider = new DaoAuthenticationProvider();
         authProvider.setUserDetailsService(userDetailsServiceImpl);
-        authProvider.setPasswordEncoder(passwordEncoder());
+        authProvider.setPasswordEncoder(passwordEncoder);
         return authProvider;
     }
 
     @Bean
-    public PasswordEncoder passwordEncoder() {
-        return new BCryptPasswordEncoder();
+    public BoundedPasswordEncoder passwordEncoder(@Value("${auth.password.threads:2}") int threads,
+                                                  @Value("${auth.password.queue:16}") int queueSize,
+                                                  MeterRegistry meterRegistry) {
+        return new BoundedPasswordEncoder(new BCryptPasswordEncoder(), threads, queueSize, meterRegistry);
     }
 
     @Bean
@@ -105,5 +108,4 @@ public class SecurityConfig {
         template.setValueSerializer(new GenericJackson2JsonRedisSerializer());
         return template;
     }
-
 }
@@ -4,6 +4,7 @@ import lombok.RequiredArgsConstructor;
 import org.shop.sportwebstore.model.Roles;
 import org.shop.sportwebstore.model.SuccessResponse;
 import org.shop.sportwebstore.model.dto.*;
+import org.shop.sportwebstore.service.store.HotStockService;
 import org.shop.sportwebstore.service.store.OrderService;
 import org.shop.sportwebstore.service.store.ProductService;
 import org.shop.sportwebstore.service.user.UserService;
@@ -26,6 +27,7 @@ public class AdminController {
     private final UserService userService;
     private final ProductService productService;
     private final OrderService orderService;
+    private final HotStockService hotStockService;
 
     @GetMapping("/users")
     public ResponseEntity<?> getUser(@RequestParam(value = "page", defaultValue = "0") int page,
@@ -56,7 +58,11 @@ public class AdminController {
                                      @RequestParam(value = "search", defaultValue = "") String search,
                                      @RequestParam(value = "minPrice", defaultValue = "0") int minPrice,
                                      @RequestParam(value = "maxPrice", defaultValue = "9999") int maxPrice,
-                                     @RequestParam(value = "categories", defaultValue = "", required = false) List<String> categories){
+                                     @RequestParam(value = "categories", defaultValue = "", required = false) List<String> categories,
+                                     @RequestParam(value = "cursor", required = false) String cursor){
+        if (cursor != null) {
+            return ResponseEntity.ok(productService.getProductsAfter(cursor, size, sort, direction, search, minPrice, maxPrice, categories, true));
+        }
         return ResponseEntity.ok(productService.getProducts(page, size, sort, direction, search, minPrice, maxPrice, categories, true));
     }
 
@@ -70,6 +76,23 @@ public class AdminController {
         return ResponseEntity.ok(productService.changeProductAvailability(id, available));
     }
 
+    @GetMapping("/products/hot")
+    public ResponseEntity<?> getHotProducts() {
+        return ResponseEntity.ok(hotStockService.getHotIds());
+    }
+
+    @PostMapping("/products/{id}/hot")
+    public ResponseEntity<?> enableHotStock(@PathVariable String id) {
+        hotStockService.enable(id);
+        return ResponseEntity.ok(new SuccessResponse("Product stock moved to redis"));
+    }
+
+    @DeleteMapping("/products/{id}/hot")
+    public ResponseEntity<?> disableHotStock(@PathVariable String id) {
+        hotStockService.disable(id);
+        return ResponseEntity.ok(new SuccessResponse("Product stock moved back to database"));
+    }
+
     @PostMapping(value = "/products", consumes = MediaType.MULTIPART_FORM_DATA_VALUE)
     public ResponseEntity<?> addProduct(@RequestPart("product") String productJson,
                                         @RequestPart(value = "file", required = false) MultipartFile file) {
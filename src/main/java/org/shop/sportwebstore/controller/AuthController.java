@@ -20,8 +20,9 @@ public class AuthController {
     private final UserService userService;
 
     @PostMapping("/login")
-    public ResponseEntity<?> login(@RequestBody AuthUser authRequest, HttpServletResponse response) {
-        return ResponseEntity.ok(userService.login(authRequest, response));
+    public ResponseEntity<?> login(@RequestBody AuthUser authRequest, HttpServletRequest request,
+                                   HttpServletResponse response) {
+        return ResponseEntity.ok(userService.login(authRequest, request, response));
     }
 
     @PostMapping("/recovery-password")
@@ -46,6 +47,13 @@ public class AuthController {
         return ResponseEntity.noContent().build();
     }
 
+    @PostMapping("/logout-all")
+    @PreAuthorize("isAuthenticated()")
+    public ResponseEntity<?> logoutEverywhere(HttpServletResponse response, HttpServletRequest request) {
+        userService.logoutEverywhere(response, request);
+        return ResponseEntity.noContent().build();
+    }
+
     @GetMapping("/activate/{activationCode}")
     public ResponseEntity<?> activate(@PathVariable String activationCode) {
         return ResponseEntity.ok(userService.activate(activationCode));
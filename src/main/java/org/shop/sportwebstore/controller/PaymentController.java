@@ -4,10 +4,11 @@ import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.shop.sportwebstore.model.dto.OrderDto;
 import org.shop.sportwebstore.model.dto.UrlPaymentResponse;
+import org.shop.sportwebstore.service.store.IdempotencyService;
 import org.shop.sportwebstore.service.store.PaymentService;
+import org.shop.sportwebstore.service.store.WebhookInbox;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
-import org.springframework.scheduling.annotation.Async;
 import org.springframework.security.access.prepost.PreAuthorize;
 import org.springframework.web.bind.annotation.*;
 
@@ -19,17 +20,25 @@ import org.springframework.web.bind.annotation.*;
 public class PaymentController {
 
     private final PaymentService paymentService;
+    private final IdempotencyService idempotencyService;
+    private final WebhookInbox webhookInbox;
 
     @PostMapping("/create")
     @PreAuthorize("isAuthenticated()")
-    public ResponseEntity<?> createPayment(@RequestBody OrderDto orderDto) {
-        return new ResponseEntity<>(new UrlPaymentResponse(paymentService.createPayment(orderDto)), HttpStatus.CREATED);
+    public ResponseEntity<?> createPayment(@RequestBody OrderDto orderDto,
+                                           @RequestHeader(value = IdempotencyService.HEADER, required = false) String idempotencyKey) {
+        String url = idempotencyService.execute("create", idempotencyKey, orderDto,
+                () -> paymentService.createPayment(orderDto));
+        return new ResponseEntity<>(new UrlPaymentResponse(url), HttpStatus.CREATED);
     }
 
     @PostMapping("/repay")
     @PreAuthorize("isAuthenticated()")
-    public ResponseEntity<?> createRepayment(@RequestBody String orderId) {
-            return ResponseEntity.ok(new UrlPaymentResponse(paymentService.createRepayment(orderId)));
+    public ResponseEntity<?> createRepayment(@RequestBody String orderId,
+                                             @RequestHeader(value = IdempotencyService.HEADER, required = false) String idempotencyKey) {
+        String url = idempotencyService.execute("repay", idempotencyKey, orderId,
+                () -> paymentService.createRepayment(orderId));
+        return ResponseEntity.ok(new UrlPaymentResponse(url));
     }
 
     @GetMapping("/summary")
@@ -44,14 +53,10 @@ public class PaymentController {
         return ResponseEntity.noContent().build();
     }
 
-    @Async
     @PostMapping("/webhook")
-    public void webhook(@RequestBody String payload,
+    public ResponseEntity<?> webhook(@RequestBody String payload,
                                      @RequestHeader("Stripe-Signature") String signature) {
-        try {
-            paymentService.webhook(payload, signature);
-        } catch (Exception e) {
-            log.info("Error during webhook: {}", e.getMessage());
-        }
+        webhookInbox.receive(payload, signature);
+        return ResponseEntity.ok().build();
     }
 }
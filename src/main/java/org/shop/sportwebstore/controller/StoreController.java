@@ -7,7 +7,6 @@ import lombok.RequiredArgsConstructor;
 import org.shop.sportwebstore.model.dto.RateProductDto;
 import org.shop.sportwebstore.service.store.CartService;
 import org.shop.sportwebstore.service.store.ProductService;
-import org.springframework.cache.annotation.Cacheable;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.access.prepost.PreAuthorize;
 import org.springframework.web.bind.annotation.*;
@@ -32,13 +31,18 @@ public class StoreController {
                                          @RequestParam(value = "search", defaultValue = "") String search,
                                          @RequestParam(value = "minPrice", defaultValue = "0") @Min(0) int minPrice,
                                          @RequestParam(value = "maxPrice", defaultValue = "9999") @Max(9999) int maxPrice,
-                                         @RequestParam(value = "categories", defaultValue = "", required = false) List<String> categories) {
+                                         @RequestParam(value = "categories", defaultValue = "", required = false) List<String> categories,
+                                         @RequestParam(value = "cursor", required = false) String cursor) {
+        if (cursor != null) {
+            return ResponseEntity
+                    .ok(productService
+                            .getProductsAfter(cursor, size, sort, direction, search, minPrice, maxPrice, categories, false));
+        }
         return ResponseEntity
                 .ok(productService
                         .getProducts(page, size, sort, direction, search, minPrice, maxPrice, categories, false));
     }
 
-    @Cacheable("maxPrice")
     @GetMapping("/max-price")
     public ResponseEntity<?> getMaxPrice() {
         return ResponseEntity.ok(Map.of("maxPrice", productService.getMaxPrice()));
@@ -0,0 +1,7 @@
+package org.shop.sportwebstore.exception;
+
+public class IdempotencyException extends ShopException {
+    public IdempotencyException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,16 @@
+package org.shop.sportwebstore.exception;
+
+import lombok.Getter;
+
+@Getter
+public class PaymentUnavailableException extends PaymentException {
+    /**
+     * seconds the client should wait before retrying
+     */
+    private final long retryAfter;
+
+    public PaymentUnavailableException(String message, long retryAfter) {
+        super(message);
+        this.retryAfter = retryAfter;
+    }
+}
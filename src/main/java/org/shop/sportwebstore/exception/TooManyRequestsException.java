@@ -0,0 +1,16 @@
+package org.shop.sportwebstore.exception;
+
+import lombok.Getter;
+
+@Getter
+public class TooManyRequestsException extends ShopException {
+    /**
+     * seconds the client should wait before retrying
+     */
+    private final long retryAfter;
+
+    public TooManyRequestsException(String message, long retryAfter) {
+        super(message);
+        this.retryAfter = retryAfter;
+    }
+}
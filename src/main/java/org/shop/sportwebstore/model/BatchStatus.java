@@ -0,0 +1,7 @@
+package org.shop.sportwebstore.model;
+
+public enum BatchStatus {
+    RUNNING,
+    COMPLETED,
+    FAILED
+}
@@ -0,0 +1,7 @@
+package org.shop.sportwebstore.model;
+
+public enum ReservationStatus {
+    HELD,
+    COMMITTED,
+    RELEASED
+}
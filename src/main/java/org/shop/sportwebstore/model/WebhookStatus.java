@@ -0,0 +1,8 @@
+package org.shop.sportwebstore.model;
+
+public enum WebhookStatus {
+    PENDING,
+    PROCESSING,
+    DONE,
+    DEAD
+}
@@ -2,7 +2,12 @@ package org.shop.sportwebstore.model.dto;
 
 import lombok.Builder;
 import lombok.Data;
+import org.shop.sportwebstore.exception.ProductException;
+import org.shop.sportwebstore.model.ProductInOrder;
+import org.shop.sportwebstore.model.entity.Product;
+
 import java.math.BigDecimal;
+import java.util.List;
 
 @Data
 @Builder
@@ -0,0 +1,16 @@
+package org.shop.sportwebstore.model.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.Setter;
+
+import java.math.BigDecimal;
+
+@Getter
+@Setter
+@AllArgsConstructor
+public class PriceBucket {
+    private BigDecimal min;
+    private BigDecimal max;
+    private long count;
+}
@@ -0,0 +1,45 @@
+package org.shop.sportwebstore.model.dto;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.io.IOException;
+import java.util.Base64;
+
+/**
+ * Opaque continuation token for keyset pagination. Holds the sort key and id of the
+ * last product of the previous page, plus the total computed for the first page so
+ * later pages don't have to count again.
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class ProductCursor {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private String sort;
+    private String direction;
+    private String value;
+    private String id;
+    private long total;
+    private boolean estimated;
+
+    public String encode() {
+        try {
+            return Base64.getUrlEncoder().withoutPadding().encodeToString(MAPPER.writeValueAsBytes(this));
+        } catch (IOException e) {
+            throw new IllegalStateException("Cannot encode cursor.", e);
+        }
+    }
+
+    public static ProductCursor decode(String token) {
+        try {
+            return MAPPER.readValue(Base64.getUrlDecoder().decode(token), ProductCursor.class);
+        } catch (IllegalArgumentException | IOException e) {
+            throw new IllegalArgumentException("Invalid cursor.");
+        }
+    }
+}
@@ -0,0 +1,17 @@
+package org.shop.sportwebstore.model.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+import java.util.List;
+
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+public class ProductDetailsDto {
+    private ProductDto product;
+    private List<ProductDto> relatedProducts;
+}
@@ -4,6 +4,7 @@ import lombok.Getter;
 import lombok.Setter;
 
 import java.util.List;
+import java.util.Map;
 
 @Getter
 @Setter
@@ -11,7 +12,14 @@ public class ProductsListInfo {
 
     private List<ProductDto> products;
     private long totalElements;
+    private boolean totalEstimated;
+    /**
+     * always sent, null on the last page and for offset paging
+     */
+    private String nextCursor;
     private List<String> categories;
+    private Map<String, Long> categoryCounts;
+    private List<PriceBucket> priceHistogram;
 
     public ProductsListInfo(List<ProductDto> products, long totalElements) {
         this.products = products;
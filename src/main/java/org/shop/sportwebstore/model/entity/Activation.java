@@ -6,6 +6,7 @@ import lombok.NoArgsConstructor;
 import org.hibernate.validator.constraints.UniqueElements;
 import org.shop.sportwebstore.model.ActivationType;
 import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.Indexed;
 import org.springframework.data.mongodb.core.mapping.Document;
 
 import java.time.LocalDateTime;
@@ -23,6 +24,7 @@ public class Activation {
     private String userId;
     private ActivationType type;
     private LocalDateTime createdAt;
+    @Indexed(name = "expiresAt")
     private LocalDateTime expiresAt;
 
     public Activation(String userId, ActivationType type) {
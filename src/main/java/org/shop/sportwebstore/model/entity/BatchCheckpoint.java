@@ -0,0 +1,50 @@
+package org.shop.sportwebstore.model.entity;
+
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.shop.sportwebstore.model.BatchStatus;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Progress of the last run of a {@code BatchJob}, one document per job, saved after every chunk.
+ */
+@Document(collection = "batch_checkpoints")
+@Data
+@NoArgsConstructor
+public class BatchCheckpoint {
+    /**
+     * the job name
+     */
+    @Id
+    private String id;
+    private BatchStatus status;
+    /**
+     * cutoff of the run, kept when a broken run is resumed so it reads the same items
+     */
+    private Date runStartedAt;
+    /**
+     * sort key of the last written item, null until the first chunk or for jobs consuming what they read
+     */
+    private Object resumeAfter;
+    /**
+     * split keys of a sharded run, kept in the job's own checkpoint; shard {@code i} takes the keys from
+     * {@code bounds[i - 1]} up to {@code bounds[i]} and has its checkpoint under {@code name#i}
+     */
+    private List<Object> bounds;
+    private long processed;
+    private int chunks;
+    private Date updatedAt;
+    private Date finishedAt;
+    private String lastError;
+
+    public BatchCheckpoint(String id, Date runStartedAt) {
+        this.id = id;
+        this.status = BatchStatus.RUNNING;
+        this.runStartedAt = runStartedAt;
+        this.updatedAt = runStartedAt;
+    }
+}
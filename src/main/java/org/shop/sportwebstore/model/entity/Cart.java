@@ -12,6 +12,7 @@ public class Cart {
     private String userId;
     private Map<String, Integer> products;
     private boolean isOrderProcessing = false;
+    private String reservationId;
     private Date lastModified = Date.from(java.time.Instant.now());
 
     public void setOrderProcessing(boolean orderProcessing) {
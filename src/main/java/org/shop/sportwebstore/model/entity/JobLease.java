@@ -0,0 +1,32 @@
+package org.shop.sportwebstore.model.entity;
+
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.util.Date;
+
+/**
+ * Which node runs a scheduled job, or one key range of it, right now. Kept after release so the last
+ * owner stays visible.
+ */
+@Document(collection = "job_leases")
+@Data
+@NoArgsConstructor
+public class JobLease {
+    /**
+     * job name, {@code name#shard} for a key range of a sharded run
+     */
+    @Id
+    private String id;
+    private String owner;
+    private Date acquiredAt;
+    private Date renewedAt;
+    /**
+     * free for any node once passed, a released lease expires right away
+     */
+    private Date expiresAt;
+    private boolean released;
+    private long acquisitions;
+}
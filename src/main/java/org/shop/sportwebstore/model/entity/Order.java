@@ -6,14 +6,18 @@ import org.shop.sportwebstore.model.OrderStatus;
 import org.shop.sportwebstore.model.ProductInOrder;
 import org.shop.sportwebstore.model.ShippingAddress;
 import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.index.Indexed;
 import org.springframework.data.mongodb.core.mapping.Document;
 
 import java.math.BigDecimal;
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
 
 @Document(collection = "orders")
+@CompoundIndex(name = "status_orderDate", def = "{'status': 1, 'orderDate': 1}")
 @NoArgsConstructor
 @AllArgsConstructor
 @Getter
@@ -21,6 +25,15 @@ import java.util.List;
 @ToString(exclude = {"products"})
 public class Order {
 
+    /**
+     * time a paid order spends in each status before the scheduler moves it on
+     */
+    public static final Duration STATUS_CHANGE = Duration.ofDays(2);
+    /**
+     * failed restocks after which an unpaid order is left to an operator instead of being retried
+     */
+    public static final int MAX_RESTOCK_ATTEMPTS = 5;
+
     @Id
     private String id;
     @NotNull(message = "User id is required.")
@@ -36,6 +49,26 @@ public class Order {
     private BigDecimal totalPrice;
     private String sessionId;
     private boolean emailSent = false;
+    /**
+     * set together with {@code emailSent} by the node that claims the delivered email
+     */
+    private String emailClaim;
+    /**
+     * set on an unpaid order before its stock is given back and kept until it is deleted, so it is never
+     * restocked twice; removed again when the restock fails, which counts in {@code restockAttempts}
+     */
+    private String restockClaim;
+    private int restockAttempts;
+    /**
+     * effects of the payment, recorded one by one so a retried webhook finishes those that didn't happen
+     */
+    private boolean soldCounted = false;
+    private boolean confirmationQueued = false;
+    /**
+     * unset for created and final orders, which keeps them out of the index the scheduler reads
+     */
+    @Indexed(name = "nextTransitionAt", sparse = true)
+    private Date nextTransitionAt;
 
     public Order(List<ProductInOrder> products, String userId, ShippingAddress address, BigDecimal price, String paymentMethod) {
         this.products = products;
@@ -49,20 +82,34 @@ public class Order {
     public void setNewStatus(OrderStatus status) {
         this.status = status;
         this.lastModified = Date.from(java.time.Instant.now());
+        this.nextTransitionAt = transitionAt(status, lastModified);
+        if (status == OrderStatus.DELIVERED) {
+            this.deliveryDate = lastModified;
+        }
     }
 
-    public void setNextStatus() {
-        int random = (int) (Math.random() * 13.0) + 1;
-        switch (this.status) {
-            case PROCESSING -> this.setNewStatus(random == 13 ? OrderStatus.ANNULLED : OrderStatus.SHIPPING);
-            case SHIPPING -> this.setNewStatus(random == 13 ? OrderStatus.ANNULLED : OrderStatus.DELIVERED);
-            case DELIVERED -> {
-                if (random == 13) {
-                    this.setNewStatus(OrderStatus.REFUNDED);
-                }
-                this.setDeliveryDate(Date.from(java.time.Instant.now()));
-            }
-        }
+    /**
+     * Status the scheduler moves the order to once {@code nextTransitionAt} passes. A delivered order
+     * gets one last check for a refund, keeping {@link OrderStatus#DELIVERED} means it is final.
+     */
+    public OrderStatus nextStatus() {
+        boolean unlucky = (int) (Math.random() * 13.0) + 1 == 13;
+        return switch (this.status) {
+            case PROCESSING -> unlucky ? OrderStatus.ANNULLED : OrderStatus.SHIPPING;
+            case SHIPPING -> unlucky ? OrderStatus.ANNULLED : OrderStatus.DELIVERED;
+            case DELIVERED -> unlucky ? OrderStatus.REFUNDED : OrderStatus.DELIVERED;
+            default -> this.status;
+        };
+    }
+
+    /**
+     * when an order entering {@code status} is due for its next transition, null once nothing happens to it anymore
+     */
+    public static Date transitionAt(OrderStatus status, Date enteredAt) {
+        return switch (status) {
+            case PROCESSING, SHIPPING, DELIVERED -> new Date(enteredAt.getTime() + STATUS_CHANGE.toMillis());
+            default -> null;
+        };
     }
 
     @Override
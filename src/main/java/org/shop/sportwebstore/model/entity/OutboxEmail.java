@@ -0,0 +1,52 @@
+package org.shop.sportwebstore.model.entity;
+
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.shop.sportwebstore.model.OutboxStatus;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.index.Indexed;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.util.Date;
+
+/**
+ * A rendered email waiting to be sent by {@code EmailOutbox}.
+ */
+@Document(collection = "email_outbox")
+@CompoundIndex(name = "status_nextAttemptAt", def = "{'status': 1, 'nextAttemptAt': 1}")
+@Data
+@NoArgsConstructor
+public class OutboxEmail {
+    @Id
+    private String id;
+    private String recipient;
+    private String subject;
+    private String html;
+    /**
+     * what the email is about, e.g. {@code order}, only used for logs and metrics
+     */
+    private String kind;
+    private OutboxStatus status = OutboxStatus.PENDING;
+    private int attempts;
+    private Date createdAt;
+    private Date nextAttemptAt;
+    /**
+     * a sender that dies mid batch leaves its emails SENDING, they are claimed again once this passes
+     */
+    private Date lockedUntil;
+    @Indexed(name = "claim")
+    private String claim;
+    @Indexed(name = "sentAt_ttl", expireAfter = "7d")
+    private Date sentAt;
+    private String lastError;
+
+    public OutboxEmail(String recipient, String subject, String html, String kind, Date createdAt) {
+        this.recipient = recipient;
+        this.subject = subject;
+        this.html = html;
+        this.kind = kind;
+        this.createdAt = createdAt;
+        this.nextAttemptAt = createdAt;
+    }
+}
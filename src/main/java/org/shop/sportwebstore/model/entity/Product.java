@@ -3,19 +3,30 @@ package org.shop.sportwebstore.model.entity;
 import lombok.Getter;
 import lombok.Setter;
 import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.index.CompoundIndexes;
 import org.springframework.data.mongodb.core.index.Indexed;
 import org.springframework.data.mongodb.core.mapping.Document;
 import org.springframework.data.mongodb.core.mapping.Field;
 import org.springframework.data.mongodb.core.mapping.FieldType;
 
 import java.math.BigDecimal;
+import java.util.Date;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.Set;
 
 @Getter
 @Setter
 @Document(collection = "products")
+@CompoundIndexes({
+        @CompoundIndex(name = "name_id", def = "{'name': 1, '_id': 1}"),
+        @CompoundIndex(name = "price_id", def = "{'price': 1, '_id': 1}"),
+        @CompoundIndex(name = "amountLeft_id", def = "{'amountLeft': 1, '_id': 1}"),
+        @CompoundIndex(name = "orders_id", def = "{'orders': 1, '_id': 1}"),
+        @CompoundIndex(name = "categories_name", def = "{'categories.name': 1}")
+})
 public class Product {
 
     @Id
@@ -37,6 +48,23 @@ public class Product {
     private Map<Integer, Double> ratings;
     private int orders;
     private List<Category> categories;
+    /**
+     * ids of the reservations currently holding stock of this product
+     */
+    @Indexed(sparse = true)
+    private Set<String> reservations;
+    /**
+     * stock is held in redis counters while true, amountLeft is written back in batches
+     */
+    private boolean hotStock;
+    /**
+     * when hotStock was set, a flag younger than the enable grace period may still be waiting for its redis counter
+     */
+    private Date hotSince;
+    /**
+     * id of the last redis write-back batch applied to amountLeft
+     */
+    private long stockBatch;
 
     @Override
     public boolean equals(Object o) {
@@ -0,0 +1,48 @@
+package org.shop.sportwebstore.model.entity;
+
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.shop.sportwebstore.model.ReservationStatus;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Ledger entry of the stock held for one checkout of a cart.
+ * Products taking part in the reservation carry its id in {@link Product#getReservations()}
+ * until it is committed or released.
+ */
+@Document(collection = "reservations")
+@CompoundIndex(name = "status_createdAt", def = "{'status': 1, 'createdAt': 1}")
+@Data
+@NoArgsConstructor
+public class Reservation {
+    @Id
+    private String id;
+    private String userId;
+    /**
+     * product id -> held quantity
+     */
+    private Map<String, Integer> items = new HashMap<>();
+    /**
+     * lines of hot products, held in redis counters instead of the product documents
+     */
+    private Map<String, Integer> hotItems = new HashMap<>();
+    private ReservationStatus status = ReservationStatus.HELD;
+    /**
+     * set by {@code releaseAll} so it can tell which reservations it released itself
+     */
+    private String releaseClaim;
+    private Date createdAt = Date.from(java.time.Instant.now());
+    private Date lastModified = Date.from(java.time.Instant.now());
+
+    public Reservation(String userId, Map<String, Integer> items, Map<String, Integer> hotItems) {
+        this.userId = userId;
+        this.items = new HashMap<>(items);
+        this.hotItems = new HashMap<>(hotItems);
+    }
+}
@@ -32,6 +32,10 @@ public class User {
     private Roles role = Roles.ROLE_CUSTOMER;
     @Builder.Default
     private boolean enabled = false;
+    /**
+     * bumped on every role change, tokens carry the value they were issued with
+     */
+    private long roleVersion;
 
     @Override
     public boolean equals(Object o) {
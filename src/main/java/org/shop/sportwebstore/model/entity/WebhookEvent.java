@@ -0,0 +1,51 @@
+package org.shop.sportwebstore.model.entity;
+
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.shop.sportwebstore.model.WebhookStatus;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.index.Indexed;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.util.Date;
+
+/**
+ * A Stripe event waiting in the inbox. The id is Stripe's event id, so a redelivered event
+ * is rejected by the primary key instead of being processed twice.
+ */
+@Document(collection = "webhook_inbox")
+@CompoundIndex(name = "status_nextAttemptAt", def = "{'status': 1, 'nextAttemptAt': 1}")
+@Data
+@NoArgsConstructor
+public class WebhookEvent {
+    @Id
+    private String id;
+    private String type;
+    /**
+     * raw JSON of the event's data object
+     */
+    private String data;
+    private WebhookStatus status = WebhookStatus.PENDING;
+    private int attempts;
+    private Date receivedAt;
+    private Date nextAttemptAt;
+    /**
+     * a worker that dies mid event leaves it PROCESSING, it is picked up again once this passes
+     */
+    private Date lockedUntil;
+    /**
+     * processed events are kept long enough to recognise Stripe's redeliveries, then dropped
+     */
+    @Indexed(name = "processedAt_ttl", expireAfter = "30d")
+    private Date processedAt;
+    private String lastError;
+
+    public WebhookEvent(String id, String type, String data, Date receivedAt) {
+        this.id = id;
+        this.type = type;
+        this.data = data;
+        this.receivedAt = receivedAt;
+        this.nextAttemptAt = receivedAt;
+    }
+}
@@ -6,17 +6,14 @@ import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.mongodb.repository.MongoRepository;
 
-import java.util.Date;
 import java.util.List;
 import java.util.Optional;
 
 public interface OrderRepository extends MongoRepository<Order, String> {
 
-    List<Order> findAllByStatusIsNotAndLastModifiedBefore(OrderStatus status, Date lastModified);
     Optional<Order> findBySessionId(String sessionId);
     List<Order> findAllByUserId(String userId);
     Optional<Order> findByIdAndUserId(String id, String id1);
-    List<Order> findAllByStatusAndOrderDateBefore(OrderStatus status, Date orderDate);
 
     Page<Order> findAllByStatus(OrderStatus orderStatus, Pageable pageable);
 }
@@ -1,6 +1,5 @@
 package org.shop.sportwebstore.repository;
 
-import org.shop.sportwebstore.model.entity.Category;
 import org.shop.sportwebstore.model.entity.Product;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
@@ -11,6 +10,7 @@ import org.springframework.data.mongodb.repository.Update;
 import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
+import java.util.stream.Stream;
 
 public interface ProductRepository extends MongoRepository<Product, String> {
 
@@ -20,13 +20,36 @@ public interface ProductRepository extends MongoRepository<Product, String> {
     @Query("{ 'name': { '$regex': ?0, '$options': 'i' }, available: {$in: [true, ?1]}, price: {$gte: ?2, $lte: ?3} }")
     Page<Product> findByNameMatchesRegexIgnoreCase(String name, boolean available, int minPrice, int maxPrice, Pageable pageable);
 
+    @Query("{ '_id': { '$in': ?0 }, 'categories.name': { '$in': ?1 }, available: {$in: [true, ?2]}, price: {$gte: ?3, $lte: ?4} }")
+    Page<Product> findByIdInAndCategoriesIn(Collection<String> ids, List<String> categories, boolean available, int minPrice, int maxPrice, Pageable pageable);
+
+    @Query("{ '_id': { '$in': ?0 }, available: {$in: [true, ?1]}, price: {$gte: ?2, $lte: ?3} }")
+    Page<Product> findByIdIn(Collection<String> ids, boolean available, int minPrice, int maxPrice, Pageable pageable);
+
+    @Query(value = "{ '_id': { '$in': ?0 }, 'categories.name': { '$in': ?1 }, available: {$in: [true, ?2]}, price: {$gte: ?3, $lte: ?4} }", fields = "{ '_id': 1 }")
+    List<Product> findIdsByIdInAndCategoriesIn(Collection<String> ids, List<String> categories, boolean available, int minPrice, int maxPrice);
+
+    @Query(value = "{ '_id': { '$in': ?0 }, available: {$in: [true, ?1]}, price: {$gte: ?2, $lte: ?3} }", fields = "{ '_id': 1 }")
+    List<Product> findIdsByIdIn(Collection<String> ids, boolean available, int minPrice, int maxPrice);
+
+    @Query("{ 'categories.name': { '$in': ?0 }, available: {$in: [true, ?1]}, price: {$gte: ?2, $lte: ?3} }")
+    Page<Product> findByCategoriesIn(List<String> categories, boolean available, int minPrice, int maxPrice, Pageable pageable);
+
+    @Query("{ available: {$in: [true, ?0]}, price: {$gte: ?1, $lte: ?2} }")
+    Page<Product> findByPriceRange(boolean available, int minPrice, int maxPrice, Pageable pageable);
+
+    @Query(value = "{ '_id': { '$in': ?0 } }", fields = "{ '_id': 1, 'name': 1 }")
+    List<Product> findNamesByIdIn(Collection<String> ids);
+
+    Stream<Product> streamAllBy();
+
     Product findTopByAvailableTrueAndAmountLeftGreaterThanOrderByPriceDesc(int amount);
 
     List<Product> findTop9ByAvailableTrueOrderByOrdersDesc();
 
     Optional<Product> findByIdAndAvailableTrue(String id);
 
-    List<Product> findTop4ByCategoriesInAndIdNotAndAvailableTrue(Collection<List<Category>> categories, String id);
+    List<Product> findTop4ByCategoriesNameInAndIdNotAndAvailableTrue(Collection<String> categoryNames, String id);
     Optional<Product> findByIdAndAmountLeftIsGreaterThanAndAvailableTrue(String id, int amountLeft);
 
     @Query("{ 'id': { '$eq': ?0 } }")
@@ -37,8 +60,4 @@ public interface ProductRepository extends MongoRepository<Product, String> {
     @Update("{ $inc: { orders: ?1 } }")
     void incrementSoldById(String productId, int amountItems);
 
-    @Query("{ 'id': { '$eq': ?0 } }")
-    @Update("{ $inc: { amountLeft: ?1 } }")
-    void decrementAmountLeftById(String id, int amountLeft);
-
 }
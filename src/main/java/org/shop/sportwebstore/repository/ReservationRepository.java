@@ -0,0 +1,7 @@
+package org.shop.sportwebstore.repository;
+
+import org.shop.sportwebstore.model.entity.Reservation;
+import org.springframework.data.mongodb.repository.MongoRepository;
+
+public interface ReservationRepository extends MongoRepository<Reservation, String> {
+}
@@ -10,7 +10,6 @@ public final class ConstantStrings {
     public static final String ORDER_EMAIL_SUBJECT = "Your order - Sport Store";
 
     public static final Duration ORDER_EXPIRATION = Duration.ofMinutes(30);
-    public static final Duration ORDER_CHANGE = Duration.ofDays(2);
     public static final Duration ORDER_DELETE = Duration.ofDays(1);
     public static final BigDecimal STANDARD_SHIPPING = BigDecimal.ZERO;
     public static final BigDecimal EXPRESS_SHIPPING = new BigDecimal("10.00");
@@ -20,11 +19,11 @@ public final class ConstantStrings {
         <body>
             <h2 style="color: #007bff;">Welcome to our store!</h2>
             <p>Click the button below to activate your account:</p>
-            <p><a href='%s' style='display: inline-block; padding: 10px 20px; background-color: #28a745;
+            <p><a href='{{link}}' style='display: inline-block; padding: 10px 20px; background-color: #28a745;
              color: white; text-decoration: none; border-radius: 5px;'>Activate Account</a></p>
-            <p>Code will expire  %s</p>
+            <p>Code will expire  {{expiration}}</p>
             <p>If the button doesn't work, use the following link:</p>
-            <p><a href='%s'>%s</a></p>
+            <p><a href='{{link}}'>{{link}}</a></p>
             <p>Best regards,<br>Sport Store</p>
         </body>
         </html>
@@ -34,35 +33,35 @@ public final class ConstantStrings {
         <body>
             <h2 style="color: #007bff;">Reset your password</h2>
             <p>Click the button below to reset your password:</p>
-            <p><a href='%s' style='display: inline-block; padding: 10px 20px; background-color: #28a745;
+            <p><a href='{{link}}' style='display: inline-block; padding: 10px 20px; background-color: #28a745;
              color: white; text-decoration: none; border-radius: 5px;'>Reset Password</a></p>
-             <p>Code will expire  %s</p>
+             <p>Code will expire  {{expiration}}</p>
             <p>If the button doesn't work, use the following link:</p>
-            <p><a href='%s'>%s</a></p>
+            <p><a href='{{link}}'>{{link}}</a></p>
             <p>Best regards,<br>Sport Store</p>
         </body>
         </html>
         """;
 
-    public static String ORDER_SUMMARY_EMAIL_BODY = """
+    public static final String ORDER_SUMMARY_EMAIL_BODY = """
     <html>
     <body style="font-family: Arial, sans-serif; color: #333; line-height: 1.6;">
         <div style="max-width: 600px; margin: 0 auto; padding: 20px; border: 1px solid #ddd; border-radius: 10px;">
             <h2 style="color: #007bff; text-align: center;">Thank you for your order!</h2>
-            <p>Dear %s</p>
+            <p>Dear {{fullName}}</p>
             <p>We are pleased to confirm your order with the following details:</p>
     
             <div style="background-color: #f9f9f9; padding: 15px; border-radius: 5px; margin-bottom: 20px;">
                 <h3 style="color: #007bff; margin-bottom: 10px;">Order Summary</h3>
-                <p><strong>Order ID:</strong> %s</p>
-                <p><strong>Order Date:</strong> %s</p>
-                <p><strong>Total Amount:</strong> %s€</p>
+                <p><strong>Order ID:</strong> {{orderId}}</p>
+                <p><strong>Order Date:</strong> {{orderDate}}</p>
+                <p><strong>Total Amount:</strong> {{totalPrice}}€</p>
             </div>
     
             <div style="background-color: #f9f9f9; padding: 15px; border-radius: 5px; margin-bottom: 20px;">
                 <h3 style="color: #007bff; margin-bottom: 10px;">Billing Details</h3>
-                <p><strong>Name:</strong> %s %s</p>
-                <p><strong>Address:</strong> %s, %s, %s, %s</p>
+                <p><strong>Name:</strong> {{firstName}} {{lastName}}</p>
+                <p><strong>Address:</strong> {{address}}, {{city}}, {{zipCode}}, {{country}}</p>
             </div>
     
             <div style="background-color: #f9f9f9; padding: 15px; border-radius: 5px; margin-bottom: 20px;">
@@ -76,7 +75,7 @@ public final class ConstantStrings {
                         </tr>
                     </thead>
                     <tbody>
-                        %s
+                        {{items}}
                     </tbody>
                 </table>
             </div>
@@ -87,35 +86,43 @@ public final class ConstantStrings {
             <p>Best regards,<br><strong>Sport Store Team</strong></p>
    
             <div style="text-align: center; margin-top: 20px;">
-                <a href="%s" style="display: inline-block; padding: 10px 20px; background-color: #28a745; color: white; text-decoration: none; border-radius: 5px;">View Your Order</a>
+                <a href="{{orderUrl}}" style="display: inline-block; padding: 10px 20px; background-color: #28a745; color: white; text-decoration: none; border-radius: 5px;">View Your Order</a>
             </div>
         </div>
     </body>
     </html>
     """;
 
+    public static final String ORDER_ITEM_ROW = """
+                        <tr>
+                            <td style="padding: 10px; border-bottom: 1px solid #ddd;">{{name}}</td>
+                            <td style="padding: 10px; border-bottom: 1px solid #ddd;">{{amount}}</td>
+                            <td style="padding: 10px; border-bottom: 1px solid #ddd;">{{price}}€</td>
+                        </tr>
+                        """;
+
     public static final String ORDER_EMAIL_BODY = """
     <html>
     <body style="font-family: Arial, sans-serif; color: #333; line-height: 1.6;">
         <div style="max-width: 600px; margin: 0 auto; padding: 20px; border: 1px solid #ddd; border-radius: 10px;">
             <h2 style="color: #007bff; text-align: center;">Thank you for your order!</h2>
-            <p>Dear %s,</p>
+            <p>Dear {{firstName}},</p>
             <p>We are pleased to confirm your order with the following details:</p>
 
             <div style="background-color: #f9f9f9; padding: 15px; border-radius: 5px; margin-bottom: 20px;">
                 <h3 style="color: #007bff; margin-bottom: 10px;">Order Summary</h3>
-                <p><strong>Order ID:</strong> %s</p>
-                <p><strong>Order Date:</strong> %s</p>
-                <p><strong>Total Amount:</strong> %s</p>
+                <p><strong>Order ID:</strong> {{orderId}}</p>
+                <p><strong>Order Date:</strong> {{orderDate}}</p>
+                <p><strong>Total Amount:</strong> {{totalPrice}}</p>
             </div>
 
             <div style="background-color: #f9f9f9; padding: 15px; border-radius: 5px; margin-bottom: 20px;">
                 <h3 style="color: #007bff; margin-bottom: 10px;">Billing Details</h3>
-                <p><strong>Name:</strong> %s %s</p>
-                <p><strong>Address:</strong> %s, %s, %s, %s</p>
+                <p><strong>Name:</strong> {{firstName}} {{lastName}}</p>
+                <p><strong>Address:</strong> {{address}}, {{city}}, {{zipCode}}, {{country}}</p>
             </div>
 
-            <p>You can track your order status in your <a href="%s" style="color: #007bff; text-decoration: none;">profile</a>.</p>
+            <p>You can track your order status in your <a href="{{profileUrl}}" style="color: #007bff; text-decoration: none;">profile</a>.</p>
 
             <p>If you have any questions, feel free to contact our support team at <a href="mailto:support@sportstore.com" style="color: #007bff; text-decoration: none;">support@sportstore.com</a>.</p>
 
@@ -123,7 +130,7 @@ public final class ConstantStrings {
             <p>Best regards,<br><strong>Sport Store Team</strong></p>
 
             <div style="text-align: center; margin-top: 20px;">
-                <a href="%s" style="display: inline-block; padding: 10px 20px; background-color: #28a745; color: white; text-decoration: none; border-radius: 5px;">View Your Order</a>
+                <a href="{{orderUrl}}" style="display: inline-block; padding: 10px 20px; background-color: #28a745; color: white; text-decoration: none; border-radius: 5px;">View Your Order</a>
             </div>
         </div>
     </body>
@@ -4,22 +4,35 @@ import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.shop.sportwebstore.model.ActivationType;
 import org.shop.sportwebstore.model.OrderStatus;
+import org.shop.sportwebstore.model.ReservationStatus;
 import org.shop.sportwebstore.model.entity.Activation;
 import org.shop.sportwebstore.model.entity.Cart;
 import org.shop.sportwebstore.model.entity.Order;
-import org.shop.sportwebstore.model.entity.Product;
+import org.shop.sportwebstore.model.entity.Reservation;
 import org.shop.sportwebstore.repository.*;
+import org.shop.sportwebstore.service.batch.BatchRunner;
+import org.shop.sportwebstore.service.batch.MongoBatchJob;
+import org.shop.sportwebstore.service.batch.PagedBatchJob;
+import org.shop.sportwebstore.service.catalog.ProductCatalog;
+import org.shop.sportwebstore.service.catalog.RelatedProducts;
 import org.shop.sportwebstore.service.store.CartService;
 import org.shop.sportwebstore.service.store.OrderService;
+import org.shop.sportwebstore.service.store.OrderTransitionService;
+import org.shop.sportwebstore.service.store.StockReservationService;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
-import org.springframework.transaction.annotation.Transactional;
 
-import java.time.Instant;
-import java.util.Collection;
 import java.util.Date;
 import java.util.List;
+import java.util.Objects;
 
+/**
+ * Maintenance jobs; all but the catalog refresh go through the {@link BatchRunner}, which streams their
+ * items in chunks, resumes a run that broke off and runs each job on one node of the cluster per tick.
+ * The catalog refresh rebuilds this node's own copy and runs everywhere.
+ */
 @RequiredArgsConstructor
 @Service
 @Slf4j
@@ -28,63 +41,96 @@ public class SchedulerService {
     private final UserRepository userRepository;
     private final ActivationRepository activationRepository;
     private final CustomerRepository customerRepository;
-    private final ProductRepository productRepository;
     private final CartService cartService;
-    private final OrderRepository orderRepository;
     private final OrderService orderService;
+    private final OrderTransitionService orderTransitionService;
+    private final ProductCatalog productCatalog;
+    private final RelatedProducts relatedProducts;
+    private final StockReservationService stockReservationService;
+    private final MongoTemplate mongoTemplate;
+    private final BatchRunner batchRunner;
 
     @Scheduled(cron = "0 0 * * * *")
     public void clearInactive() {
-        List<Activation> codes = activationRepository.findAllByExpiresAtBefore(java.time.LocalDateTime.now());
+        batchRunner.run(MongoBatchJob.<Activation>builder()
+                .name("clear-inactive")
+                .mongoTemplate(mongoTemplate)
+                .type(Activation.class)
+                .criteria(run -> Criteria.where("expiresAt").lt(run.startedAt()))
+                .sortKey("expiresAt")
+                .position(Activation::getExpiresAt)
+                .writer((codes, run) -> clearInactive(codes))
+                .build());
+    }
+
+    private void clearInactive(List<Activation> codes) {
         List<String> userIds = codes.stream()
                 .filter(c -> c.getType() == ActivationType.REGISTRATION)
                 .map(Activation::getUserId)
                 .toList();
-        activationRepository.deleteAll(codes);
-        clearInactiveUsers(userIds);
-        log.info("Deleted {} accounts.", userIds.size());
-    }
-
-    private void clearInactiveUsers(Collection<String> ids) {
-        customerRepository.deleteAllByUserIdIn(ids);
-        userRepository.deleteAllByIdIn(ids);
+        activationRepository.deleteAllById(codes.stream().map(Activation::getId).toList());
+        if (!userIds.isEmpty()) {
+            customerRepository.deleteAllByUserIdIn(userIds);
+            userRepository.deleteAllByIdIn(userIds);
+        }
     }
 
     @Scheduled(cron = "0 */15 * * * *")
-    @Transactional
     public void clearExpiredOrderCart() {
-        List<Cart> carts = cartService.findCartsByIsOrderProcessing(true, Date.from(Instant.now()));
-        carts.forEach(cart -> {
-            List<Product> products = productRepository.findAllById(cart.getProducts().keySet());
-            cartService.cancelPayment(cart, products);
-            cartService.deleteCart(cart.getUserId());
-        });
-        log.info("Deleted {} carts. date: {}", carts.size(), Date.from(Instant.now()));
+        batchRunner.run(PagedBatchJob.<Cart>builder()
+                .name("clear-expired-carts")
+                .page(run -> cartService.findExpiredProcessingCarts(run.startedAt(), run.chunkSize()))
+                .writer((carts, run) -> {
+                    stockReservationService.releaseAll(carts.stream()
+                            .map(Cart::getReservationId).filter(Objects::nonNull).toList());
+                    cartService.deleteCarts(carts.stream().map(Cart::getUserId).toList());
+                })
+                .build());
+        // safety net for reservations whose cart was lost before checkout finished or was cancelled
+        batchRunner.run(MongoBatchJob.<Reservation>builder()
+                .name("release-stale-reservations")
+                .mongoTemplate(mongoTemplate)
+                .type(Reservation.class)
+                .criteria(run -> Criteria.where("status").is(ReservationStatus.HELD).and("createdAt").lt(
+                        new Date(run.startedAt().getTime() - ConstantStrings.ORDER_EXPIRATION.multipliedBy(2).toMillis())))
+                .sortKey("createdAt")
+                .position(Reservation::getCreatedAt)
+                .writer((stale, run) -> stockReservationService.releaseAll(stale.stream().map(Reservation::getId).toList()))
+                .build());
     }
 
-    @Scheduled(cron = "0 */15 * * * *")
+    @Scheduled(fixedDelayString = "${store.orders.transition.delay:1m}")
     public void changeOrderStatus() {
-        Date minusTwoDays = new Date(System.currentTimeMillis() - ConstantStrings.ORDER_CHANGE.toMillis());
-        List<Order> orders = orderRepository
-                .findAllByStatusIsNotAndLastModifiedBefore(OrderStatus.CREATED, minusTwoDays);
-        for (Order order : orders) {
-            order.setNextStatus();
-            if (order.getStatus() == OrderStatus.DELIVERED && !order.isEmailSent()) {
-                orderService.sendOrderDeliveredEmail(order);
-                order.setEmailSent(true);
-            }
-        }
-        log.info("Changed {} orders status. date: {}", orders.size(),
-                Date.from(Instant.now()));
-        orderRepository.saveAll(orders);
+        batchRunner.run(MongoBatchJob.<Order>builder()
+                .name("advance-orders")
+                .mongoTemplate(mongoTemplate)
+                .type(Order.class)
+                .criteria(run -> Criteria.where("nextTransitionAt").lte(run.startedAt()))
+                .sortKey("nextTransitionAt")
+                .position(Order::getNextTransitionAt)
+                .writer((due, run) -> orderTransitionService.advance(due, run.startedAt()))
+                .build());
     }
 
     @Scheduled(cron = "0 */15 * * * *")
     public void deleteNotPaidOrders() {
-        Date minusDays = new Date(System.currentTimeMillis() - ConstantStrings.ORDER_DELETE.toMillis());
-        List<Order> orders = orderRepository.findAllByStatusAndOrderDateBefore(OrderStatus.CREATED, minusDays);
-        orderService.handleNotPaidOrders(orders);
-        log.info("Deleted {} orders. date: {}", orders.size(),
-                Date.from(Instant.now()));
+        batchRunner.run(MongoBatchJob.<Order>builder()
+                .name("delete-not-paid-orders")
+                .mongoTemplate(mongoTemplate)
+                .type(Order.class)
+                .criteria(run -> Criteria.where("status").is(OrderStatus.CREATED)
+                        .and("orderDate").lt(new Date(run.startedAt().getTime() - ConstantStrings.ORDER_DELETE.toMillis()))
+                        // orders whose restock keeps failing are skipped, so they can't hold up the rest
+                        .and("restockAttempts").not().gte(Order.MAX_RESTOCK_ATTEMPTS))
+                .sortKey("orderDate")
+                .position(Order::getOrderDate)
+                .writer((orders, run) -> orderService.handleNotPaidOrders(orders))
+                .build());
+    }
+
+    @Scheduled(cron = "${store.catalog.rebuild-cron:0 0 * * * *}")
+    public void refreshProductCatalog() {
+        productCatalog.rebuild();
+        relatedProducts.refreshAll();
     }
 }
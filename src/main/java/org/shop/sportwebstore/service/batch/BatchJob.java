@@ -0,0 +1,37 @@
+package org.shop.sportwebstore.service.batch;
+
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * A maintenance job run by the {@link BatchRunner}: items are read as a lazy stream of chunks and each
+ * chunk is written before the next one is pulled, so a job never holds more than one chunk in memory.
+ */
+public interface BatchJob<T> {
+
+    String name();
+
+    /**
+     * Chunks of at most {@link BatchRun#chunkSize()} items, in {@link #checkpointKey} order, within
+     * {@link BatchRun#range()} and past {@link BatchRun#resumeAfter()} when set. The stream is closed by the runner.
+     */
+    Stream<List<T>> read(BatchRun run);
+
+    /**
+     * Position of an item, stored after each chunk. Null for jobs whose writes remove what they read,
+     * they just read from the start again.
+     */
+    default Object checkpointKey(T item) {
+        return null;
+    }
+
+    void write(List<T> chunk, BatchRun run);
+
+    /**
+     * Up to {@code parts - 1} ascending checkpoint keys cutting the items of the run into ranges of about
+     * the same size. Empty for jobs that can't be split, they run as a single range.
+     */
+    default List<Object> split(BatchRun run, int parts) {
+        return List.of();
+    }
+}
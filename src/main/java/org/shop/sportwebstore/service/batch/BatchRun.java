@@ -0,0 +1,14 @@
+package org.shop.sportwebstore.service.batch;
+
+import java.util.Date;
+
+/**
+ * One run of a {@link BatchJob}.
+ *
+ * @param startedAt   cutoff the job selects its items by, the original one when the run is resumed
+ * @param resumeAfter checkpoint key of the last item written before the run broke, or null
+ * @param chunkSize   items per chunk, jobs reading in pages use it as their page size
+ * @param range       keys of the shard being run, {@link KeyRange#ALL} for a run that isn't split
+ */
+public record BatchRun(String job, Date startedAt, Object resumeAfter, int chunkSize, KeyRange range) {
+}
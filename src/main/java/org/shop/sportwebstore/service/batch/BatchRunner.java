@@ -0,0 +1,257 @@
+package org.shop.sportwebstore.service.batch;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.shop.sportwebstore.config.BatchProperties;
+import org.shop.sportwebstore.model.BatchStatus;
+import org.shop.sportwebstore.model.entity.BatchCheckpoint;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Service;
+
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+/**
+ * Runs {@link BatchJob}s chunk by chunk and keeps their progress in the {@code batch_checkpoints} collection.
+ * <p>
+ * The checkpoint is saved after every written chunk. A run that broke off, because it failed or the node
+ * went down, is resumed by the next call with its original cutoff and after its last written item, so
+ * nothing it had selected is skipped and nothing written is read again.
+ * <p>
+ * Every node schedules every job, a run only happens under the job's {@link JobLeases lease}, the other
+ * nodes skip the tick. Jobs listed in {@code store.batch.shards} are split into key ranges when a run
+ * starts; each range has its own lease and checkpoint, so the nodes working at that tick share the run.
+ * <p>
+ * The lease is renewed right before every chunk is written and again before its checkpoint is saved, so
+ * a write starts with a full {@code store.batch.lease} ahead of it. A chunk whose write takes longer than
+ * that can still be taken over and written twice, chunk sizes have to keep writes well inside the lease.
+ */
+@Slf4j
+@Service
+public class BatchRunner {
+
+    private static final int MAX_ERROR_LENGTH = 500;
+
+    private final MongoTemplate mongoTemplate;
+    private final JobLeases jobLeases;
+    private final MeterRegistry meterRegistry;
+    private final BatchProperties properties;
+    private final Map<String, AtomicLong> throughput = new ConcurrentHashMap<>();
+
+    public BatchRunner(MongoTemplate mongoTemplate, JobLeases jobLeases, MeterRegistry meterRegistry,
+                       BatchProperties properties) {
+        this.mongoTemplate = mongoTemplate;
+        this.jobLeases = jobLeases;
+        this.meterRegistry = meterRegistry;
+        this.properties = properties;
+    }
+
+    /**
+     * Runs the job to its end unless another node holds it, a failure is logged and recorded in the
+     * checkpoint rather than thrown.
+     *
+     * @return number of items written by this call
+     */
+    public <T> long run(BatchJob<T> job) {
+        int shards = properties.getShards().getOrDefault(job.name(), 1);
+        if (shards > 1) {
+            return runSharded(job, shards);
+        }
+        return leased(job.name(), () -> execute(job, job.name(), null, KeyRange.ALL));
+    }
+
+    private <T> long runSharded(BatchJob<T> job, int shards) {
+        BatchCheckpoint plan = plan(job, shards);
+        if (plan == null) {
+            return 0;
+        }
+        List<Object> bounds = plan.getBounds();
+        int ranges = bounds.size() + 1;
+        // nodes start at different ranges, so those starting together don't queue up on the same leases
+        int first = ThreadLocalRandom.current().nextInt(ranges);
+        long written = 0;
+        for (int i = 0; i < ranges; i++) {
+            int shard = (first + i) % ranges;
+            KeyRange range = new KeyRange(shard == 0 ? null : bounds.get(shard - 1),
+                    shard == ranges - 1 ? null : bounds.get(shard));
+            String id = job.name() + "#" + shard;
+            written += leased(id, () -> execute(job, id, plan.getRunStartedAt(), range));
+        }
+        complete(job.name(), plan, ranges);
+        return written;
+    }
+
+    /**
+     * the current sharded run, or a new one split by the node holding the job's lease
+     */
+    private <T> BatchCheckpoint plan(BatchJob<T> job, int shards) {
+        if (!jobLeases.tryAcquire(job.name())) {
+            BatchCheckpoint plan = mongoTemplate.findById(job.name(), BatchCheckpoint.class);
+            return plan != null && plan.getStatus() == BatchStatus.RUNNING && plan.getBounds() != null ? plan : null;
+        }
+        try {
+            BatchCheckpoint plan = mongoTemplate.findById(job.name(), BatchCheckpoint.class);
+            if (plan != null && plan.getStatus() != BatchStatus.COMPLETED && plan.getBounds() != null) {
+                return plan;
+            }
+            plan = new BatchCheckpoint(job.name(), new Date());
+            plan.setBounds(job.split(new BatchRun(job.name(), plan.getRunStartedAt(), null,
+                    properties.getChunkSize(), KeyRange.ALL), shards));
+            mongoTemplate.save(plan);
+            log.info("Batch job {} split into {} ranges at {}, cutoff {}.", job.name(), plan.getBounds().size() + 1,
+                    plan.getBounds(), plan.getRunStartedAt());
+            return plan;
+        } finally {
+            jobLeases.release(job.name());
+        }
+    }
+
+    /**
+     * marks the sharded run completed once every range is, whichever node finishes last does it
+     */
+    private void complete(String name, BatchCheckpoint plan, int ranges) {
+        List<String> ids = IntStream.range(0, ranges).mapToObj(shard -> name + "#" + shard).toList();
+        List<BatchCheckpoint> done = mongoTemplate.find(Query.query(Criteria.where("_id").in(ids)
+                .and("status").is(BatchStatus.COMPLETED)
+                .and("runStartedAt").is(plan.getRunStartedAt())), BatchCheckpoint.class);
+        if (done.size() < ranges) {
+            return;
+        }
+        Date now = new Date();
+        boolean completed = mongoTemplate.updateFirst(Query.query(Criteria.where("_id").is(name)
+                        .and("status").is(BatchStatus.RUNNING)
+                        .and("runStartedAt").is(plan.getRunStartedAt())),
+                new Update().set("status", BatchStatus.COMPLETED)
+                        .set("processed", done.stream().mapToLong(BatchCheckpoint::getProcessed).sum())
+                        .set("chunks", done.stream().mapToInt(BatchCheckpoint::getChunks).sum())
+                        .set("updatedAt", now)
+                        .set("finishedAt", now),
+                BatchCheckpoint.class).getModifiedCount() == 1;
+        if (completed) {
+            log.info("Batch job {} completed all {} ranges, cutoff {}.", name, ranges, plan.getRunStartedAt());
+        }
+    }
+
+    private long leased(String lease, LongSupplier work) {
+        if (!jobLeases.tryAcquire(lease)) {
+            log.debug("Skipping {}, another node holds its lease.", lease);
+            return 0;
+        }
+        try {
+            return work.getAsLong();
+        } finally {
+            jobLeases.release(lease);
+        }
+    }
+
+    /**
+     * @param id     checkpoint and lease of the run, the job name or a range of it
+     * @param cutoff cutoff of the sharded run the range belongs to, null for a run of its own
+     */
+    private <T> long execute(BatchJob<T> job, String id, Date cutoff, KeyRange range) {
+        BatchCheckpoint checkpoint = mongoTemplate.findById(id, BatchCheckpoint.class);
+        if (cutoff != null && checkpoint != null && cutoff.equals(checkpoint.getRunStartedAt())
+                && checkpoint.getStatus() == BatchStatus.COMPLETED) {
+            return 0;
+        }
+        boolean fresh = checkpoint == null || (cutoff == null
+                ? checkpoint.getStatus() == BatchStatus.COMPLETED
+                : !cutoff.equals(checkpoint.getRunStartedAt()));
+        if (fresh) {
+            checkpoint = new BatchCheckpoint(id, cutoff == null ? new Date() : cutoff);
+        } else {
+            log.info("Resuming batch job {} started at {} after {}, {} items were written.", id,
+                    checkpoint.getRunStartedAt(), checkpoint.getResumeAfter(), checkpoint.getProcessed());
+            checkpoint.setStatus(BatchStatus.RUNNING);
+            checkpoint.setLastError(null);
+        }
+        mongoTemplate.save(checkpoint);
+
+        BatchRun run = new BatchRun(job.name(), checkpoint.getRunStartedAt(), checkpoint.getResumeAfter(),
+                properties.getChunkSize(), range);
+        Tags tags = Tags.of("job", job.name());
+        Timer chunkDuration = Timer.builder("store.batch.chunk.duration")
+                .tags(tags)
+                .publishPercentiles(0.5, 0.95, 0.99)
+                .register(meterRegistry);
+        Counter items = meterRegistry.counter("store.batch.items", tags);
+        long start = System.nanoTime();
+        long written = 0;
+        boolean leaseLost = false;
+        String result = "completed";
+        try (Stream<List<T>> chunks = job.read(run)) {
+            Iterator<List<T>> iterator = chunks.iterator();
+            while (iterator.hasNext()) {
+                List<T> chunk = iterator.next();
+                if (!jobLeases.renew(id)) {
+                    // lost while reading, the new owner reads this chunk again from the last checkpoint
+                    leaseLost = true;
+                    break;
+                }
+                chunkDuration.record(() -> job.write(chunk, run));
+                written += chunk.size();
+                items.increment(chunk.size());
+                if (!jobLeases.renew(id)) {
+                    // the new owner resumes from the last saved checkpoint and writes this chunk again
+                    leaseLost = true;
+                    break;
+                }
+                Object key = job.checkpointKey(chunk.get(chunk.size() - 1));
+                if (key != null) {
+                    checkpoint.setResumeAfter(key);
+                }
+                checkpoint.setProcessed(checkpoint.getProcessed() + chunk.size());
+                checkpoint.setChunks(checkpoint.getChunks() + 1);
+                checkpoint.setUpdatedAt(new Date());
+                mongoTemplate.save(checkpoint);
+            }
+            if (!leaseLost) {
+                checkpoint.setStatus(BatchStatus.COMPLETED);
+                checkpoint.setFinishedAt(new Date());
+            }
+        } catch (RuntimeException e) {
+            result = "failed";
+            checkpoint.setStatus(BatchStatus.FAILED);
+            checkpoint.setLastError(truncate(String.valueOf(e.getMessage())));
+            log.error("Batch job {} failed after {} items, the next run resumes after {}.",
+                    id, written, checkpoint.getResumeAfter(), e);
+        }
+        if (leaseLost) {
+            result = "lease-lost";
+        } else {
+            checkpoint.setUpdatedAt(new Date());
+            mongoTemplate.save(checkpoint);
+        }
+
+        long elapsed = System.nanoTime() - start;
+        Timer.builder("store.batch.duration")
+                .tags(tags.and("result", result))
+                .register(meterRegistry)
+                .record(elapsed, TimeUnit.NANOSECONDS);
+        throughput.computeIfAbsent(job.name(), name -> meterRegistry.gauge("store.batch.throughput",
+                        Tags.of("job", name), new AtomicLong()))
+                .set(elapsed > 0 ? Math.round(written * 1e9 / elapsed) : 0);
+        log.info("Batch job {} {} on {}: {} items in {} ms, cutoff {}.", id, result, jobLeases.owner(), written,
+                TimeUnit.NANOSECONDS.toMillis(elapsed), run.startedAt());
+        return written;
+    }
+
+    private static String truncate(String message) {
+        return message.length() > MAX_ERROR_LENGTH ? message.substring(0, MAX_ERROR_LENGTH) : message;
+    }
+}
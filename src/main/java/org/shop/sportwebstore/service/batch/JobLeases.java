@@ -0,0 +1,166 @@
+package org.shop.sportwebstore.service.batch;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.shop.sportwebstore.config.BatchProperties;
+import org.shop.sportwebstore.model.entity.JobLease;
+import org.bson.Document;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.AggregationExpression;
+import org.springframework.data.mongodb.core.aggregation.AggregationUpdate;
+import org.springframework.data.mongodb.core.aggregation.SetOperation;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.stereotype.Service;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Leases in the {@code job_leases} collection making sure a scheduled job runs on one node at a time.
+ * <p>
+ * A lease is taken with one conditional upsert: it matches only a lease that expired or was released,
+ * and when another node holds it the upsert collides on the id and fails. The owner renews it while
+ * working and releases it when done, so the next tick may run anywhere; a node that died loses its
+ * leases once they expire and the job is taken over from its checkpoint.
+ * <p>
+ * Expiry is checked and set with the database clock ({@code $$NOW}), so nodes whose clocks drift apart
+ * neither take a live lease early nor hand out one that is already expired.
+ */
+@Slf4j
+@Service
+public class JobLeases {
+
+    private static final String NOW = "$$NOW";
+
+    private final MongoTemplate mongoTemplate;
+    private final MeterRegistry meterRegistry;
+    private final Duration ttl;
+    private final String owner;
+    private final Map<String, AtomicLong> held = new ConcurrentHashMap<>();
+
+    public JobLeases(MongoTemplate mongoTemplate, MeterRegistry meterRegistry, BatchProperties properties) {
+        this.mongoTemplate = mongoTemplate;
+        this.meterRegistry = meterRegistry;
+        this.ttl = properties.getLease();
+        this.owner = properties.getNodeId() == null || properties.getNodeId().isBlank()
+                ? defaultNodeId() : properties.getNodeId();
+        log.info("Scheduled jobs lease as {}.", owner);
+    }
+
+    public String owner() {
+        return owner;
+    }
+
+    /**
+     * @return whether this node holds the lease now
+     */
+    public boolean tryAcquire(String name) {
+        Query free = Query.query(Criteria.where("_id").is(name)
+                .andOperator(Criteria.expr((AggregationExpression) context -> new Document("$lt", List.of("$expiresAt", NOW)))));
+        AggregationUpdate take = AggregationUpdate.update()
+                .set(SetOperation.builder()
+                        .set("owner").toValue(owner)
+                        .and().set("acquiredAt").toValue(now())
+                        .and().set("renewedAt").toValue(now())
+                        .and().set("expiresAt").toValue(expiry())
+                        .and().set("released").toValue(false)
+                        .and().set("acquisitions").toValue((AggregationExpression) context -> new Document("$add",
+                                List.of(new Document("$ifNull", List.of("$acquisitions", 0)), 1))));
+        JobLease previous;
+        try {
+            previous = mongoTemplate.findAndModify(free, take, FindAndModifyOptions.options().upsert(true), JobLease.class);
+        } catch (DuplicateKeyException e) {
+            return false;
+        }
+        if (previous != null && !owner.equals(previous.getOwner())) {
+            String reason = previous.isReleased() ? "released" : "expired";
+            meterRegistry.counter("store.batch.lease.handoffs", "lease", name, "reason", reason).increment();
+            if (previous.isReleased()) {
+                log.info("Lease {} handed over from {} to {}.", name, previous.getOwner(), owner);
+            } else {
+                log.warn("Lease {} taken over from {}, it expired at {} without being released.",
+                        name, previous.getOwner(), previous.getExpiresAt());
+            }
+        }
+        gauge(name).set(1);
+        return true;
+    }
+
+    /**
+     * Extends a held lease by another {@code lease} period.
+     *
+     * @return false when the lease was lost meanwhile, the caller has to stop working on its job
+     */
+    public boolean renew(String name) {
+        boolean renewed = mongoTemplate.updateFirst(owned(name), AggregationUpdate.update()
+                        .set(SetOperation.builder()
+                                .set("renewedAt").toValue(now())
+                                .and().set("expiresAt").toValue(expiry())),
+                JobLease.class).getMatchedCount() == 1;
+        if (!renewed) {
+            gauge(name).set(0);
+            meterRegistry.counter("store.batch.lease.lost", "lease", name).increment();
+            log.warn("Lease {} is no longer held by {}.", name, owner);
+        }
+        return renewed;
+    }
+
+    public void release(String name) {
+        mongoTemplate.updateFirst(owned(name), AggregationUpdate.update()
+                        .set(SetOperation.builder()
+                                .set("released").toValue(true)
+                                .and().set("expiresAt").toValue(now())),
+                JobLease.class);
+        gauge(name).set(0);
+    }
+
+    /**
+     * hands the leases of a node shutting down mid job to the others right away
+     */
+    @PreDestroy
+    public void releaseAll() {
+        held.forEach((name, state) -> {
+            if (state.get() == 1) {
+                release(name);
+            }
+        });
+    }
+
+    private Query owned(String name) {
+        return Query.query(Criteria.where("_id").is(name).and("owner").is(owner).and("released").is(false));
+    }
+
+    private static AggregationExpression now() {
+        return context -> new Document("$toDate", NOW);
+    }
+
+    private AggregationExpression expiry() {
+        return context -> new Document("$add", List.of(NOW, ttl.toMillis()));
+    }
+
+    private AtomicLong gauge(String name) {
+        return held.computeIfAbsent(name, lease -> meterRegistry.gauge("store.batch.lease.held",
+                Tags.of("lease", lease), new AtomicLong()));
+    }
+
+    private static String defaultNodeId() {
+        String host;
+        try {
+            host = InetAddress.getLocalHost().getHostName();
+        } catch (UnknownHostException e) {
+            host = "node";
+        }
+        return host + "-" + UUID.randomUUID().toString().substring(0, 8);
+    }
+}
@@ -0,0 +1,9 @@
+package org.shop.sportwebstore.service.batch;
+
+/**
+ * Sort keys of one shard of a run, {@code from} inclusive and {@code to} exclusive, null for open ends.
+ */
+public record KeyRange(Object from, Object to) {
+
+    public static final KeyRange ALL = new KeyRange(null, null);
+}
@@ -0,0 +1,133 @@
+package org.shop.sportwebstore.service.batch;
+
+import lombok.Builder;
+import lombok.NonNull;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * A {@link BatchJob} streaming documents through one Mongo cursor sorted by {@code sortKey}, which should
+ * be covered by an index together with the criteria.
+ * <p>
+ * A resumed run continues past the stored key: strictly after it for {@code _id}, from it for other keys,
+ * which may repeat, so the writer must tolerate seeing the last items of the broken chunk again.
+ * Runs are split into key ranges of {@code sortKey} at quantiles read through the same index.
+ */
+@Builder
+public class MongoBatchJob<T> implements BatchJob<T> {
+
+    @NonNull
+    private final String name;
+    @NonNull
+    private final MongoTemplate mongoTemplate;
+    @NonNull
+    private final Class<T> type;
+    /**
+     * selects the items of a run, usually by comparing a date with {@link BatchRun#startedAt()}
+     */
+    @NonNull
+    private final Function<BatchRun, Criteria> criteria;
+    @Builder.Default
+    private final String sortKey = "_id";
+    /**
+     * value of {@code sortKey} of an item
+     */
+    @NonNull
+    private final Function<T, Object> position;
+    @NonNull
+    private final BiConsumer<List<T>, BatchRun> writer;
+
+    @Override
+    public String name() {
+        return name;
+    }
+
+    @Override
+    public Stream<List<T>> read(BatchRun run) {
+        List<Criteria> selected = new ArrayList<>();
+        selected.add(criteria.apply(run));
+        if (run.range().from() != null) {
+            selected.add(Criteria.where(sortKey).gte(run.range().from()));
+        }
+        if (run.range().to() != null) {
+            selected.add(Criteria.where(sortKey).lt(run.range().to()));
+        }
+        if (run.resumeAfter() != null) {
+            selected.add("_id".equals(sortKey)
+                    ? Criteria.where(sortKey).gt(run.resumeAfter())
+                    : Criteria.where(sortKey).gte(run.resumeAfter()));
+        }
+        Query query = Query.query(selected.size() == 1 ? selected.get(0) : new Criteria().andOperator(selected))
+                .with(Sort.by(sortKey))
+                .cursorBatchSize(run.chunkSize());
+        return chunked(mongoTemplate.stream(query, type), run.chunkSize());
+    }
+
+    @Override
+    public List<Object> split(BatchRun run, int parts) {
+        Criteria selected = criteria.apply(run);
+        long count = mongoTemplate.count(Query.query(selected), type);
+        List<Object> bounds = new ArrayList<>();
+        for (int part = 1; part < parts; part++) {
+            Query at = Query.query(selected)
+                    .with(Sort.by(sortKey))
+                    .skip(count * part / parts)
+                    .limit(1);
+            at.fields().include(sortKey);
+            T item = mongoTemplate.findOne(at, type);
+            Object key = item == null ? null : position.apply(item);
+            // items sharing a key stay in one range
+            if (key != null && (bounds.isEmpty() || !key.equals(bounds.get(bounds.size() - 1)))) {
+                bounds.add(key);
+            }
+        }
+        return bounds;
+    }
+
+    private static <T> Stream<List<T>> chunked(Stream<T> items, int size) {
+        Iterator<T> cursor = items.iterator();
+        Iterator<List<T>> chunks = new Iterator<>() {
+            @Override
+            public boolean hasNext() {
+                return cursor.hasNext();
+            }
+
+            @Override
+            public List<T> next() {
+                if (!cursor.hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                List<T> chunk = new ArrayList<>(size);
+                while (chunk.size() < size && cursor.hasNext()) {
+                    chunk.add(cursor.next());
+                }
+                return chunk;
+            }
+        };
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(chunks, Spliterator.ORDERED), false)
+                .onClose(items::close);
+    }
+
+    @Override
+    public Object checkpointKey(T item) {
+        return position.apply(item);
+    }
+
+    @Override
+    public void write(List<T> chunk, BatchRun run) {
+        writer.accept(chunk, run);
+    }
+}
@@ -0,0 +1,42 @@
+package org.shop.sportwebstore.service.batch;
+
+import lombok.Builder;
+import lombok.NonNull;
+
+import java.util.List;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import java.util.stream.Stream;
+
+/**
+ * A {@link BatchJob} over a source without a cursor, read one page at a time. Writing a page must remove
+ * its items from the source, the next page is read from the start once the previous one is written.
+ */
+@Builder
+public class PagedBatchJob<T> implements BatchJob<T> {
+
+    @NonNull
+    private final String name;
+    /**
+     * the first {@link BatchRun#chunkSize()} items still due at {@link BatchRun#startedAt()}
+     */
+    @NonNull
+    private final Function<BatchRun, List<T>> page;
+    @NonNull
+    private final BiConsumer<List<T>, BatchRun> writer;
+
+    @Override
+    public String name() {
+        return name;
+    }
+
+    @Override
+    public Stream<List<T>> read(BatchRun run) {
+        return Stream.generate(() -> page.apply(run)).takeWhile(items -> !items.isEmpty());
+    }
+
+    @Override
+    public void write(List<T> chunk, BatchRun run) {
+        writer.accept(chunk, run);
+    }
+}
@@ -0,0 +1,38 @@
+package org.shop.sportwebstore.service.cache;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+
+/**
+ * scale as 4 bytes, then the two's complement unscaled value.
+ */
+public class BigDecimalCodec implements ValueCodec<BigDecimal> {
+
+    public static final int ID = 2;
+
+    @Override
+    public int id() {
+        return ID;
+    }
+
+    @Override
+    public Class<BigDecimal> type() {
+        return BigDecimal.class;
+    }
+
+    @Override
+    public byte[] encode(BigDecimal value) {
+        byte[] unscaled = value.unscaledValue().toByteArray();
+        return ByteBuffer.allocate(4 + unscaled.length).putInt(value.scale()).put(unscaled).array();
+    }
+
+    @Override
+    public BigDecimal decode(byte[] bytes) {
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        int scale = buffer.getInt();
+        byte[] unscaled = new byte[buffer.remaining()];
+        buffer.get(unscaled);
+        return new BigDecimal(new BigInteger(unscaled), scale);
+    }
+}
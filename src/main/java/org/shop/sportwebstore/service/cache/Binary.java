@@ -0,0 +1,78 @@
+package org.shop.sportwebstore.service.cache;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.HexFormat;
+
+/**
+ * Small building blocks for codec layouts: unsigned varints and strings that pack
+ * 24 character hex ids (mongo object ids) into 12 bytes.
+ */
+final class Binary {
+
+    private static final HexFormat HEX = HexFormat.of();
+
+    private Binary() {
+    }
+
+    static void writeVarint(DataOutput out, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.writeByte((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    static long readVarint(DataInput in) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = in.readByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed varint");
+    }
+
+    /**
+     * 0 = null, 1 = object id followed by 12 bytes, n + 2 = n bytes of utf-8
+     */
+    static void writeId(DataOutput out, String value) throws IOException {
+        if (value == null) {
+            writeVarint(out, 0);
+        } else if (isObjectId(value)) {
+            writeVarint(out, 1);
+            out.write(HEX.parseHex(value));
+        } else {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            writeVarint(out, bytes.length + 2L);
+            out.write(bytes);
+        }
+    }
+
+    static String readId(DataInput in) throws IOException {
+        int header = (int) readVarint(in);
+        if (header == 0) {
+            return null;
+        }
+        byte[] bytes = new byte[header == 1 ? 12 : header - 2];
+        in.readFully(bytes);
+        return header == 1 ? HEX.formatHex(bytes) : new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static boolean isObjectId(String value) {
+        if (value.length() != 24) {
+            return false;
+        }
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (!(c >= '0' && c <= '9' || c >= 'a' && c <= 'f')) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
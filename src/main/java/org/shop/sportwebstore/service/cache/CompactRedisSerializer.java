@@ -0,0 +1,144 @@
+package org.shop.sportwebstore.service.cache;
+
+import org.springframework.cache.support.NullValue;
+import org.springframework.data.redis.serializer.GenericJackson2JsonRedisSerializer;
+import org.springframework.data.redis.serializer.RedisSerializer;
+import org.springframework.data.redis.serializer.SerializationException;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Writes values as {@code [format version][codec id][flags][payload]}. Types with a registered
+ * {@link ValueCodec} get its compact layout, anything else falls back to typed JSON.
+ * Payloads bigger than the threshold are deflated when that makes them smaller.
+ * <p>
+ * Values written before this format (plain JSON, which never starts with the version byte)
+ * are still read, so existing redis data doesn't have to be migrated up front.
+ */
+public class CompactRedisSerializer implements RedisSerializer<Object> {
+
+    public static final int DEFAULT_COMPRESSION_THRESHOLD = 512;
+
+    static final byte FORMAT_V1 = (byte) 0xB1;
+    static final int JSON_CODEC = 0;
+    static final int DEFLATED = 1;
+    private static final int HEADER = 3;
+
+    private final Map<Class<?>, ValueCodec<?>> codecsByType = new HashMap<>();
+    private final ValueCodec<?>[] codecsById = new ValueCodec<?>[256];
+    private final GenericJackson2JsonRedisSerializer json = new GenericJackson2JsonRedisSerializer();
+    private final int compressionThreshold;
+
+    public CompactRedisSerializer(List<ValueCodec<?>> codecs, int compressionThreshold) {
+        for (ValueCodec<?> codec : codecs) {
+            if (codec.id() <= JSON_CODEC || codec.id() > 255 || codecsById[codec.id()] != null) {
+                throw new IllegalArgumentException("Invalid or duplicate codec id " + codec.id());
+            }
+            codecsById[codec.id()] = codec;
+            codecsByType.put(codec.type(), codec);
+        }
+        this.compressionThreshold = compressionThreshold;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public byte[] serialize(Object value) {
+        if (value == null) {
+            return new byte[0];
+        }
+        ValueCodec<Object> codec = (ValueCodec<Object>) codecsByType.get(value.getClass());
+        byte[] payload = codec == null ? json.serialize(value) : codec.encode(value);
+        int flags = 0;
+        if (payload.length > compressionThreshold) {
+            byte[] deflated = deflate(payload);
+            if (deflated.length < payload.length) {
+                payload = deflated;
+                flags |= DEFLATED;
+            }
+        }
+        byte[] bytes = new byte[HEADER + payload.length];
+        bytes[0] = FORMAT_V1;
+        bytes[1] = (byte) (codec == null ? JSON_CODEC : codec.id());
+        bytes[2] = (byte) flags;
+        System.arraycopy(payload, 0, bytes, HEADER, payload.length);
+        return bytes;
+    }
+
+    @Override
+    public Object deserialize(byte[] bytes) {
+        if (bytes == null || bytes.length == 0) {
+            return null;
+        }
+        if (bytes[0] != FORMAT_V1) {
+            return readJson(bytes);
+        }
+        if (bytes.length < HEADER) {
+            throw new SerializationException("Truncated value");
+        }
+        int codecId = bytes[1] & 0xFF;
+        byte[] payload = Arrays.copyOfRange(bytes, HEADER, bytes.length);
+        if ((bytes[2] & DEFLATED) != 0) {
+            payload = inflate(payload);
+        }
+        if (codecId == JSON_CODEC) {
+            return readJson(payload);
+        }
+        ValueCodec<?> codec = codecsById[codecId];
+        if (codec == null) {
+            throw new SerializationException("Unknown codec " + codecId);
+        }
+        return codec.decode(payload);
+    }
+
+    /**
+     * Caches recognise a stored null by identity, so the singleton is returned instead of a fresh instance.
+     */
+    private Object readJson(byte[] bytes) {
+        Object value = json.deserialize(bytes);
+        return value instanceof NullValue ? NullValue.INSTANCE : value;
+    }
+
+    private static byte[] deflate(byte[] data) {
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try {
+            deflater.setInput(data);
+            deflater.finish();
+            ByteArrayOutputStream out = new ByteArrayOutputStream(data.length / 2);
+            byte[] buffer = new byte[4096];
+            while (!deflater.finished()) {
+                out.write(buffer, 0, deflater.deflate(buffer));
+            }
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private static byte[] inflate(byte[] data) {
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(data);
+            ByteArrayOutputStream out = new ByteArrayOutputStream(data.length * 3);
+            byte[] buffer = new byte[4096];
+            while (!inflater.finished()) {
+                int read = inflater.inflate(buffer);
+                if (read == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new SerializationException("Truncated compressed value");
+                }
+                out.write(buffer, 0, read);
+            }
+            return out.toByteArray();
+        } catch (DataFormatException e) {
+            throw new SerializationException("Corrupted compressed value", e);
+        } finally {
+            inflater.end();
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package org.shop.sportwebstore.service.cache;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.data.redis.serializer.SerializationException;
+
+import java.io.IOException;
+
+/**
+ * Plain JSON for one known type: the codec id stands in for the class names that
+ * typed JSON embeds in every object.
+ */
+public class JsonValueCodec<T> implements ValueCodec<T> {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper()
+            .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+
+    private final int id;
+    private final Class<T> type;
+
+    public JsonValueCodec(int id, Class<T> type) {
+        this.id = id;
+        this.type = type;
+    }
+
+    @Override
+    public int id() {
+        return id;
+    }
+
+    @Override
+    public Class<T> type() {
+        return type;
+    }
+
+    @Override
+    public byte[] encode(T value) {
+        try {
+            return MAPPER.writeValueAsBytes(value);
+        } catch (IOException e) {
+            throw new SerializationException("Cannot encode " + type.getSimpleName(), e);
+        }
+    }
+
+    @Override
+    public T decode(byte[] bytes) {
+        try {
+            return MAPPER.readValue(bytes, type);
+        } catch (IOException e) {
+            throw new SerializationException("Cannot decode " + type.getSimpleName(), e);
+        }
+    }
+}
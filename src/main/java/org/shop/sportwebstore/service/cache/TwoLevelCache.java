@@ -0,0 +1,294 @@
+package org.shop.sportwebstore.service.cache;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.RemovalCause;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.cache.support.AbstractValueAdaptingCache;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.redis.core.Cursor;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.ScanOptions;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.data.redis.serializer.GenericToStringSerializer;
+import org.springframework.data.redis.serializer.RedisSerializer;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.function.BiConsumer;
+
+/**
+ * Bounded local cache (L1) in front of redis (L2). Reads go L1 -> L2 -> loader, writes go
+ * to both levels and are announced to the other nodes, which drop their L1 copy.
+ * Keys are identified by their toString value on both levels.
+ * Redis errors are logged and treated as a miss so the store keeps working without it.
+ * <p>
+ * Evicting a key or clearing the cache bumps a generation counter in redis. A value loaded on a
+ * miss is only written to redis if the generations read before the load are still current, so a
+ * load that read the database before a concurrent update can't put the old value back after the evict.
+ */
+@Slf4j
+public class TwoLevelCache extends AbstractValueAdaptingCache {
+
+    private static final int CLEAR_BATCH = 500;
+
+    /**
+     * KEYS: key generation, cache generation
+     */
+    static final RedisScript<List> GENERATIONS = new DefaultRedisScript<>("""
+            return {tonumber(redis.call('GET', KEYS[1]) or '0'), tonumber(redis.call('GET', KEYS[2]) or '0')}
+            """, List.class);
+    /**
+     * KEYS: value, key generation, cache generation; ARGV: key generation, cache generation, ttl millis, value
+     */
+    static final RedisScript<Long> WRITE_IF_CURRENT = new DefaultRedisScript<>("""
+            if tonumber(redis.call('GET', KEYS[2]) or '0') ~= tonumber(ARGV[1])
+                    or tonumber(redis.call('GET', KEYS[3]) or '0') ~= tonumber(ARGV[2]) then
+                return 0
+            end
+            redis.call('SET', KEYS[1], ARGV[4], 'PX', ARGV[3])
+            return 1
+            """, Long.class);
+    /**
+     * KEYS: value, key generation; ARGV: ttl millis
+     */
+    static final RedisScript<Long> EVICT = new DefaultRedisScript<>("""
+            redis.call('INCR', KEYS[2])
+            redis.call('PEXPIRE', KEYS[2], ARGV[1])
+            return redis.call('DEL', KEYS[1])
+            """, Long.class);
+    private static final RedisSerializer<Long> LONG = new GenericToStringSerializer<>(Long.class);
+
+    private final String name;
+    private final Cache<String, Object> local;
+    private final RedisTemplate<String, Object> redisTemplate;
+    private final Duration ttl;
+    /**
+     * (cache name, key or null for the whole cache) -> tells other nodes to drop their L1 entries
+     */
+    private final BiConsumer<String, String> invalidationPublisher;
+    private final Counter localHits;
+    private final Counter localMisses;
+    private final Counter redisHits;
+    private final Counter redisMisses;
+    private final Counter remoteInvalidations;
+
+    public TwoLevelCache(String name, RedisTemplate<String, Object> redisTemplate, Duration ttl, Duration localTtl,
+                         long localMaxSize, BiConsumer<String, String> invalidationPublisher, MeterRegistry meterRegistry) {
+        super(true);
+        this.name = name;
+        this.redisTemplate = redisTemplate;
+        this.ttl = ttl;
+        this.invalidationPublisher = invalidationPublisher;
+        this.local = Caffeine.newBuilder()
+                .maximumSize(localMaxSize)
+                .expireAfterWrite(localTtl)
+                .executor(Runnable::run)
+                .removalListener((String key, Object value, RemovalCause cause) -> {
+                    if (cause != RemovalCause.REPLACED) {
+                        meterRegistry.counter("store.cache.evictions", "cache", name, "level", "local",
+                                "cause", cause.name().toLowerCase()).increment();
+                    }
+                })
+                .build();
+        this.localHits = requests(meterRegistry, "local", "hit");
+        this.localMisses = requests(meterRegistry, "local", "miss");
+        this.redisHits = requests(meterRegistry, "redis", "hit");
+        this.redisMisses = requests(meterRegistry, "redis", "miss");
+        this.remoteInvalidations = meterRegistry.counter("store.cache.invalidations", "cache", name, "origin", "remote");
+        Gauge.builder("store.cache.local.size", local, Cache::estimatedSize)
+                .tag("cache", name)
+                .register(meterRegistry);
+    }
+
+    private Counter requests(MeterRegistry meterRegistry, String level, String result) {
+        return meterRegistry.counter("store.cache.gets", "cache", name, "level", level, "result", result);
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public Object getNativeCache() {
+        return local;
+    }
+
+    @Override
+    protected Object lookup(Object key) {
+        String localKey = String.valueOf(key);
+        Object value = local.getIfPresent(localKey);
+        if (value != null) {
+            localHits.increment();
+            return value;
+        }
+        localMisses.increment();
+        value = readRedis(localKey);
+        if (value != null) {
+            local.put(localKey, value);
+        }
+        return value;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> T get(Object key, Callable<T> valueLoader) {
+        String localKey = String.valueOf(key);
+        Object value = local.getIfPresent(localKey);
+        if (value != null) {
+            localHits.increment();
+            return (T) fromStoreValue(value);
+        }
+        localMisses.increment();
+        // caffeine runs the mapping once per key, concurrent callers wait for it
+        value = local.get(localKey, k -> {
+            Object stored = readRedis(k);
+            if (stored == null) {
+                List<Long> generations = readGenerations(k);
+                stored = toStoreValue(load(key, valueLoader));
+                if (generations != null) {
+                    writeRedisIfCurrent(k, stored, generations);
+                }
+            }
+            return stored;
+        });
+        return (T) fromStoreValue(value);
+    }
+
+    private Object load(Object key, Callable<?> valueLoader) {
+        try {
+            return valueLoader.call();
+        } catch (Exception e) {
+            throw new ValueRetrievalException(key, valueLoader, e);
+        }
+    }
+
+    @Override
+    public void put(Object key, Object value) {
+        String localKey = String.valueOf(key);
+        Object stored = toStoreValue(value);
+        writeRedis(localKey, stored);
+        local.put(localKey, stored);
+        invalidationPublisher.accept(name, localKey);
+    }
+
+    @Override
+    public void evict(Object key) {
+        String localKey = String.valueOf(key);
+        local.invalidate(localKey);
+        try {
+            redisTemplate.execute(EVICT, RedisSerializer.string(), LONG,
+                    List.of(redisKey(localKey), generationKey(localKey)), String.valueOf(ttl.toMillis()));
+        } catch (DataAccessException e) {
+            log.warn("Cannot evict {} from redis cache {}: {}", localKey, name, e.getMessage());
+        }
+        invalidationPublisher.accept(name, localKey);
+    }
+
+    @Override
+    public void clear() {
+        local.invalidateAll();
+        try {
+            redisTemplate.opsForValue().increment(generationKey(null));
+        } catch (DataAccessException e) {
+            log.warn("Cannot bump generation of redis cache {}: {}", name, e.getMessage());
+        }
+        ScanOptions options = ScanOptions.scanOptions().match(redisKey("*")).count(CLEAR_BATCH).build();
+        try (Cursor<String> keys = redisTemplate.scan(options)) {
+            List<String> batch = new ArrayList<>(CLEAR_BATCH);
+            while (keys.hasNext()) {
+                batch.add(keys.next());
+                if (batch.size() == CLEAR_BATCH) {
+                    redisTemplate.delete(batch);
+                    batch.clear();
+                }
+            }
+            if (!batch.isEmpty()) {
+                redisTemplate.delete(batch);
+            }
+        } catch (DataAccessException e) {
+            log.warn("Cannot clear redis cache {}: {}", name, e.getMessage());
+        }
+        invalidationPublisher.accept(name, null);
+    }
+
+    /**
+     * Invalidation published by another node - only the local copy is dropped, redis is already up to date.
+     */
+    void invalidateLocal(String key) {
+        remoteInvalidations.increment();
+        if (key == null) {
+            local.invalidateAll();
+        } else {
+            local.invalidate(key);
+        }
+    }
+
+    private Object readRedis(String key) {
+        try {
+            Object value = redisTemplate.opsForValue().get(redisKey(key));
+            (value == null ? redisMisses : redisHits).increment();
+            return value;
+        } catch (DataAccessException e) {
+            log.warn("Cannot read {} from redis cache {}: {}", key, name, e.getMessage());
+            redisMisses.increment();
+            return null;
+        }
+    }
+
+    private void writeRedis(String key, Object value) {
+        try {
+            redisTemplate.opsForValue().set(redisKey(key), value, ttl);
+        } catch (DataAccessException e) {
+            log.warn("Cannot write {} to redis cache {}: {}", key, name, e.getMessage());
+        }
+    }
+
+    /**
+     * @return generations of the key and of the whole cache, or null when redis can't be read
+     */
+    @SuppressWarnings("unchecked")
+    private List<Long> readGenerations(String key) {
+        try {
+            return redisTemplate.execute(GENERATIONS, List.of(generationKey(key), generationKey(null)));
+        } catch (DataAccessException e) {
+            log.warn("Cannot read generation of {} from redis cache {}: {}", key, name, e.getMessage());
+            return null;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void writeRedisIfCurrent(String key, Object value, List<Long> generations) {
+        try {
+            byte[] bytes = ((RedisSerializer<Object>) redisTemplate.getValueSerializer()).serialize(value);
+            redisTemplate.execute(WRITE_IF_CURRENT, RedisSerializer.byteArray(), LONG,
+                    List.of(redisKey(key), generationKey(key), generationKey(null)),
+                    ascii(generations.get(0)), ascii(generations.get(1)), ascii(ttl.toMillis()), bytes);
+        } catch (DataAccessException e) {
+            log.warn("Cannot write {} to redis cache {}: {}", key, name, e.getMessage());
+        }
+    }
+
+    private static byte[] ascii(long number) {
+        return String.valueOf(number).getBytes(StandardCharsets.US_ASCII);
+    }
+
+    private String redisKey(String key) {
+        return "cache:" + name + ":" + key;
+    }
+
+    /**
+     * Kept outside the {@code cache:<name>:} prefix, so {@link #clear()} doesn't reset them.
+     */
+    private String generationKey(String key) {
+        return key == null ? "cache-generation:" + name : "cache-generation:" + name + ":" + key;
+    }
+}
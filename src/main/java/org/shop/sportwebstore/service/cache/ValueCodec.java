@@ -0,0 +1,20 @@
+package org.shop.sportwebstore.service.cache;
+
+/**
+ * Binary layout of one value type for {@link CompactRedisSerializer}.
+ * The id is stored with every value, so a codec whose layout changes has to get a new id
+ * (keeping the old one registered until the old values have expired).
+ */
+public interface ValueCodec<T> {
+
+    /**
+     * 1-255, 0 is taken by the JSON fallback
+     */
+    int id();
+
+    Class<T> type();
+
+    byte[] encode(T value);
+
+    T decode(byte[] bytes);
+}
@@ -0,0 +1,16 @@
+package org.shop.sportwebstore.service.catalog;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.util.Collection;
+
+/**
+ * Published by {@link ProductCatalog} after it reloaded rows, whether they changed on this node
+ * or were announced by another one, so views derived from the catalog can follow.
+ */
+@Getter
+@AllArgsConstructor
+public class CatalogChangedEvent {
+    private final Collection<String> productIds;
+}
@@ -0,0 +1,15 @@
+package org.shop.sportwebstore.service.catalog;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import org.shop.sportwebstore.model.dto.PriceBucket;
+
+import java.util.List;
+import java.util.Map;
+
+@Getter
+@AllArgsConstructor
+public class CatalogFacets {
+    private Map<String, Long> categoryCounts;
+    private List<PriceBucket> priceHistogram;
+}
@@ -0,0 +1,20 @@
+package org.shop.sportwebstore.service.catalog;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.util.Collection;
+import java.util.List;
+
+@Getter
+@AllArgsConstructor
+public class CatalogFilter {
+    /**
+     * restricts results to these product ids (search hits), null means no restriction
+     */
+    private Collection<String> ids;
+    private List<String> categories;
+    private boolean onlyAvailable;
+    private long minPriceCents;
+    private long maxPriceCents;
+}
@@ -0,0 +1,13 @@
+package org.shop.sportwebstore.service.catalog;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.util.List;
+
+@Getter
+@AllArgsConstructor
+public class CatalogPage {
+    private List<String> ids;
+    private long total;
+}
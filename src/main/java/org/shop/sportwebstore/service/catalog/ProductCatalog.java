@@ -0,0 +1,635 @@
+package org.shop.sportwebstore.service.catalog;
+
+import lombok.extern.slf4j.Slf4j;
+import org.shop.sportwebstore.model.dto.PriceBucket;
+import org.shop.sportwebstore.model.entity.Category;
+import org.shop.sportwebstore.model.entity.Product;
+import org.shop.sportwebstore.repository.ProductRepository;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.core.task.TaskExecutor;
+import org.springframework.stereotype.Component;
+
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+/**
+ * Columnar in-memory snapshot of the filterable product fields. Filters are answered with
+ * bitsets (availability, categories) and primitive arrays (price, stock, orders), sorting
+ * uses per-field orderings that are computed once; a write moves only the changed row within the
+ * orderings whose field it changed.
+ * Only the ids of the requested page leave this class; the documents themselves are
+ * still loaded from Mongo.
+ * <p>
+ * Rows are kept current from product writes: this node's writes update them directly and their ids
+ * are announced on a redis channel, other nodes reload the announced rows. The full rebuild is only
+ * a safety net for missed announcements; writes arriving while it streams the collection are replayed
+ * onto the fresh columns before they replace the current ones.
+ */
+@Slf4j
+@Component
+public class ProductCatalog implements MessageListener {
+
+    public static final Set<String> SORT_FIELDS = Set.of("id", "name", "price", "amountLeft", "orders", "rating");
+    private static final int INITIAL_CAPACITY = 256;
+    private static final String SEPARATOR = "|";
+
+    private final ProductRepository productRepository;
+    private final RedisTemplate<String, String> redisCatalogTemplate;
+    private final TaskExecutor taskExecutor;
+    private final ApplicationEventPublisher eventPublisher;
+    private final String channel;
+    private final String nodeId = UUID.randomUUID().toString();
+    private final Set<String> pendingReloads = ConcurrentHashMap.newKeySet();
+    private final AtomicBoolean reloadScheduled = new AtomicBoolean();
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private volatile Columns columns = new Columns(INITIAL_CAPACITY);
+    private volatile boolean ready = false;
+    /**
+     * rows written while a rebuild streams the collection, null for a removed row; guarded by the write lock
+     */
+    private Map<String, Product> rebuildChanges;
+
+    public ProductCatalog(ProductRepository productRepository,
+                          RedisTemplate<String, String> redisCatalogTemplate,
+                          TaskExecutor taskExecutor,
+                          ApplicationEventPublisher eventPublisher,
+                          @Value("${store.catalog.channel:catalog:changed}") String channel) {
+        this.productRepository = productRepository;
+        this.redisCatalogTemplate = redisCatalogTemplate;
+        this.taskExecutor = taskExecutor;
+        this.eventPublisher = eventPublisher;
+        this.channel = channel;
+    }
+
+    @Order(Ordered.HIGHEST_PRECEDENCE)
+    @EventListener(ApplicationReadyEvent.class)
+    public synchronized void rebuild() {
+        long start = System.currentTimeMillis();
+        lock.writeLock().lock();
+        try {
+            rebuildChanges = new HashMap<>();
+        } finally {
+            lock.writeLock().unlock();
+        }
+        Columns fresh = new Columns(INITIAL_CAPACITY);
+        boolean loaded = false;
+        int replayed = 0;
+        try (Stream<Product> products = productRepository.streamAllBy()) {
+            products.forEach(fresh::put);
+            loaded = true;
+        } finally {
+            lock.writeLock().lock();
+            try {
+                if (loaded) {
+                    replayed = rebuildChanges.size();
+                    rebuildChanges.forEach((id, product) -> {
+                        if (product == null) {
+                            fresh.remove(id);
+                        } else {
+                            fresh.put(product);
+                        }
+                    });
+                    columns = fresh;
+                    ready = true;
+                }
+                rebuildChanges = null;
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+        log.info("Product catalog loaded {} products in {} ms, {} written meanwhile.", fresh.size,
+                System.currentTimeMillis() - start, replayed);
+    }
+
+    /**
+     * Queues rows changed outside of ProductService (stock updates) for a reload on the task executor,
+     * so the thread publishing the event doesn't wait for Mongo. Changes arriving while a reload is
+     * pending are coalesced into it.
+     */
+    @EventListener
+    public void onProductsChanged(ProductsChangedEvent event) {
+        if (!ready || event.getProductIds().isEmpty()) {
+            return;
+        }
+        pendingReloads.addAll(event.getProductIds());
+        if (reloadScheduled.compareAndSet(false, true)) {
+            taskExecutor.execute(this::reloadPending);
+        }
+    }
+
+    /**
+     * Reloads the queued rows and announces them to the other nodes.
+     */
+    void reloadPending() {
+        reloadScheduled.set(false);
+        List<String> productIds = new ArrayList<>();
+        for (Iterator<String> it = pendingReloads.iterator(); it.hasNext(); ) {
+            productIds.add(it.next());
+            it.remove();
+        }
+        if (productIds.isEmpty()) {
+            return;
+        }
+        try {
+            reload(productIds);
+        } catch (DataAccessException e) {
+            log.warn("Cannot reload {} changed products, the next rebuild picks them up: {}",
+                    productIds.size(), e.getMessage());
+            return;
+        }
+        publish(productIds);
+    }
+
+    /**
+     * Tells the other nodes to reload the given rows. Message format: {@code nodeId|id,id,...}.
+     */
+    public void publish(Collection<String> productIds) {
+        if (productIds.isEmpty()) {
+            return;
+        }
+        try {
+            redisCatalogTemplate.convertAndSend(channel, nodeId + SEPARATOR + String.join(",", productIds));
+        } catch (DataAccessException e) {
+            log.warn("Cannot announce changed products, other nodes pick them up on their next rebuild: {}",
+                    e.getMessage());
+        }
+    }
+
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        String[] parts = new String(message.getBody(), StandardCharsets.UTF_8).split("\\|", 2);
+        if (parts.length < 2 || nodeId.equals(parts[0]) || parts[1].isEmpty() || !ready) {
+            return;
+        }
+        reload(List.of(parts[1].split(",")));
+    }
+
+    private void reload(Collection<String> productIds) {
+        Set<String> missing = new HashSet<>(productIds);
+        for (Product product : productRepository.findAllById(productIds)) {
+            update(product);
+            missing.remove(product.getId());
+        }
+        missing.forEach(this::remove);
+        eventPublisher.publishEvent(new CatalogChangedEvent(productIds));
+    }
+
+    public boolean isReady() {
+        return ready;
+    }
+
+    public void update(Product product) {
+        if (product == null || product.getId() == null) {
+            return;
+        }
+        lock.writeLock().lock();
+        try {
+            columns.put(product);
+            if (rebuildChanges != null) {
+                rebuildChanges.put(product.getId(), product);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void remove(String productId) {
+        lock.writeLock().lock();
+        try {
+            columns.remove(productId);
+            if (rebuildChanges != null) {
+                rebuildChanges.put(productId, null);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public CatalogPage page(CatalogFilter filter, String sort, boolean ascending, int offset, int limit) {
+        lock.readLock().lock();
+        try {
+            Columns current = columns;
+            BitSet matches = current.matches(filter, true, true);
+            int[] order = current.sortOrders.computeIfAbsent(sort, current::sortOrder);
+            List<String> ids = new ArrayList<>(limit);
+            int skipped = 0;
+            for (int i = 0; i < order.length && ids.size() < limit; i++) {
+                int slot = order[ascending ? i : order.length - 1 - i];
+                if (!matches.get(slot)) {
+                    continue;
+                }
+                if (skipped < offset) {
+                    skipped++;
+                } else {
+                    ids.add(current.ids[slot]);
+                }
+            }
+            return new CatalogPage(ids, matches.cardinality());
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Pages through an externally ordered id list (e.g. search relevance), keeping only
+     * the ids that pass the filter.
+     */
+    public CatalogPage pageInOrder(CatalogFilter filter, List<String> orderedIds, int offset, int limit) {
+        lock.readLock().lock();
+        try {
+            Columns current = columns;
+            BitSet matches = current.matches(filter, true, true);
+            List<String> ids = new ArrayList<>(limit);
+            int skipped = 0;
+            for (String id : orderedIds) {
+                Integer slot = current.slots.get(id);
+                if (slot == null || !matches.get(slot)) {
+                    continue;
+                }
+                if (skipped < offset) {
+                    skipped++;
+                } else if (ids.size() < limit) {
+                    ids.add(id);
+                }
+            }
+            return new CatalogPage(ids, matches.cardinality());
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public boolean isAvailable(String productId) {
+        lock.readLock().lock();
+        try {
+            Columns current = columns;
+            Integer slot = current.slots.get(productId);
+            return slot != null && current.available.get(slot);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * {@link #related} of every available product in one pass. The ranking only depends on the
+     * categories a product is in, so it is computed once per distinct category set and each
+     * product of the set takes it without itself.
+     */
+    public Map<String, List<String>> relatedOfAvailable(int limit) {
+        lock.readLock().lock();
+        try {
+            Columns current = columns;
+            Map<Set<String>, List<Integer>> groups = new HashMap<>();
+            for (int slot = current.available.nextSetBit(0); slot >= 0; slot = current.available.nextSetBit(slot + 1)) {
+                Set<String> names = new HashSet<>();
+                for (Map.Entry<String, BitSet> category : current.categories.entrySet()) {
+                    if (category.getValue().get(slot)) {
+                        names.add(category.getKey());
+                    }
+                }
+                groups.computeIfAbsent(names, key -> new ArrayList<>()).add(slot);
+            }
+            Map<String, List<String>> related = new HashMap<>();
+            groups.forEach((names, slots) -> {
+                List<BitSet> shared = names.stream().map(current.categories::get).toList();
+                List<Integer> ranked = ranked(current, shared, -1, limit + 1);
+                for (int slot : slots) {
+                    related.put(current.ids[slot], ranked.stream()
+                            .filter(candidate -> candidate != slot)
+                            .limit(limit)
+                            .map(candidate -> current.ids[candidate])
+                            .toList());
+                }
+            });
+            return related;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Available products sharing at least one category with the given one. Products sharing
+     * more categories come first, then products in stock, then the best sellers.
+     */
+    public List<String> related(String productId, int limit) {
+        lock.readLock().lock();
+        try {
+            Columns current = columns;
+            Integer slot = current.slots.get(productId);
+            if (slot == null) {
+                return List.of();
+            }
+            List<BitSet> shared = current.categories.values().stream().filter(bits -> bits.get(slot)).toList();
+            return ranked(current, shared, slot, limit).stream().map(candidate -> current.ids[candidate]).toList();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * available slots in any of the shared categories except {@code exclude}, best related first
+     */
+    private static List<Integer> ranked(Columns current, List<BitSet> shared, int exclude, int limit) {
+        BitSet candidates = new BitSet();
+        shared.forEach(candidates::or);
+        candidates.and(current.available);
+        if (exclude >= 0) {
+            candidates.clear(exclude);
+        }
+        Map<Integer, Integer> overlap = new HashMap<>();
+        for (int candidate = candidates.nextSetBit(0); candidate >= 0; candidate = candidates.nextSetBit(candidate + 1)) {
+            int common = 0;
+            for (BitSet bits : shared) {
+                if (bits.get(candidate)) {
+                    common++;
+                }
+            }
+            overlap.put(candidate, common);
+        }
+        return overlap.keySet().stream()
+                .sorted(Comparator.<Integer>comparingInt(overlap::get).reversed()
+                        .thenComparing(candidate -> current.stock[candidate] <= 0)
+                        .thenComparing(Comparator.<Integer>comparingInt(candidate -> current.orders[candidate]).reversed())
+                        .thenComparing(candidate -> current.ids[candidate]))
+                .limit(limit)
+                .toList();
+    }
+
+    /**
+     * Same semantics as the $facet aggregation: category counts ignore the category filter,
+     * the histogram ignores the price range and splits prices into equal-frequency buckets.
+     */
+    public CatalogFacets facets(CatalogFilter filter, int buckets) {
+        lock.readLock().lock();
+        try {
+            Columns current = columns;
+            BitSet priced = current.matches(filter, true, false);
+            Map<String, Long> categoryCounts = new TreeMap<>();
+            current.categories.forEach((name, bits) -> {
+                BitSet inCategory = (BitSet) priced.clone();
+                inCategory.and(bits);
+                int count = inCategory.cardinality();
+                if (count > 0) {
+                    categoryCounts.put(name, (long) count);
+                }
+            });
+
+            BitSet categorized = current.matches(filter, false, true);
+            long[] prices = new long[categorized.cardinality()];
+            int n = 0;
+            for (int slot = categorized.nextSetBit(0); slot >= 0; slot = categorized.nextSetBit(slot + 1)) {
+                prices[n++] = current.prices[slot];
+            }
+            return new CatalogFacets(categoryCounts, histogram(prices, buckets));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private List<PriceBucket> histogram(long[] prices, int buckets) {
+        Arrays.sort(prices);
+        List<PriceBucket> histogram = new ArrayList<>();
+        int start = 0;
+        for (int bucket = 0; bucket < buckets && start < prices.length; bucket++) {
+            int end = (int) ((long) prices.length * (bucket + 1) / buckets);
+            if (end <= start) {
+                continue;
+            }
+            while (end < prices.length && prices[end] == prices[end - 1]) {
+                end++;
+            }
+            histogram.add(new PriceBucket(
+                    BigDecimal.valueOf(prices[start], 2),
+                    BigDecimal.valueOf(prices[end - 1], 2),
+                    end - start));
+            start = end;
+        }
+        return histogram;
+    }
+
+    public static long toCents(BigDecimal price) {
+        return price == null ? 0 : price.movePointRight(2).longValue();
+    }
+
+    private static final class Columns {
+        private final Map<String, Integer> slots = new HashMap<>();
+        private final BitSet live = new BitSet();
+        private final BitSet available = new BitSet();
+        private final Map<String, BitSet> categories = new HashMap<>();
+        private final Map<String, int[]> sortOrders = new ConcurrentHashMap<>();
+        private String[] ids;
+        private String[] names;
+        private long[] prices;
+        private int[] stock;
+        private int[] orders;
+        private double[] ratings;
+        private int size;
+
+        private Columns(int capacity) {
+            ids = new String[capacity];
+            names = new String[capacity];
+            prices = new long[capacity];
+            stock = new int[capacity];
+            orders = new int[capacity];
+            ratings = new double[capacity];
+        }
+
+        private void put(Product product) {
+            Integer slot = slots.get(product.getId());
+            boolean added = slot == null;
+            Map<String, int[]> moved = new HashMap<>();
+            if (added) {
+                ensureCapacity(size + 1);
+                slot = size++;
+                slots.put(product.getId(), slot);
+            } else {
+                for (Map.Entry<String, int[]> order : sortOrders.entrySet()) {
+                    if (changes(order.getKey(), slot, product)) {
+                        moved.put(order.getKey(), without(order.getValue(), slot, order.getKey()));
+                    }
+                }
+            }
+            ids[slot] = product.getId();
+            names[slot] = product.getName() == null ? "" : product.getName();
+            prices[slot] = toCents(product.getPrice());
+            stock[slot] = product.getAmountLeft();
+            orders[slot] = product.getOrders();
+            ratings[slot] = rating(product);
+            live.set(slot);
+            available.set(slot, product.isAvailable());
+            for (BitSet bits : categories.values()) {
+                bits.clear(slot);
+            }
+            if (product.getCategories() != null) {
+                for (Category category : product.getCategories()) {
+                    categories.computeIfAbsent(category.getName(), name -> new BitSet()).set(slot);
+                }
+            }
+            int row = slot;
+            if (added) {
+                sortOrders.replaceAll((sort, order) -> with(order, row, sort));
+            } else {
+                moved.forEach((sort, order) -> sortOrders.put(sort, with(order, row, sort)));
+            }
+        }
+
+        /**
+         * whether the product moves the row within the ordering by {@code sort}, read before the columns change
+         */
+        private boolean changes(String sort, int slot, Product product) {
+            return switch (sort) {
+                case "name" -> !names[slot].equals(product.getName() == null ? "" : product.getName());
+                case "price" -> prices[slot] != toCents(product.getPrice());
+                case "amountLeft" -> stock[slot] != product.getAmountLeft();
+                case "orders" -> orders[slot] != product.getOrders();
+                case "rating" -> ratings[slot] != rating(product);
+                default -> false;
+            };
+        }
+
+        private static double rating(Product product) {
+            return product.getRatings() == null || product.getRatings().isEmpty()
+                    ? 0.0
+                    : product.getRatings().values().iterator().next();
+        }
+
+        /**
+         * the ordering without the row, found by binary search with the row's current values
+         */
+        private int[] without(int[] order, int slot, String sort) {
+            int low = 0;
+            int high = order.length - 1;
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                int cmp = compare(sort, order[mid], slot);
+                if (cmp == 0) {
+                    int[] result = new int[order.length - 1];
+                    System.arraycopy(order, 0, result, 0, mid);
+                    System.arraycopy(order, mid + 1, result, mid, order.length - mid - 1);
+                    return result;
+                }
+                if (cmp < 0) {
+                    low = mid + 1;
+                } else {
+                    high = mid - 1;
+                }
+            }
+            throw new IllegalStateException("Row " + ids[slot] + " missing from the " + sort + " ordering");
+        }
+
+        private int[] with(int[] order, int slot, String sort) {
+            int low = 0;
+            int high = order.length;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (compare(sort, order[mid], slot) < 0) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            int[] result = new int[order.length + 1];
+            System.arraycopy(order, 0, result, 0, low);
+            result[low] = slot;
+            System.arraycopy(order, low, result, low + 1, order.length - low);
+            return result;
+        }
+
+        private void remove(String productId) {
+            Integer slot = slots.get(productId);
+            if (slot == null) {
+                return;
+            }
+            live.clear(slot);
+            available.clear(slot);
+            for (BitSet bits : categories.values()) {
+                bits.clear(slot);
+            }
+            // the row stays in the orderings, pages only take rows of the live bitset
+        }
+
+        private void ensureCapacity(int capacity) {
+            if (capacity <= ids.length) {
+                return;
+            }
+            int grown = Math.max(capacity, ids.length * 2);
+            ids = Arrays.copyOf(ids, grown);
+            names = Arrays.copyOf(names, grown);
+            prices = Arrays.copyOf(prices, grown);
+            stock = Arrays.copyOf(stock, grown);
+            orders = Arrays.copyOf(orders, grown);
+            ratings = Arrays.copyOf(ratings, grown);
+        }
+
+        private BitSet matches(CatalogFilter filter, boolean applyPrice, boolean applyCategories) {
+            BitSet bits = (BitSet) (filter.isOnlyAvailable() ? available : live).clone();
+            if (filter.getIds() != null) {
+                BitSet restricted = new BitSet();
+                for (String id : filter.getIds()) {
+                    Integer slot = slots.get(id);
+                    if (slot != null) {
+                        restricted.set(slot);
+                    }
+                }
+                bits.and(restricted);
+            }
+            if (applyCategories && filter.getCategories() != null && !filter.getCategories().isEmpty()) {
+                BitSet anyCategory = new BitSet();
+                for (String name : filter.getCategories()) {
+                    BitSet category = categories.get(name);
+                    if (category != null) {
+                        anyCategory.or(category);
+                    }
+                }
+                bits.and(anyCategory);
+            }
+            if (applyPrice) {
+                for (int slot = bits.nextSetBit(0); slot >= 0; slot = bits.nextSetBit(slot + 1)) {
+                    if (prices[slot] < filter.getMinPriceCents() || prices[slot] > filter.getMaxPriceCents()) {
+                        bits.clear(slot);
+                    }
+                }
+            }
+            return bits;
+        }
+
+        /**
+         * every row, removed ones included, so later writes can move rows without knowing which are listed
+         */
+        private int[] sortOrder(String sort) {
+            return IntStream.range(0, size)
+                    .boxed()
+                    .sorted((a, b) -> compare(sort, a, b))
+                    .mapToInt(Integer::intValue)
+                    .toArray();
+        }
+
+        private int compare(String sort, int a, int b) {
+            int cmp = switch (sort) {
+                case "name" -> names[a].compareTo(names[b]);
+                case "price" -> Long.compare(prices[a], prices[b]);
+                case "amountLeft" -> Integer.compare(stock[a], stock[b]);
+                case "orders" -> Integer.compare(orders[a], orders[b]);
+                case "rating" -> Double.compare(ratings[a], ratings[b]);
+                default -> 0;
+            };
+            return cmp != 0 ? cmp : ids[a].compareTo(ids[b]);
+        }
+    }
+}
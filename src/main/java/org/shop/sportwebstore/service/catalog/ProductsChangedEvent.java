@@ -0,0 +1,16 @@
+package org.shop.sportwebstore.service.catalog;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.util.Collection;
+
+/**
+ * Published by code that changes products directly in Mongo (stock $inc, reservations),
+ * so the in-memory views of those products can be refreshed.
+ */
+@Getter
+@AllArgsConstructor
+public class ProductsChangedEvent {
+    private final Collection<String> productIds;
+}
@@ -0,0 +1,155 @@
+package org.shop.sportwebstore.service.catalog;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.task.TaskExecutor;
+import org.springframework.stereotype.Component;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Related products of every available product, precomputed from the catalog on the
+ * application task executor. Changes are coalesced: any number of refresh calls while a
+ * computation is pending result in a single recomputation. A full computation ranks each distinct
+ * set of categories once instead of every product on its own. Afterwards only the changed products, the
+ * products listing them and the products they list are recomputed; a product that starts to
+ * qualify for the list of an unrelated one shows up there after the next full refresh.
+ * Cached product details whose related list changed, or that show one of the changed
+ * products, are evicted afterwards.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class RelatedProducts {
+
+    public static final int LIMIT = 4;
+    public static final String DETAILS_CACHE = "productDetails";
+
+    private final ProductCatalog productCatalog;
+    private final CacheManager cacheManager;
+    private final TaskExecutor taskExecutor;
+
+    private final Set<String> pendingChanges = ConcurrentHashMap.newKeySet();
+    private final AtomicBoolean fullPending = new AtomicBoolean(true);
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+    private volatile Map<String, List<String>> related = new ConcurrentHashMap<>();
+    /**
+     * product id to the products whose related list contains it, only touched by recompute
+     */
+    private Map<String, Set<String>> listedBy = new HashMap<>();
+
+    /**
+     * @return precomputed related product ids, or null when the product isn't known yet
+     */
+    public List<String> get(String productId) {
+        return related.get(productId);
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void refreshAll() {
+        fullPending.set(true);
+        refresh(List.of());
+    }
+
+    public void refresh(Collection<String> changedProductIds) {
+        pendingChanges.addAll(changedProductIds);
+        if (scheduled.compareAndSet(false, true)) {
+            taskExecutor.execute(this::recompute);
+        }
+    }
+
+    synchronized void recompute() {
+        scheduled.set(false);
+        if (!productCatalog.isReady()) {
+            return;
+        }
+        Set<String> changed = new HashSet<>();
+        for (Iterator<String> it = pendingChanges.iterator(); it.hasNext(); ) {
+            changed.add(it.next());
+            it.remove();
+        }
+        long start = System.currentTimeMillis();
+        if (fullPending.getAndSet(false)) {
+            recomputeAll(changed);
+        } else if (!changed.isEmpty()) {
+            recomputeAffected(changed);
+        } else {
+            return;
+        }
+        log.debug("Related products recomputed in {} ms, {} changed.", System.currentTimeMillis() - start,
+                changed.size());
+    }
+
+    private void recomputeAll(Set<String> changed) {
+        Map<String, List<String>> previous = related;
+        Map<String, List<String>> computed = new ConcurrentHashMap<>(productCatalog.relatedOfAvailable(LIMIT));
+        related = computed;
+        listedBy = new HashMap<>();
+        computed.forEach(this::index);
+
+        List<String> stale = computed.entrySet().stream()
+                .filter(entry -> !entry.getValue().equals(previous.get(entry.getKey()))
+                        || entry.getValue().stream().anyMatch(changed::contains))
+                .map(Map.Entry::getKey)
+                .toList();
+        Cache details = cacheManager.getCache(DETAILS_CACHE);
+        if (previous.isEmpty() || stale.size() > computed.size() / 2) {
+            details.clear();
+        } else {
+            stale.forEach(details::evict);
+        }
+    }
+
+    private void recomputeAffected(Set<String> changed) {
+        Set<String> affected = new HashSet<>(changed);
+        for (String id : changed) {
+            affected.addAll(listedBy.getOrDefault(id, Set.of()));
+            affected.addAll(related.getOrDefault(id, List.of()));
+        }
+        Cache details = cacheManager.getCache(DETAILS_CACHE);
+        for (String id : affected) {
+            List<String> previous = related.get(id);
+            List<String> computed = productCatalog.isAvailable(id) ? productCatalog.related(id, LIMIT) : null;
+            if (Objects.equals(previous, computed)) {
+                if (computed != null && computed.stream().anyMatch(changed::contains)) {
+                    details.evict(id);
+                }
+                continue;
+            }
+            if (previous != null) {
+                previous.forEach(listed -> unindex(id, listed));
+            }
+            if (computed == null) {
+                related.remove(id);
+            } else {
+                related.put(id, computed);
+                index(id, computed);
+            }
+            details.evict(id);
+        }
+    }
+
+    private void index(String productId, List<String> relatedIds) {
+        relatedIds.forEach(listed -> listedBy.computeIfAbsent(listed, key -> new HashSet<>()).add(productId));
+    }
+
+    private void unindex(String productId, String listed) {
+        Set<String> owners = listedBy.get(listed);
+        if (owners != null && owners.remove(productId) && owners.isEmpty()) {
+            listedBy.remove(listed);
+        }
+    }
+
+    @EventListener
+    public void onCatalogChanged(CatalogChangedEvent event) {
+        Cache details = cacheManager.getCache(DETAILS_CACHE);
+        event.getProductIds().forEach(details::evict);
+        refresh(event.getProductIds());
+    }
+}
@@ -0,0 +1,310 @@
+package org.shop.sportwebstore.service.mail;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import jakarta.mail.Address;
+import jakarta.mail.MessagingException;
+import jakarta.mail.SendFailedException;
+import jakarta.mail.internet.AddressException;
+import jakarta.mail.internet.MimeMessage;
+import lombok.extern.slf4j.Slf4j;
+import org.shop.sportwebstore.model.OutboxStatus;
+import org.shop.sportwebstore.model.entity.OutboxEmail;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.mail.javamail.MimeMessageHelper;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.util.Date;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Emails are rendered by the order and user flows and stored in the {@code email_outbox} collection;
+ * a single sender drains it in batches over one SMTP session that stays open between batches.
+ * <p>
+ * A batch is claimed with one update tagging up to {@code batch-size} due emails, so several nodes
+ * can share the outbox, and its outcome is written back with one bulk write. Refused recipients (5xx)
+ * and malformed addresses are dead right away, temporary failures are retried with exponential backoff
+ * until {@code max-attempts}.
+ * When the session itself breaks the rest of the batch goes back to the queue without using an attempt.
+ */
+@Slf4j
+@Service
+public class EmailOutbox {
+
+    private static final int MAX_ERROR_LENGTH = 500;
+
+    private final MongoTemplate mongoTemplate;
+    private final SmtpConnection connection;
+    private final MeterRegistry meterRegistry;
+    private final String sender;
+    private final int batchSize;
+    private final int maxAttempts;
+    private final Duration retryBackoff;
+    private final Duration maxBackoff;
+    private final Duration lease;
+    private final Duration pollDelay;
+    private final Duration idleClose;
+    private final ExecutorService worker = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "email-sender");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final Semaphore wakeUp = new Semaphore(0);
+    private final Timer sendLatency;
+    private final Timer deliveryLag;
+    private final AtomicLong pending = new AtomicLong();
+    private final AtomicLong dead = new AtomicLong();
+    private final AtomicLong oldestPendingAge = new AtomicLong();
+    private volatile boolean running;
+
+    public EmailOutbox(MongoTemplate mongoTemplate,
+                       SmtpConnection connection,
+                       MeterRegistry meterRegistry,
+                       @Value("${spring.mail.username}") String sender,
+                       @Value("${store.mail.outbox.batch-size:50}") int batchSize,
+                       @Value("${store.mail.outbox.max-attempts:10}") int maxAttempts,
+                       @Value("${store.mail.outbox.retry-backoff:30s}") Duration retryBackoff,
+                       @Value("${store.mail.outbox.max-backoff:1h}") Duration maxBackoff,
+                       @Value("${store.mail.outbox.lease:5m}") Duration lease,
+                       @Value("${store.mail.outbox.poll-delay:5s}") Duration pollDelay,
+                       @Value("${store.mail.outbox.idle-close:60s}") Duration idleClose) {
+        this.mongoTemplate = mongoTemplate;
+        this.connection = connection;
+        this.meterRegistry = meterRegistry;
+        this.sender = sender;
+        this.batchSize = batchSize;
+        this.maxAttempts = maxAttempts;
+        this.retryBackoff = retryBackoff;
+        this.maxBackoff = maxBackoff;
+        this.lease = lease;
+        this.pollDelay = pollDelay;
+        this.idleClose = idleClose;
+        this.sendLatency = Timer.builder("store.mail.send.latency")
+                .publishPercentiles(0.5, 0.95, 0.99)
+                .register(meterRegistry);
+        this.deliveryLag = meterRegistry.timer("store.mail.delivery.lag");
+        meterRegistry.gauge("store.mail.outbox.depth", Tags.of("status", "pending"), pending);
+        meterRegistry.gauge("store.mail.outbox.depth", Tags.of("status", "dead"), dead);
+        meterRegistry.gauge("store.mail.outbox.lag", oldestPendingAge, age -> age.get() / 1000.0);
+    }
+
+    public void enqueue(String recipient, String subject, String html, String kind) {
+        mongoTemplate.insert(new OutboxEmail(recipient, subject, html, kind, new Date()));
+        count("queued");
+        if (wakeUp.availablePermits() == 0) {
+            wakeUp.release();
+        }
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        running = true;
+        worker.execute(this::work);
+    }
+
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        running = false;
+        worker.shutdownNow();
+        worker.awaitTermination(lease.toMillis(), TimeUnit.MILLISECONDS);
+        connection.close();
+    }
+
+    private void work() {
+        while (running) {
+            try {
+                if (sendBatch() < batchSize) {
+                    connection.closeIfIdle(idleClose);
+                    wakeUp.tryAcquire(pollDelay.toMillis(), TimeUnit.MILLISECONDS);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (RuntimeException e) {
+                log.warn("Email sender cannot reach the outbox: {}", e.getMessage());
+                try {
+                    Thread.sleep(pollDelay.toMillis());
+                } catch (InterruptedException interrupted) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Claims and sends the next batch of due emails.
+     *
+     * @return number of emails claimed, 0 when nothing was due
+     */
+    int sendBatch() {
+        List<OutboxEmail> batch = claim();
+        if (batch.isEmpty()) {
+            return 0;
+        }
+        BulkOperations results = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, OutboxEmail.class);
+        boolean connected = connect();
+        int written = 0;
+        try {
+            for (OutboxEmail email : batch) {
+                Update outcome;
+                if (!connected) {
+                    outcome = release();
+                    count("released");
+                } else {
+                    try {
+                        send(email);
+                        Date sentAt = new Date();
+                        outcome = new Update()
+                                .set("status", OutboxStatus.SENT)
+                                .set("sentAt", sentAt)
+                                .unset("lockedUntil")
+                                .unset("claim");
+                        deliveryLag.record(sentAt.getTime() - email.getCreatedAt().getTime(), TimeUnit.MILLISECONDS);
+                        count("sent");
+                    } catch (SendFailedException e) {
+                        outcome = failure(email, e, isRefused(e));
+                    } catch (AddressException e) {
+                        // the message was never handed to the server, the session is fine
+                        outcome = failure(email, e, true);
+                    } catch (MessagingException e) {
+                        log.warn("SMTP session failed, the rest of the batch goes back to the outbox: {}", e.getMessage());
+                        outcome = failure(email, e, false);
+                        connected = false;
+                    } catch (RuntimeException e) {
+                        // a broken email must not hold up the rest of the batch
+                        outcome = failure(email, e, false);
+                    }
+                }
+                results.updateOne(Query.query(Criteria.where("_id").is(email.getId()).and("claim").is(email.getClaim())),
+                        outcome);
+                written++;
+            }
+        } finally {
+            // emails left without an outcome by an unexpected error stay claimed until their lease runs out
+            if (written > 0) {
+                results.execute();
+            }
+        }
+        return batch.size();
+    }
+
+    private boolean connect() {
+        try {
+            connection.open();
+            return true;
+        } catch (MessagingException e) {
+            log.warn("Cannot connect to the SMTP server, emails stay in the outbox: {}", e.getMessage());
+            return false;
+        }
+    }
+
+    private List<OutboxEmail> claim() {
+        Date now = new Date();
+        Criteria due = new Criteria().orOperator(
+                Criteria.where("status").is(OutboxStatus.PENDING).and("nextAttemptAt").lte(now),
+                Criteria.where("status").is(OutboxStatus.SENDING).and("lockedUntil").lte(now));
+        Query candidates = new Query(due).with(Sort.by("nextAttemptAt")).limit(batchSize);
+        candidates.fields().include("_id");
+        List<String> ids = mongoTemplate.find(candidates, OutboxEmail.class).stream().map(OutboxEmail::getId).toList();
+        if (ids.isEmpty()) {
+            return List.of();
+        }
+        String claim = UUID.randomUUID().toString();
+        // other nodes may have taken some of the candidates meanwhile, repeating the due filter skips those
+        mongoTemplate.updateMulti(Query.query(new Criteria().andOperator(Criteria.where("_id").in(ids), due)),
+                new Update()
+                        .set("status", OutboxStatus.SENDING)
+                        .set("claim", claim)
+                        .set("lockedUntil", new Date(now.getTime() + lease.toMillis()))
+                        .inc("attempts", 1),
+                OutboxEmail.class);
+        return mongoTemplate.find(Query.query(Criteria.where("claim").is(claim)).with(Sort.by("nextAttemptAt")),
+                OutboxEmail.class);
+    }
+
+    private void send(OutboxEmail email) throws MessagingException {
+        MimeMessage message = connection.createMessage();
+        MimeMessageHelper helper = new MimeMessageHelper(message, true);
+        helper.setFrom(sender);
+        helper.setTo(email.getRecipient());
+        helper.setSubject(email.getSubject());
+        helper.setText(email.getHtml(), true);
+        long start = System.nanoTime();
+        try {
+            connection.send(message);
+        } finally {
+            sendLatency.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    /**
+     * the server refused a recipient permanently (5xx), sending again cannot succeed
+     */
+    private static boolean isRefused(SendFailedException e) {
+        Address[] invalid = e.getInvalidAddresses();
+        return invalid != null && invalid.length > 0;
+    }
+
+    private Update failure(OutboxEmail email, Exception e, boolean permanent) {
+        String error = e.getMessage() == null ? e.getClass().getSimpleName() : e.getMessage().strip();
+        Update update = new Update()
+                .set("lastError", error.length() > MAX_ERROR_LENGTH ? error.substring(0, MAX_ERROR_LENGTH) : error)
+                .unset("lockedUntil")
+                .unset("claim");
+        if (permanent || email.getAttempts() >= maxAttempts) {
+            log.error("Email {} ({}) to {} moved to dead letters after {} attempts: {}",
+                    email.getId(), email.getKind(), email.getRecipient(), email.getAttempts(), error);
+            count("dead");
+            return update.set("status", OutboxStatus.DEAD);
+        }
+        log.warn("Email {} ({}) failed on attempt {}: {}", email.getId(), email.getKind(), email.getAttempts(), error);
+        count("retried");
+        return update.set("status", OutboxStatus.PENDING)
+                .set("nextAttemptAt", new Date(System.currentTimeMillis() + backoff(email.getAttempts()).toMillis()));
+    }
+
+    private static Update release() {
+        return new Update()
+                .set("status", OutboxStatus.PENDING)
+                .inc("attempts", -1)
+                .unset("lockedUntil")
+                .unset("claim");
+    }
+
+    Duration backoff(int attempts) {
+        Duration backoff = retryBackoff.multipliedBy(1L << Math.min(attempts - 1, 20));
+        return backoff.compareTo(maxBackoff) > 0 ? maxBackoff : backoff;
+    }
+
+    @Scheduled(fixedDelayString = "${store.mail.outbox.stats-delay:15s}")
+    public void refreshStats() {
+        Query waiting = Query.query(Criteria.where("status").in(OutboxStatus.PENDING, OutboxStatus.SENDING));
+        pending.set(mongoTemplate.count(waiting, OutboxEmail.class));
+        dead.set(mongoTemplate.count(Query.query(Criteria.where("status").is(OutboxStatus.DEAD)), OutboxEmail.class));
+        OutboxEmail oldest = mongoTemplate.findOne(waiting.with(Sort.by("createdAt")).limit(1), OutboxEmail.class);
+        oldestPendingAge.set(oldest == null ? 0 : System.currentTimeMillis() - oldest.getCreatedAt().getTime());
+    }
+
+    private void count(String result) {
+        meterRegistry.counter("store.mail.outbox.messages", "result", result).increment();
+    }
+}
@@ -0,0 +1,98 @@
+package org.shop.sportwebstore.service.mail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Template with {@code {{name}}} placeholders, split once into literal fragments and slots so a render
+ * is a sequence of appends instead of {@code String.format} parsing the whole body again.
+ * Values are passed in the order the names were declared at {@link #compile}; unknown placeholders
+ * fail at compile time. A value can be a {@link Part} that writes itself straight into the output,
+ * e.g. the item rows of an order.
+ */
+public final class EmailTemplate {
+
+    private static final String OPEN = "{{";
+    private static final String CLOSE = "}}";
+    private static final int BUFFER_SIZE = 16 * 1024;
+    /**
+     * a buffer grown by an unusually large email is dropped instead of being kept by the thread
+     */
+    private static final int MAX_KEPT_BUFFER = 256 * 1024;
+    private static final ThreadLocal<StringBuilder> BUFFER = ThreadLocal.withInitial(() -> new StringBuilder(BUFFER_SIZE));
+
+    @FunctionalInterface
+    public interface Part {
+        /**
+         * must write with {@link #renderTo}, {@link #render} would reuse the buffer being written
+         */
+        void writeTo(StringBuilder out);
+    }
+
+    private final String[] literals;
+    private final int[] slots;
+    private final int arity;
+
+    private EmailTemplate(String[] literals, int[] slots, int arity) {
+        this.literals = literals;
+        this.slots = slots;
+        this.arity = arity;
+    }
+
+    public static EmailTemplate compile(String source, String... names) {
+        List<String> declared = Arrays.asList(names);
+        List<String> literals = new ArrayList<>();
+        List<Integer> slots = new ArrayList<>();
+        int position = 0;
+        for (int open = source.indexOf(OPEN); open >= 0; open = source.indexOf(OPEN, position)) {
+            int close = source.indexOf(CLOSE, open + OPEN.length());
+            if (close < 0) {
+                throw new IllegalArgumentException("Unclosed placeholder at " + open);
+            }
+            String name = source.substring(open + OPEN.length(), close).trim();
+            int slot = declared.indexOf(name);
+            if (slot < 0) {
+                throw new IllegalArgumentException("Undeclared placeholder {{" + name + "}}");
+            }
+            literals.add(source.substring(position, open));
+            slots.add(slot);
+            position = close + CLOSE.length();
+        }
+        literals.add(source.substring(position));
+        return new EmailTemplate(literals.toArray(String[]::new), slots.stream().mapToInt(Integer::intValue).toArray(),
+                names.length);
+    }
+
+    /**
+     * renders into the calling thread's buffer and copies the result out
+     */
+    public String render(Object... values) {
+        StringBuilder out = BUFFER.get();
+        out.setLength(0);
+        renderTo(out, values);
+        String rendered = out.toString();
+        if (out.capacity() > MAX_KEPT_BUFFER) {
+            BUFFER.remove();
+        }
+        return rendered;
+    }
+
+    public void renderTo(StringBuilder out, Object... values) {
+        if (values.length != arity) {
+            throw new IllegalArgumentException("Expected " + arity + " values, got " + values.length);
+        }
+        for (int i = 0; i < slots.length; i++) {
+            out.append(literals[i]);
+            Object value = values[slots[i]];
+            if (value instanceof Part part) {
+                part.writeTo(out);
+            } else if (value instanceof CharSequence text) {
+                out.append(text);
+            } else {
+                out.append(value);
+            }
+        }
+        out.append(literals[slots.length]);
+    }
+}
@@ -0,0 +1,105 @@
+package org.shop.sportwebstore.service.mail;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.mail.MessagingException;
+import jakarta.mail.SendFailedException;
+import jakarta.mail.Transport;
+import jakarta.mail.internet.MimeMessage;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.mail.javamail.JavaMailSenderImpl;
+
+import java.time.Duration;
+
+/**
+ * One SMTP session kept open across messages, instead of the connect/authenticate/quit round trips
+ * {@link JavaMailSenderImpl#send} makes for every call. A session idle for longer than
+ * {@code checkAfter} is probed with NOOP before reuse, since servers drop idle clients.
+ * Not thread safe, it belongs to the single outbox sender.
+ */
+@Slf4j
+public class SmtpConnection implements AutoCloseable {
+
+    private final JavaMailSenderImpl mailSender;
+    private final long checkAfterMillis;
+    private final Counter opened;
+    private Transport transport;
+    private long lastUsed;
+
+    public SmtpConnection(JavaMailSenderImpl mailSender, Duration checkAfter, MeterRegistry meterRegistry) {
+        this.mailSender = mailSender;
+        this.checkAfterMillis = checkAfter.toMillis();
+        this.opened = meterRegistry.counter("store.mail.smtp.connections");
+    }
+
+    public MimeMessage createMessage() {
+        return mailSender.createMimeMessage();
+    }
+
+    /**
+     * @throws SendFailedException when the server refused the message or its recipients, the session stays usable
+     * @throws MessagingException  when the session broke, it is closed and the next send reconnects
+     */
+    public void send(MimeMessage message) throws MessagingException {
+        Transport current = open();
+        try {
+            message.saveChanges();
+            current.sendMessage(message, message.getAllRecipients());
+            lastUsed = System.currentTimeMillis();
+        } catch (SendFailedException e) {
+            lastUsed = System.currentTimeMillis();
+            throw e;
+        } catch (MessagingException e) {
+            close();
+            throw e;
+        }
+    }
+
+    public boolean isOpen() {
+        return transport != null;
+    }
+
+    public void closeIfIdle(Duration idle) {
+        if (transport != null && System.currentTimeMillis() - lastUsed >= idle.toMillis()) {
+            close();
+        }
+    }
+
+    /**
+     * connects unless a usable session is open already
+     */
+    public Transport open() throws MessagingException {
+        if (transport != null && System.currentTimeMillis() - lastUsed > checkAfterMillis && !transport.isConnected()) {
+            close();
+        }
+        if (transport == null) {
+            String protocol = mailSender.getProtocol();
+            if (protocol == null) {
+                protocol = mailSender.getSession().getProperty("mail.transport.protocol");
+            }
+            Transport created = mailSender.getSession().getTransport(protocol == null ? JavaMailSenderImpl.DEFAULT_PROTOCOL : protocol);
+            String username = mailSender.getUsername();
+            String password = mailSender.getPassword();
+            created.connect(mailSender.getHost(), mailSender.getPort(),
+                    username == null || username.isEmpty() ? null : username,
+                    password == null || password.isEmpty() ? null : password);
+            transport = created;
+            lastUsed = System.currentTimeMillis();
+            opened.increment();
+        }
+        return transport;
+    }
+
+    @Override
+    public void close() {
+        if (transport == null) {
+            return;
+        }
+        try {
+            transport.close();
+        } catch (MessagingException e) {
+            log.debug("Closing SMTP session failed: {}", e.getMessage());
+        }
+        transport = null;
+    }
+}
@@ -0,0 +1,9 @@
+package org.shop.sportwebstore.service.payment;
+
+/**
+ * @param amount        in the currency's smallest unit
+ * @param paymentMethod provider payment method type, e.g. {@code CARD}
+ */
+public record CheckoutRequest(String orderId, long amount, String currency, String paymentMethod,
+                              String customerEmail, String successUrl, String cancelUrl) {
+}
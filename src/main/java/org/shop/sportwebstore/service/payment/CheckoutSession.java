@@ -0,0 +1,7 @@
+package org.shop.sportwebstore.service.payment;
+
+/**
+ * @param url hosted payment page the customer is sent to
+ */
+public record CheckoutSession(String id, String url) {
+}
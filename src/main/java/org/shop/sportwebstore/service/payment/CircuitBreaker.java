@@ -0,0 +1,122 @@
+package org.shop.sportwebstore.service.payment;
+
+import java.time.Duration;
+import java.util.function.LongSupplier;
+
+/**
+ * Count-based breaker: opens once at least {@code failureRate} of the last {@code windowSize} calls
+ * failed (and {@code minimumCalls} were made), refuses calls for {@code openDuration}, then lets a
+ * single trial call through. The trial closes the breaker again or reopens it.
+ */
+public class CircuitBreaker {
+
+    public enum State {
+        CLOSED,
+        HALF_OPEN,
+        OPEN
+    }
+
+    private final boolean[] outcomes;
+    private final int minimumCalls;
+    private final double failureRate;
+    private final long openMillis;
+    private final LongSupplier clock;
+
+    private State state = State.CLOSED;
+    private int next;
+    private int calls;
+    private int failures;
+    private long openedAt;
+    private boolean trialRunning;
+
+    public CircuitBreaker(int windowSize, int minimumCalls, double failureRate, Duration openDuration) {
+        this(windowSize, minimumCalls, failureRate, openDuration, System::currentTimeMillis);
+    }
+
+    CircuitBreaker(int windowSize, int minimumCalls, double failureRate, Duration openDuration, LongSupplier clock) {
+        this.outcomes = new boolean[windowSize];
+        this.minimumCalls = Math.min(minimumCalls, windowSize);
+        this.failureRate = failureRate;
+        this.openMillis = openDuration.toMillis();
+        this.clock = clock;
+    }
+
+    /**
+     * @return false when the call must not be made; a permitted call has to report its outcome
+     */
+    public synchronized boolean tryAcquire() {
+        if (state == State.OPEN) {
+            if (clock.getAsLong() - openedAt < openMillis) {
+                return false;
+            }
+            state = State.HALF_OPEN;
+            trialRunning = false;
+        }
+        if (state == State.HALF_OPEN) {
+            if (trialRunning) {
+                return false;
+            }
+            trialRunning = true;
+        }
+        return true;
+    }
+
+    public synchronized void onSuccess() {
+        if (state == State.HALF_OPEN) {
+            close();
+            return;
+        }
+        record(false);
+    }
+
+    public synchronized void onFailure() {
+        if (state == State.HALF_OPEN) {
+            open();
+            return;
+        }
+        record(true);
+        if (calls >= minimumCalls && failures >= failureRate * calls) {
+            open();
+        }
+    }
+
+    public synchronized State state() {
+        return state;
+    }
+
+    /**
+     * time left until a trial call is let through, 0 when not open
+     */
+    public synchronized long retryAfterMillis() {
+        return state == State.OPEN ? Math.max(0, openMillis - (clock.getAsLong() - openedAt)) : 0;
+    }
+
+    private void record(boolean failed) {
+        if (calls == outcomes.length) {
+            if (outcomes[next]) {
+                failures--;
+            }
+        } else {
+            calls++;
+        }
+        outcomes[next] = failed;
+        if (failed) {
+            failures++;
+        }
+        next = (next + 1) % outcomes.length;
+    }
+
+    private void open() {
+        state = State.OPEN;
+        openedAt = clock.getAsLong();
+        trialRunning = false;
+    }
+
+    private void close() {
+        state = State.CLOSED;
+        trialRunning = false;
+        next = 0;
+        calls = 0;
+        failures = 0;
+    }
+}
@@ -0,0 +1,13 @@
+package org.shop.sportwebstore.service.payment;
+
+/**
+ * Hosted checkout of a payment provider.
+ */
+public interface PaymentGateway {
+
+    /**
+     * @throws org.shop.sportwebstore.exception.PaymentUnavailableException when the provider can't be reached
+     * @throws org.shop.sportwebstore.exception.PaymentException             when the provider refuses the request
+     */
+    CheckoutSession createCheckoutSession(CheckoutRequest request);
+}
@@ -0,0 +1,57 @@
+package org.shop.sportwebstore.service.payment;
+
+import com.stripe.exception.ApiConnectionException;
+import com.stripe.net.HttpClient;
+import com.stripe.net.HttpContent;
+import com.stripe.net.HttpHeaders;
+import com.stripe.net.StripeRequest;
+import com.stripe.net.StripeResponse;
+
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+
+/**
+ * Sends Stripe requests through one shared {@link java.net.http.HttpClient}, which keeps connections
+ * alive between calls (and multiplexes them over HTTP/2) instead of the per-request
+ * {@code HttpURLConnection} of the default client. Stripe's retry handling still applies on top.
+ */
+public class PooledStripeHttpClient extends HttpClient {
+
+    private final java.net.http.HttpClient client;
+
+    public PooledStripeHttpClient(java.net.http.HttpClient client) {
+        this.client = client;
+    }
+
+    @Override
+    public StripeResponse request(StripeRequest request) throws ApiConnectionException {
+        try {
+            HttpRequest.Builder builder = HttpRequest.newBuilder(request.url().toURI())
+                    .timeout(Duration.ofMillis(request.options().getReadTimeout()))
+                    .header("User-Agent", buildUserAgentString(request))
+                    .header("X-Stripe-Client-User-Agent", buildXStripeClientUserAgentString());
+            request.headers().map().forEach((name, values) -> values.forEach(value -> builder.header(name, value)));
+            HttpContent content = request.content();
+            if (content == null) {
+                builder.method(request.method().name(), HttpRequest.BodyPublishers.noBody());
+            } else {
+                builder.header("Content-Type", content.contentType())
+                        .method(request.method().name(), HttpRequest.BodyPublishers.ofByteArray(content.byteArrayContent()));
+            }
+            HttpResponse<String> response = client.send(builder.build(), HttpResponse.BodyHandlers.ofString(StandardCharsets.UTF_8));
+            return new StripeResponse(response.statusCode(), HttpHeaders.of(response.headers().map()), response.body());
+        } catch (IOException e) {
+            throw new ApiConnectionException("IOException during API request to Stripe (" + request.url() + "): "
+                    + e.getMessage(), e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ApiConnectionException("Interrupted during API request to Stripe", e);
+        } catch (URISyntaxException e) {
+            throw new ApiConnectionException("Invalid Stripe URL " + request.url(), e);
+        }
+    }
+}
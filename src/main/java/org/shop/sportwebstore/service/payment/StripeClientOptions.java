@@ -0,0 +1,91 @@
+package org.shop.sportwebstore.service.payment;
+
+import com.stripe.Stripe;
+import com.stripe.net.Authenticator;
+import com.stripe.net.BearerTokenAuthenticator;
+import com.stripe.net.StripeResponseGetterOptions;
+
+import java.net.PasswordAuthentication;
+import java.net.Proxy;
+import java.time.Duration;
+
+/**
+ * Per-client settings, so nothing depends on the global {@code Stripe.apiKey}.
+ */
+public class StripeClientOptions extends StripeResponseGetterOptions {
+
+    private final Authenticator authenticator;
+    private final int connectTimeout;
+    private final int readTimeout;
+    private final int maxNetworkRetries;
+    private final String apiBase;
+
+    public StripeClientOptions(String apiKey, Duration connectTimeout, Duration readTimeout, int maxNetworkRetries,
+                               String apiBase) {
+        this.authenticator = new BearerTokenAuthenticator(apiKey);
+        this.connectTimeout = (int) connectTimeout.toMillis();
+        this.readTimeout = (int) readTimeout.toMillis();
+        this.maxNetworkRetries = maxNetworkRetries;
+        this.apiBase = apiBase == null || apiBase.isBlank() ? Stripe.LIVE_API_BASE : apiBase;
+    }
+
+    @Override
+    public Authenticator getAuthenticator() {
+        return authenticator;
+    }
+
+    @Override
+    public String getClientId() {
+        return null;
+    }
+
+    @Override
+    public int getConnectTimeout() {
+        return connectTimeout;
+    }
+
+    @Override
+    public Proxy getConnectionProxy() {
+        return null;
+    }
+
+    @Override
+    public int getMaxNetworkRetries() {
+        return maxNetworkRetries;
+    }
+
+    @Override
+    public PasswordAuthentication getProxyCredential() {
+        return null;
+    }
+
+    @Override
+    public String getApiBase() {
+        return apiBase;
+    }
+
+    @Override
+    public String getFilesBase() {
+        return Stripe.UPLOAD_API_BASE;
+    }
+
+    @Override
+    public String getConnectBase() {
+        return Stripe.CONNECT_API_BASE;
+    }
+
+    @Override
+    public String getMeterEventsBase() {
+        return Stripe.METER_EVENTS_API_BASE;
+    }
+
+    @Override
+    public int getReadTimeout() {
+        return readTimeout;
+    }
+
+    @Override
+    public String getStripeContext() {
+        return null;
+    }
+}
@@ -0,0 +1,120 @@
+package org.shop.sportwebstore.service.payment;
+
+import com.stripe.StripeClient;
+import com.stripe.exception.ApiConnectionException;
+import com.stripe.exception.RateLimitException;
+import com.stripe.exception.StripeException;
+import com.stripe.model.checkout.Session;
+import com.stripe.param.checkout.SessionCreateParams;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.shop.sportwebstore.exception.PaymentException;
+import org.shop.sportwebstore.exception.PaymentUnavailableException;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Stripe checkout sessions behind a {@link CircuitBreaker}. Connection errors, timeouts, rate limiting
+ * and 5xx answers count as failures; a request Stripe refuses (4xx) means Stripe is up and counts as success.
+ * Latency is recorded as {@code store.payment.gateway.latency} with percentiles, tagged by result.
+ */
+@Slf4j
+public class StripePaymentGateway implements PaymentGateway {
+
+    private static final String PRODUCT_NAME = "SportWebStore";
+
+    private final StripeClient client;
+    private final CircuitBreaker circuitBreaker;
+    private final Timer succeeded;
+    private final Timer refused;
+    private final Timer failed;
+    private final MeterRegistry meterRegistry;
+
+    public StripePaymentGateway(StripeClient client, CircuitBreaker circuitBreaker, MeterRegistry meterRegistry) {
+        this.client = client;
+        this.circuitBreaker = circuitBreaker;
+        this.meterRegistry = meterRegistry;
+        this.succeeded = latency(meterRegistry, "success");
+        this.refused = latency(meterRegistry, "refused");
+        this.failed = latency(meterRegistry, "failure");
+        meterRegistry.gauge("store.payment.gateway.circuit", circuitBreaker, breaker -> breaker.state().ordinal());
+    }
+
+    @Override
+    public CheckoutSession createCheckoutSession(CheckoutRequest request) {
+        if (!circuitBreaker.tryAcquire()) {
+            meterRegistry.counter("store.payment.gateway.rejected", "gateway", "stripe").increment();
+            throw unavailable();
+        }
+        long start = System.nanoTime();
+        boolean reported = false;
+        try {
+            Session session = client.checkout().sessions().create(params(request));
+            circuitBreaker.onSuccess();
+            reported = true;
+            succeeded.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            return new CheckoutSession(session.getId(), session.getUrl());
+        } catch (StripeException e) {
+            reported = true;
+            if (isProviderFailure(e)) {
+                circuitBreaker.onFailure();
+                failed.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+                log.warn("Stripe unavailable for order {}: {}", request.orderId(), e.getMessage());
+                throw unavailable();
+            }
+            circuitBreaker.onSuccess();
+            refused.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            throw new PaymentException("Error during payment. " + e.getMessage());
+        } finally {
+            // any other exception still has to report, or a half-open breaker keeps its trial forever
+            if (!reported) {
+                circuitBreaker.onFailure();
+                failed.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            }
+        }
+    }
+
+    private PaymentUnavailableException unavailable() {
+        long retryAfter = Math.max(1, (circuitBreaker.retryAfterMillis() + 999) / 1000);
+        return new PaymentUnavailableException("Payment provider is unavailable, try again shortly.", retryAfter);
+    }
+
+    private static boolean isProviderFailure(StripeException e) {
+        return e instanceof ApiConnectionException
+                || e instanceof RateLimitException
+                || e.getStatusCode() != null && e.getStatusCode() >= 500;
+    }
+
+    private static SessionCreateParams params(CheckoutRequest request) {
+        var productData = SessionCreateParams.LineItem.PriceData.ProductData.builder()
+                .setName(PRODUCT_NAME)
+                .build();
+        var priceData = SessionCreateParams.LineItem.PriceData.builder()
+                .setCurrency(request.currency())
+                .setUnitAmount(request.amount())
+                .setProductData(productData)
+                .build();
+        var item = SessionCreateParams.LineItem.builder()
+                .setQuantity(1L)
+                .setPriceData(priceData)
+                .build();
+        return SessionCreateParams.builder()
+                .setMode(SessionCreateParams.Mode.PAYMENT)
+                .addPaymentMethodType(SessionCreateParams.PaymentMethodType.valueOf(request.paymentMethod()))
+                .setCustomerEmail(request.customerEmail())
+                .setSuccessUrl(request.successUrl())
+                .setCancelUrl(request.cancelUrl())
+                .addLineItem(item)
+                .build();
+    }
+
+    private static Timer latency(MeterRegistry meterRegistry, String result) {
+        return Timer.builder("store.payment.gateway.latency")
+                .tag("gateway", "stripe")
+                .tag("result", result)
+                .publishPercentiles(0.5, 0.95, 0.99)
+                .publishPercentileHistogram()
+                .register(meterRegistry);
+    }
+}
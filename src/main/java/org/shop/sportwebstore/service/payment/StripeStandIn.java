@@ -0,0 +1,120 @@
+package org.shop.sportwebstore.service.payment;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Local HTTP server answering {@code POST /v1/checkout/sessions} like Stripe does, so checkout can be
+ * load-tested through the real client, pool, timeouts and breaker without network access.
+ * Every call waits {@code latency} plus up to {@code jitter}, and {@code failureRate} of the calls
+ * get a 500. The session url is the request's success url, so the customer lands on the paid page.
+ */
+@Slf4j
+public class StripeStandIn implements AutoCloseable {
+
+    static final String SESSIONS_PATH = "/v1/checkout/sessions";
+    private static final int BACKLOG = 1024;
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final long latencyMillis;
+    private final long jitterMillis;
+    private final double failureRate;
+
+    public StripeStandIn(int port, int threads, Duration latency, Duration jitter, double failureRate) throws IOException {
+        this.latencyMillis = latency.toMillis();
+        this.jitterMillis = jitter.toMillis();
+        this.failureRate = failureRate;
+        this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), BACKLOG);
+        this.executor = Executors.newFixedThreadPool(threads);
+        server.setExecutor(executor);
+        server.createContext(SESSIONS_PATH, this::createSession);
+        server.start();
+        log.warn("Stripe stand-in listening on {}, checkout sessions are not real", baseUrl());
+    }
+
+    public String baseUrl() {
+        return "http://" + server.getAddress().getHostString() + ":" + server.getAddress().getPort();
+    }
+
+    private void createSession(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            if (!"POST".equals(exchange.getRequestMethod())) {
+                respond(exchange, 405, error("invalid_request_error", "Only POST is supported"));
+                return;
+            }
+            Map<String, String> form = parseForm(new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8));
+            pause();
+            if (failureRate > 0 && ThreadLocalRandom.current().nextDouble() < failureRate) {
+                respond(exchange, 500, error("api_error", "Simulated failure"));
+                return;
+            }
+            String id = "cs_test_" + UUID.randomUUID().toString().replace("-", "");
+            String url = form.getOrDefault("success_url", "http://localhost/");
+            respond(exchange, 200, """
+                    {"id":"%s","object":"checkout.session","mode":"payment","status":"open","url":"%s"}
+                    """.formatted(id, url.replace("\"", "\\\"")));
+        }
+    }
+
+    private void pause() {
+        long millis = latencyMillis + (jitterMillis > 0 ? ThreadLocalRandom.current().nextLong(jitterMillis + 1) : 0);
+        if (millis <= 0) {
+            return;
+        }
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static Map<String, String> parseForm(String body) {
+        Map<String, String> form = new HashMap<>();
+        for (String pair : body.split("&")) {
+            int separator = pair.indexOf('=');
+            if (separator > 0) {
+                form.put(URLDecoder.decode(pair.substring(0, separator), StandardCharsets.UTF_8),
+                        URLDecoder.decode(pair.substring(separator + 1), StandardCharsets.UTF_8));
+            }
+        }
+        return form;
+    }
+
+    private static String error(String type, String message) {
+        return """
+                {"error":{"type":"%s","message":"%s"}}
+                """.formatted(type, message);
+    }
+
+    private static void respond(HttpExchange exchange, int status, String json) throws IOException {
+        byte[] body = json.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.getResponseHeaders().set("Request-Id", "req_standin_" + System.nanoTime());
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+}
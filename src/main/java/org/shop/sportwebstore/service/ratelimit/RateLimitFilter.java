@@ -0,0 +1,47 @@
+package org.shop.sportwebstore.service.ratelimit;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import lombok.RequiredArgsConstructor;
+import org.shop.sportwebstore.model.ErrorResponse;
+import org.shop.sportwebstore.service.user.AuthenticatedUser;
+import org.shop.sportwebstore.service.user.SecurityContextWrapper;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import java.io.IOException;
+
+/**
+ * Runs after the security filters, so authenticated clients are limited by user id and the
+ * rest by address.
+ */
+@RequiredArgsConstructor
+public class RateLimitFilter extends OncePerRequestFilter {
+
+    private final RateLimiter rateLimiter;
+    private final SecurityContextWrapper securityContextWrapper;
+    private final ObjectMapper objectMapper;
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain)
+            throws ServletException, IOException {
+        String path = request.getRequestURI().substring(request.getContextPath().length());
+        String userId = securityContextWrapper.getPrincipal().map(AuthenticatedUser::id).orElse(null);
+        RateLimiter.Decision decision = rateLimiter.acquire(request.getMethod(), path, userId, request.getRemoteAddr());
+        if (decision.allowed()) {
+            filterChain.doFilter(request, response);
+            return;
+        }
+        response.setStatus(HttpStatus.TOO_MANY_REQUESTS.value());
+        response.setHeader(HttpHeaders.RETRY_AFTER, String.valueOf((decision.retryAfterMillis() + 999) / 1000));
+        response.setHeader("X-RateLimit-Limit", String.valueOf(decision.limit()));
+        response.setHeader("X-RateLimit-Rule", decision.rule());
+        response.setContentType(MediaType.APPLICATION_JSON_VALUE);
+        objectMapper.writeValue(response.getOutputStream(), new ErrorResponse("Too many requests, try again later."));
+    }
+}
@@ -0,0 +1,250 @@
+package org.shop.sportwebstore.service.ratelimit;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.shop.sportwebstore.config.RateLimitProperties;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.util.AntPathMatcher;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.function.LongSupplier;
+
+/**
+ * Token buckets per rule and client. Requests are admitted against the node's own bucket, so the hot
+ * path never waits for redis. Every sync interval each node reports what it consumed to a cluster-wide
+ * bucket in redis and adopts the tokens left there, so the limit holds across nodes up to what the
+ * nodes admit between two syncs.
+ */
+@Slf4j
+@Service
+public class RateLimiter {
+
+    static final String PREFIX = "{rl}:";
+    private static final int SYNC_BATCH = 200;
+
+    /**
+     * ARGV: capacity, period in millis and consumed tokens per key. Returns the tokens left per key,
+     * negative when the nodes together admitted more than the bucket had.
+     */
+    @SuppressWarnings("rawtypes")
+    private static final RedisScript<List> RECONCILE = new DefaultRedisScript<>("""
+            local time = redis.call('TIME')
+            local now = tonumber(time[1]) * 1000 + math.floor(tonumber(time[2]) / 1000)
+            local result = {}
+            for i, key in ipairs(KEYS) do
+                local capacity = tonumber(ARGV[i * 3 - 2])
+                local period = tonumber(ARGV[i * 3 - 1])
+                local state = redis.call('HMGET', key, 't', 'ts')
+                local tokens = tonumber(state[1]) or capacity
+                local elapsed = math.max(0, now - (tonumber(state[2]) or now))
+                tokens = math.min(capacity, tokens + elapsed * capacity / period) - tonumber(ARGV[i * 3])
+                redis.call('HSET', key, 't', tostring(tokens), 'ts', now)
+                redis.call('PEXPIRE', key, period * 2)
+                result[i] = tostring(tokens)
+            end
+            return result
+            """, List.class);
+
+    private final RedisTemplate<String, String> redisRateLimitTemplate;
+    private final List<Rule> rules = new ArrayList<>();
+    private final Cache<String, Bucket> buckets;
+    private final AntPathMatcher pathMatcher = new AntPathMatcher();
+    private final Counter syncFailures;
+    private final LongSupplier clock;
+
+    public RateLimiter(RedisTemplate<String, String> redisRateLimitTemplate, RateLimitProperties properties,
+                       MeterRegistry meterRegistry) {
+        this(redisRateLimitTemplate, properties, meterRegistry, System::currentTimeMillis);
+    }
+
+    RateLimiter(RedisTemplate<String, String> redisRateLimitTemplate, RateLimitProperties properties,
+                MeterRegistry meterRegistry, LongSupplier clock) {
+        this.redisRateLimitTemplate = redisRateLimitTemplate;
+        this.clock = clock;
+        Duration longestPeriod = Duration.ZERO;
+        if (properties.isEnabled()) {
+            for (Map.Entry<String, RateLimitProperties.Rule> entry : properties.getRules().entrySet()) {
+                RateLimitProperties.Rule rule = entry.getValue();
+                if (rule.getPatterns().isEmpty() || rule.getLimit() <= 0) {
+                    throw new IllegalArgumentException("Rate limit rule " + entry.getKey() + " needs a pattern and a limit");
+                }
+                rules.add(new Rule(entry.getKey(), List.copyOf(rule.getPatterns()),
+                        rule.getMethod() == null || rule.getMethod().isBlank() ? null : rule.getMethod().toUpperCase(),
+                        rule.getLimit(), rule.getPeriod().toMillis(), rule.getKey(),
+                        meterRegistry.counter("store.ratelimit.requests", "rule", entry.getKey(), "result", "allowed"),
+                        meterRegistry.counter("store.ratelimit.requests", "rule", entry.getKey(), "result", "limited")));
+                if (rule.getPeriod().compareTo(longestPeriod) > 0) {
+                    longestPeriod = rule.getPeriod();
+                }
+            }
+        }
+        this.buckets = Caffeine.newBuilder()
+                .maximumSize(properties.getMaxBuckets())
+                .expireAfterAccess(longestPeriod.multipliedBy(2).plus(properties.getSyncInterval()))
+                .build();
+        this.syncFailures = meterRegistry.counter("store.ratelimit.sync.failures");
+        meterRegistry.gauge("store.ratelimit.buckets", buckets, Cache::estimatedSize);
+    }
+
+    /**
+     * Takes a token from every rule matching the request.
+     *
+     * @param userId null for anonymous requests
+     * @return the first rule that refused the request, or {@link Decision#ALLOWED}
+     */
+    public Decision acquire(String method, String path, String userId, String ip) {
+        long now = clock.getAsLong();
+        for (Rule rule : rules) {
+            if (!matches(rule, method, path)) {
+                continue;
+            }
+            String client = rule.key() == RateLimitProperties.Key.USER && userId != null ? "u:" + userId : "ip:" + ip;
+            String key = PREFIX + rule.name() + ":" + client;
+            long waitMillis = buckets.get(key, k -> new Bucket(rule, now)).tryAcquire(now);
+            if (waitMillis > 0) {
+                rule.limited().increment();
+                return new Decision(false, rule.name(), rule.limit(), waitMillis);
+            }
+            rule.allowed().increment();
+        }
+        return Decision.ALLOWED;
+    }
+
+    private boolean matches(Rule rule, String method, String path) {
+        if (rule.method() != null && !rule.method().equals(method)) {
+            return false;
+        }
+        for (String pattern : rule.patterns()) {
+            if (pathMatcher.match(pattern, path)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Scheduled(fixedDelayString = "${store.rate-limit.sync-interval:1s}")
+    public void sync() {
+        List<String> keys = new ArrayList<>();
+        List<Bucket> batch = new ArrayList<>();
+        for (Map.Entry<String, Bucket> entry : buckets.asMap().entrySet()) {
+            if (entry.getValue().hasPending()) {
+                keys.add(entry.getKey());
+                batch.add(entry.getValue());
+                if (batch.size() == SYNC_BATCH) {
+                    reconcile(keys, batch);
+                    keys.clear();
+                    batch.clear();
+                }
+            }
+        }
+        if (!batch.isEmpty()) {
+            reconcile(keys, batch);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void reconcile(List<String> keys, List<Bucket> batch) {
+        long[] consumed = new long[batch.size()];
+        String[] args = new String[batch.size() * 3];
+        for (int i = 0; i < batch.size(); i++) {
+            Bucket bucket = batch.get(i);
+            consumed[i] = bucket.drain();
+            args[i * 3] = String.valueOf(bucket.rule.limit());
+            args[i * 3 + 1] = String.valueOf(bucket.rule.periodMillis());
+            args[i * 3 + 2] = String.valueOf(consumed[i]);
+        }
+        List<String> left;
+        try {
+            left = redisRateLimitTemplate.execute(RECONCILE, keys, (Object[]) args);
+        } catch (DataAccessException e) {
+            syncFailures.increment();
+            log.warn("Cannot reconcile rate limits, enforcing locally: {}", e.getMessage());
+            left = null;
+        }
+        long now = clock.getAsLong();
+        for (int i = 0; i < batch.size(); i++) {
+            if (left == null || i >= left.size()) {
+                batch.get(i).restore(consumed[i]);
+            } else {
+                batch.get(i).reconcile(Double.parseDouble(left.get(i)), now);
+            }
+        }
+    }
+
+    public record Decision(boolean allowed, String rule, long limit, long retryAfterMillis) {
+        public static final Decision ALLOWED = new Decision(true, null, 0, 0);
+    }
+
+    private record Rule(String name, List<String> patterns, String method, long limit, long periodMillis,
+                        RateLimitProperties.Key key, Counter allowed, Counter limited) {
+    }
+
+    private static final class Bucket {
+        private final Rule rule;
+        private double tokens;
+        private long refilledAt;
+        /**
+         * taken locally since the last report to redis
+         */
+        private long pending;
+
+        private Bucket(Rule rule, long now) {
+            this.rule = rule;
+            this.tokens = rule.limit();
+            this.refilledAt = now;
+        }
+
+        /**
+         * @return 0 when a token was taken, otherwise millis until one is available
+         */
+        synchronized long tryAcquire(long now) {
+            refill(now);
+            if (tokens >= 1) {
+                tokens--;
+                pending++;
+                return 0;
+            }
+            return Math.max(1, (long) Math.ceil((1 - tokens) * rule.periodMillis() / rule.limit()));
+        }
+
+        synchronized boolean hasPending() {
+            return pending > 0;
+        }
+
+        synchronized long drain() {
+            long drained = pending;
+            pending = 0;
+            return drained;
+        }
+
+        synchronized void restore(long consumed) {
+            pending += consumed;
+        }
+
+        /**
+         * Adopts the cluster's view, minus what was taken here after the report was sent.
+         */
+        synchronized void reconcile(double clusterTokens, long now) {
+            refill(now);
+            tokens = Math.min(rule.limit(), clusterTokens - pending);
+        }
+
+        private void refill(long now) {
+            if (now > refilledAt) {
+                tokens = Math.min(rule.limit(), tokens + (double) (now - refilledAt) * rule.limit() / rule.periodMillis());
+                refilledAt = now;
+            }
+        }
+    }
+}
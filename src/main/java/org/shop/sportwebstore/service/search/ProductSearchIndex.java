@@ -0,0 +1,199 @@
+package org.shop.sportwebstore.service.search;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.shop.sportwebstore.model.entity.Category;
+import org.shop.sportwebstore.model.entity.Product;
+import org.shop.sportwebstore.repository.ProductRepository;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.stream.Stream;
+
+/**
+ * In-process inverted index over product name, description and category names.
+ * Replaces the unanchored regex scan on the products collection; Mongo is only asked
+ * for the documents whose ids the index returned.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class ProductSearchIndex {
+
+    private static final double NAME_WEIGHT = 3.0;
+    private static final double CATEGORY_WEIGHT = 2.0;
+    private static final double DESCRIPTION_WEIGHT = 1.0;
+    private static final double PREFIX_PENALTY = 0.5;
+    private static final int MAX_PREFIX_EXPANSIONS = 64;
+    /**
+     * the best scored matches a relevance ordering pages through, field sorts, totals and facets
+     * see every match
+     */
+    static final int MAX_RESULTS = 1000;
+
+    private final ProductRepository productRepository;
+
+    /**
+     * surface word -> stem, used to expand the last (possibly unfinished) word of a query
+     */
+    private final ConcurrentSkipListMap<String, String> vocabulary = new ConcurrentSkipListMap<>();
+    /**
+     * stem -> (product id -> weighted term frequency)
+     */
+    private final Map<String, Map<String, Double>> postings = new ConcurrentHashMap<>();
+    private final Map<String, Set<String>> documentTerms = new ConcurrentHashMap<>();
+    private final Object writeLock = new Object();
+    private volatile boolean ready = false;
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void rebuild() {
+        long start = System.currentTimeMillis();
+        synchronized (writeLock) {
+            ready = false;
+            vocabulary.clear();
+            postings.clear();
+            documentTerms.clear();
+            try (Stream<Product> products = productRepository.streamAllBy()) {
+                products.forEach(this::indexDocument);
+            }
+            ready = true;
+        }
+        log.info("Search index built with {} products and {} terms in {} ms.",
+                documentTerms.size(), postings.size(), System.currentTimeMillis() - start);
+    }
+
+    public boolean isReady() {
+        return ready;
+    }
+
+    public int size() {
+        return documentTerms.size();
+    }
+
+    public void index(Product product) {
+        if (product == null || product.getId() == null) {
+            return;
+        }
+        synchronized (writeLock) {
+            removeDocument(product.getId());
+            indexDocument(product);
+        }
+    }
+
+    public void remove(String productId) {
+        synchronized (writeLock) {
+            removeDocument(productId);
+        }
+    }
+
+    /**
+     * Every query word has to match (AND). The last word is also treated as a prefix so
+     * results keep up with the search box while the user is typing.
+     *
+     * @return every matching product id with its score, in no particular order
+     */
+    public Map<String, Double> search(String query) {
+        List<String> words = SearchTokenizer.tokenize(query);
+        if (words.isEmpty()) {
+            return Map.of();
+        }
+        double documents = Math.max(1, documentTerms.size());
+        Map<String, Double> scores = null;
+        for (int i = 0; i < words.size(); i++) {
+            Map<String, Double> wordScores = scoreWord(words.get(i), i == words.size() - 1, documents);
+            if (scores == null) {
+                scores = wordScores;
+            } else {
+                Map<String, Double> previous = scores;
+                scores = new HashMap<>();
+                for (Map.Entry<String, Double> entry : wordScores.entrySet()) {
+                    Double score = previous.get(entry.getKey());
+                    if (score != null) {
+                        scores.put(entry.getKey(), score + entry.getValue());
+                    }
+                }
+            }
+            if (scores.isEmpty()) {
+                return scores;
+            }
+        }
+        return scores;
+    }
+
+    /**
+     * A broad query is only paged by relevance through its {@value #MAX_RESULTS} best matches.
+     *
+     * @return ids of the best scored matches ordered by descending relevance
+     */
+    public static List<String> best(Map<String, Double> scores) {
+        return scores.entrySet().stream()
+                .sorted(Map.Entry.<String, Double>comparingByValue().reversed()
+                        .thenComparing(Map.Entry.comparingByKey()))
+                .limit(MAX_RESULTS)
+                .map(Map.Entry::getKey)
+                .toList();
+    }
+
+    private Map<String, Double> scoreWord(String word, boolean prefix, double documents) {
+        Map<String, Double> candidates = new HashMap<>();
+        candidates.put(SearchTokenizer.stem(word), 1.0);
+        if (prefix) {
+            vocabulary.subMap(word, true, word + Character.MAX_VALUE, false).values().stream()
+                    .limit(MAX_PREFIX_EXPANSIONS)
+                    .forEach(stem -> candidates.putIfAbsent(stem, PREFIX_PENALTY));
+        }
+        Map<String, Double> scores = new HashMap<>();
+        candidates.forEach((stem, factor) -> {
+            Map<String, Double> posting = postings.get(stem);
+            if (posting == null || posting.isEmpty()) {
+                return;
+            }
+            double idf = Math.log(1 + documents / posting.size());
+            posting.forEach((productId, tf) ->
+                    scores.merge(productId, factor * idf * (1 + Math.log(tf)), Math::max));
+        });
+        return scores;
+    }
+
+    private void indexDocument(Product product) {
+        Map<String, Double> frequencies = new HashMap<>();
+        addField(frequencies, product.getName(), NAME_WEIGHT);
+        addField(frequencies, product.getDescription(), DESCRIPTION_WEIGHT);
+        if (product.getCategories() != null) {
+            for (Category category : product.getCategories()) {
+                addField(frequencies, category.getName(), CATEGORY_WEIGHT);
+            }
+        }
+        frequencies.forEach((stem, tf) ->
+                postings.computeIfAbsent(stem, key -> new ConcurrentHashMap<>()).put(product.getId(), tf));
+        documentTerms.put(product.getId(), frequencies.keySet());
+    }
+
+    private void addField(Map<String, Double> frequencies, String text, double weight) {
+        for (String word : SearchTokenizer.tokenize(text)) {
+            String stem = SearchTokenizer.stem(word);
+            vocabulary.putIfAbsent(word, stem);
+            frequencies.merge(stem, weight, Double::sum);
+        }
+    }
+
+    private void removeDocument(String productId) {
+        Set<String> terms = documentTerms.remove(productId);
+        if (terms == null) {
+            return;
+        }
+        for (String stem : terms) {
+            Map<String, Double> posting = postings.get(stem);
+            if (posting != null) {
+                posting.remove(productId);
+                if (posting.isEmpty()) {
+                    postings.remove(stem);
+                }
+            }
+        }
+    }
+}
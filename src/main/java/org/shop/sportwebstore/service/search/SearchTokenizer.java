@@ -0,0 +1,76 @@
+package org.shop.sportwebstore.service.search;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+public final class SearchTokenizer {
+
+    private static final Set<String> STOP_WORDS = Set.of(
+            "a", "an", "and", "are", "as", "at", "be", "by", "for", "from", "in", "is",
+            "it", "of", "on", "or", "the", "to", "with"
+    );
+    private static final int MIN_STEM_LENGTH = 3;
+
+    private SearchTokenizer() {
+    }
+
+    public static List<String> tokenize(String text) {
+        List<String> tokens = new ArrayList<>();
+        if (text == null || text.isBlank()) {
+            return tokens;
+        }
+        String normalized = Normalizer.normalize(text, Normalizer.Form.NFD)
+                .replaceAll("\\p{M}", "")
+                .toLowerCase(Locale.ROOT);
+        for (String raw : normalized.split("[^\\p{L}\\p{N}]+")) {
+            if (raw.isEmpty() || STOP_WORDS.contains(raw)) {
+                continue;
+            }
+            tokens.add(raw);
+        }
+        return tokens;
+    }
+
+    /**
+     * Light suffix stripping, good enough for plural and verb forms of product names
+     * (e.g. "balls" -> "ball", "running" -> "run", "batteries" -> "battery").
+     */
+    public static String stem(String token) {
+        if (token.length() <= MIN_STEM_LENGTH || !Character.isLetter(token.charAt(token.length() - 1))) {
+            return token;
+        }
+        if (token.endsWith("ies") && token.length() > 4) {
+            return token.substring(0, token.length() - 3) + "y";
+        }
+        if (token.endsWith("ing") && token.length() > 5) {
+            return undouble(token.substring(0, token.length() - 3));
+        }
+        if (token.endsWith("ed") && token.length() > 4) {
+            return undouble(token.substring(0, token.length() - 2));
+        }
+        if (token.endsWith("es") && token.length() > 4 && endsWithSibilant(token.substring(0, token.length() - 2))) {
+            return token.substring(0, token.length() - 2);
+        }
+        if (token.endsWith("s") && !token.endsWith("ss") && !token.endsWith("us")) {
+            return token.substring(0, token.length() - 1);
+        }
+        return token;
+    }
+
+    private static boolean endsWithSibilant(String stem) {
+        return stem.endsWith("s") || stem.endsWith("x") || stem.endsWith("z")
+                || stem.endsWith("ch") || stem.endsWith("sh");
+    }
+
+    private static String undouble(String stem) {
+        int length = stem.length();
+        if (length > 2 && stem.charAt(length - 1) == stem.charAt(length - 2)
+                && "lsz".indexOf(stem.charAt(length - 1)) < 0) {
+            return stem.substring(0, length - 1);
+        }
+        return stem;
+    }
+}
@@ -1,30 +1,78 @@
 package org.shop.sportwebstore.service.store;
 
 import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
 import org.shop.sportwebstore.exception.ProductException;
+import org.shop.sportwebstore.exception.UserException;
 import org.shop.sportwebstore.model.dto.ProductCart;
 import org.shop.sportwebstore.model.entity.Cart;
 import org.shop.sportwebstore.model.entity.Product;
-import org.shop.sportwebstore.model.entity.User;
 import org.shop.sportwebstore.repository.ProductRepository;
-import org.shop.sportwebstore.repository.UserRepository;
 import org.shop.sportwebstore.service.ConstantStrings;
-import org.springframework.data.redis.core.RedisTemplate;
-import org.springframework.security.core.context.SecurityContextHolder;
+import org.shop.sportwebstore.service.user.SecurityContextWrapper;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.redis.connection.DataType;
+import org.springframework.data.redis.core.*;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
 import org.springframework.stereotype.Service;
-import org.springframework.transaction.annotation.Transactional;
 
 import java.math.BigDecimal;
 import java.util.*;
-import java.util.stream.Collectors;
 
+/**
+ * Carts are redis hashes: one {@code p:<productId>} field per line plus a few meta fields,
+ * so a click changes a single field atomically instead of rewriting the whole cart.
+ */
+@Slf4j
 @Service
 @RequiredArgsConstructor
 public class CartService {
 
+    /**
+     * user ids of carts waiting for payment, scored by the time their reservation expires
+     */
+    static final String PROCESSING_CARTS = "carts:processing";
+    static final String LINE = "p:";
+    static final String USER_ID = "userId";
+    static final String PROCESSING = "processing";
+    static final String RESERVATION_ID = "reservationId";
+    static final String LAST_MODIFIED = "lastModified";
+
+    /**
+     * ARGV: line field, quantity change, upper bound, user id, now.
+     * Returns the new quantity, -1 when the bound would be exceeded, -2 when the cart doesn't exist
+     * and the change is a removal.
+     */
+    private static final RedisScript<Long> CHANGE_LINE = new DefaultRedisScript<>("""
+            local delta = tonumber(ARGV[2])
+            if delta < 0 and redis.call('EXISTS', KEYS[1]) == 0 then
+                return -2
+            end
+            local quantity = math.max(tonumber(redis.call('HGET', KEYS[1], ARGV[1]) or '0') + delta, 0)
+            if delta > 0 and quantity > tonumber(ARGV[3]) then
+                return -1
+            end
+            if quantity == 0 then
+                redis.call('HDEL', KEYS[1], ARGV[1])
+            else
+                redis.call('HSET', KEYS[1], ARGV[1], quantity)
+            end
+            redis.call('HSETNX', KEYS[1], 'userId', ARGV[4])
+            redis.call('HSETNX', KEYS[1], 'lastModified', ARGV[5])
+            return quantity
+            """, Long.class);
+
+    private final RedisTemplate<String, String> redisCartStore;
+    /**
+     * only reads carts stored as JSON values before carts became hashes
+     */
     private final RedisTemplate<String, Cart> redisCartTemplate;
     private final ProductRepository productRepository;
-    private final UserRepository userRepository;
+    private final SecurityContextWrapper securityContextWrapper;
+    private final StockReservationService stockReservationService;
 
     public List<Product> checkCartProducts(Cart cart) {
         if (cart == null || cart.getProducts().isEmpty()) {
@@ -42,76 +90,193 @@ public class CartService {
         return products;
     }
 
-    @Transactional
-    public void blockAmountItem(Cart cart, List<Product> products) {
-        for (Product product : products) {
-            if (product.getAmountLeft() < cart.getProducts().get(product.getId())) {
-                throw new ProductException("Not enough products in stock.");
-            }
-            productRepository.decrementAmountLeftById(product.getId(), cart.getProducts().get(product.getId()));
-        }
+    public void blockAmountItem(Cart cart) {
+        cart.setReservationId(stockReservationService.reserve(cart.getProducts(), cart.getUserId()));
         cart.setOrderProcessing(true);
-        redisCartTemplate.opsForValue().set("cart:" + cart.getUserId(), cart);
+        redisCartStore.opsForHash().putAll(key(cart.getUserId()), Map.of(
+                PROCESSING, "1",
+                RESERVATION_ID, cart.getReservationId(),
+                LAST_MODIFIED, String.valueOf(cart.getLastModified().getTime())));
+        redisCartStore.opsForZSet().add(PROCESSING_CARTS, cart.getUserId(), expiresAt(cart));
+    }
+
+    private static double expiresAt(Cart cart) {
+        return cart.getLastModified().getTime() + ConstantStrings.ORDER_EXPIRATION.toMillis();
     }
 
+    /**
+     * The stock check and the increment happen in one script, so two tabs can't push a line past the stock.
+     */
     public void addToCart(String productId) {
         Product product = productRepository.findByIdAndAmountLeftIsGreaterThanAndAvailableTrue(productId, 0).orElseThrow(() -> new ProductException("Product not found."));
-        String authUser = SecurityContextHolder.getContext().getAuthentication().getName();
-        String userId = userRepository.findByEmail(authUser).orElseThrow().getId();
-        Cart cart = getCart(userId);
-        if (cart == null) {
-            cart = new Cart(userId);
-        }
-        if (checkAmount(cart, product)) {
-            cart.addProduct(productId, 1);
-            saveCart(userId, cart);
-        }
+        String userId = currentUserId();
+        changeLine(userId, productId, 1, product.getAmountLeft());
+    }
+
+    private String currentUserId() {
+        return securityContextWrapper.getCurrentUserId().orElseThrow(() -> new UserException("User not found."));
     }
 
-    private boolean checkAmount(Cart cart, Product product) {
-        return product.getAmountLeft() >= cart.getQuantity(product.getId()) + 1;
+    private void changeLine(String userId, String productId, int delta, int max) {
+        Long quantity = redisCartStore.execute(CHANGE_LINE, List.of(key(userId)),
+                LINE + productId, String.valueOf(delta), String.valueOf(max), userId,
+                String.valueOf(System.currentTimeMillis()));
+        if (quantity != null && quantity == -2) {
+            throw new ProductException("Cart is empty.");
+        }
     }
 
     public Cart getCart(String userId) {
-        return redisCartTemplate.opsForValue().get("cart:" + userId);
+        return fromHash(redisCartStore.<String, String>opsForHash().entries(key(userId)));
     }
 
     public void saveCart(String userId, Cart cart) {
-        redisCartTemplate.opsForValue().set("cart:" + userId, cart);
+        redisCartStore.execute(new SessionCallback<List<Object>>() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public List<Object> execute(RedisOperations operations) {
+                operations.multi();
+                operations.delete(key(userId));
+                operations.opsForHash().putAll(key(userId), toHash(userId, cart));
+                return operations.exec();
+            }
+        });
     }
 
     public void deleteCart(String userId) {
-        redisCartTemplate.delete("cart:" + userId);
+        redisCartStore.delete(key(userId));
+        redisCartStore.opsForZSet().remove(PROCESSING_CARTS, userId);
     }
 
-    @Transactional
-    public void cancelPayment(Cart cart, List<Product> products) {
-        for (Product product : products) {
-            product.setAmountLeft(product.getAmountLeft() + cart.getProducts().get(product.getId()));
-            productRepository.save(product);
+    public void deleteCarts(Collection<String> userIds) {
+        if (userIds.isEmpty()) {
+            return;
+        }
+        redisCartStore.delete(userIds.stream().map(CartService::key).toList());
+        redisCartStore.opsForZSet().remove(PROCESSING_CARTS, userIds.toArray());
+    }
+
+    public void cancelPayment(Cart cart) {
+        if (cart.getReservationId() != null) {
+            stockReservationService.release(cart.getReservationId());
+            cart.setReservationId(null);
         }
         cart.setOrderProcessing(false);
-        redisCartTemplate.opsForValue().set("cart:" + cart.getUserId(), cart);
+        redisCartStore.opsForHash().putAll(key(cart.getUserId()), Map.of(
+                PROCESSING, "0",
+                LAST_MODIFIED, String.valueOf(cart.getLastModified().getTime())));
+        redisCartStore.opsForHash().delete(key(cart.getUserId()), RESERVATION_ID);
+        redisCartStore.opsForZSet().remove(PROCESSING_CARTS, cart.getUserId());
+    }
+
+    /**
+     * Reads at most {@code limit} processing carts whose reservation expired by {@code now}, oldest first,
+     * in one pipeline. Index entries of carts that are gone or no longer processing are dropped on the way.
+     */
+    @SuppressWarnings("unchecked")
+    public List<Cart> findExpiredProcessingCarts(Date now, int limit) {
+        while (true) {
+            Set<String> userIds = redisCartStore.opsForZSet().rangeByScore(PROCESSING_CARTS, 0, now.getTime(), 0, limit);
+            if (userIds == null || userIds.isEmpty()) {
+                return Collections.emptyList();
+            }
+            List<String> ids = new ArrayList<>(userIds);
+            List<Object> stored = redisCartStore.executePipelined(new SessionCallback<Object>() {
+                @Override
+                public Object execute(RedisOperations operations) {
+                    ids.forEach(userId -> operations.opsForHash().entries(key(userId)));
+                    return null;
+                }
+            });
+            List<Cart> carts = new ArrayList<>();
+            List<String> stale = new ArrayList<>();
+            for (int i = 0; i < ids.size(); i++) {
+                Cart cart = i < stored.size() ? fromHash((Map<String, String>) stored.get(i)) : null;
+                if (cart != null && cart.isOrderProcessing()) {
+                    carts.add(cart);
+                } else {
+                    stale.add(ids.get(i));
+                }
+            }
+            if (!stale.isEmpty()) {
+                redisCartStore.opsForZSet().remove(PROCESSING_CARTS, stale.toArray());
+            }
+            if (!carts.isEmpty() || ids.size() < limit) {
+                return carts;
+            }
+        }
     }
 
-    public List<Cart> findCartsByIsOrderProcessing(boolean isOrderProcessing, Date now) {
-        long expirationTimeInMillis = now.getTime() - ConstantStrings.ORDER_EXPIRATION.toMillis();
-        Date expirationDate = new Date(expirationTimeInMillis);
-        Set<String> cartKeys = redisCartTemplate.keys("cart:*");
+    /**
+     * Converts carts still stored as JSON values to hashes and indexes the processing ones.
+     * SCAN doesn't block redis like KEYS.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void migrateCarts() {
+        int migrated = 0;
+        int indexed = 0;
+        try (Cursor<String> keys = redisCartStore.scan(ScanOptions.scanOptions().match("cart:*").count(500).build())) {
+            while (keys.hasNext()) {
+                String key = keys.next();
+                String userId = key.substring(key.indexOf(':') + 1);
+                Cart cart;
+                if (redisCartStore.type(key) == DataType.STRING) {
+                    cart = redisCartTemplate.opsForValue().get(key);
+                    if (cart == null) {
+                        continue;
+                    }
+                    saveCart(userId, cart);
+                    migrated++;
+                } else {
+                    cart = getCart(userId);
+                }
+                if (cart != null && cart.isOrderProcessing()) {
+                    redisCartStore.opsForZSet().addIfAbsent(PROCESSING_CARTS, userId, expiresAt(cart));
+                    indexed++;
+                }
+            }
+        } catch (DataAccessException e) {
+            log.warn("Cannot migrate carts: {}", e.getMessage());
+        }
+        log.info("Migrated {} carts to hashes, indexed {} processing carts.", migrated, indexed);
+    }
 
-        if (cartKeys.isEmpty()) {
-            return Collections.emptyList();
+    private static String key(String userId) {
+        return "cart:" + userId;
+    }
+
+    private static Map<String, String> toHash(String userId, Cart cart) {
+        Map<String, String> hash = new HashMap<>();
+        cart.getProducts().forEach((productId, quantity) -> hash.put(LINE + productId, String.valueOf(quantity)));
+        hash.put(USER_ID, userId);
+        hash.put(PROCESSING, cart.isOrderProcessing() ? "1" : "0");
+        hash.put(LAST_MODIFIED, String.valueOf(cart.getLastModified().getTime()));
+        if (cart.getReservationId() != null) {
+            hash.put(RESERVATION_ID, cart.getReservationId());
         }
+        return hash;
+    }
 
-        return cartKeys.stream().map(key -> redisCartTemplate.opsForValue().get(key))
-                .filter(Objects::nonNull)
-                .filter(cart -> cart.isOrderProcessing() == isOrderProcessing && cart.getLastModified().before(expirationDate))
-                .collect(Collectors.toList());
+    private static Cart fromHash(Map<String, String> hash) {
+        if (hash == null || hash.isEmpty()) {
+            return null;
+        }
+        Cart cart = new Cart(hash.get(USER_ID));
+        hash.forEach((field, value) -> {
+            if (field.startsWith(LINE)) {
+                cart.addProduct(field.substring(LINE.length()), Integer.parseInt(value));
+            }
+        });
+        cart.setOrderProcessing("1".equals(hash.get(PROCESSING)));
+        cart.setReservationId(hash.get(RESERVATION_ID));
+        if (hash.containsKey(LAST_MODIFIED)) {
+            cart.setLastModified(new Date(Long.parseLong(hash.get(LAST_MODIFIED))));
+        }
+        return cart;
     }
 
     public Map<String, Object> getCart() {
-        String authUser = SecurityContextHolder.getContext().getAuthentication().getName();
-        String userId = userRepository.findByEmail(authUser).orElseThrow().getId();
+        String userId = currentUserId();
         Cart cart = getCart(userId);
         if (cart == null) {
             return Map.of("products", List.of());
@@ -122,39 +287,22 @@ public class CartService {
     }
 
     public void removeFromCart(String id) {
-        String authUser = SecurityContextHolder.getContext().getAuthentication().getName();
-        String userId = userRepository.findByEmail(authUser).orElseThrow().getId();
-        Cart cart = getCart(userId);
-        if (cart == null) {
-            throw new ProductException("Cart is empty.");
-        }
-        cart.removeProduct(id);
-        saveCart(userId, cart);
+        String userId = currentUserId();
+        changeLine(userId, id, -1, Integer.MAX_VALUE);
     }
 
     public void removeAllAmountOfProductFromCart(String id) {
-        String authUser = SecurityContextHolder.getContext().getAuthentication().getName();
-        String userId = userRepository.findByEmail(authUser).orElseThrow().getId();
-        Cart cart = getCart(userId);
-        if (cart == null) {
-            throw new ProductException("Cart is empty.");
-        }
-        cart.getProducts().remove(id);
-        saveCart(userId, cart);
+        String userId = currentUserId();
+        changeLine(userId, id, Integer.MIN_VALUE, Integer.MAX_VALUE);
     }
 
     public void deleteCart() {
-        String authUser = SecurityContextHolder.getContext().getAuthentication().getName();
-        String userId = userRepository.findByEmail(authUser).orElseThrow().getId();
+        String userId = currentUserId();
         deleteCart(userId);
     }
 
     public void validateCart() {
-        User user = userRepository.findByEmail(
-                SecurityContextHolder.getContext().getAuthentication().getName())
-                .orElseThrow(() -> new RuntimeException("User not found.")
-        );
-        Cart cart = getCart(user.getId());
+        Cart cart = getCart(currentUserId());
         checkCartProducts(cart);
     }
 
@@ -0,0 +1,383 @@
+package org.shop.sportwebstore.service.store;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.shop.sportwebstore.exception.ProductException;
+import org.shop.sportwebstore.model.entity.Product;
+import org.shop.sportwebstore.service.catalog.ProductsChangedEvent;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.util.*;
+
+/**
+ * Stock of "hot" products (flash sales) lives in redis counters instead of the product documents.
+ * Reservations and releases run as lua scripts, so all hot lines of a cart are checked and taken
+ * atomically. Every change is also added to a delta hash that is written back to
+ * {@code Product.amountLeft} in batches; the documents are a lagging mirror while the product is hot.
+ * <p>
+ * Write-back batches get increasing ids and a product only accepts a batch newer than the last one
+ * it applied, so retrying a batch after a crash is safe. All keys share the {stock} hash tag.
+ */
+@Slf4j
+@Service
+public class HotStockService {
+
+    private static final String HOT_SET = "{stock}:hot";
+    private static final String DELTA = "{stock}:delta";
+    private static final String FLUSHING = "{stock}:flushing";
+    private static final String BATCH = "{stock}:batch";
+    private static final String COUNTER = "{stock}:";
+    private static final String BATCH_FIELD = "#batch";
+    /**
+     * how long a freshly set hotStock flag is left alone by reconcile, enable sets the counter within it
+     */
+    static final Duration ENABLE_GRACE = Duration.ofSeconds(30);
+
+    /**
+     * ARGV: id, qty pairs. Fails without changes if any hot line lacks stock,
+     * otherwise returns 'OK' followed by the ids that aren't hot.
+     */
+    private static final RedisScript<List> RESERVE = new DefaultRedisScript<>("""
+            for i = 1, #ARGV, 2 do
+                if redis.call('SISMEMBER', KEYS[1], ARGV[i]) == 1
+                        and tonumber(redis.call('GET', '{stock}:' .. ARGV[i]) or '0') < tonumber(ARGV[i + 1]) then
+                    return {'FAIL', ARGV[i]}
+                end
+            end
+            local result = {'OK'}
+            for i = 1, #ARGV, 2 do
+                if redis.call('SISMEMBER', KEYS[1], ARGV[i]) == 1 then
+                    redis.call('DECRBY', '{stock}:' .. ARGV[i], ARGV[i + 1])
+                    redis.call('HINCRBY', KEYS[2], ARGV[i], -tonumber(ARGV[i + 1]))
+                else
+                    table.insert(result, ARGV[i])
+                end
+            end
+            return result
+            """, List.class);
+
+    /**
+     * ARGV: id, qty pairs. Returns the ids that aren't hot (their stock belongs to mongo).
+     */
+    private static final RedisScript<List> RELEASE = new DefaultRedisScript<>("""
+            local result = {}
+            for i = 1, #ARGV, 2 do
+                if redis.call('SISMEMBER', KEYS[1], ARGV[i]) == 1 then
+                    redis.call('INCRBY', '{stock}:' .. ARGV[i], ARGV[i + 1])
+                    redis.call('HINCRBY', KEYS[2], ARGV[i], ARGV[i + 1])
+                else
+                    table.insert(result, ARGV[i])
+                end
+            end
+            return result
+            """, List.class);
+
+    private static final RedisScript<Long> ENABLE = new DefaultRedisScript<>("""
+            if redis.call('SISMEMBER', KEYS[1], ARGV[1]) == 1 then
+                return 0
+            end
+            redis.call('SET', '{stock}:' .. ARGV[1], ARGV[2])
+            redis.call('SADD', KEYS[1], ARGV[1])
+            return 1
+            """, Long.class);
+
+    /**
+     * Returns the counter (the stock to write to mongo) or -1 when the product wasn't hot.
+     * The counter key is deleted only after mongo has been updated.
+     */
+    private static final RedisScript<Long> DISABLE = new DefaultRedisScript<>("""
+            if redis.call('SREM', KEYS[1], ARGV[1]) == 0 then
+                return -1
+            end
+            redis.call('HDEL', KEYS[2], ARGV[1])
+            return tonumber(redis.call('GET', '{stock}:' .. ARGV[1]) or '0')
+            """, Long.class);
+
+    /**
+     * Moves the delta hash aside as a numbered batch, or returns the batch left by an earlier
+     * attempt. Result: flat field/value list including the batch id.
+     */
+    private static final RedisScript<List> TAKE_BATCH = new DefaultRedisScript<>("""
+            if redis.call('EXISTS', KEYS[2]) == 0 then
+                if redis.call('EXISTS', KEYS[1]) == 0 then
+                    return {}
+                end
+                redis.call('RENAME', KEYS[1], KEYS[2])
+                redis.call('HSET', KEYS[2], ARGV[1], redis.call('INCR', KEYS[3]))
+            end
+            return redis.call('HGETALL', KEYS[2])
+            """, List.class);
+
+    private static final RedisScript<Long> DROP_BATCH = new DefaultRedisScript<>("""
+            if redis.call('HGET', KEYS[1], ARGV[1]) == ARGV[2] then
+                return redis.call('DEL', KEYS[1])
+            end
+            return 0
+            """, Long.class);
+
+    /**
+     * Result: last batch id, flushing batch id, then id, counter, pending delta, flushing delta per hot product.
+     */
+    private static final RedisScript<List> SNAPSHOT = new DefaultRedisScript<>("""
+            local result = {redis.call('GET', KEYS[4]) or '0', redis.call('HGET', KEYS[3], ARGV[1]) or '0'}
+            for _, id in ipairs(redis.call('SMEMBERS', KEYS[1])) do
+                table.insert(result, id)
+                table.insert(result, redis.call('GET', '{stock}:' .. id) or '0')
+                table.insert(result, redis.call('HGET', KEYS[2], id) or '0')
+                table.insert(result, redis.call('HGET', KEYS[3], id) or '0')
+            end
+            return result
+            """, List.class);
+
+    private final RedisTemplate<String, String> redisStockTemplate;
+    private final MongoTemplate mongoTemplate;
+    private final ApplicationEventPublisher eventPublisher;
+    private final Counter reserved;
+    private final Counter rejected;
+    private final Counter flushed;
+    private final Counter drift;
+
+    /**
+     * local copy of the hot set, so carts without hot products never talk to redis
+     */
+    private volatile Set<String> hotIds = Set.of();
+
+    public HotStockService(RedisTemplate<String, String> redisStockTemplate, MongoTemplate mongoTemplate,
+                           ApplicationEventPublisher eventPublisher, MeterRegistry meterRegistry) {
+        this.redisStockTemplate = redisStockTemplate;
+        this.mongoTemplate = mongoTemplate;
+        this.eventPublisher = eventPublisher;
+        this.reserved = meterRegistry.counter("store.stock.hot.reservations", "result", "reserved");
+        this.rejected = meterRegistry.counter("store.stock.hot.reservations", "result", "rejected");
+        this.flushed = meterRegistry.counter("store.stock.hot.flushed");
+        this.drift = meterRegistry.counter("store.stock.hot.drift");
+        meterRegistry.gauge("store.stock.hot.products", this, service -> service.hotIds.size());
+    }
+
+    public Set<String> getHotIds() {
+        return hotIds;
+    }
+
+    @Scheduled(fixedDelayString = "${store.stock.hot.refresh-delay:1000}")
+    public void refreshHotIds() {
+        try {
+            Set<String> members = redisStockTemplate.opsForSet().members(HOT_SET);
+            hotIds = members == null ? Set.of() : Set.copyOf(members);
+        } catch (DataAccessException e) {
+            log.warn("Cannot refresh hot products: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * @return the lines whose product is hot according to the local copy of the hot set
+     */
+    public Map<String, Integer> hotLines(Map<String, Integer> items) {
+        Set<String> hot = hotIds;
+        Map<String, Integer> lines = new HashMap<>();
+        if (!hot.isEmpty()) {
+            items.forEach((productId, quantity) -> {
+                if (hot.contains(productId)) {
+                    lines.put(productId, quantity);
+                }
+            });
+        }
+        return lines;
+    }
+
+    /**
+     * Takes all hot lines or none of them.
+     *
+     * @return ids of lines that turned out not to be hot, their stock has to be taken from mongo
+     * @throws ProductException when a hot line lacks stock
+     */
+    @SuppressWarnings("unchecked")
+    public List<String> reserve(Map<String, Integer> lines) {
+        List<String> result = redisStockTemplate.execute(RESERVE, List.of(HOT_SET, DELTA), args(lines));
+        if (result == null || result.isEmpty() || !"OK".equals(result.get(0))) {
+            rejected.increment();
+            throw new ProductException("Not enough products in stock.");
+        }
+        reserved.increment();
+        return result.subList(1, result.size());
+    }
+
+    /**
+     * @return ids of lines that aren't hot anymore, their stock has to be given back in mongo
+     */
+    @SuppressWarnings("unchecked")
+    public List<String> release(Map<String, Integer> lines) {
+        if (lines.isEmpty()) {
+            return List.of();
+        }
+        List<String> notHot = redisStockTemplate.execute(RELEASE, List.of(HOT_SET, DELTA), args(lines));
+        return notHot == null ? List.of() : notHot;
+    }
+
+    /**
+     * Mongo reservations skip hot products from the moment the flag is set, so the amount read
+     * here can't change anymore before it becomes the redis counter. The flag carries its time so
+     * reconcile doesn't take it for an abandoned enable while the counter is still being created.
+     */
+    public void enable(String productId) {
+        Product product = mongoTemplate.findAndModify(
+                Query.query(Criteria.where("id").is(productId).and("hotStock").ne(true)),
+                new Update().set("hotStock", true).set("hotSince", new Date()),
+                FindAndModifyOptions.options().returnNew(true),
+                Product.class);
+        if (product == null) {
+            throw new ProductException("Product not found or already hot.");
+        }
+        redisStockTemplate.execute(ENABLE, List.of(HOT_SET), productId, String.valueOf(product.getAmountLeft()));
+        refreshHotIds();
+        log.info("Product {} moved to redis stock with {} items.", productId, product.getAmountLeft());
+    }
+
+    public void disable(String productId) {
+        Long left = redisStockTemplate.execute(DISABLE, List.of(HOT_SET, DELTA), productId);
+        if (left == null || left < 0) {
+            throw new ProductException("Product stock is not held in redis.");
+        }
+        moveBackToMongo(productId, left.intValue());
+        refreshHotIds();
+        log.info("Product {} moved back to mongo stock with {} items.", productId, left);
+    }
+
+    private void moveBackToMongo(String productId, int amountLeft) {
+        mongoTemplate.updateFirst(Query.query(Criteria.where("id").is(productId)),
+                new Update().set("amountLeft", amountLeft).set("hotStock", false).unset("hotSince"), Product.class);
+        redisStockTemplate.delete(COUNTER + productId);
+        eventPublisher.publishEvent(new ProductsChangedEvent(List.of(productId)));
+    }
+
+    /**
+     * Writes the accumulated deltas back to the product documents in one bulk write.
+     */
+    @SuppressWarnings("unchecked")
+    @Scheduled(fixedDelayString = "${store.stock.hot.flush-delay:1000}")
+    public void flush() {
+        try {
+            List<String> entries = redisStockTemplate.execute(TAKE_BATCH, List.of(DELTA, FLUSHING, BATCH), BATCH_FIELD);
+            if (entries == null || entries.isEmpty()) {
+                return;
+            }
+            long batch = 0;
+            Map<String, Long> deltas = new HashMap<>();
+            for (int i = 0; i + 1 < entries.size(); i += 2) {
+                if (BATCH_FIELD.equals(entries.get(i))) {
+                    batch = Long.parseLong(entries.get(i + 1));
+                } else if (Long.parseLong(entries.get(i + 1)) != 0) {
+                    deltas.put(entries.get(i), Long.parseLong(entries.get(i + 1)));
+                }
+            }
+            if (!deltas.isEmpty()) {
+                BulkOperations bulk = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, Product.class);
+                long batchId = batch;
+                deltas.forEach((productId, delta) -> bulk.updateOne(
+                        Query.query(Criteria.where("id").is(productId)
+                                .and("hotStock").is(true)
+                                .and("stockBatch").not().gte(batchId)),
+                        new Update().inc("amountLeft", delta).set("stockBatch", batchId)));
+                bulk.execute();
+                flushed.increment(deltas.size());
+                eventPublisher.publishEvent(new ProductsChangedEvent(deltas.keySet()));
+            }
+            redisStockTemplate.execute(DROP_BATCH, List.of(FLUSHING), BATCH_FIELD, String.valueOf(batch));
+        } catch (DataAccessException e) {
+            log.warn("Hot stock write-back failed, it will be retried: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Checks that every hot product document equals its redis counter minus the deltas not written
+     * back yet, repairs the documents that don't (redis owns the stock of hot products), and finishes
+     * enable/disable calls interrupted between redis and mongo.
+     *
+     * @return number of products whose document had to be repaired
+     */
+    @SuppressWarnings("unchecked")
+    @Scheduled(cron = "${store.stock.hot.reconcile-cron:0 */5 * * * *}")
+    public int reconcile() {
+        List<String> snapshot = redisStockTemplate.execute(SNAPSHOT, List.of(HOT_SET, DELTA, FLUSHING, BATCH), BATCH_FIELD);
+        if (snapshot == null || snapshot.size() < 2) {
+            return 0;
+        }
+        long lastBatch = Long.parseLong(snapshot.get(0));
+        long flushingBatch = Long.parseLong(snapshot.get(1));
+        Map<String, long[]> redisState = new HashMap<>();
+        for (int i = 2; i + 3 < snapshot.size(); i += 4) {
+            redisState.put(snapshot.get(i), new long[]{
+                    Long.parseLong(snapshot.get(i + 1)),
+                    Long.parseLong(snapshot.get(i + 2)),
+                    Long.parseLong(snapshot.get(i + 3))});
+        }
+
+        int repaired = 0;
+        Query flagged = Query.query(new Criteria().orOperator(
+                Criteria.where("hotStock").is(true),
+                Criteria.where("id").in(redisState.keySet())));
+        for (Product product : mongoTemplate.find(flagged, Product.class)) {
+            long[] state = redisState.get(product.getId());
+            if (state == null) {
+                finishInterrupted(product);
+            } else if (product.isHotStock() && product.getStockBatch() <= lastBatch) {
+                boolean flushingApplied = flushingBatch == 0 || product.getStockBatch() >= flushingBatch;
+                long expected = state[0] - state[1] - (flushingApplied ? 0 : state[2]);
+                if (product.getAmountLeft() != expected) {
+                    drift.increment();
+                    repaired++;
+                    log.warn("Hot stock of product {} drifted: mongo {}, redis {}. Repairing.",
+                            product.getId(), product.getAmountLeft(), expected);
+                    mongoTemplate.updateFirst(Query.query(Criteria.where("id").is(product.getId())
+                                    .and("stockBatch").is(product.getStockBatch())
+                                    .and("amountLeft").is(product.getAmountLeft())),
+                            new Update().set("amountLeft", (int) expected), Product.class);
+                }
+            }
+        }
+        return repaired;
+    }
+
+    private void finishInterrupted(Product product) {
+        Date hotSince = product.getHotSince();
+        if (hotSince != null && hotSince.after(new Date(System.currentTimeMillis() - ENABLE_GRACE.toMillis()))) {
+            // enable may be between the flag and the redis counter
+            return;
+        }
+        String counter = redisStockTemplate.opsForValue().get(COUNTER + product.getId());
+        if (counter != null) {
+            log.warn("Finishing interrupted move of product {} back to mongo.", product.getId());
+            moveBackToMongo(product.getId(), Integer.parseInt(counter));
+        } else {
+            log.warn("Product {} was flagged hot but never reached redis, clearing the flag.", product.getId());
+            // only the flag that was read, an enable starting meanwhile sets a newer one
+            mongoTemplate.updateFirst(Query.query(Criteria.where("id").is(product.getId())
+                            .and("hotStock").is(true)
+                            .and("hotSince").is(hotSince)),
+                    new Update().set("hotStock", false).unset("hotSince"), Product.class);
+        }
+    }
+
+    private Object[] args(Map<String, Integer> lines) {
+        Object[] args = new Object[lines.size() * 2];
+        int i = 0;
+        for (Map.Entry<String, Integer> line : lines.entrySet()) {
+            args[i++] = line.getKey();
+            args[i++] = String.valueOf(line.getValue());
+        }
+        return args;
+    }
+}
@@ -0,0 +1,242 @@
+package org.shop.sportwebstore.service.store;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.shop.sportwebstore.exception.IdempotencyException;
+import org.shop.sportwebstore.exception.UserException;
+import org.shop.sportwebstore.service.user.SecurityContextWrapper;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.stereotype.Service;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.*;
+import java.util.function.Supplier;
+
+/**
+ * Runs a checkout step at most once per {@code Idempotency-Key}. The first request claims the key in
+ * redis with a short-lived pending marker, runs the action and replaces the marker with its result
+ * for {@code result-ttl}. Duplicates wait for that result instead of running the action again:
+ * on the same node they join the running call, on other nodes they poll the key.
+ * A key reused with a different request body is refused, and a failed action frees the key so
+ * the client can retry. Keys are scoped to the current user.
+ */
+@Slf4j
+@Service
+public class IdempotencyService {
+
+    public static final String HEADER = "Idempotency-Key";
+
+    static final String PREFIX = "idem:";
+    static final String PENDING = "P";
+    static final String DONE = "D";
+    private static final char SEPARATOR = ':';
+    private static final int MAX_KEY_LENGTH = 255;
+    private static final long MAX_POLL_MILLIS = 200;
+
+    /**
+     * Replaces our own pending marker with the result, a marker that expired and was taken over is left alone.
+     */
+    private static final RedisScript<Long> COMPLETE = new DefaultRedisScript<>("""
+            if redis.call('GET', KEYS[1]) == ARGV[1] then
+                redis.call('SET', KEYS[1], ARGV[2], 'PX', ARGV[3])
+                return 1
+            end
+            return 0
+            """, Long.class);
+
+    private static final RedisScript<Long> RELEASE = new DefaultRedisScript<>("""
+            if redis.call('GET', KEYS[1]) == ARGV[1] then
+                return redis.call('DEL', KEYS[1])
+            end
+            return 0
+            """, Long.class);
+
+    private final RedisTemplate<String, String> redisIdempotencyTemplate;
+    private final SecurityContextWrapper securityContextWrapper;
+    private final ObjectMapper objectMapper;
+    private final MeterRegistry meterRegistry;
+    private final Duration pendingTtl;
+    private final Duration resultTtl;
+    private final Duration waitTimeout;
+    private final Map<String, InFlight> inFlight = new ConcurrentHashMap<>();
+
+    public IdempotencyService(RedisTemplate<String, String> redisIdempotencyTemplate,
+                              SecurityContextWrapper securityContextWrapper,
+                              ObjectMapper objectMapper,
+                              MeterRegistry meterRegistry,
+                              @Value("${store.idempotency.pending-ttl:60s}") Duration pendingTtl,
+                              @Value("${store.idempotency.result-ttl:24h}") Duration resultTtl,
+                              @Value("${store.idempotency.wait-timeout:10s}") Duration waitTimeout) {
+        this.redisIdempotencyTemplate = redisIdempotencyTemplate;
+        this.securityContextWrapper = securityContextWrapper;
+        this.objectMapper = objectMapper;
+        this.meterRegistry = meterRegistry;
+        this.pendingTtl = pendingTtl;
+        this.resultTtl = resultTtl;
+        this.waitTimeout = waitTimeout;
+    }
+
+    /**
+     * @param idempotencyKey client supplied key, without one the action simply runs
+     * @param request        body the key was sent with, a different body under the same key is refused
+     * @throws IdempotencyException when the key was used for another request or its first call is still running
+     */
+    public String execute(String operation, String idempotencyKey, Object request, Supplier<String> action) {
+        if (idempotencyKey == null) {
+            return action.get();
+        }
+        if (idempotencyKey.isBlank() || idempotencyKey.length() > MAX_KEY_LENGTH) {
+            throw new IllegalArgumentException("Idempotency key must have 1 to " + MAX_KEY_LENGTH + " characters.");
+        }
+        String userId = securityContextWrapper.getCurrentUserId()
+                .orElseThrow(() -> new UserException("User not found."));
+        String key = PREFIX + userId + SEPARATOR + operation + SEPARATOR + idempotencyKey;
+        String fingerprint = fingerprint(request);
+
+        InFlight mine = new InFlight(fingerprint, new CompletableFuture<>());
+        InFlight running = inFlight.putIfAbsent(key, mine);
+        if (running != null) {
+            return join(operation, running, fingerprint);
+        }
+        try {
+            String result = executeOnce(operation, key, fingerprint, action);
+            mine.result().complete(result);
+            return result;
+        } catch (RuntimeException e) {
+            mine.result().completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(key, mine);
+        }
+    }
+
+    private String executeOnce(String operation, String key, String fingerprint, Supplier<String> action) {
+        String pending = PENDING + SEPARATOR + fingerprint + SEPARATOR + UUID.randomUUID();
+        long deadline = System.nanoTime() + waitTimeout.toNanos();
+        long pause = 10;
+        boolean firstAttempt = true;
+        while (true) {
+            boolean claimed;
+            String stored = null;
+            try {
+                claimed = Boolean.TRUE.equals(redisIdempotencyTemplate.opsForValue().setIfAbsent(key, pending, pendingTtl));
+                if (!claimed) {
+                    stored = redisIdempotencyTemplate.opsForValue().get(key);
+                }
+            } catch (DataAccessException e) {
+                if (!firstAttempt) {
+                    throw new IdempotencyException("Cannot confirm the result of the original request, try again later.");
+                }
+                log.warn("Idempotency store unavailable, running {} without deduplication: {}", operation, e.getMessage());
+                count(operation, "unavailable");
+                return action.get();
+            }
+            if (claimed) {
+                return run(operation, key, fingerprint, pending, action);
+            }
+            firstAttempt = false;
+            if (stored != null) {
+                String[] parts = stored.split(String.valueOf(SEPARATOR), 3);
+                if (!parts[1].equals(fingerprint)) {
+                    count(operation, "conflict");
+                    throw new IdempotencyException("Idempotency key was already used for a different request.");
+                }
+                if (DONE.equals(parts[0])) {
+                    count(operation, "replayed");
+                    return parts[2];
+                }
+            }
+            if (System.nanoTime() - deadline > 0) {
+                count(operation, "timeout");
+                throw new IdempotencyException("A request with this idempotency key is still being processed.");
+            }
+            sleep(pause);
+            pause = Math.min(pause * 2, MAX_POLL_MILLIS);
+        }
+    }
+
+    private String run(String operation, String key, String fingerprint, String pending, Supplier<String> action) {
+        String result;
+        try {
+            result = action.get();
+        } catch (RuntimeException e) {
+            try {
+                redisIdempotencyTemplate.execute(RELEASE, List.of(key), pending);
+            } catch (DataAccessException releaseFailure) {
+                log.warn("Cannot release idempotency key {}: {}", key, releaseFailure.getMessage());
+            }
+            throw e;
+        }
+        String done = DONE + SEPARATOR + fingerprint + SEPARATOR + result;
+        try {
+            redisIdempotencyTemplate.execute(COMPLETE, List.of(key), pending, done, String.valueOf(resultTtl.toMillis()));
+        } catch (DataAccessException e) {
+            log.warn("Cannot store result for idempotency key {}: {}", key, e.getMessage());
+        }
+        count(operation, "executed");
+        return result;
+    }
+
+    private String join(String operation, InFlight running, String fingerprint) {
+        if (!running.fingerprint().equals(fingerprint)) {
+            count(operation, "conflict");
+            throw new IdempotencyException("Idempotency key was already used for a different request.");
+        }
+        try {
+            String result = running.result().get(waitTimeout.toMillis(), TimeUnit.MILLISECONDS);
+            count(operation, "joined");
+            return result;
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw new IllegalStateException(e.getCause());
+        } catch (TimeoutException e) {
+            count(operation, "timeout");
+            throw new IdempotencyException("A request with this idempotency key is still being processed.");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IdempotencyException("Interrupted while waiting for the original request.");
+        }
+    }
+
+    private String fingerprint(Object request) {
+        try {
+            byte[] body = request instanceof String text
+                    ? text.getBytes(StandardCharsets.UTF_8)
+                    : objectMapper.writeValueAsBytes(request);
+            return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(body));
+        } catch (JsonProcessingException | NoSuchAlgorithmException e) {
+            throw new IllegalStateException("Cannot fingerprint request", e);
+        }
+    }
+
+    private void count(String operation, String result) {
+        meterRegistry.counter("store.idempotency.requests", "operation", operation, "result", result).increment();
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IdempotencyException("Interrupted while waiting for the original request.");
+        }
+    }
+
+    private record InFlight(String fingerprint, CompletableFuture<String> result) {
+    }
+}
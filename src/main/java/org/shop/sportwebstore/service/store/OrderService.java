@@ -16,10 +16,16 @@ import org.shop.sportwebstore.repository.CustomerRepository;
 import org.shop.sportwebstore.repository.OrderRepository;
 import org.shop.sportwebstore.repository.ProductRepository;
 import org.shop.sportwebstore.repository.UserRepository;
+import org.shop.sportwebstore.service.catalog.ProductsChangedEvent;
 import org.shop.sportwebstore.service.user.EmailService;
 import org.shop.sportwebstore.service.user.SecurityContextWrapper;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
@@ -28,8 +34,13 @@ import java.math.RoundingMode;
 import java.time.Instant;
 import java.time.temporal.ChronoUnit;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 
 
@@ -45,6 +56,9 @@ public class OrderService {
     private final ProductRepository productRepository;
     private final OrderMapper orderMapper;
     private final SecurityContextWrapper securityContextWrapper;
+    private final StockReservationService stockReservationService;
+    private final ApplicationEventPublisher eventPublisher;
+    private final MongoTemplate mongoTemplate;
 
     public String createOrder(Cart cart, Customer customer, BigDecimal totalPrice, SessionCreateParams.PaymentMethodType paymentMethod) {
         List<ProductInOrder> productInOrder = cart.getProducts().entrySet().stream()
@@ -70,29 +84,82 @@ public class OrderService {
         return order.getId();
     }
 
+    /**
+     * Deletes an order that never got a payment session, its stock is given back by the caller.
+     */
+    public void discardOrder(String orderId) {
+        orderRepository.deleteById(orderId);
+    }
+
     public void updateOrderSessionId(String orderId, String sessionId) {
         Order order = orderRepository.findById(orderId).orElseThrow(() -> new PaymentException("Order not found."));
         order.setSessionId(sessionId);
         orderRepository.save(order);
     }
 
+    /**
+     * Safe to repeat for the same session: the status change, the sold counts and the confirmation email
+     * are each recorded in the order once done, so a retry after a failure finishes only the missing ones.
+     * Sold counts are counted again only if the order can't be saved right after incrementing them.
+     * An unpaid order being discarded by {@link #handleNotPaidOrders} can't be marked paid; the call
+     * fails so the webhook is retried, which succeeds if the discard gave up and the order is still there.
+     */
     @Transactional
     public void updateOrderStatusBySessionId(String sessionId, OrderStatus status) {
         Order order = orderRepository.findBySessionId(sessionId).orElseThrow(() -> new PaymentException("Order not found."));
+        if (order.getStatus() != OrderStatus.CREATED && order.isSoldCounted() && order.isConfirmationQueued()) {
+            log.info("Order {} already paid, skipping.", order.getId());
+            return;
+        }
+        if (order.getStatus() == OrderStatus.CREATED && !changeStatus(order, status)) {
+            throw new PaymentException("Order " + order.getId() + " is being discarded as unpaid.");
+        }
+        if (!order.isSoldCounted()) {
+            incrementSoldItems(order.getProducts());
+            order.setSoldCounted(true);
+            setFlag(order.getId(), "soldCounted");
+        }
+        if (!order.isConfirmationQueued()) {
+            emailService.sendEmailWithOrderDetails(order);
+            order.setConfirmationQueued(true);
+            setFlag(order.getId(), "confirmationQueued");
+        }
+    }
+
+    /**
+     * Moves the order on from the status it was read with, unless that changed meanwhile or the order
+     * was claimed for discarding; whole-document saves would undo the claim or resurrect the order.
+     *
+     * @return false when the order was left as it is
+     */
+    private boolean changeStatus(Order order, OrderStatus status) {
+        OrderStatus from = order.getStatus();
         order.setNewStatus(status);
-        incrementSoldItems(order.getProducts());
-        emailService.sendEmailWithOrderDetails(order);
-        orderRepository.save(order);
+        Update update = new Update().set("status", status).set("lastModified", order.getLastModified());
+        if (order.getNextTransitionAt() == null) {
+            update.unset("nextTransitionAt");
+        } else {
+            update.set("nextTransitionAt", order.getNextTransitionAt());
+        }
+        return mongoTemplate.updateFirst(Query.query(Criteria.where("_id").is(order.getId())
+                        .and("status").is(from)
+                        .and("restockClaim").exists(false)),
+                update, Order.class).getModifiedCount() == 1;
+    }
+
+    private void setFlag(String orderId, String flag) {
+        mongoTemplate.updateFirst(Query.query(Criteria.where("_id").is(orderId)), new Update().set(flag, true), Order.class);
     }
 
     private void incrementSoldItems(List<ProductInOrder> products) {
         products.forEach(product -> productRepository.incrementSoldById(product.getProductId(), product.getAmount()));
+        eventPublisher.publishEvent(new ProductsChangedEvent(products.stream().map(ProductInOrder::getProductId).toList()));
     }
 
     public List<OrderBaseDto> getUserOrders() {
-        User user = securityContextWrapper.getCurrentUser()
+        String userId = securityContextWrapper.getCurrentUserId()
                 .orElseThrow(() -> new UserException("User not found."));
-        return orderRepository.findAllByUserId(user.getId()).stream().map(OrderBaseDto::mapToDto).toList();
+        return orderRepository.findAllByUserId(userId).stream().map(OrderBaseDto::mapToDto).toList();
     }
 
     public OrderDto getOrderById(String id) {
@@ -108,18 +175,46 @@ public class OrderService {
         return orderMapper.mapToOrderDto(order, customer, user, products, productsInOrder);
     }
 
-    @Transactional
+    /**
+     * Gives back the stock of unpaid orders, then deletes them. The orders are claimed before the restock
+     * and only claimed ones still CREATED are deleted. Payment and cancellation only change orders that
+     * carry no claim, so an order paid or cancelled before the claim is left alone and one claimed first
+     * can't be paid or cancelled. A failed restock leaves the orders for the next run, and an order
+     * restocked by an attempt that failed to delete it isn't restocked again. Only a crash between the
+     * claim and the restock loses the stock of a chunk.
+     */
     public void handleNotPaidOrders(List<Order> orders) {
-        for (Order order : orders) {
-            order.getProducts().forEach(product -> productRepository.incrementAmountLeftById(product.getProductId(), product.getAmount()));
-            orderRepository.delete(order);
+        List<String> ids = orders.stream().map(Order::getId).toList();
+        String claim = UUID.randomUUID().toString();
+        mongoTemplate.updateMulti(Query.query(Criteria.where("_id").in(ids)
+                        .and("status").is(OrderStatus.CREATED)
+                        .and("restockClaim").exists(false)),
+                new Update().set("restockClaim", claim), Order.class);
+        List<Order> claimed = mongoTemplate.find(Query.query(Criteria.where("restockClaim").is(claim)), Order.class);
+        Map<String, Integer> released = new HashMap<>();
+        for (Order order : claimed) {
+            order.getProducts().forEach(product -> released.merge(product.getProductId(), product.getAmount(), Integer::sum));
         }
+        try {
+            stockReservationService.restock(released);
+        } catch (RuntimeException e) {
+            mongoTemplate.updateMulti(Query.query(Criteria.where("restockClaim").is(claim)),
+                    new Update().unset("restockClaim").inc("restockAttempts", 1), Order.class);
+            claimed.stream()
+                    .filter(order -> order.getRestockAttempts() + 1 >= Order.MAX_RESTOCK_ATTEMPTS)
+                    .forEach(order -> log.error("Giving up on restocking unpaid order {} after {} attempts, "
+                            + "its stock has to be given back by hand.", order.getId(), Order.MAX_RESTOCK_ATTEMPTS));
+            throw e;
+        }
+        mongoTemplate.remove(Query.query(Criteria.where("_id").in(ids)
+                .and("status").is(OrderStatus.CREATED)
+                .and("restockClaim").exists(true)), Order.class);
     }
 
     public void setOrderProductAsRated(String orderId, String productId) {
-        User user = securityContextWrapper.getCurrentUser()
+        String userId = securityContextWrapper.getCurrentUserId()
                 .orElseThrow(() -> new ProductException("User not found."));
-        Order order = orderRepository.findByIdAndUserId(orderId, user.getId())
+        Order order = orderRepository.findByIdAndUserId(orderId, userId)
                 .orElseThrow(() -> new ProductException("Order not found."));
         order.getProducts().stream()
                 .filter(product -> product.getProductId().equals(productId))
@@ -136,13 +231,34 @@ public class OrderService {
         orderRepository.save(order);
     }
 
-    public void sendOrderDeliveredEmail(Order order) {
-        try {
-            User user = userRepository.findById(order.getUserId()).orElseThrow(() -> new UserException("User not found."));
-            Customer customer = customerRepository.findByUserId(user.getId()).orElseThrow(() -> new UserException("Customer not found."));
-            emailService.sendEmailToDelivered(order, user, customer);
-        } catch (Exception e) {
-            log.error("Error sending email: {}", e.getMessage());
+    /**
+     * Users, customers and product names of all orders are fetched with one query each.
+     */
+    public void sendOrderDeliveredEmails(List<Order> orders) {
+        if (orders.isEmpty()) {
+            return;
+        }
+        Set<String> userIds = orders.stream().map(Order::getUserId).collect(Collectors.toSet());
+        Map<String, User> users = userRepository.findAllById(userIds).stream()
+                .collect(Collectors.toMap(User::getId, Function.identity()));
+        Map<String, Customer> customers = customerRepository.findAllByUserIdIn(userIds).stream()
+                .collect(Collectors.toMap(Customer::getUserId, Function.identity(), (first, second) -> first));
+        Map<String, String> productNames = emailService.findProductNames(orders.stream()
+                .flatMap(order -> order.getProducts().stream())
+                .map(ProductInOrder::getProductId)
+                .collect(Collectors.toSet()));
+        for (Order order : orders) {
+            User user = users.get(order.getUserId());
+            Customer customer = customers.get(order.getUserId());
+            if (user == null || customer == null) {
+                log.error("Error sending email: customer of order {} not found.", order.getId());
+                continue;
+            }
+            try {
+                emailService.sendEmailToDelivered(order, user, customer, productNames);
+            } catch (Exception e) {
+                log.error("Error sending email: {}", e.getMessage());
+            }
         }
     }
 
@@ -164,15 +280,18 @@ public class OrderService {
         if (order.getStatus() != OrderStatus.CREATED && order.getStatus() != OrderStatus.PROCESSING) {
             throw new PaymentException("Order already paid.");
         }
-        order.getProducts().forEach(product -> productRepository.incrementAmountLeftById(product.getProductId(), product.getAmount()));
-        order.setStatus(OrderStatus.ANNULLED);
-        orderRepository.save(order);
+        // the status is changed first, so an order cancelled twice or discarded meanwhile isn't restocked again
+        if (!changeStatus(order, OrderStatus.ANNULLED)) {
+            throw new PaymentException("Order changed meanwhile, try again.");
+        }
+        stockReservationService.restock(order.getProducts().stream()
+                .collect(Collectors.toMap(ProductInOrder::getProductId, ProductInOrder::getAmount, Integer::sum)));
     }
 
     public Order findOrderByUserAndId(String id) {
-        User user = securityContextWrapper.getCurrentUser()
+        String userId = securityContextWrapper.getCurrentUserId()
                 .orElseThrow(() -> new UserException("User not found."));
-        return orderRepository.findByIdAndUserId(id, user.getId()).orElseThrow(() -> new PaymentException("Order not found."));
+        return orderRepository.findByIdAndUserId(id, userId).orElseThrow(() -> new PaymentException("Order not found."));
     }
 
     public void refundOrder(String id) {
@@ -186,7 +305,7 @@ public class OrderService {
         if (order.getStatus() != OrderStatus.DELIVERED) {
             throw new PaymentException("Order not delivered.");
         }
-        order.setStatus(OrderStatus.REFUNDED);
+        order.setNewStatus(OrderStatus.REFUNDED);
         orderRepository.save(order);
     }
 }
@@ -0,0 +1,166 @@
+package org.shop.sportwebstore.service.store;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.shop.sportwebstore.model.OrderStatus;
+import org.shop.sportwebstore.model.entity.Order;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.AggregationUpdate;
+import org.springframework.data.mongodb.core.aggregation.ArithmeticOperators;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Moves paid orders along PROCESSING, SHIPPING and DELIVERED once their {@code nextTransitionAt} passes.
+ * <p>
+ * Due orders are streamed through the sparse {@code nextTransitionAt} index by the scheduler's batch job.
+ * Each chunk is written with one bulk request holding one update per (from, to) pair; the filter repeats
+ * the status and due time, so an order cancelled meanwhile is left alone. Final orders have no
+ * {@code nextTransitionAt} and are never read again.
+ * <p>
+ * What the write actually changed is read back afterwards: the transition counters count the orders
+ * found in their new state, and delivered emails are claimed like reservations are released, so an
+ * order skipped by the filter, or already announced by another node, gets no email.
+ */
+@Slf4j
+@Service
+public class OrderTransitionService {
+
+    private final MongoTemplate mongoTemplate;
+    private final OrderService orderService;
+    private final MeterRegistry meterRegistry;
+
+    public OrderTransitionService(MongoTemplate mongoTemplate, OrderService orderService, MeterRegistry meterRegistry) {
+        this.mongoTemplate = mongoTemplate;
+        this.orderService = orderService;
+        this.meterRegistry = meterRegistry;
+    }
+
+    private record Transition(OrderStatus from, OrderStatus to) {
+    }
+
+    /**
+     * Advances a chunk of orders that were due at {@code now}.
+     *
+     * @return number of orders the bulk write changed
+     */
+    public int advance(List<Order> due, Date now) {
+        Map<Transition, List<String>> groups = new LinkedHashMap<>();
+        for (Order order : due) {
+            groups.computeIfAbsent(new Transition(order.getStatus(), order.nextStatus()), key -> new ArrayList<>())
+                    .add(order.getId());
+        }
+        BulkOperations bulk = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, Order.class);
+        groups.forEach((transition, ids) -> bulk.updateMulti(Query.query(Criteria.where("_id").in(ids)
+                        .and("status").is(transition.from())
+                        .and("nextTransitionAt").lte(now)),
+                update(transition, now)));
+        int modified = bulk.execute().getModifiedCount();
+        if (modified == 0) {
+            return 0;
+        }
+        countMoved(groups, now);
+        // emails go out after the write, an order is never announced twice
+        orderService.sendOrderDeliveredEmails(claimDeliveredEmails(groups));
+        return modified;
+    }
+
+    /**
+     * Reads the chunk back and counts, per transition, the orders found in the state its update leaves:
+     * the new status stamped with this write's time, or no {@code nextTransitionAt} for orders made final.
+     */
+    private void countMoved(Map<Transition, List<String>> groups, Date now) {
+        List<String> ids = groups.values().stream().flatMap(List::stream).toList();
+        Query query = Query.query(Criteria.where("_id").in(ids));
+        query.fields().include("status", "lastModified", "nextTransitionAt");
+        Map<String, Order> current = new HashMap<>();
+        mongoTemplate.find(query, Order.class).forEach(order -> current.put(order.getId(), order));
+        groups.forEach((transition, transitionIds) -> {
+            long moved = transitionIds.stream()
+                    .map(current::get)
+                    .filter(order -> order != null && movedBy(transition, order, now))
+                    .count();
+            if (moved > 0) {
+                meterRegistry.counter("store.orders.transitions",
+                        "from", transition.from().name(), "to", transition.to().name()).increment(moved);
+            }
+        });
+    }
+
+    private static boolean movedBy(Transition transition, Order order, Date now) {
+        if (order.getStatus() != transition.to()) {
+            return false;
+        }
+        return transition.from() == transition.to()
+                ? order.getNextTransitionAt() == null
+                : now.equals(order.getLastModified());
+    }
+
+    /**
+     * Marks the delivered orders of the chunk whose email wasn't sent yet with a fresh claim and returns
+     * those carrying it, so each email is sent by exactly one caller.
+     */
+    private List<Order> claimDeliveredEmails(Map<Transition, List<String>> groups) {
+        List<String> ids = groups.entrySet().stream()
+                .filter(group -> group.getKey().to() == OrderStatus.DELIVERED && group.getKey().from() != OrderStatus.DELIVERED)
+                .flatMap(group -> group.getValue().stream())
+                .toList();
+        if (ids.isEmpty()) {
+            return List.of();
+        }
+        String claim = UUID.randomUUID().toString();
+        mongoTemplate.updateMulti(Query.query(Criteria.where("_id").in(ids)
+                        .and("status").is(OrderStatus.DELIVERED)
+                        .and("emailSent").ne(true)),
+                new Update().set("emailSent", true).set("emailClaim", claim), Order.class);
+        return mongoTemplate.find(Query.query(Criteria.where("_id").in(ids).and("emailClaim").is(claim)), Order.class);
+    }
+
+    private static Update update(Transition transition, Date now) {
+        if (transition.from() == transition.to()) {
+            return new Update().unset("nextTransitionAt");
+        }
+        Update update = new Update()
+                .set("status", transition.to())
+                .set("lastModified", now);
+        Date next = Order.transitionAt(transition.to(), now);
+        if (next == null) {
+            update.unset("nextTransitionAt");
+        } else {
+            update.set("nextTransitionAt", next);
+        }
+        if (transition.to() == OrderStatus.DELIVERED) {
+            update.set("deliveryDate", now);
+        }
+        return update;
+    }
+
+    /**
+     * Orders paid before {@code nextTransitionAt} existed get it from their last change; delivered ones
+     * had their refund check already and stay final. Runs once per start, a no-op after the first.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void backfill() {
+        Query missing = Query.query(Criteria.where("status").in(OrderStatus.PROCESSING, OrderStatus.SHIPPING)
+                .and("nextTransitionAt").exists(false));
+        AggregationUpdate update = AggregationUpdate.update().set("nextTransitionAt")
+                .toValue(ArithmeticOperators.Add.valueOf("lastModified").add(Order.STATUS_CHANGE.toMillis()));
+        long updated = mongoTemplate.updateMulti(missing, update, Order.class).getModifiedCount();
+        if (updated > 0) {
+            log.info("Scheduled {} orders paid before transition times were stored.", updated);
+        }
+    }
+}
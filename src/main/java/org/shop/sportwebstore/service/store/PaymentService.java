@@ -1,40 +1,31 @@
 package org.shop.sportwebstore.service.store;
 
-import com.fasterxml.jackson.annotation.JsonAutoDetect;
-import com.fasterxml.jackson.annotation.PropertyAccessor;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
-import com.fasterxml.jackson.module.paramnames.ParameterNamesModule;
-import com.stripe.Stripe;
-import com.stripe.exception.StripeException;
-import com.stripe.model.Event;
-import com.stripe.model.checkout.Session;
-import com.stripe.net.Webhook;
-import com.stripe.param.checkout.SessionCreateParams;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.shop.sportwebstore.config.PaymentProperties;
+import org.shop.sportwebstore.exception.PaymentException;
 import org.shop.sportwebstore.exception.ProductException;
-import org.shop.sportwebstore.exception.UserException;
 import org.shop.sportwebstore.model.DeliveryTime;
 import org.shop.sportwebstore.model.OrderStatus;
 import org.shop.sportwebstore.model.ShippingAddress;
 import org.shop.sportwebstore.model.dto.OrderDto;
 import org.shop.sportwebstore.model.entity.Cart;
 import org.shop.sportwebstore.model.entity.Customer;
-import org.shop.sportwebstore.model.entity.Product;
-import org.shop.sportwebstore.model.entity.User;
 import org.shop.sportwebstore.repository.CustomerRepository;
-import org.shop.sportwebstore.repository.ProductRepository;
 import org.shop.sportwebstore.service.ConstantStrings;
+import org.shop.sportwebstore.service.payment.CheckoutRequest;
+import org.shop.sportwebstore.service.payment.CheckoutSession;
+import org.shop.sportwebstore.service.payment.PaymentGateway;
 import org.shop.sportwebstore.service.user.SecurityContextWrapper;
 import org.shop.sportwebstore.service.user.UserService;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
-import org.springframework.transaction.annotation.Transactional;
 
 import java.math.BigDecimal;
 import java.math.RoundingMode;
-import java.util.List;
 
 @Service
 @Slf4j
@@ -42,23 +33,18 @@ import java.util.List;
 public class PaymentService {
 
     private final CartService cartService;
-    private final ProductRepository productRepository;
     private final CustomerRepository customerRepository;
     private final OrderService orderService;
     private final SecurityContextWrapper securityContextWrapper;
     private final UserService userService;
     private final ObjectMapper objectMapper;
-
-    @Value("${spring.stripe.secret}")
-    private String stripeSecretKey;
-
-    @Value("${spring.webhook.secret}")
-    private String stripeWebhookSecret;
+    private final StockReservationService stockReservationService;
+    private final PaymentGateway paymentGateway;
+    private final PaymentProperties paymentProperties;
 
     @Value("${front.url}")
     private String frontUrl;
 
-    @Transactional
     public String createPayment(OrderDto orderDto) {
         Customer customer = userService.findOrCreateCustomer(orderDto);
         Cart cart = cartService.getCart(customer.getUserId());
@@ -71,14 +57,45 @@ public class PaymentService {
                 .multiply(new BigDecimal("100"))
                 .setScale(0, RoundingMode.HALF_UP);
 
-        String orderId = orderService.createOrder(cart, customer, totalPrice, orderDto.getPaymentMethod());
-        String url = preparePaymentTemplate(orderDto, totalPrice.longValueExact(), orderId);
+        String reservationId = cart.getReservationId() != null
+                ? cart.getReservationId()
+                : stockReservationService.reserve(cart.getProducts(), cart.getUserId());
+        if (!stockReservationService.commit(reservationId)) {
+            throw new ProductException("Reservation expired, please check out again.");
+        }
+        String orderId = null;
+        String url;
+        try {
+            orderId = orderService.createOrder(cart, customer, totalPrice, orderDto.getPaymentMethod());
+            url = preparePaymentTemplate(orderDto, totalPrice.longValueExact(), orderId);
+        } catch (RuntimeException e) {
+            abandonCheckout(cart, reservationId, orderId, e);
+            throw e;
+        }
         log.info("Start payment for {}", customer.getUserId());
         cartService.deleteCart(customer.getUserId());
         return url;
     }
 
-    @Transactional
+    /**
+     * Gives the committed stock back right away when the order or its payment session couldn't be created,
+     * and frees the cart for another checkout. The order goes first: while it exists the not-paid orders
+     * job restocks it as well, so the reservation is only reverted once it's gone.
+     */
+    private void abandonCheckout(Cart cart, String reservationId, String orderId, RuntimeException cause) {
+        log.warn("Checkout of {} failed, giving back reservation {}: {}", cart.getUserId(), reservationId,
+                cause.getMessage());
+        try {
+            if (orderId != null) {
+                orderService.discardOrder(orderId);
+            }
+            stockReservationService.revertCommit(reservationId);
+            cartService.cancelPayment(cart);
+        } catch (RuntimeException e) {
+            cause.addSuppressed(e);
+        }
+    }
+
     public String createRepayment(String orderId) {
         OrderDto orderDto = orderService.getOrderById(orderId);
         BigDecimal totalPriceInCents = orderDto.getTotalPrice()
@@ -88,46 +105,18 @@ public class PaymentService {
     }
 
     private String preparePaymentTemplate(OrderDto orderDto, long totalPrice, String orderId) {
-        Stripe.apiKey = stripeSecretKey;
-        try {
-            var productData = com.stripe.param.checkout.SessionCreateParams.LineItem.PriceData.ProductData.builder()
-                            .setName("SportWebStore")
-                            .build();
-
-            var priceData = com.stripe.param.checkout.SessionCreateParams.LineItem.PriceData.builder()
-                            .setCurrency("eur")
-                            .setUnitAmount(totalPrice)
-                            .setProductData(productData)
-                            .build();
-
-            var items = com.stripe.param.checkout.SessionCreateParams.LineItem.builder()
-                            .setQuantity(1L)
-                            .setPriceData(priceData)
-                            .build();
-
-            com.stripe.param.checkout.SessionCreateParams sessionCreateParams =
-                    com.stripe.param.checkout.SessionCreateParams.builder()
-                            .setMode(com.stripe.param.checkout.SessionCreateParams.Mode.PAYMENT)
-                            .addPaymentMethodType(SessionCreateParams.PaymentMethodType.valueOf(orderDto.getPaymentMethod().name()))
-                            .setCustomerEmail(orderDto.getEmail())
-                            .setSuccessUrl(frontUrl + "order?paid=true&orderId=" + orderId)
-                            .setCancelUrl(frontUrl + "order?paid=false&orderId=" + orderId)
-                            .addLineItem(items)
-                            .build();
-
-            Session session = com.stripe.model.checkout.Session.create(sessionCreateParams);
-            orderService.updateOrderSessionId(orderId, session.getId());
-            return session.getUrl();
-        } catch (StripeException e) {
-            throw new UserException("Error during payment." + e);
-        }
+        CheckoutSession session = paymentGateway.createCheckoutSession(new CheckoutRequest(orderId, totalPrice,
+                paymentProperties.getCurrency(), orderDto.getPaymentMethod().name(), orderDto.getEmail(),
+                frontUrl + "order?paid=true&orderId=" + orderId,
+                frontUrl + "order?paid=false&orderId=" + orderId));
+        orderService.updateOrderSessionId(orderId, session.id());
+        return session.url();
     }
 
-    @Transactional(rollbackFor = ProductException.class)
     public OrderDto getSummary() {
-        User user = securityContextWrapper.getCurrentUser()
+        String userId = securityContextWrapper.getCurrentUserId()
                 .orElseThrow(() -> new RuntimeException("User not found."));
-        Customer customer = customerRepository.findByUserId(user.getId()).orElse(null);
+        Customer customer = customerRepository.findByUserId(userId).orElse(null);
         String name = null;
         String lastName = null;
         ShippingAddress address = null;
@@ -137,9 +126,9 @@ public class PaymentService {
             address = customer.getShippingAddress();
         }
 
-        Cart cart = cartService.getCart(user.getId());
-        List<Product> products = cartService.checkCartProducts(cart);
-        cartService.blockAmountItem(cart, products);
+        Cart cart = cartService.getCart(userId);
+        cartService.checkCartProducts(cart);
+        cartService.blockAmountItem(cart);
 
         BigDecimal totalPrice = cartService.calculateTotalPrice(cart);
         return OrderDto.builder()
@@ -152,30 +141,26 @@ public class PaymentService {
     }
 
     public void cancelPayment() {
-        User user = securityContextWrapper.getCurrentUser()
+        String userId = securityContextWrapper.getCurrentUserId()
                 .orElseThrow(() -> new RuntimeException("User not found."));
-        Cart cart = cartService.getCart(user.getId());
-        List<Product> products = productRepository.findAllById(cart.getProducts().keySet());
-        cartService.cancelPayment(cart, products);
+        Cart cart = cartService.getCart(userId);
+        cartService.cancelPayment(cart);
     }
 
-    public void webhook(String payload, String signature) {
+    /**
+     * Called by {@link WebhookInbox} for a completed Stripe checkout session.
+     */
+    public void completeCheckout(String sessionJson) {
+        JsonNode sessionId;
         try {
-            Event event = Webhook.constructEvent(payload, signature, stripeWebhookSecret);
-            if (event.getType().equals("checkout.session.completed")) {
-
-                String rawJson = event.getDataObjectDeserializer().getRawJson();
-
-                String sessionId = objectMapper.registerModule(new ParameterNamesModule())
-                        .registerModule(new JavaTimeModule())
-                        .setVisibility(PropertyAccessor.FIELD, JsonAutoDetect.Visibility.ANY)
-                        .readTree(rawJson).get("id").asText();
-
-                orderService.updateOrderStatusBySessionId(sessionId, OrderStatus.PROCESSING);
-            }
-        } catch (Exception e) {
-            throw new UserException("Error during payment." + e.getMessage());
+            sessionId = objectMapper.readTree(sessionJson).path("id");
+        } catch (JsonProcessingException e) {
+            throw new PaymentException("Malformed checkout session: " + e.getOriginalMessage());
+        }
+        if (!sessionId.isTextual()) {
+            throw new PaymentException("Checkout session without id.");
         }
+        orderService.updateOrderStatusBySessionId(sessionId.asText(), OrderStatus.PROCESSING);
     }
 
 }
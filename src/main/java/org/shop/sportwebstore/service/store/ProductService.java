@@ -3,6 +3,8 @@ package org.shop.sportwebstore.service.store;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import lombok.RequiredArgsConstructor;
+import org.bson.Document;
+import org.bson.types.Decimal128;
 import org.shop.sportwebstore.exception.ProductException;
 import org.shop.sportwebstore.model.dto.*;
 import org.shop.sportwebstore.model.entity.Category;
@@ -10,10 +12,26 @@ import org.shop.sportwebstore.model.entity.Product;
 import org.shop.sportwebstore.repository.CategoryRepository;
 import org.shop.sportwebstore.repository.ProductRepository;
 import org.shop.sportwebstore.service.ValidationUtil;
+import org.shop.sportwebstore.service.catalog.CatalogFacets;
+import org.shop.sportwebstore.service.catalog.CatalogFilter;
+import org.shop.sportwebstore.service.catalog.CatalogPage;
+import org.shop.sportwebstore.service.catalog.ProductCatalog;
+import org.shop.sportwebstore.service.catalog.RelatedProducts;
+import org.shop.sportwebstore.service.search.ProductSearchIndex;
+import org.springframework.cache.annotation.CacheEvict;
+import org.springframework.cache.annotation.Cacheable;
+import org.springframework.cache.annotation.Caching;
 import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageImpl;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 import org.springframework.web.multipart.MultipartFile;
@@ -25,16 +43,29 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.*;
+import java.util.function.Function;
+import java.util.stream.Collectors;
 
 @Service
 @RequiredArgsConstructor
 public class ProductService {
 
+    private static final String RELEVANCE_SORT = "relevance";
+    private static final Set<String> KEYSET_SORT_FIELDS = Set.of("id", "name", "price", "amountLeft", "orders");
+    private static final int COUNT_LIMIT = 10_000;
+    private static final int PRICE_BUCKETS = 10;
+    public static final String MAX_PRICE_CACHE = "maxPrice";
+
     private final ProductRepository productRepository;
     private final CategoryRepository categoryRepository;
     private final OrderService orderService;
+    private final ProductSearchIndex productSearchIndex;
+    private final MongoTemplate mongoTemplate;
+    private final ProductCatalog productCatalog;
+    private final RelatedProducts relatedProducts;
 
     @Transactional
+    @CacheEvict(cacheNames = MAX_PRICE_CACHE, allEntries = true)
     public ProductDto addProduct(String productJson, MultipartFile image) {
         ProductDto product;
         try {
@@ -50,7 +81,16 @@ public class ProductService {
 
         List<Category> categories = categoryRepository.findByNameIn(product.getCategories());
 
-        return ProductDto.minDto(productRepository.save(ProductDto.toEntity(product, categories)));
+        Product saved = productRepository.save(ProductDto.toEntity(product, categories));
+        refreshViews(saved);
+        return ProductDto.minDto(saved);
+    }
+
+    private void refreshViews(Product saved) {
+        productSearchIndex.index(saved);
+        productCatalog.update(saved);
+        productCatalog.publish(List.of(saved.getId()));
+        relatedProducts.refresh(List.of(saved.getId()));
     }
 
     protected String saveImage(MultipartFile image) {
@@ -77,27 +117,60 @@ public class ProductService {
         }
     }
 
+    @Caching(evict = {
+            @CacheEvict(cacheNames = MAX_PRICE_CACHE, allEntries = true),
+            @CacheEvict(cacheNames = RelatedProducts.DETAILS_CACHE, key = "#id")
+    })
     public ProductDto changeProductData(String id, ProductDto productDto) {
         if (!productDto.getId().equals(id)) {
             throw new ProductException("Product id must be the same.");
         }
         Product product = productRepository.findById(id).orElseThrow(() -> new ProductException("Product not found."));
+        Query query = Query.query(Criteria.where("_id").is(id));
+        Update update = new Update();
         if (productDto.getPrice() != null && productDto.getPrice().compareTo(BigDecimal.ZERO) > 0) {
-            product.setPrice(productDto.getPrice().setScale(2, RoundingMode.HALF_UP));
+            update.set("price", productDto.getPrice().setScale(2, RoundingMode.HALF_UP));
         }
 
         if (productDto.getName() != null && !productDto.getName().isEmpty()) {
-            product.setName(productDto.getName());
+            update.set("name", productDto.getName());
         }
 
-        if (productDto.getQuantity() >= 0) {
-            product.setAmountLeft(productDto.getQuantity());
+        if (productDto.getQuantity() >= 0 && productDto.getQuantity() != product.getAmountLeft()) {
+            if (product.isHotStock()) {
+                throw new ProductException("Stock of this product is held in redis, turn hot stock off to change it.");
+            }
+            query.addCriteria(Criteria.where("hotStock").is(false));
+            update.set("amountLeft", productDto.getQuantity());
+        }
+        if (update.getUpdateObject().isEmpty()) {
+            return ProductDto.minEdited(product);
         }
-        return ProductDto.minEdited(productRepository.save(product));
+        Product saved = updateProduct(query, update);
+        refreshViews(saved);
+        return ProductDto.minEdited(saved);
+    }
+
+    /**
+     * Sets only the edited fields, so stock, reservations and the hot stock state changed by checkouts
+     * meanwhile are kept.
+     */
+    private Product updateProduct(Query query, Update update) {
+        Product updated = mongoTemplate.findAndModify(query, update,
+                FindAndModifyOptions.options().returnNew(true), Product.class);
+        if (updated == null) {
+            throw new ProductException("Product not found or its stock moved to redis meanwhile.");
+        }
+        return updated;
     }
 
     public ProductsListInfo getProducts(int page, int size, String sort, String direction,
                                            String search, int minPrice, int maxPrice, List<String> categories, boolean isAdmin) {
+        boolean searchReady = search == null || search.isBlank() || productSearchIndex.isReady();
+        boolean sortSupported = ProductCatalog.SORT_FIELDS.contains(sort) || RELEVANCE_SORT.equalsIgnoreCase(sort);
+        if (productCatalog.isReady() && searchReady && sortSupported) {
+            return getProductsFromCatalog(page, size, sort, direction, search, minPrice, maxPrice, categories, isAdmin);
+        }
         Page<Product> products = fetchProducts(page, size, sort, direction, search, minPrice, maxPrice, categories, isAdmin);
         ProductsListInfo response = new ProductsListInfo(
                 products.getContent().stream().map(product -> ProductDto.toDto(product, false)).toList(),
@@ -105,18 +178,274 @@ public class ProductService {
         );
         if (page == 0) {
             response.setCategories(getCategories().stream().map(CategoryDto::getName).toList());
+            applyFacets(response, search, minPrice, maxPrice, categories, isAdmin);
+        }
+        return response;
+    }
+
+    private ProductsListInfo getProductsFromCatalog(int page, int size, String sort, String direction,
+                                                    String search, int minPrice, int maxPrice, List<String> categories, boolean isAdmin) {
+        Map<String, Double> ranking = search == null || search.isBlank() ? null : productSearchIndex.search(search);
+        CatalogFilter filter = new CatalogFilter(ranking == null ? null : ranking.keySet(), categories, !isAdmin,
+                minPrice * 100L, maxPrice * 100L);
+        CatalogPage catalogPage = ranking != null && RELEVANCE_SORT.equalsIgnoreCase(sort)
+                ? productCatalog.pageInOrder(filter, ProductSearchIndex.best(ranking), page * size, size)
+                : productCatalog.page(filter, sort, direction.equalsIgnoreCase("asc"), page * size, size);
+
+        ProductsListInfo response = new ProductsListInfo(
+                hydrate(catalogPage.getIds(), isAdmin).stream().map(product -> ProductDto.toDto(product, false)).toList(),
+                catalogPage.getTotal()
+        );
+        if (page == 0) {
+            response.setCategories(getCategories().stream().map(CategoryDto::getName).toList());
+            CatalogFacets facets = productCatalog.facets(filter, PRICE_BUCKETS);
+            response.setCategoryCounts(facets.getCategoryCounts());
+            response.setPriceHistogram(facets.getPriceHistogram());
+        }
+        return response;
+    }
+
+    /**
+     * Loads the page documents in the given order. Documents that no longer match the
+     * catalog snapshot (deleted, or hidden by another node) are dropped and fixed in the catalog.
+     */
+    private List<Product> hydrate(List<String> ids, boolean isAdmin) {
+        if (ids.isEmpty()) {
+            return List.of();
+        }
+        Map<String, Product> products = productRepository.findAllById(ids).stream()
+                .collect(Collectors.toMap(Product::getId, Function.identity()));
+        List<Product> result = new ArrayList<>(ids.size());
+        for (String id : ids) {
+            Product product = products.get(id);
+            if (product == null) {
+                productCatalog.remove(id);
+            } else if (!isAdmin && !product.isAvailable()) {
+                productCatalog.update(product);
+            } else {
+                result.add(product);
+            }
+        }
+        return result;
+    }
+
+    public ProductsListInfo getProductsAfter(String cursor, int size, String sort, String direction,
+                                             String search, int minPrice, int maxPrice, List<String> categories, boolean isAdmin) {
+        if (!KEYSET_SORT_FIELDS.contains(sort)) {
+            throw new IllegalArgumentException("Cursor pagination is not supported for sort: " + sort);
+        }
+        Sort.Direction direct = direction.equalsIgnoreCase("asc") ? Sort.Direction.ASC : Sort.Direction.DESC;
+        ProductCursor previous = cursor == null || cursor.isBlank() ? null : ProductCursor.decode(cursor);
+        if (previous != null && (!sort.equals(previous.getSort()) || !direct.name().equals(previous.getDirection()))) {
+            throw new IllegalArgumentException("Cursor does not match requested sort.");
+        }
+
+        Criteria filters = productFilters(search, minPrice, maxPrice, categories, isAdmin);
+        if (filters == null) {
+            return new ProductsListInfo(List.of(), 0);
+        }
+        long total;
+        boolean estimated;
+        if (previous == null) {
+            total = mongoTemplate.count(new Query(filters).limit(COUNT_LIMIT), Product.class);
+            estimated = total >= COUNT_LIMIT;
+        } else {
+            total = previous.getTotal();
+            estimated = previous.isEstimated();
+        }
+
+        Criteria criteria = previous == null ? filters : new Criteria().andOperator(filters, seekCriteria(previous, direct));
+        Sort sortObj = "id".equals(sort) ? Sort.by(direct, "id") : Sort.by(direct, sort).and(Sort.by(direct, "id"));
+        List<Product> products = mongoTemplate.find(new Query(criteria).with(sortObj).limit(size + 1), Product.class);
+        boolean hasNext = products.size() > size;
+        if (hasNext) {
+            products = products.subList(0, size);
+        }
+
+        ProductsListInfo response = new ProductsListInfo(
+                products.stream().map(product -> ProductDto.toDto(product, false)).toList(),
+                total
+        );
+        response.setTotalEstimated(estimated);
+        if (hasNext) {
+            Product last = products.get(products.size() - 1);
+            response.setNextCursor(new ProductCursor(sort, direct.name(), sortValue(last, sort), last.getId(), total, estimated).encode());
+        }
+        if (previous == null) {
+            response.setCategories(getCategories().stream().map(CategoryDto::getName).toList());
+            applyFacets(response, search, minPrice, maxPrice, categories, isAdmin);
         }
         return response;
     }
 
+    /**
+     * Category counts ignore the category filter and the price histogram ignores the price
+     * range, so the UI can show how many products every other choice would give. Both are
+     * computed in a single $facet aggregation over the search and availability filters.
+     */
+    private void applyFacets(ProductsListInfo response, String search, int minPrice, int maxPrice,
+                             List<String> categories, boolean isAdmin) {
+        Criteria base = baseFilter(search, isAdmin);
+        if (base == null) {
+            response.setCategoryCounts(Map.of());
+            response.setPriceHistogram(List.of());
+            return;
+        }
+        Aggregation aggregation = Aggregation.newAggregation(
+                Aggregation.match(base),
+                Aggregation.facet(
+                                Aggregation.match(priceFilter(minPrice, maxPrice)),
+                                Aggregation.unwind("categories"),
+                                Aggregation.group("categories.name").count().as("count"))
+                        .as("categories")
+                        .and(
+                                Aggregation.match(categoryFilter(categories)),
+                                Aggregation.bucketAuto("price", PRICE_BUCKETS))
+                        .as("prices")
+        );
+        Document facets = mongoTemplate.aggregate(aggregation, Product.class, Document.class).getUniqueMappedResult();
+
+        Map<String, Long> categoryCounts = new TreeMap<>();
+        List<PriceBucket> priceHistogram = new ArrayList<>();
+        if (facets != null) {
+            for (Document category : facets.getList("categories", Document.class, List.of())) {
+                categoryCounts.put(category.getString("_id"), ((Number) category.get("count")).longValue());
+            }
+            for (Document bucket : facets.getList("prices", Document.class, List.of())) {
+                Document range = bucket.get("_id", Document.class);
+                priceHistogram.add(new PriceBucket(
+                        toBigDecimal(range.get("min")),
+                        toBigDecimal(range.get("max")),
+                        ((Number) bucket.get("count")).longValue()));
+            }
+        }
+        response.setCategoryCounts(categoryCounts);
+        response.setPriceHistogram(priceHistogram);
+    }
+
+    private BigDecimal toBigDecimal(Object value) {
+        if (value instanceof Decimal128 decimal) {
+            return decimal.bigDecimalValue();
+        }
+        return value == null ? null : new BigDecimal(value.toString());
+    }
+
+    private Criteria productFilters(String search, int minPrice, int maxPrice, List<String> categories, boolean isAdmin) {
+        Criteria base = baseFilter(search, isAdmin);
+        if (base == null) {
+            return null;
+        }
+        return new Criteria().andOperator(base, priceFilter(minPrice, maxPrice), categoryFilter(categories));
+    }
+
+    /**
+     * @return availability and search filter, or null when the search matches nothing
+     */
+    private Criteria baseFilter(String search, boolean isAdmin) {
+        Criteria criteria = new Criteria();
+        if (!isAdmin) {
+            criteria.and("available").is(true);
+        }
+        if (search != null && !search.isBlank()) {
+            if (!productSearchIndex.isReady()) {
+                return criteria.and("name").regex(".*" + search + ".*", "i");
+            }
+            Map<String, Double> ranking = productSearchIndex.search(search);
+            if (ranking.isEmpty()) {
+                return null;
+            }
+            criteria.and("id").in(ranking.keySet());
+        }
+        return criteria;
+    }
+
+    private Criteria priceFilter(int minPrice, int maxPrice) {
+        return Criteria.where("price").gte(minPrice).lte(maxPrice);
+    }
+
+    private Criteria categoryFilter(List<String> categories) {
+        if (categories == null || categories.isEmpty()) {
+            return new Criteria();
+        }
+        return Criteria.where("categories.name").in(categories);
+    }
+
+    private Criteria seekCriteria(ProductCursor cursor, Sort.Direction direction) {
+        Criteria afterId = direction.isAscending()
+                ? Criteria.where("id").gt(cursor.getId())
+                : Criteria.where("id").lt(cursor.getId());
+        if ("id".equals(cursor.getSort())) {
+            return afterId;
+        }
+        String field = cursor.getSort();
+        Object value = switch (field) {
+            case "price" -> new Decimal128(new BigDecimal(cursor.getValue()));
+            case "amountLeft", "orders" -> Integer.parseInt(cursor.getValue());
+            default -> cursor.getValue();
+        };
+        Criteria afterValue = direction.isAscending()
+                ? Criteria.where(field).gt(value)
+                : Criteria.where(field).lt(value);
+        return new Criteria().orOperator(afterValue, new Criteria().andOperator(Criteria.where(field).is(value), afterId));
+    }
+
+    private String sortValue(Product product, String sort) {
+        return switch (sort) {
+            case "name" -> product.getName();
+            case "price" -> product.getPrice().toPlainString();
+            case "amountLeft" -> String.valueOf(product.getAmountLeft());
+            case "orders" -> String.valueOf(product.getOrders());
+            default -> null;
+        };
+    }
+
     private Page<Product> fetchProducts(int page, int size, String sort, String direction, String search, int minPrice, int maxPrice, List<String> categories, boolean isAdmin) {
         Sort.Direction direct = direction.equalsIgnoreCase("asc") ? Sort.Direction.ASC : Sort.Direction.DESC;
-        Sort sortObj = Sort.by(direct, sort);
-        Pageable pageable = PageRequest.of(page, size, sortObj);
+        boolean withCategories = categories != null && !categories.isEmpty();
+        if (search == null || search.isBlank()) {
+            Pageable pageable = PageRequest.of(page, size, Sort.by(direct, sort));
+            if (!withCategories) {
+                return productRepository.findByPriceRange(!isAdmin, minPrice, maxPrice, pageable);
+            }
+            return productRepository.findByCategoriesIn(categories, !isAdmin, minPrice, maxPrice, pageable);
+        }
+        if (!productSearchIndex.isReady()) {
+            return fetchProductsByRegex(page, size, direct, sort, search, minPrice, maxPrice, categories, isAdmin);
+        }
+
+        Map<String, Double> ranking = productSearchIndex.search(search);
+        if (ranking.isEmpty()) {
+            return Page.empty(PageRequest.of(page, size));
+        }
+        if (RELEVANCE_SORT.equalsIgnoreCase(sort)) {
+            return fetchProductsByRelevance(page, size, ranking, minPrice, maxPrice, categories, isAdmin);
+        }
+        Pageable pageable = PageRequest.of(page, size, Sort.by(direct, sort));
+        if (!withCategories) {
+            return productRepository.findByIdIn(ranking.keySet(), !isAdmin, minPrice, maxPrice, pageable);
+        }
+        return productRepository.findByIdInAndCategoriesIn(ranking.keySet(), categories, !isAdmin, minPrice, maxPrice, pageable);
+    }
+
+    private Page<Product> fetchProductsByRegex(int page, int size, Sort.Direction direct, String sort, String search, int minPrice, int maxPrice, List<String> categories, boolean isAdmin) {
+        Pageable pageable = PageRequest.of(page, size, Sort.by(direct, sort));
         if (categories == null || categories.isEmpty()) {
             return productRepository.findByNameMatchesRegexIgnoreCase(".*" + search + ".*", !isAdmin, minPrice, maxPrice, pageable);
         }
-            return productRepository.findByNameMatchesRegexIgnoreCaseAndCategoriesIn(".*" + search + ".*", categories, !isAdmin, minPrice, maxPrice, pageable);
+        return productRepository.findByNameMatchesRegexIgnoreCaseAndCategoriesIn(".*" + search + ".*", categories, !isAdmin, minPrice, maxPrice, pageable);
+    }
+
+    private Page<Product> fetchProductsByRelevance(int page, int size, Map<String, Double> ranking, int minPrice, int maxPrice, List<String> categories, boolean isAdmin) {
+        List<Product> matching = categories == null || categories.isEmpty()
+                ? productRepository.findIdsByIdIn(ranking.keySet(), !isAdmin, minPrice, maxPrice)
+                : productRepository.findIdsByIdInAndCategoriesIn(ranking.keySet(), categories, !isAdmin, minPrice, maxPrice);
+        List<String> ids = ProductSearchIndex.best(matching.stream()
+                .collect(Collectors.toMap(Product::getId, product -> ranking.get(product.getId()))));
+
+        Pageable pageable = PageRequest.of(page, size);
+        int from = (int) Math.min(pageable.getOffset(), ids.size());
+        List<String> pageIds = ids.subList(from, Math.min(from + size, ids.size()));
+        return new PageImpl<>(hydrate(pageIds, true), pageable, matching.size());
     }
 
     public List<CategoryDto> getCategories() {
@@ -128,16 +457,21 @@ public class ProductService {
         return Map.of("products", products.stream().map(product -> ProductDto.toDto(product, false)).toList());
     }
 
-    public Map<String, Object> getDetails(String id) {
+    @Cacheable(cacheNames = RelatedProducts.DETAILS_CACHE, key = "#id", sync = true)
+    public ProductDetailsDto getDetails(String id) {
         Product product = productRepository.findByIdAndAvailableTrue(id).orElseThrow(() -> new ProductException("Product not found."));
-        Collection<List<Category>> categories = Collections.singleton(product.getCategories());
-        List<Product> relatedProducts = productRepository.findTop4ByCategoriesInAndIdNotAndAvailableTrue(categories, id);
-        return Map.of(
-                "product", ProductDto.toDto(product, true),
-                "relatedProducts", relatedProducts.stream().map(ProductDto::minDto).toList());
+        List<String> relatedIds = relatedProducts.get(id);
+        List<Product> related = relatedIds == null
+                ? productRepository.findTop4ByCategoriesNameInAndIdNotAndAvailableTrue(
+                        product.getCategories().stream().map(Category::getName).toList(), id)
+                : hydrate(relatedIds, false);
+        return new ProductDetailsDto(
+                ProductDto.toDto(product, true),
+                related.stream().map(ProductDto::minDto).collect(Collectors.toList()));
     }
 
     @Transactional(rollbackFor = ProductException.class)
+    @CacheEvict(cacheNames = RelatedProducts.DETAILS_CACHE, key = "#rateProductDto.productId")
     public void rateProduct(RateProductDto rateProductDto) {
         Product product = productRepository.findById(rateProductDto.getProductId())
                 .orElseThrow(() -> new ProductException("Product not found."));
@@ -154,7 +488,8 @@ public class ProductService {
         product.getRatings().remove(totalRatings);
 
         orderService.setOrderProductAsRated(rateProductDto.getOrderId(), rateProductDto.getProductId());
-        productRepository.save(product);
+        refreshViews(updateProduct(Query.query(Criteria.where("_id").is(product.getId())),
+                new Update().set("ratings", product.getRatings())));
     }
 
     public CategoryDto addCategory(CategoryDto category) {
@@ -164,12 +499,18 @@ public class ProductService {
         return new CategoryDto(categoryRepository.save(new Category(category.getName())).getName());
     }
 
+    @Caching(evict = {
+            @CacheEvict(cacheNames = MAX_PRICE_CACHE, allEntries = true),
+            @CacheEvict(cacheNames = RelatedProducts.DETAILS_CACHE, key = "#id")
+    })
     public ProductDto changeProductAvailability(String id, ProductAvailability available) {
-        Product product = productRepository.findById(id).orElseThrow(() -> new ProductException("Product not found."));
-        product.setAvailable(available.isAvailable());
-        return ProductDto.minEdited(productRepository.save(product));
+        Product saved = updateProduct(Query.query(Criteria.where("_id").is(id)),
+                new Update().set("available", available.isAvailable()));
+        refreshViews(saved);
+        return ProductDto.minEdited(saved);
     }
 
+    @Cacheable(cacheNames = MAX_PRICE_CACHE, sync = true)
     public BigDecimal getMaxPrice() {
         return productRepository.findTopByAvailableTrueAndAmountLeftGreaterThanOrderByPriceDesc(0).getPrice();
     }
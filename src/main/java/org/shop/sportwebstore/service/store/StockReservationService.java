@@ -0,0 +1,247 @@
+package org.shop.sportwebstore.service.store;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.shop.sportwebstore.exception.ProductException;
+import org.shop.sportwebstore.model.ReservationStatus;
+import org.shop.sportwebstore.model.entity.Product;
+import org.shop.sportwebstore.model.entity.Reservation;
+import org.shop.sportwebstore.repository.ReservationRepository;
+import org.shop.sportwebstore.service.catalog.ProductsChangedEvent;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Service;
+
+import java.util.*;
+
+/**
+ * Holds stock for a checkout. All cart lines are decremented in one unordered bulk write,
+ * each guarded by {@code amountLeft >= quantity}, and every updated product is tagged with
+ * the reservation id. If any line fails, the tagged lines are given back, so a reservation
+ * is all-or-nothing and stock never goes below zero.
+ * Giving stock back only matches products that still carry the tag, which makes release
+ * safe to repeat.
+ * Lines of hot products are taken from redis first by {@link HotStockService} and kept
+ * apart in the ledger.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class StockReservationService {
+
+    private static final String RESERVATIONS = "reservations";
+
+    private final MongoTemplate mongoTemplate;
+    private final ReservationRepository reservationRepository;
+    private final ApplicationEventPublisher eventPublisher;
+    private final HotStockService hotStockService;
+
+    /**
+     * @return id of the reservation holding all cart lines
+     * @throws ProductException when any product is unavailable or out of stock
+     */
+    public String reserve(Map<String, Integer> items, String userId) {
+        Map<String, Integer> hot = hotStockService.hotLines(items);
+        Map<String, Integer> cold = new HashMap<>(items);
+        cold.keySet().removeAll(hot.keySet());
+        if (!hot.isEmpty()) {
+            for (String productId : hotStockService.reserve(hot)) {
+                cold.put(productId, hot.remove(productId));
+            }
+        }
+        Reservation reservation;
+        try {
+            reservation = reservationRepository.save(new Reservation(userId, cold, hot));
+        } catch (RuntimeException e) {
+            // nothing records the hot lines taken from redis yet, so they have to go back right away
+            try {
+                restockMongo(notHot(hot, hotStockService.release(hot)));
+            } catch (RuntimeException releaseFailure) {
+                e.addSuppressed(releaseFailure);
+            }
+            throw e;
+        }
+        if (cold.isEmpty()) {
+            return reservation.getId();
+        }
+        BulkOperations bulk = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, Product.class);
+        cold.forEach((productId, quantity) -> bulk.updateOne(
+                Query.query(Criteria.where("id").is(productId)
+                        .and("available").is(true)
+                        .and("hotStock").ne(true)
+                        .and("amountLeft").gte(quantity)),
+                new Update().inc("amountLeft", -quantity).addToSet(RESERVATIONS, reservation.getId())));
+        int held = bulk.execute().getModifiedCount();
+        if (held < cold.size()) {
+            release(reservation.getId());
+            throw new ProductException("Not enough products in stock.");
+        }
+        eventPublisher.publishEvent(new ProductsChangedEvent(cold.keySet()));
+        return reservation.getId();
+    }
+
+    /**
+     * The held stock now belongs to an order; it's given back by the order flows from then on.
+     *
+     * @return false when the reservation was already released (e.g. expired)
+     */
+    public boolean commit(String reservationId) {
+        if (!transition(reservationId, ReservationStatus.HELD, ReservationStatus.COMMITTED)) {
+            return false;
+        }
+        mongoTemplate.updateMulti(Query.query(Criteria.where(RESERVATIONS).is(reservationId)),
+                new Update().pull(RESERVATIONS, reservationId), Product.class);
+        return true;
+    }
+
+    public void release(String reservationId) {
+        if (!transition(reservationId, ReservationStatus.HELD, ReservationStatus.RELEASED)) {
+            return;
+        }
+        giveBack(List.of(reservationRepository.findById(reservationId).orElseThrow()));
+    }
+
+    /**
+     * Gives back the stock of a committed reservation whose order couldn't be placed. The products no
+     * longer carry its tag, so the lines are restocked like those of a cancelled order.
+     */
+    public void revertCommit(String reservationId) {
+        if (!transition(reservationId, ReservationStatus.COMMITTED, ReservationStatus.RELEASED)) {
+            return;
+        }
+        Reservation reservation = reservationRepository.findById(reservationId).orElseThrow();
+        Map<String, Integer> lines = new HashMap<>(reservation.getItems());
+        reservation.getHotItems().forEach((productId, quantity) -> lines.merge(productId, quantity, Integer::sum));
+        restock(lines);
+    }
+
+    /**
+     * Releases many reservations in a fixed number of round trips: one update claims those still held,
+     * then the stock of all of them is given back together.
+     *
+     * @return number of reservations released by this call
+     */
+    public int releaseAll(Collection<String> reservationIds) {
+        if (reservationIds.isEmpty()) {
+            return 0;
+        }
+        String claim = UUID.randomUUID().toString();
+        mongoTemplate.updateMulti(
+                Query.query(Criteria.where("id").in(reservationIds).and("status").is(ReservationStatus.HELD)),
+                new Update().set("status", ReservationStatus.RELEASED).set("releaseClaim", claim).set("lastModified", new Date()),
+                Reservation.class);
+        List<Reservation> claimed = mongoTemplate.find(
+                Query.query(Criteria.where("id").in(reservationIds).and("releaseClaim").is(claim)), Reservation.class);
+        giveBack(claimed);
+        return claimed.size();
+    }
+
+    private void giveBack(List<Reservation> reservations) {
+        Map<String, Integer> hot = new HashMap<>();
+        reservations.forEach(reservation -> reservation.getHotItems()
+                .forEach((productId, quantity) -> hot.merge(productId, quantity, Integer::sum)));
+        restockMongo(notHot(hot, hotStockService.release(hot)));
+
+        Set<String> products = new HashSet<>();
+        reservations.forEach(reservation -> products.addAll(reservation.getItems().keySet()));
+        if (products.isEmpty()) {
+            return;
+        }
+        BulkOperations bulk = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, Product.class);
+        int lines = 0;
+        for (Reservation reservation : reservations) {
+            String reservationId = reservation.getId();
+            reservation.getItems().forEach((productId, quantity) -> bulk.updateOne(
+                    Query.query(Criteria.where("id").is(productId)
+                            .and(RESERVATIONS).is(reservationId)
+                            .and("hotStock").ne(true)),
+                    new Update().inc("amountLeft", quantity).pull(RESERVATIONS, reservationId)));
+            lines += reservation.getItems().size();
+        }
+        int released = bulk.execute().getModifiedCount();
+        if (released < lines) {
+            reservations.forEach(reservation -> releaseTurnedHot(reservation.getId(), reservation.getItems()));
+        }
+        if (released > 0) {
+            eventPublisher.publishEvent(new ProductsChangedEvent(products));
+        }
+    }
+
+    /**
+     * Gives back stock of finished orders (cancelled or never paid).
+     */
+    public void restock(Map<String, Integer> items) {
+        Map<String, Integer> hot = hotStockService.hotLines(items);
+        Map<String, Integer> cold = new HashMap<>(items);
+        cold.keySet().removeAll(hot.keySet());
+        cold.putAll(notHot(hot, hotStockService.release(hot)));
+        restockMongo(cold);
+    }
+
+    /**
+     * Lines are only added to products that aren't hot; the hot set used to split them may be a second
+     * old, and an amountLeft raised under a hot product would be overwritten by the next reconcile.
+     * Lines whose product turned hot meanwhile go to redis like the skipped lines of a release.
+     */
+    private void restockMongo(Map<String, Integer> items) {
+        if (items.isEmpty()) {
+            return;
+        }
+        BulkOperations bulk = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, Product.class);
+        items.forEach((productId, quantity) -> bulk.updateOne(
+                Query.query(Criteria.where("id").is(productId).and("hotStock").ne(true)),
+                new Update().inc("amountLeft", quantity)));
+        int restocked = bulk.execute().getMatchedCount();
+        if (restocked > 0) {
+            eventPublisher.publishEvent(new ProductsChangedEvent(items.keySet()));
+        }
+        if (restocked < items.size()) {
+            Query turnedHot = Query.query(Criteria.where("id").in(items.keySet()).and("hotStock").is(true));
+            turnedHot.fields().include("id");
+            Map<String, Integer> hot = new HashMap<>();
+            mongoTemplate.find(turnedHot, Product.class).forEach(product -> hot.put(product.getId(), items.get(product.getId())));
+            if (!hot.isEmpty()) {
+                restockMongo(notHot(hot, hotStockService.release(hot)));
+            }
+        }
+    }
+
+    /**
+     * Lines skipped by the release bulk either weren't held (failed reserve) or their product
+     * became hot meanwhile; the latter still carry the tag and their stock goes to redis.
+     */
+    private void releaseTurnedHot(String reservationId, Map<String, Integer> items) {
+        Map<String, Integer> tagged = new HashMap<>();
+        items.forEach((productId, quantity) -> {
+            Product product = mongoTemplate.findAndModify(
+                    Query.query(Criteria.where("id").is(productId).and(RESERVATIONS).is(reservationId)),
+                    new Update().pull(RESERVATIONS, reservationId), Product.class);
+            if (product != null) {
+                tagged.put(productId, quantity);
+            }
+        });
+        if (!tagged.isEmpty()) {
+            restockMongo(notHot(tagged, hotStockService.release(tagged)));
+        }
+    }
+
+    private Map<String, Integer> notHot(Map<String, Integer> lines, List<String> notHotIds) {
+        Map<String, Integer> result = new HashMap<>();
+        notHotIds.forEach(productId -> result.put(productId, lines.get(productId)));
+        return result;
+    }
+
+    /**
+     * from -> target as a compare-and-set, so commit and release can't both win.
+     */
+    private boolean transition(String reservationId, ReservationStatus from, ReservationStatus target) {
+        return mongoTemplate.updateFirst(
+                Query.query(Criteria.where("id").is(reservationId).and("status").is(from)),
+                new Update().set("status", target).set("lastModified", new Date()),
+                Reservation.class).getModifiedCount() == 1;
+    }
+}
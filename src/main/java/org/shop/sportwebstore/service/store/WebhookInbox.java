@@ -0,0 +1,251 @@
+package org.shop.sportwebstore.service.store;
+
+import com.stripe.exception.StripeException;
+import com.stripe.model.Event;
+import com.stripe.net.Webhook;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.shop.sportwebstore.exception.PaymentException;
+import org.shop.sportwebstore.model.WebhookStatus;
+import org.shop.sportwebstore.model.entity.WebhookEvent;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Stripe webhooks are verified, stored in the {@code webhook_inbox} collection and acknowledged
+ * right away; the work behind them happens on a fixed pool of workers.
+ * <p>
+ * Workers claim one event at a time with findAndModify, so several nodes can share the inbox.
+ * A failed event is retried with exponential backoff and parked as {@link WebhookStatus#DEAD}
+ * after {@code max-attempts}; dead events stay in the collection for inspection.
+ * Received events wake a worker immediately, the poll delay only matters for retries and for
+ * events received by other nodes.
+ */
+@Slf4j
+@Service
+public class WebhookInbox {
+
+    static final String CHECKOUT_COMPLETED = "checkout.session.completed";
+    private static final List<String> HANDLED_TYPES = List.of(CHECKOUT_COMPLETED);
+    private static final int MAX_ERROR_LENGTH = 500;
+
+    private final MongoTemplate mongoTemplate;
+    private final PaymentService paymentService;
+    private final MeterRegistry meterRegistry;
+    private final String webhookSecret;
+    private final int workers;
+    private final int maxAttempts;
+    private final Duration retryBackoff;
+    private final Duration maxBackoff;
+    private final Duration lease;
+    private final Duration pollDelay;
+    private final ExecutorService workerPool;
+    private final Semaphore wakeUp = new Semaphore(0);
+    private final Timer processingLag;
+    private final AtomicLong pending = new AtomicLong();
+    private final AtomicLong dead = new AtomicLong();
+    private final AtomicLong oldestPendingAge = new AtomicLong();
+    private volatile boolean running;
+
+    public WebhookInbox(MongoTemplate mongoTemplate,
+                        PaymentService paymentService,
+                        MeterRegistry meterRegistry,
+                        @Value("${spring.webhook.secret}") String webhookSecret,
+                        @Value("${store.webhook.workers:4}") int workers,
+                        @Value("${store.webhook.max-attempts:8}") int maxAttempts,
+                        @Value("${store.webhook.retry-backoff:5s}") Duration retryBackoff,
+                        @Value("${store.webhook.max-backoff:1h}") Duration maxBackoff,
+                        @Value("${store.webhook.lease:2m}") Duration lease,
+                        @Value("${store.webhook.poll-delay:5s}") Duration pollDelay) {
+        this.mongoTemplate = mongoTemplate;
+        this.paymentService = paymentService;
+        this.meterRegistry = meterRegistry;
+        this.webhookSecret = webhookSecret;
+        this.workers = workers;
+        this.maxAttempts = maxAttempts;
+        this.retryBackoff = retryBackoff;
+        this.maxBackoff = maxBackoff;
+        this.lease = lease;
+        this.pollDelay = pollDelay;
+        AtomicInteger counter = new AtomicInteger();
+        this.workerPool = Executors.newFixedThreadPool(workers, runnable -> {
+            Thread thread = new Thread(runnable, "webhook-worker-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.processingLag = meterRegistry.timer("store.webhook.processing.lag");
+        meterRegistry.gauge("store.webhook.inbox.depth", Tags.of("status", "pending"), pending);
+        meterRegistry.gauge("store.webhook.inbox.depth", Tags.of("status", "dead"), dead);
+        meterRegistry.gauge("store.webhook.inbox.lag", oldestPendingAge, age -> age.get() / 1000.0);
+    }
+
+    /**
+     * Verifies and stores the event. Events already in the inbox and types nobody handles are acknowledged as well.
+     *
+     * @throws PaymentException when the signature or payload is invalid
+     */
+    public void receive(String payload, String signature) {
+        Event event;
+        try {
+            event = Webhook.constructEvent(payload, signature, webhookSecret);
+        } catch (StripeException | RuntimeException e) {
+            count("rejected");
+            throw new PaymentException("Invalid webhook: " + e.getMessage());
+        }
+        if (!HANDLED_TYPES.contains(event.getType())) {
+            count("ignored");
+            return;
+        }
+        WebhookEvent inboxEvent = new WebhookEvent(event.getId(), event.getType(),
+                event.getDataObjectDeserializer().getRawJson(), new Date());
+        try {
+            mongoTemplate.insert(inboxEvent);
+        } catch (DuplicateKeyException e) {
+            count("duplicate");
+            return;
+        }
+        count("received");
+        if (wakeUp.availablePermits() < workers) {
+            wakeUp.release();
+        }
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        running = true;
+        for (int i = 0; i < workers; i++) {
+            workerPool.execute(this::work);
+        }
+    }
+
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        running = false;
+        workerPool.shutdownNow();
+        workerPool.awaitTermination(lease.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    private void work() {
+        while (running) {
+            try {
+                if (!processNext()) {
+                    wakeUp.tryAcquire(pollDelay.toMillis(), TimeUnit.MILLISECONDS);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (RuntimeException e) {
+                log.warn("Webhook worker cannot reach the inbox: {}", e.getMessage());
+                try {
+                    Thread.sleep(pollDelay.toMillis());
+                } catch (InterruptedException interrupted) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Claims and processes the next due event.
+     *
+     * @return false when nothing was due
+     */
+    boolean processNext() {
+        Date now = new Date();
+        Query due = new Query(new Criteria().orOperator(
+                Criteria.where("status").is(WebhookStatus.PENDING).and("nextAttemptAt").lte(now),
+                Criteria.where("status").is(WebhookStatus.PROCESSING).and("lockedUntil").lte(now)))
+                .with(Sort.by("nextAttemptAt"));
+        Update claim = new Update()
+                .set("status", WebhookStatus.PROCESSING)
+                .set("lockedUntil", new Date(now.getTime() + lease.toMillis()))
+                .inc("attempts", 1);
+        WebhookEvent event = mongoTemplate.findAndModify(due, claim,
+                FindAndModifyOptions.options().returnNew(true), WebhookEvent.class);
+        if (event == null) {
+            return false;
+        }
+        Query claimed = Query.query(Criteria.where("_id").is(event.getId()).and("lockedUntil").is(event.getLockedUntil()));
+        try {
+            handle(event);
+        } catch (RuntimeException e) {
+            fail(event, claimed, e);
+            return true;
+        }
+        Date processedAt = new Date();
+        mongoTemplate.updateFirst(claimed, new Update()
+                .set("status", WebhookStatus.DONE)
+                .set("processedAt", processedAt)
+                .unset("lockedUntil"), WebhookEvent.class);
+        processingLag.record(processedAt.getTime() - event.getReceivedAt().getTime(), TimeUnit.MILLISECONDS);
+        count("processed");
+        return true;
+    }
+
+    private void handle(WebhookEvent event) {
+        if (CHECKOUT_COMPLETED.equals(event.getType())) {
+            paymentService.completeCheckout(event.getData());
+        }
+    }
+
+    private void fail(WebhookEvent event, Query claimed, RuntimeException e) {
+        String error = e.getMessage() == null ? e.getClass().getSimpleName() : e.getMessage();
+        Update update = new Update()
+                .set("lastError", error.length() > MAX_ERROR_LENGTH ? error.substring(0, MAX_ERROR_LENGTH) : error)
+                .unset("lockedUntil");
+        if (event.getAttempts() >= maxAttempts) {
+            log.error("Webhook event {} ({}) moved to dead letters after {} attempts: {}",
+                    event.getId(), event.getType(), event.getAttempts(), error);
+            update.set("status", WebhookStatus.DEAD);
+            count("dead");
+        } else {
+            log.warn("Webhook event {} failed on attempt {}: {}", event.getId(), event.getAttempts(), error);
+            update.set("status", WebhookStatus.PENDING)
+                    .set("nextAttemptAt", new Date(System.currentTimeMillis() + backoff(event.getAttempts()).toMillis()));
+            count("retried");
+        }
+        mongoTemplate.updateFirst(claimed, update, WebhookEvent.class);
+    }
+
+    Duration backoff(int attempts) {
+        Duration backoff = retryBackoff.multipliedBy(1L << Math.min(attempts - 1, 20));
+        return backoff.compareTo(maxBackoff) > 0 ? maxBackoff : backoff;
+    }
+
+    @Scheduled(fixedDelayString = "${store.webhook.stats-delay:15s}")
+    public void refreshStats() {
+        Query waiting = Query.query(Criteria.where("status").in(WebhookStatus.PENDING, WebhookStatus.PROCESSING));
+        pending.set(mongoTemplate.count(waiting, WebhookEvent.class));
+        dead.set(mongoTemplate.count(Query.query(Criteria.where("status").is(WebhookStatus.DEAD)), WebhookEvent.class));
+        WebhookEvent oldest = mongoTemplate.findOne(waiting.with(Sort.by("receivedAt")).limit(1), WebhookEvent.class);
+        oldestPendingAge.set(oldest == null ? 0 : System.currentTimeMillis() - oldest.getReceivedAt().getTime());
+    }
+
+    private void count(String result) {
+        meterRegistry.counter("store.webhook.events", "result", result).increment();
+    }
+}
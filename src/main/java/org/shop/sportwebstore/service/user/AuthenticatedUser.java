@@ -0,0 +1,19 @@
+package org.shop.sportwebstore.service.user;
+
+import org.shop.sportwebstore.model.Roles;
+import org.springframework.security.core.AuthenticatedPrincipal;
+
+/**
+ * Caller as read from the access token. {@link #getName()} stays the email so code that
+ * only knows {@code Authentication#getName()} keeps working.
+ *
+ * @param id          null for tokens issued before the id claim existed
+ * @param roleVersion {@link org.shop.sportwebstore.model.entity.User#getRoleVersion()} when the token was issued
+ */
+public record AuthenticatedUser(String id, String email, Roles role, long roleVersion) implements AuthenticatedPrincipal {
+
+    @Override
+    public String getName() {
+        return email;
+    }
+}
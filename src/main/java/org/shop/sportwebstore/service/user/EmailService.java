@@ -1,154 +1,134 @@
 package org.shop.sportwebstore.service.user;
 
-import jakarta.mail.internet.MimeMessage;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.shop.sportwebstore.exception.UserException;
 import org.shop.sportwebstore.model.ProductInOrder;
+import org.shop.sportwebstore.model.ShippingAddress;
 import org.shop.sportwebstore.model.entity.*;
 import org.shop.sportwebstore.repository.CustomerRepository;
 import org.shop.sportwebstore.repository.ProductRepository;
 import org.shop.sportwebstore.repository.UserRepository;
 import org.shop.sportwebstore.service.ConstantStrings;
+import org.shop.sportwebstore.service.mail.EmailOutbox;
+import org.shop.sportwebstore.service.mail.EmailTemplate;
 import org.springframework.beans.factory.annotation.Value;
-import org.springframework.mail.javamail.JavaMailSender;
-import org.springframework.mail.javamail.MimeMessageHelper;
 import org.springframework.stereotype.Service;
 
+import java.math.RoundingMode;
 import java.time.format.DateTimeFormatter;
-import java.util.Optional;
-
-import static org.shop.sportwebstore.service.ConstantStrings.ORDER_SUMMARY_EMAIL_BODY;
+import java.util.Collection;
+import java.util.Map;
+import java.util.stream.Collectors;
 
+/**
+ * Renders the store's emails and hands them to the {@link EmailOutbox}, nothing here waits for SMTP.
+ */
 @Service
 @Slf4j
 @RequiredArgsConstructor
 public class EmailService {
 
+    private static final DateTimeFormatter EXPIRATION_FORMAT = DateTimeFormatter.ofPattern("dd.MM.yyyy HH:mm");
+    private static final EmailTemplate ACTIVATION = EmailTemplate.compile(ConstantStrings.ACTIVATION_EMAIL_BODY,
+            "link", "expiration");
+    private static final EmailTemplate RESET_PASSWORD = EmailTemplate.compile(ConstantStrings.RESET_PASSWORD_BODY,
+            "link", "expiration");
+    private static final EmailTemplate ORDER = EmailTemplate.compile(ConstantStrings.ORDER_EMAIL_BODY,
+            "firstName", "lastName", "orderId", "orderDate", "totalPrice",
+            "address", "city", "zipCode", "country", "profileUrl", "orderUrl");
+    private static final EmailTemplate ORDER_SUMMARY = EmailTemplate.compile(ConstantStrings.ORDER_SUMMARY_EMAIL_BODY,
+            "fullName", "firstName", "lastName", "orderId", "orderDate", "totalPrice",
+            "address", "city", "zipCode", "country", "items", "orderUrl");
+    private static final EmailTemplate ORDER_ITEM = EmailTemplate.compile(ConstantStrings.ORDER_ITEM_ROW,
+            "name", "amount", "price");
+
     private final UserRepository userRepository;
     private final CustomerRepository customerRepository;
     private final ProductRepository productRepository;
-    @Value("${spring.mail.username}")
-    private String sender;
-
     @Value("${front.url}")
     private String url;
 
-    private final JavaMailSender javaMailSender;
+    private final EmailOutbox emailOutbox;
 
     public void sendEmailActivation(String email, Activation activation) {
-        try {
-            String expiration = activation.getExpiresAt().format(DateTimeFormatter.ofPattern("dd.MM.yyyy HH:mm"));
-            String urlLink = url + "activate/" + activation.getActivationCode();
-            MimeMessage message = javaMailSender.createMimeMessage();
-            MimeMessageHelper helper = new MimeMessageHelper(message, true);
-            helper.setFrom(sender);
-            helper.setTo(email);
-            helper.setSubject(ConstantStrings.ACTIVATION_EMAIL_SUBJECT);
-            helper.setText(ConstantStrings.ACTIVATION_EMAIL_BODY
-                    .formatted(urlLink, expiration, urlLink, urlLink), true);
-            javaMailSender.send(message);
-            log.info("Activation email sent to {}", email);
-        } catch (Exception e) {
-            throw new RuntimeException("Failed to send activation email", e);
-        }
+        String urlLink = url + "activate/" + activation.getActivationCode();
+        emailOutbox.enqueue(email, ConstantStrings.ACTIVATION_EMAIL_SUBJECT,
+                ACTIVATION.render(urlLink, activation.getExpiresAt().format(EXPIRATION_FORMAT)), "activation");
+        log.info("Activation email queued for {}", email);
     }
 
     public void sendEmailResetPassword(String email, Activation activation) {
-        try {
-            String expiration = activation.getExpiresAt().format(DateTimeFormatter.ofPattern("dd.MM.yyyy HH:mm"));
-            String urlLink = url + "reset-password/" + activation.getActivationCode();
-            MimeMessage message = javaMailSender.createMimeMessage();
-            MimeMessageHelper helper = new MimeMessageHelper(message, true);
-            helper.setFrom(sender);
-            helper.setTo(email);
-            helper.setSubject(ConstantStrings.RESET_PASSWORD_SUBJECT);
-            helper.setText(ConstantStrings.RESET_PASSWORD_BODY
-                    .formatted(urlLink, expiration, urlLink, urlLink), true);
-            javaMailSender.send(message);
-            log.info("Reset password email sent to {}", email);
-        } catch (Exception e) {
-            throw new RuntimeException("Failed to send reset password email", e);
-        }
+        String urlLink = url + "reset-password/" + activation.getActivationCode();
+        emailOutbox.enqueue(email, ConstantStrings.RESET_PASSWORD_SUBJECT,
+                RESET_PASSWORD.render(urlLink, activation.getExpiresAt().format(EXPIRATION_FORMAT)), "reset-password");
+        log.info("Reset password email queued for {}", email);
     }
 
     public void sendEmailWithOrderDetails(Order order) {
         User user = userRepository.findById(order.getUserId()).orElseThrow(() -> new UserException("User not found."));
         Customer customer = customerRepository.findByUserId(user.getId()).orElseThrow(() -> new UserException("Customer not found."));
-        try {
-            MimeMessage message = javaMailSender.createMimeMessage();
-            MimeMessageHelper helper = new MimeMessageHelper(message, true);
-            helper.setFrom(sender);
-            helper.setTo(user.getEmail());
-            helper.setSubject(ConstantStrings.ORDER_EMAIL_SUBJECT);
-            String emailBody = String.format(ConstantStrings.ORDER_EMAIL_BODY,
-                    customer.getFirstName(),
-                    order.getId(),
-                    order.getOrderDate(),
-                    order.getTotalPrice(),
-                    customer.getFirstName(),
-                    customer.getLastName(),
-                    order.getOrderAddress().getAddress(),
-                    order.getOrderAddress().getCity(),
-                    order.getOrderAddress().getZipCode(),
-                    order.getOrderAddress().getCountry(),
-                    url + "profile",
-                    url + "profile/orders/" + order.getId()
-            );
-            helper.setText(emailBody, true);
-            javaMailSender.send(message);
-            log.info("Order email sent to {}", user.getEmail());
-        } catch (Exception e) {
-            throw new RuntimeException("Failed to send order email", e);
-        }
+        ShippingAddress address = order.getOrderAddress();
+        String emailBody = ORDER.render(
+                customer.getFirstName(),
+                customer.getLastName(),
+                order.getId(),
+                order.getOrderDate(),
+                order.getTotalPrice(),
+                address.getAddress(),
+                address.getCity(),
+                address.getZipCode(),
+                address.getCountry(),
+                url + "profile",
+                url + "profile/orders/" + order.getId());
+        emailOutbox.enqueue(user.getEmail(), ConstantStrings.ORDER_EMAIL_SUBJECT, emailBody, "order");
+        log.info("Order email queued for {}", user.getEmail());
     }
 
     public void sendEmailToDelivered(Order order, User user, Customer customer) {
-        StringBuilder itemsHtml = new StringBuilder();
-        for (ProductInOrder item : order.getProducts()) {
-            Optional<Product> product = productRepository.findById(item.getProductId());
-            product.ifPresent(value -> itemsHtml.append(String.format("""
-                    <tr>
-                        <td style="padding: 10px; border-bottom: 1px solid #ddd;">%s</td>
-                        <td style="padding: 10px; border-bottom: 1px solid #ddd;">%d</td>
-                        <td style="padding: 10px; border-bottom: 1px solid #ddd;">%.2f€</td>
-                    </tr>
-                    """, value.getName(), item.getAmount(), item.getPrice())));
-        }
-        try {
-            MimeMessage message = javaMailSender.createMimeMessage();
-            MimeMessageHelper helper = new MimeMessageHelper(message, true);
-            helper.setFrom(sender);
-            helper.setTo(user.getEmail());
-            helper.setSubject(ConstantStrings.ORDER_SUMMARY_SUBJECT);
-            String emailBody = getString(order, customer, itemsHtml);
-            helper.setText(emailBody, true);
-            javaMailSender.send(message);
-            log.info("Delivered email sent to {}", user.getEmail());
-        } catch (Exception e) {
-            throw new RuntimeException("Failed to send delivered email", e);
-        }
+        sendEmailToDelivered(order, user, customer, findProductNames(order.getProducts().stream()
+                .map(ProductInOrder::getProductId).collect(Collectors.toSet())));
     }
 
-    private String getString(Order order, Customer customer, StringBuilder itemsHtml) {
-        String urlOrder = url + "profile/orders/" + order.getId();
-        String emailTemplate = ORDER_SUMMARY_EMAIL_BODY.replace("%", "%%");
+    /**
+     * @param productNames names of the order's products, usually fetched for a whole batch of orders at once
+     */
+    public void sendEmailToDelivered(Order order, User user, Customer customer, Map<String, String> productNames) {
+        emailOutbox.enqueue(user.getEmail(), ConstantStrings.ORDER_SUMMARY_SUBJECT,
+                renderDelivered(order, customer, productNames), "delivered");
+        log.info("Delivered email queued for {}", user.getEmail());
+    }
+
+    /**
+     * product id to name, with a single query
+     */
+    public Map<String, String> findProductNames(Collection<String> productIds) {
+        return productRepository.findNamesByIdIn(productIds).stream()
+                .collect(Collectors.toMap(Product::getId, Product::getName));
+    }
 
-        emailTemplate = emailTemplate
-                .replace("%%s", "%s")
-                .replace("%%n", "%n");
-        return String.format(emailTemplate,
+    String renderDelivered(Order order, Customer customer, Map<String, String> productNames) {
+        ShippingAddress address = order.getOrderAddress();
+        EmailTemplate.Part items = out -> {
+            for (ProductInOrder item : order.getProducts()) {
+                String name = productNames.get(item.getProductId());
+                if (name != null) {
+                    ORDER_ITEM.renderTo(out, name, item.getAmount(), item.getPrice().setScale(2, RoundingMode.HALF_UP));
+                }
+            }
+        };
+        return ORDER_SUMMARY.render(
                 customer.getFirstName() + " " + customer.getLastName(),
+                customer.getFirstName(),
+                customer.getLastName(),
                 order.getId(),
                 order.getOrderDate(),
                 order.getTotalPrice(),
-                customer.getFirstName(),
-                customer.getLastName(),
-                order.getOrderAddress().getAddress(),
-                order.getOrderAddress().getCity(),
-                order.getOrderAddress().getZipCode(),
-                order.getOrderAddress().getCountry(),
-                itemsHtml.toString(),
-                urlOrder);
+                address.getAddress(),
+                address.getCity(),
+                address.getZipCode(),
+                address.getCountry(),
+                items,
+                url + "profile/orders/" + order.getId());
     }
 }
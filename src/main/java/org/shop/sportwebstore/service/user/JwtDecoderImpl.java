@@ -1,36 +1,141 @@
 package org.shop.sportwebstore.service.user;
 
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
 import io.jsonwebtoken.Claims;
-import lombok.RequiredArgsConstructor;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.security.oauth2.jwt.Jwt;
+import org.springframework.security.oauth2.jwt.JwtClaimNames;
 import org.springframework.security.oauth2.jwt.JwtDecoder;
 import org.springframework.security.oauth2.jwt.JwtException;
 
-@RequiredArgsConstructor
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Keeps the claims of tokens whose signature was already verified, keyed by the SHA-256 of the token.
+ * Only the claims are cached, never the token text, so a heap dump of the cache yields no usable tokens;
+ * the {@link Jwt} is built around the caller's token on every call. An entry lives at most
+ * {@code cacheTtl} and never past the token's expiry. Revocation and the role version are checked on
+ * every call, cached or not.
+ */
 @Slf4j
 public class JwtDecoderImpl implements JwtDecoder {
 
     private final JwtService jwtService;
+    private final RoleVersions roleVersions;
+    private final Cache<String, Map<String, Object>> verified;
+
+    public JwtDecoderImpl(JwtService jwtService, RoleVersions roleVersions, long cacheSize, Duration cacheTtl,
+                          MeterRegistry meterRegistry) {
+        this.jwtService = jwtService;
+        this.roleVersions = roleVersions;
+        if (cacheSize <= 0) {
+            this.verified = null;
+            return;
+        }
+        this.verified = Caffeine.newBuilder()
+                .maximumSize(cacheSize)
+                .expireAfter(new TokenExpiry(cacheTtl.toNanos()))
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, verified, "jwt.verified");
+    }
 
     @Override
     public Jwt decode(String token) throws JwtException {
         try {
-            if (jwtService.isBlackListed(token)) {
+            String digest = verified == null ? null : digest(token);
+            Map<String, Object> claims = digest == null ? null : verified.getIfPresent(digest);
+            if (claims == null) {
+                claims = verify(token);
+                if (digest != null) {
+                    verified.put(digest, claims);
+                }
+            }
+            Jwt jwt = toJwt(token, claims);
+            if (jwtService.isRevoked(jwt)) {
+                if (digest != null) {
+                    verified.invalidate(digest);
+                }
                 throw new JwtException("Token is blacklisted");
             }
-            Claims claims = jwtService.extractAllClaims(token);
-            return Jwt.withTokenValue(token)
-                    .header("alg", "HS256")
-                    .header("typ", "JWT")
-                    .subject(claims.getSubject())
-                    .issuedAt(claims.getIssuedAt().toInstant())
-                    .expiresAt(claims.getExpiration().toInstant())
-                    .claim("role", claims.get("role"))
-
-                    .build();
+            if (roleVersions.isOutdated(jwt)) {
+                if (digest != null) {
+                    verified.invalidate(digest);
+                }
+                throw new JwtException("Token was issued before the user's role changed");
+            }
+            return jwt;
         } catch (Exception e) {
             throw new JwtException("Invalid token", e);
         }
     }
-}
\ No newline at end of file
+
+    private Map<String, Object> verify(String token) {
+        Claims claims = jwtService.extractAllClaims(token);
+        Map<String, Object> verified = new HashMap<>();
+        if (claims.getSubject() != null) {
+            verified.put(JwtClaimNames.SUB, claims.getSubject());
+        }
+        verified.put(JwtClaimNames.IAT, claims.getIssuedAt().toInstant());
+        verified.put(JwtClaimNames.EXP, claims.getExpiration().toInstant());
+        copyClaims(claims, verified);
+        return Map.copyOf(verified);
+    }
+
+    private static Jwt toJwt(String token, Map<String, Object> claims) {
+        return Jwt.withTokenValue(token)
+                .header("alg", "HS256")
+                .header("typ", "JWT")
+                .claims(c -> c.putAll(claims))
+                .build();
+    }
+
+    private static void copyClaims(Claims claims, Map<String, Object> target) {
+        for (String name : List.of(Claims.ID, JwtService.ROLE_CLAIM, JwtService.USER_ID_CLAIM, JwtService.ROLE_VERSION_CLAIM,
+                JwtService.EPOCH_CLAIM)) {
+            Object value = claims.get(name);
+            if (value != null) {
+                target.put(name, value);
+            }
+        }
+    }
+
+    private static String digest(String token) throws NoSuchAlgorithmException {
+        byte[] hash = MessageDigest.getInstance("SHA-256").digest(token.getBytes(StandardCharsets.US_ASCII));
+        return Base64.getEncoder().withoutPadding().encodeToString(hash);
+    }
+
+    private record TokenExpiry(long maxNanos) implements Expiry<String, Map<String, Object>> {
+
+        @Override
+        public long expireAfterCreate(String key, Map<String, Object> claims, long currentTime) {
+            if (!(claims.get(JwtClaimNames.EXP) instanceof Instant expiresAt)) {
+                return 0;
+            }
+            long left = Duration.between(Instant.now(), expiresAt).toNanos();
+            return Math.max(0, Math.min(maxNanos, left));
+        }
+
+        @Override
+        public long expireAfterUpdate(String key, Map<String, Object> claims, long currentTime, long currentDuration) {
+            return expireAfterCreate(key, claims, currentTime);
+        }
+
+        @Override
+        public long expireAfterRead(String key, Map<String, Object> claims, long currentTime, long currentDuration) {
+            return currentDuration;
+        }
+    }
+}
@@ -1,17 +1,21 @@
 package org.shop.sportwebstore.service.user;
 
 import io.jsonwebtoken.Claims;
+import io.jsonwebtoken.JwtException;
+import io.jsonwebtoken.JwtParser;
 import io.jsonwebtoken.Jwts;
 import io.jsonwebtoken.io.Decoders;
 import io.jsonwebtoken.security.Keys;
 import lombok.RequiredArgsConstructor;
 import org.shop.sportwebstore.model.entity.User;
 import org.springframework.beans.factory.annotation.Value;
-import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.security.oauth2.jwt.Jwt;
 import org.springframework.stereotype.Service;
 
 import javax.crypto.SecretKey;
 import java.security.Key;
+import java.security.SecureRandom;
+import java.util.Base64;
 import java.util.Date;
 import java.util.function.Function;
 
@@ -19,26 +23,65 @@ import java.util.function.Function;
 @RequiredArgsConstructor
 public class JwtService {
 
-    private final RedisTemplate<String, String> redisBlacklistTemplate;
+    public static final String ROLE_CLAIM = "role";
+    public static final String USER_ID_CLAIM = "uid";
+    public static final String ROLE_VERSION_CLAIM = "rv";
+    public static final String EPOCH_CLAIM = "ep";
+
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    private final TokenBlacklist tokenBlacklist;
 
     @Value("${jwt.secret}")
     private String secret;
 
+    private volatile SecretKey signingKey;
+    private volatile JwtParser parser;
+
     public Key getSigningKey() {
-        byte[] keyBytes = Decoders.BASE64.decode(secret);
-        return Keys.hmacShaKeyFor(keyBytes);
+        SecretKey key = signingKey;
+        if (key == null) {
+            key = Keys.hmacShaKeyFor(Decoders.BASE64.decode(secret));
+            signingKey = key;
+        }
+        return key;
+    }
+
+    /**
+     * parsers are immutable, so one is built and shared instead of one per request
+     */
+    private JwtParser parser() {
+        JwtParser current = parser;
+        if (current == null) {
+            current = Jwts.parser().verifyWith((SecretKey) getSigningKey()).build();
+            parser = current;
+        }
+        return current;
     }
 
     public String generateToken(User user, int exp) {
         return Jwts.builder()
+                .id(newTokenId())
                 .subject(user.getEmail())
-                .claim("role", user.getRole().name())
+                .claim(ROLE_CLAIM, user.getRole().name())
+                .claim(USER_ID_CLAIM, user.getId())
+                .claim(ROLE_VERSION_CLAIM, user.getRoleVersion())
+                .claim(EPOCH_CLAIM, tokenBlacklist.currentEpoch(user.getId()))
                 .issuedAt(new Date())
                 .expiration(new Date((new Date()).getTime() + exp))
                 .signWith(getSigningKey())
                 .compact();
     }
 
+    /**
+     * 128 random bits, base64url: 22 characters to blacklist instead of the whole token
+     */
+    private static String newTokenId() {
+        byte[] bytes = new byte[16];
+        RANDOM.nextBytes(bytes);
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+    }
+
     public Date extractExpiration(String token) {
         return extractClaim(token, Claims::getExpiration);
     }
@@ -49,15 +92,32 @@ public class JwtService {
     }
 
     public Claims extractAllClaims(String token) {
-        return Jwts
-                .parser()
-                .verifyWith((SecretKey) getSigningKey())
-                .build()
-                .parseSignedClaims(token)
-                .getPayload();
+        return parser().parseSignedClaims(token).getPayload();
+    }
+
+    public boolean isRevoked(Jwt jwt) {
+        Number epoch = jwt.getClaim(EPOCH_CLAIM);
+        return tokenBlacklist.isRevoked(tokenId(jwt.getTokenValue(), jwt.getId()), jwt.getClaimAsString(USER_ID_CLAIM), epoch == null ? 0 : epoch.longValue());
+    }
+
+    /**
+     * Blacklists the token until it expires. Tokens that are already expired or invalid need nothing.
+     */
+    public void revoke(String token, String tokenType) {
+        Claims claims;
+        try {
+            claims = extractAllClaims(token);
+        } catch (JwtException | IllegalArgumentException e) {
+            return;
+        }
+        long ttl = claims.getExpiration().getTime() - System.currentTimeMillis();
+        tokenBlacklist.add(tokenId(token, claims.getId()), ttl, tokenType);
     }
 
-    public boolean isBlackListed(String token) {
-        return redisBlacklistTemplate.hasKey("black_list:" + token);
+    /**
+     * tokens issued before they carried a jti are blacklisted by their full text
+     */
+    private static String tokenId(String token, String jti) {
+        return jti != null ? jti : token;
     }
 }
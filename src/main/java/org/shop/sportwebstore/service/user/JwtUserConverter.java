@@ -0,0 +1,29 @@
+package org.shop.sportwebstore.service.user;
+
+import org.shop.sportwebstore.model.Roles;
+import org.springframework.core.convert.converter.Converter;
+import org.springframework.security.authentication.AbstractAuthenticationToken;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.authority.SimpleGrantedAuthority;
+import org.springframework.security.oauth2.jwt.Jwt;
+
+import java.util.List;
+
+/**
+ * Turns a decoded token into an authentication whose principal is an {@link AuthenticatedUser},
+ * so services get the caller's id without going to the users collection.
+ */
+public class JwtUserConverter implements Converter<Jwt, AbstractAuthenticationToken> {
+
+    @Override
+    public AbstractAuthenticationToken convert(Jwt jwt) {
+        Roles role = Roles.valueOf(jwt.getClaimAsString(JwtService.ROLE_CLAIM));
+        Number roleVersion = jwt.getClaim(JwtService.ROLE_VERSION_CLAIM);
+        AuthenticatedUser principal = new AuthenticatedUser(
+                jwt.getClaimAsString(JwtService.USER_ID_CLAIM),
+                jwt.getSubject(),
+                role,
+                roleVersion == null ? 0 : roleVersion.longValue());
+        return new UsernamePasswordAuthenticationToken(principal, jwt, List.of(new SimpleGrantedAuthority(role.name())));
+    }
+}
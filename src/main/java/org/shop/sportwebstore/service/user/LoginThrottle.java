@@ -0,0 +1,108 @@
+package org.shop.sportwebstore.service.user;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.shop.sportwebstore.exception.TooManyRequestsException;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.stereotype.Service;
+
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Counts failed logins per account and per client address in fixed redis windows. Once either
+ * limit is reached, logins are refused before any password hashing happens.
+ * Redis being unavailable doesn't block logins, the hashing pool still bounds the cost.
+ */
+@Slf4j
+@Service
+public class LoginThrottle {
+
+    static final String ACCOUNT_PREFIX = "login_fail:acct:";
+    static final String IP_PREFIX = "login_fail:ip:";
+
+    /**
+     * Increments both counters, starting the window on the first failure.
+     */
+    private static final RedisScript<Long> FAILED = new DefaultRedisScript<>("""
+            for _, key in ipairs(KEYS) do
+                if redis.call('INCR', key) == 1 then
+                    redis.call('PEXPIRE', key, ARGV[1])
+                end
+            end
+            return 1
+            """, Long.class);
+
+    private final RedisTemplate<String, String> redisLoginTemplate;
+    private final int maxAccountFailures;
+    private final int maxIpFailures;
+    private final long windowMillis;
+    private final Counter throttled;
+
+    public LoginThrottle(RedisTemplate<String, String> redisLoginTemplate,
+                         @Value("${auth.login.max-account-failures:5}") int maxAccountFailures,
+                         @Value("${auth.login.max-ip-failures:50}") int maxIpFailures,
+                         @Value("${auth.login.window:900000}") long windowMillis,
+                         MeterRegistry meterRegistry) {
+        this.redisLoginTemplate = redisLoginTemplate;
+        this.maxAccountFailures = maxAccountFailures;
+        this.maxIpFailures = maxIpFailures;
+        this.windowMillis = windowMillis;
+        this.throttled = meterRegistry.counter("store.auth.login.attempts", "result", "throttled");
+    }
+
+    /**
+     * @throws TooManyRequestsException when the account or the address used up its failures
+     */
+    public void check(String email, String ip) {
+        List<String> keys = List.of(accountKey(email), IP_PREFIX + ip);
+        List<String> counts;
+        try {
+            counts = redisLoginTemplate.opsForValue().multiGet(keys);
+        } catch (DataAccessException e) {
+            log.warn("Cannot read login failures: {}", e.getMessage());
+            return;
+        }
+        if (counts == null) {
+            return;
+        }
+        int[] limits = {maxAccountFailures, maxIpFailures};
+        for (int i = 0; i < keys.size(); i++) {
+            if (counts.get(i) != null && Long.parseLong(counts.get(i)) >= limits[i]) {
+                throttled.increment();
+                throw new TooManyRequestsException("Too many failed login attempts, try again later.", retryAfter(keys.get(i)));
+            }
+        }
+    }
+
+    public void failed(String email, String ip) {
+        try {
+            redisLoginTemplate.execute(FAILED, List.of(accountKey(email), IP_PREFIX + ip), String.valueOf(windowMillis));
+        } catch (DataAccessException e) {
+            log.warn("Cannot record login failure: {}", e.getMessage());
+        }
+    }
+
+    public void succeeded(String email) {
+        try {
+            redisLoginTemplate.delete(accountKey(email));
+        } catch (DataAccessException e) {
+            log.warn("Cannot reset login failures: {}", e.getMessage());
+        }
+    }
+
+    private long retryAfter(String key) {
+        Long seconds = redisLoginTemplate.getExpire(key, TimeUnit.SECONDS);
+        return seconds == null || seconds <= 0 ? TimeUnit.MILLISECONDS.toSeconds(windowMillis) : seconds;
+    }
+
+    private static String accountKey(String email) {
+        return ACCOUNT_PREFIX + email.toLowerCase(Locale.ROOT);
+    }
+}
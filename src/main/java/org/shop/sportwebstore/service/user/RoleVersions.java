@@ -0,0 +1,64 @@
+package org.shop.sportwebstore.service.user;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import org.shop.sportwebstore.model.entity.User;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.security.oauth2.jwt.Jwt;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+
+/**
+ * Stored {@link User#getRoleVersion()} per user, so tokens issued before a role change are refused
+ * even once the epoch that revoked them has expired from redis. Versions are read with a projection
+ * and kept for {@code jwt.role-version.ttl}; the node changing a role drops its entry right away.
+ */
+@Component
+public class RoleVersions {
+
+    /**
+     * version of users that no longer exist, every token of theirs is outdated
+     */
+    private static final long DELETED = Long.MAX_VALUE;
+
+    private final MongoTemplate mongoTemplate;
+    private final Cache<String, Long> versions;
+
+    public RoleVersions(MongoTemplate mongoTemplate,
+                        @Value("${jwt.cache.max-size:10000}") long cacheSize,
+                        @Value("${jwt.role-version.ttl:60000}") long ttl) {
+        this.mongoTemplate = mongoTemplate;
+        this.versions = Caffeine.newBuilder()
+                .maximumSize(Math.max(1, cacheSize))
+                .expireAfterWrite(Duration.ofMillis(ttl))
+                .build();
+    }
+
+    /**
+     * @return whether the token carries an older role version than its user has now, tokens without
+     * a user id predate role versions and are left to their expiry
+     */
+    public boolean isOutdated(Jwt jwt) {
+        String userId = jwt.getClaimAsString(JwtService.USER_ID_CLAIM);
+        if (userId == null) {
+            return false;
+        }
+        Number roleVersion = jwt.getClaim(JwtService.ROLE_VERSION_CLAIM);
+        return (roleVersion == null ? 0 : roleVersion.longValue()) < versions.get(userId, this::load);
+    }
+
+    public void invalidate(String userId) {
+        versions.invalidate(userId);
+    }
+
+    private long load(String userId) {
+        Query query = Query.query(Criteria.where("_id").is(userId));
+        query.fields().include("roleVersion");
+        User user = mongoTemplate.findOne(query, User.class);
+        return user == null ? DELETED : user.getRoleVersion();
+    }
+}
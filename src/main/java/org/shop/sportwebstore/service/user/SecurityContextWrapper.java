@@ -3,6 +3,7 @@ package org.shop.sportwebstore.service.user;
 import lombok.RequiredArgsConstructor;
 import org.shop.sportwebstore.model.entity.User;
 import org.shop.sportwebstore.repository.UserRepository;
+import org.springframework.security.core.Authentication;
 import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.stereotype.Component;
 
@@ -13,9 +14,31 @@ import java.util.Optional;
 public class SecurityContextWrapper {
     private final UserRepository userRepository;
 
+    public Optional<AuthenticatedUser> getPrincipal() {
+        Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
+        if (authentication != null && authentication.getPrincipal() instanceof AuthenticatedUser user) {
+            return Optional.of(user);
+        }
+        return Optional.empty();
+    }
+
+    /**
+     * Read from the token, only tokens without the id claim cost a user lookup.
+     */
+    public Optional<String> getCurrentUserId() {
+        Optional<String> id = getPrincipal().map(AuthenticatedUser::id);
+        return id.isPresent() ? id : getCurrentUser().map(User::getId);
+    }
 
+    /**
+     * Loads the whole user document, use {@link #getCurrentUserId()} when the id is enough.
+     */
     public Optional<User> getCurrentUser() {
         try {
+            Optional<String> id = getPrincipal().map(AuthenticatedUser::id);
+            if (id.isPresent()) {
+                return userRepository.findById(id.get());
+            }
             String userEmail = SecurityContextHolder.getContext().getAuthentication().getName();
             return userRepository.findByEmail(userEmail);
         } catch (Exception e) {
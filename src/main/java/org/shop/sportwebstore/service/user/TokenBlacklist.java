@@ -0,0 +1,258 @@
+package org.shop.sportwebstore.service.user;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.core.Cursor;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.ScanOptions;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Two kinds of revocation, both kept small in redis:
+ * <ul>
+ *     <li>a single token, stored by its id under {@code black_list:<jti>}</li>
+ *     <li>every token of a user, by raising the user's epoch in {@code token_epoch:<userId>}.
+ *     Tokens carry the epoch they were issued in and are revoked once it is behind.</li>
+ * </ul>
+ * Every node keeps a Bloom filter of revoked ids and a map of raised epochs, so the common case
+ * (token not revoked) is answered locally and redis is asked only on a filter hit.
+ * <p>
+ * Revocations reach other nodes over pub/sub. Both views are rebuilt from redis on startup and
+ * periodically, which drops expired entries and covers messages missed while disconnected.
+ * Until the first rebuild succeeds every lookup goes to redis.
+ */
+@Slf4j
+@Service
+public class TokenBlacklist implements MessageListener {
+
+    static final String PREFIX = "black_list:";
+    static final String EPOCH_PREFIX = "token_epoch:";
+    private static final String TOKEN_MESSAGE = "t:";
+    private static final String EPOCH_MESSAGE = "e:";
+    private static final int EPOCH_BATCH = 500;
+
+    /**
+     * Epochs are at least the current time, so an epoch key that expired and comes back
+     * still starts above every epoch handed out before.
+     */
+    private static final RedisScript<Long> RAISE_EPOCH = new DefaultRedisScript<>("""
+            local epoch = math.max(tonumber(redis.call('GET', KEYS[1]) or '0') + 1, tonumber(ARGV[1]))
+            redis.call('SET', KEYS[1], epoch, 'PX', ARGV[2])
+            return epoch
+            """, Long.class);
+
+    private final RedisTemplate<String, String> redisBlacklistTemplate;
+    private final String channel;
+    private final long expectedInsertions;
+    private final double fpp;
+    private final Counter filtered;
+    private final Counter revoked;
+    private final Counter falsePositives;
+
+    private volatile BloomFilter filter;
+    private volatile Map<String, Long> epochs = new ConcurrentHashMap<>();
+    /**
+     * views being filled by a rebuild, revocations arriving meanwhile go into both
+     */
+    private BloomFilter rebuilding;
+    private Map<String, Long> rebuildingEpochs;
+    private final Object swapLock = new Object();
+    private volatile boolean ready;
+
+    public TokenBlacklist(RedisTemplate<String, String> redisBlacklistTemplate,
+                          @Value("${jwt.blacklist.channel:jwt:revoked}") String channel,
+                          @Value("${jwt.blacklist.filter.expected-insertions:100000}") long expectedInsertions,
+                          @Value("${jwt.blacklist.filter.fpp:0.01}") double fpp,
+                          MeterRegistry meterRegistry) {
+        this.redisBlacklistTemplate = redisBlacklistTemplate;
+        this.channel = channel;
+        this.expectedInsertions = expectedInsertions;
+        this.fpp = fpp;
+        this.filter = BloomFilter.create(expectedInsertions, fpp);
+        this.filtered = meterRegistry.counter("store.jwt.blacklist.lookups", "result", "filtered");
+        this.revoked = meterRegistry.counter("store.jwt.blacklist.lookups", "result", "revoked");
+        this.falsePositives = meterRegistry.counter("store.jwt.blacklist.lookups", "result", "false_positive");
+        meterRegistry.gauge("store.jwt.blacklist.filter.fpp", Tags.of("kind", "configured"),
+                this, blacklist -> blacklist.fpp);
+        meterRegistry.gauge("store.jwt.blacklist.filter.fpp", Tags.of("kind", "estimated"),
+                this, blacklist -> blacklist.filter.expectedFpp());
+        meterRegistry.gauge("store.jwt.blacklist.filter.entries", this, blacklist -> blacklist.filter.insertions());
+        meterRegistry.gauge("store.jwt.blacklist.epochs", this, blacklist -> blacklist.epochs.size());
+    }
+
+    /**
+     * @param tokenId the token's jti, or the whole token for tokens issued without one
+     */
+    public void add(String tokenId, long ttlMillis, String tokenType) {
+        if (ttlMillis <= 0) {
+            return;
+        }
+        redisBlacklistTemplate.opsForValue().set(PREFIX + tokenId, tokenType, ttlMillis, TimeUnit.MILLISECONDS);
+        remember(tokenId);
+        publish(TOKEN_MESSAGE + tokenId);
+    }
+
+    /**
+     * Revokes every token of the user issued so far with one write.
+     *
+     * @param ttlMillis lifetime of the longest-lived token, after that the epoch key may go
+     */
+    public long revokeAll(String userId, long ttlMillis) {
+        Long epoch = redisBlacklistTemplate.execute(RAISE_EPOCH, List.of(EPOCH_PREFIX + userId),
+                String.valueOf(System.currentTimeMillis()), String.valueOf(ttlMillis));
+        long raised = epoch == null ? System.currentTimeMillis() : epoch;
+        rememberEpoch(userId, raised);
+        publish(EPOCH_MESSAGE + raised + ":" + userId);
+        return raised;
+    }
+
+    /**
+     * Epoch new tokens of the user are issued in, read from redis so a token issued right after
+     * a "log out everywhere" on another node isn't born revoked.
+     */
+    public long currentEpoch(String userId) {
+        String epoch = redisBlacklistTemplate.opsForValue().get(EPOCH_PREFIX + userId);
+        return epoch == null ? 0 : Long.parseLong(epoch);
+    }
+
+    /**
+     * @param userId null for tokens issued without a user id, those can only be revoked one by one
+     */
+    public boolean isRevoked(String tokenId, String userId, long epoch) {
+        boolean trusted = ready;
+        if (userId != null && epoch < (trusted ? epochs.getOrDefault(userId, 0L) : currentEpoch(userId))) {
+            revoked.increment();
+            return true;
+        }
+        if (trusted && !filter.mightContain(tokenId)) {
+            filtered.increment();
+            return false;
+        }
+        boolean found = Boolean.TRUE.equals(redisBlacklistTemplate.hasKey(PREFIX + tokenId));
+        if (found) {
+            revoked.increment();
+        } else if (trusted) {
+            falsePositives.increment();
+        }
+        return found;
+    }
+
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        String body = new String(message.getBody(), StandardCharsets.UTF_8);
+        if (body.startsWith(TOKEN_MESSAGE)) {
+            remember(body.substring(TOKEN_MESSAGE.length()));
+        } else if (body.startsWith(EPOCH_MESSAGE)) {
+            String[] parts = body.substring(EPOCH_MESSAGE.length()).split(":", 2);
+            if (parts.length == 2) {
+                rememberEpoch(parts[1], Long.parseLong(parts[0]));
+            }
+        }
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    @Scheduled(fixedDelayString = "${jwt.blacklist.filter.rebuild-delay:300000}",
+            initialDelayString = "${jwt.blacklist.filter.rebuild-delay:300000}")
+    public void rebuild() {
+        long size = Math.max(expectedInsertions, filter.insertions() * 2);
+        BloomFilter next = BloomFilter.create(size, fpp);
+        Map<String, Long> nextEpochs = new ConcurrentHashMap<>();
+        synchronized (swapLock) {
+            rebuilding = next;
+            rebuildingEpochs = nextEpochs;
+        }
+        try {
+            try (Cursor<String> keys = scan(PREFIX)) {
+                while (keys.hasNext()) {
+                    next.put(keys.next().substring(PREFIX.length()));
+                }
+            }
+            try (Cursor<String> keys = scan(EPOCH_PREFIX)) {
+                List<String> batch = new ArrayList<>();
+                while (keys.hasNext()) {
+                    batch.add(keys.next());
+                    if (batch.size() == EPOCH_BATCH || !keys.hasNext()) {
+                        loadEpochs(batch, nextEpochs);
+                        batch.clear();
+                    }
+                }
+            }
+            synchronized (swapLock) {
+                filter = next;
+                epochs = nextEpochs;
+                rebuilding = null;
+                rebuildingEpochs = null;
+            }
+            ready = true;
+            log.info("Token blacklist rebuilt with {} tokens and {} user epochs", next.insertions(), nextEpochs.size());
+        } catch (DataAccessException e) {
+            log.warn("Cannot rebuild token blacklist: {}", e.getMessage());
+        } finally {
+            synchronized (swapLock) {
+                rebuilding = null;
+                rebuildingEpochs = null;
+            }
+        }
+    }
+
+    private void loadEpochs(List<String> keys, Map<String, Long> target) {
+        List<String> values = redisBlacklistTemplate.opsForValue().multiGet(keys);
+        for (int i = 0; values != null && i < keys.size(); i++) {
+            if (values.get(i) != null) {
+                target.merge(keys.get(i).substring(EPOCH_PREFIX.length()), Long.parseLong(values.get(i)), Math::max);
+            }
+        }
+    }
+
+    private Cursor<String> scan(String prefix) {
+        return redisBlacklistTemplate.scan(ScanOptions.scanOptions().match(prefix + "*").count(1000).build());
+    }
+
+    private void publish(String message) {
+        try {
+            redisBlacklistTemplate.convertAndSend(channel, message);
+        } catch (DataAccessException e) {
+            log.warn("Cannot publish token revocation, other nodes pick it up on their next rebuild: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Redis is written before a revocation is announced, so a revocation missed by a rebuild's
+     * scan is one that arrives here while the rebuild is running.
+     */
+    private void remember(String tokenId) {
+        synchronized (swapLock) {
+            filter.put(tokenId);
+            if (rebuilding != null) {
+                rebuilding.put(tokenId);
+            }
+        }
+    }
+
+    private void rememberEpoch(String userId, long epoch) {
+        synchronized (swapLock) {
+            epochs.merge(userId, epoch, Math::max);
+            if (rebuildingEpochs != null) {
+                rebuildingEpochs.merge(userId, epoch, Math::max);
+            }
+        }
+    }
+}
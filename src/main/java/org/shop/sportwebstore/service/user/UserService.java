@@ -1,10 +1,13 @@
 package org.shop.sportwebstore.service.user;
 
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import jakarta.servlet.http.Cookie;
 import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletResponse;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.shop.sportwebstore.exception.TooManyRequestsException;
 import org.shop.sportwebstore.exception.UserException;
 import org.shop.sportwebstore.model.ActivationType;
 import org.shop.sportwebstore.model.Roles;
@@ -22,7 +25,6 @@ import org.springframework.data.domain.PageRequest;
 import org.springframework.data.mongodb.core.MongoTemplate;
 import org.springframework.data.mongodb.core.query.Criteria;
 import org.springframework.data.mongodb.core.query.Query;
-import org.springframework.data.redis.core.RedisTemplate;
 import org.springframework.security.authentication.AuthenticationManager;
 import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
 import org.springframework.security.core.context.SecurityContextHolder;
@@ -37,7 +39,6 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
-import java.util.concurrent.TimeUnit;
 
 @Service
 @Validated
@@ -50,12 +51,15 @@ public class UserService {
     private final EmailService emailService;
     private final AuthenticationManager authenticationManager;
     private final PasswordEncoder passwordEncoder;
-    private final RedisTemplate<String, String> redisBlacklistTemplate;
+    private final TokenBlacklist tokenBlacklist;
     private final CartService cartService;
     private final SecurityContextWrapper securityContextWrapper;
     private final ActivationRepository activationRepository;
     private final MongoTemplate mongoTemplate;
     private final JwtService jwtService;
+    private final LoginThrottle loginThrottle;
+    private final RoleVersions roleVersions;
+    private final MeterRegistry meterRegistry;
     @Value("${jwt.exp}")
     private int exp;
     @Value("${jwt.refresh.exp}")
@@ -86,20 +90,41 @@ public class UserService {
                             request.getPassword()
                     )
             );
+        } catch (TooManyRequestsException e) {
+            throw e;
         } catch (Exception e) {
             throw new UserException("Invalid email or password.", e);
         }
         return jwtService.generateToken(user, exp);
     }
 
-    public Map<String, Object> login(AuthUser authRequest, HttpServletResponse response) {
+    public Map<String, Object> login(AuthUser authRequest, HttpServletRequest request, HttpServletResponse response) {
         if (authRequest.getEmail() == null || authRequest.getPassword() == null) {
             throw new UserException("Email or password is null.");
         }
-        User user = userRepository.findByEmail(authRequest.getEmail())
-                .orElseThrow(() -> new UserException("User not found."));
+        String ip = request.getRemoteAddr();
+        loginThrottle.check(authRequest.getEmail(), ip);
+        Timer.Sample sample = Timer.start(meterRegistry);
+        String result = "failure";
+        String token;
+        User user;
+        try {
+            user = userRepository.findByEmail(authRequest.getEmail())
+                    .orElseThrow(() -> new UserException("User not found."));
+            token = getAuth(user, authRequest);
+            result = "success";
+        } catch (TooManyRequestsException e) {
+            result = "rejected";
+            throw e;
+        } catch (UserException e) {
+            loginThrottle.failed(authRequest.getEmail(), ip);
+            throw e;
+        } finally {
+            sample.stop(meterRegistry.timer("store.auth.login", "result", result));
+            meterRegistry.counter("store.auth.login.attempts", "result", result).increment();
+        }
+        loginThrottle.succeeded(authRequest.getEmail());
 
-        String token = getAuth(user, authRequest);
         String refreshToken = jwtService.generateToken(user, refreshExp);
 
         Cookie refreshTokenCookie = new Cookie("Refresh-token", refreshToken);
@@ -107,37 +132,54 @@ public class UserService {
         refreshTokenCookie.setSecure(true);
         refreshTokenCookie.setPath("/");
         response.addCookie(refreshTokenCookie);
-        boolean cartNotEmpty = isCartNotEmpty(authRequest.getEmail());
+        boolean cartNotEmpty = isCartNotEmpty(user.getId());
         return Map.of("token", token, "cartHasItems", cartNotEmpty);
     }
 
-    private boolean isCartNotEmpty(String email) {
-        User user = userRepository.findByEmail(email).orElseThrow(() -> new UserException("User not found."));
-        Cart cart = cartService.getCart(user.getId());
+    private boolean isCartNotEmpty(String userId) {
+        Cart cart = cartService.getCart(userId);
         return cart != null && !cart.getProducts().isEmpty();
     }
 
     public void logout(HttpServletResponse response, HttpServletRequest request) {
+        jwtService.revoke(extractAccessToken(request), "access");
         Cookie[] cookies = request.getCookies();
+        if (cookies != null) {
+            for (Cookie cookie : cookies) {
+                if ("Refresh-token".equals(cookie.getName())) {
+                    jwtService.revoke(cookie.getValue(), "refresh");
+                    clearCookie(cookie, response);
+                }
+            }
+        }
+        SecurityContextHolder.clearContext();
+    }
 
-        long expirationTime = jwtService.extractExpiration(extractAccessToken(request)).getTime() - System.currentTimeMillis();
-        addToBlackList(extractAccessToken(request), expirationTime, "access");
-
+    /**
+     * Ends every session of the current user, including ones on other devices, with one redis write.
+     */
+    public void logoutEverywhere(HttpServletResponse response, HttpServletRequest request) {
+        String userId = securityContextWrapper.getCurrentUserId()
+                .orElseThrow(() -> new UserException("User not found."));
+        tokenBlacklist.revokeAll(userId, refreshExp);
+        Cookie[] cookies = request.getCookies();
         if (cookies != null) {
             for (Cookie cookie : cookies) {
                 if ("Refresh-token".equals(cookie.getName())) {
-                    long expirationRefreshTime = jwtService.extractExpiration(cookie.getValue()).getTime() - System.currentTimeMillis();
-                    addToBlackList(cookie.getValue(), expirationRefreshTime, "refresh");
-                    cookie.setValue("");
-                    cookie.setPath("/");
-                    cookie.setMaxAge(0);
-                    response.addCookie(cookie);
+                    clearCookie(cookie, response);
                 }
             }
         }
         SecurityContextHolder.clearContext();
     }
 
+    private static void clearCookie(Cookie cookie, HttpServletResponse response) {
+        cookie.setValue("");
+        cookie.setPath("/");
+        cookie.setMaxAge(0);
+        response.addCookie(cookie);
+    }
+
     private String extractAccessToken(HttpServletRequest request) {
         String authHeader = request.getHeader("Authorization");
         if (authHeader == null || !authHeader.startsWith("Bearer ")) {
@@ -170,6 +212,10 @@ public class UserService {
 
     public String getRole() {
         try {
+            Optional<AuthenticatedUser> principal = securityContextWrapper.getPrincipal();
+            if (principal.isPresent()) {
+                return principal.get().role().name();
+            }
             User user = securityContextWrapper.getCurrentUser()
                     .orElseThrow(() -> new UserException("User not found."));
             return user.getRole().name();
@@ -204,23 +250,24 @@ public class UserService {
                 .orElseThrow(() -> new UserException("User not found."));
         user.setPassword(passwordEncoder.encode(resetPassword.getPassword()));
         userRepository.save(user);
+        tokenBlacklist.revokeAll(user.getId(), refreshExp);
         activationRepository.delete(activation);
         return "Password reset successfully.";
     }
 
     public Customer findOrCreateCustomer(OrderDto orderDto) {
-        User user = securityContextWrapper.getCurrentUser()
+        String userId = securityContextWrapper.getCurrentUserId()
                 .orElseThrow(() -> new UserException("User not found."));
-        Customer customer = customerRepository.findByUserId(user.getId()).orElse(null);
+        Customer customer = customerRepository.findByUserId(userId).orElse(null);
         if (customer == null) {
             customer = new Customer();
         }
-        customer.setUserId(user.getId());
+        customer.setUserId(userId);
         customer.setFirstName(orderDto.getFirstName());
         customer.setLastName(orderDto.getLastName());
         customer.setShippingAddress(orderDto.getShippingAddress());
         customerRepository.save(customer);
-        log.info("Created or updated customer for user: {}", user.getId());
+        log.info("Created or updated customer for user: {}", userId);
         return customer;
     }
 
@@ -284,17 +331,19 @@ public class UserService {
         User user = userRepository.findById(id).orElseThrow(() -> new UserException("User not found."));
         user.setEnabled(userStatus.isUserStatus());
         userRepository.save(user);
+        if (!user.isEnabled()) {
+            tokenBlacklist.revokeAll(user.getId(), refreshExp);
+        }
         log.info("Changed status of user {} to {}", user.getId(), userStatus.isUserStatus());
     }
 
     public void changeUserRole(String id, Roles role) {
         User user = userRepository.findById(id).orElseThrow(() -> new UserException("User not found."));
         user.setRole(role);
+        user.setRoleVersion(user.getRoleVersion() + 1);
         userRepository.save(user);
+        roleVersions.invalidate(user.getId());
+        tokenBlacklist.revokeAll(user.getId(), refreshExp);
         log.info("Changed role of user {} to {}", user.getId(), role);
     }
-
-    public void addToBlackList(String token, long exp, String tokenType) {
-        redisBlacklistTemplate.opsForValue().set("black_list:" + token, tokenType, exp, TimeUnit.MILLISECONDS);
-    }
 }
@@ -0,0 +1,263 @@
+package org.shop.sportwebstore.service.batch;
+
+import com.mongodb.client.result.UpdateResult;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.bson.Document;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.shop.sportwebstore.config.BatchProperties;
+import org.shop.sportwebstore.model.BatchStatus;
+import org.shop.sportwebstore.model.entity.BatchCheckpoint;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class BatchRunnerTest {
+
+    @Mock
+    private MongoTemplate mongoTemplate;
+
+    @Mock
+    private JobLeases jobLeases;
+
+    private SimpleMeterRegistry meterRegistry;
+    private BatchProperties properties;
+    private BatchRunner batchRunner;
+    private final List<Saved> saved = new ArrayList<>();
+
+    private record Saved(BatchStatus status, Object resumeAfter, long processed, String lastError) {
+    }
+
+    @BeforeEach
+    void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+        properties = new BatchProperties();
+        properties.setChunkSize(2);
+        batchRunner = new BatchRunner(mongoTemplate, jobLeases, meterRegistry, properties);
+        lenient().when(jobLeases.tryAcquire(anyString())).thenReturn(true);
+        lenient().when(jobLeases.renew(anyString())).thenReturn(true);
+        lenient().doAnswer(invocation -> {
+            BatchCheckpoint checkpoint = invocation.getArgument(0);
+            saved.add(new Saved(checkpoint.getStatus(), checkpoint.getResumeAfter(), checkpoint.getProcessed(),
+                    checkpoint.getLastError()));
+            return checkpoint;
+        }).when(mongoTemplate).save(any(BatchCheckpoint.class));
+    }
+
+    @Test
+    void run_ShouldWriteChunksAndCheckpointEach() {
+        NumbersJob job = new NumbersJob(5, -1);
+
+        assertEquals(5, batchRunner.run(job));
+
+        assertEquals(List.of(List.of(1, 2), List.of(3, 4), List.of(5)), job.written);
+        assertEquals(List.of(
+                new Saved(BatchStatus.RUNNING, null, 0, null),
+                new Saved(BatchStatus.RUNNING, 2, 2, null),
+                new Saved(BatchStatus.RUNNING, 4, 4, null),
+                new Saved(BatchStatus.RUNNING, 5, 5, null),
+                new Saved(BatchStatus.COMPLETED, 5, 5, null)), saved);
+        assertEquals(5, meterRegistry.get("store.batch.items").tag("job", "numbers").counter().count());
+        assertEquals(3, meterRegistry.get("store.batch.chunk.duration").tag("job", "numbers").timer().count());
+        assertEquals(1, meterRegistry.get("store.batch.duration").tag("result", "completed").timer().count());
+    }
+
+    @Test
+    void run_ShouldResumeBrokenRunWithItsCutoff() {
+        Date cutoff = new Date(1_000);
+        BatchCheckpoint broken = new BatchCheckpoint("numbers", cutoff);
+        broken.setStatus(BatchStatus.FAILED);
+        broken.setResumeAfter(3);
+        broken.setProcessed(3);
+        broken.setLastError("boom");
+        when(mongoTemplate.findById("numbers", BatchCheckpoint.class)).thenReturn(broken);
+        NumbersJob job = new NumbersJob(5, -1);
+
+        assertEquals(2, batchRunner.run(job));
+
+        assertEquals(cutoff, job.run.startedAt());
+        assertEquals(List.of(List.of(4, 5)), job.written);
+        assertEquals(new Saved(BatchStatus.RUNNING, 3, 3, null), saved.get(0));
+        assertEquals(new Saved(BatchStatus.COMPLETED, 5, 5, null), saved.get(saved.size() - 1));
+    }
+
+    @Test
+    void run_ShouldStartOverAfterCompletedRun() {
+        BatchCheckpoint completed = new BatchCheckpoint("numbers", new Date(1_000));
+        completed.setStatus(BatchStatus.COMPLETED);
+        completed.setResumeAfter(5);
+        when(mongoTemplate.findById("numbers", BatchCheckpoint.class)).thenReturn(completed);
+        NumbersJob job = new NumbersJob(3, -1);
+
+        assertEquals(3, batchRunner.run(job));
+
+        assertNull(job.run.resumeAfter());
+        assertTrue(job.run.startedAt().after(new Date(1_000)));
+    }
+
+    @Test
+    void run_ShouldKeepLastWrittenChunkWhenWriteFails() {
+        NumbersJob job = new NumbersJob(5, 3);
+
+        assertEquals(2, batchRunner.run(job));
+
+        assertEquals(new Saved(BatchStatus.FAILED, 2, 2, "cannot write 3"), saved.get(saved.size() - 1));
+        assertEquals(1, meterRegistry.get("store.batch.duration").tag("result", "failed").timer().count());
+    }
+
+    @Test
+    void run_ShouldSkipJobLeasedByAnotherNode() {
+        when(jobLeases.tryAcquire("numbers")).thenReturn(false);
+        NumbersJob job = new NumbersJob(5, -1);
+
+        assertEquals(0, batchRunner.run(job));
+
+        assertNull(job.run);
+        verify(mongoTemplate, never()).save(any(BatchCheckpoint.class));
+        verify(jobLeases, never()).release(anyString());
+    }
+
+    @Test
+    void run_ShouldStopWithoutCheckpointOnceLeaseIsLost() {
+        // renewed before and after each chunk, lost after the second chunk was written
+        when(jobLeases.renew("numbers")).thenReturn(true, true, true, false);
+        NumbersJob job = new NumbersJob(5, -1);
+
+        assertEquals(4, batchRunner.run(job));
+
+        assertEquals(List.of(List.of(1, 2), List.of(3, 4)), job.written);
+        assertEquals(new Saved(BatchStatus.RUNNING, 2, 2, null), saved.get(saved.size() - 1));
+        assertEquals(1, meterRegistry.get("store.batch.duration").tag("result", "lease-lost").timer().count());
+        verify(jobLeases).release("numbers");
+    }
+
+    @Test
+    void run_ShouldNotWriteChunkOnceLeaseIsLostBeforeIt() {
+        when(jobLeases.renew("numbers")).thenReturn(true, true, false);
+        NumbersJob job = new NumbersJob(5, -1);
+
+        assertEquals(2, batchRunner.run(job));
+
+        assertEquals(List.of(List.of(1, 2)), job.written);
+        assertEquals(new Saved(BatchStatus.RUNNING, 2, 2, null), saved.get(saved.size() - 1));
+        assertEquals(1, meterRegistry.get("store.batch.duration").tag("result", "lease-lost").timer().count());
+    }
+
+    @Test
+    void run_ShouldSplitRunIntoLeasedRanges() {
+        properties.getShards().put("numbers", 2);
+        when(mongoTemplate.find(any(Query.class), eq(BatchCheckpoint.class))).thenAnswer(invocation -> List.of(
+                completed("numbers#0", 2), completed("numbers#1", 3)));
+        when(mongoTemplate.updateFirst(any(Query.class), any(Update.class), eq(BatchCheckpoint.class)))
+                .thenReturn(UpdateResult.acknowledged(1, 1L, null));
+        NumbersJob job = new NumbersJob(5, -1);
+
+        assertEquals(5, batchRunner.run(job));
+
+        assertEquals(Set.of(List.of(1, 2), List.of(3, 4), List.of(5)), new HashSet<>(job.written));
+        verify(jobLeases).tryAcquire("numbers#0");
+        verify(jobLeases).tryAcquire("numbers#1");
+        ArgumentCaptor<Update> completion = ArgumentCaptor.forClass(Update.class);
+        verify(mongoTemplate).updateFirst(any(Query.class), completion.capture(), eq(BatchCheckpoint.class));
+        assertEquals(5L, completion.getValue().getUpdateObject().get("$set", Document.class).get("processed"));
+    }
+
+    @Test
+    void run_ShouldOnlyRunRangesLeftInCurrentPlan() {
+        properties.getShards().put("numbers", 2);
+        Date cutoff = new Date(1_000);
+        BatchCheckpoint plan = new BatchCheckpoint("numbers", cutoff);
+        plan.setBounds(List.of(3));
+        BatchCheckpoint done = completed("numbers#0", 2);
+        done.setRunStartedAt(cutoff);
+        when(jobLeases.tryAcquire("numbers")).thenReturn(false);
+        when(mongoTemplate.findById("numbers", BatchCheckpoint.class)).thenReturn(plan);
+        when(mongoTemplate.findById("numbers#0", BatchCheckpoint.class)).thenReturn(done);
+        // ranges start at a random one, so the untouched range is stubbed as well
+        when(mongoTemplate.findById("numbers#1", BatchCheckpoint.class)).thenReturn(null);
+        NumbersJob job = new NumbersJob(5, -1);
+
+        assertEquals(3, batchRunner.run(job));
+
+        assertEquals(List.of(List.of(3, 4), List.of(5)), job.written);
+        assertEquals(cutoff, job.run.startedAt());
+        verify(jobLeases, never()).release("numbers");
+    }
+
+    private static BatchCheckpoint completed(String id, long processed) {
+        BatchCheckpoint checkpoint = new BatchCheckpoint(id, new Date());
+        checkpoint.setStatus(BatchStatus.COMPLETED);
+        checkpoint.setProcessed(processed);
+        return checkpoint;
+    }
+
+    /**
+     * writes 1..count, failing on the chunk holding {@code failOn}
+     */
+    private static class NumbersJob implements BatchJob<Integer> {
+
+        private final int count;
+        private final int failOn;
+        private final List<List<Integer>> written = new ArrayList<>();
+        private BatchRun run;
+
+        NumbersJob(int count, int failOn) {
+            this.count = count;
+            this.failOn = failOn;
+        }
+
+        @Override
+        public String name() {
+            return "numbers";
+        }
+
+        @Override
+        public Stream<List<Integer>> read(BatchRun run) {
+            this.run = run;
+            int from = run.resumeAfter() == null ? 1 : (Integer) run.resumeAfter() + 1;
+            if (run.range().from() != null) {
+                from = Math.max(from, (Integer) run.range().from());
+            }
+            int to = run.range().to() == null ? count : (Integer) run.range().to() - 1;
+            return IntStream.iterate(from, i -> i <= to, i -> i + run.chunkSize())
+                    .mapToObj(i -> IntStream.rangeClosed(i, Math.min(to, i + run.chunkSize() - 1)).boxed().toList());
+        }
+
+        @Override
+        public List<Object> split(BatchRun run, int parts) {
+            return List.of(3);
+        }
+
+        @Override
+        public Object checkpointKey(Integer item) {
+            return item;
+        }
+
+        @Override
+        public void write(List<Integer> chunk, BatchRun run) {
+            if (chunk.contains(failOn)) {
+                throw new IllegalStateException("cannot write " + failOn);
+            }
+            written.add(chunk);
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package org.shop.sportwebstore.service.batch;
+
+import com.mongodb.client.result.UpdateResult;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.bson.Document;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.shop.sportwebstore.config.BatchProperties;
+import org.shop.sportwebstore.model.entity.JobLease;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
+import org.springframework.data.mongodb.core.aggregation.AggregationExpression;
+import org.springframework.data.mongodb.core.aggregation.AggregationUpdate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.UpdateDefinition;
+
+import java.util.Date;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class JobLeasesTest {
+
+    @Mock
+    private MongoTemplate mongoTemplate;
+
+    private SimpleMeterRegistry meterRegistry;
+    private JobLeases jobLeases;
+
+    @BeforeEach
+    void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+        BatchProperties properties = new BatchProperties();
+        properties.setNodeId("node-a");
+        jobLeases = new JobLeases(mongoTemplate, meterRegistry, properties);
+    }
+
+    @Test
+    void tryAcquire_ShouldTakeFreeLeaseWithOneUpsert() {
+        assertTrue(jobLeases.tryAcquire("advance-orders"));
+
+        ArgumentCaptor<Query> query = ArgumentCaptor.forClass(Query.class);
+        ArgumentCaptor<AggregationUpdate> update = ArgumentCaptor.forClass(AggregationUpdate.class);
+        ArgumentCaptor<FindAndModifyOptions> options = ArgumentCaptor.forClass(FindAndModifyOptions.class);
+        verify(mongoTemplate).findAndModify(query.capture(), update.capture(), options.capture(), eq(JobLease.class));
+        assertEquals("advance-orders", query.getValue().getQueryObject().get("_id"));
+        AggregationExpression expired = (AggregationExpression) query.getValue().getQueryObject()
+                .getList("$and", Document.class).get(0).get("$expr");
+        assertEquals(new Document("$lt", List.of("$expiresAt", "$$NOW")), expired.toDocument());
+        Document set = set(update.getValue());
+        assertEquals("node-a", set.get("owner"));
+        assertEquals(new Document("$add", List.of("$$NOW", 120_000L)), set.get("expiresAt"));
+        assertTrue(options.getValue().isUpsert());
+        assertEquals(1, meterRegistry.get("store.batch.lease.held").tag("lease", "advance-orders").gauge().value());
+    }
+
+    @Test
+    void tryAcquire_ShouldFailWhileAnotherNodeHoldsLease() {
+        when(mongoTemplate.findAndModify(any(Query.class), any(UpdateDefinition.class), any(FindAndModifyOptions.class),
+                eq(JobLease.class))).thenThrow(new DuplicateKeyException("E11000"));
+
+        assertFalse(jobLeases.tryAcquire("advance-orders"));
+    }
+
+    @Test
+    void tryAcquire_ShouldCountTakeoverOfExpiredLease() {
+        JobLease previous = new JobLease();
+        previous.setOwner("node-b");
+        previous.setExpiresAt(new Date(0));
+        when(mongoTemplate.findAndModify(any(Query.class), any(UpdateDefinition.class), any(FindAndModifyOptions.class),
+                eq(JobLease.class))).thenReturn(previous);
+
+        assertTrue(jobLeases.tryAcquire("advance-orders"));
+
+        assertEquals(1, meterRegistry.get("store.batch.lease.handoffs")
+                .tags("lease", "advance-orders", "reason", "expired").counter().count());
+    }
+
+    @Test
+    void renew_ShouldReportLeaseTakenByAnotherNode() {
+        jobLeases.tryAcquire("advance-orders");
+        when(mongoTemplate.updateFirst(any(Query.class), any(UpdateDefinition.class), eq(JobLease.class)))
+                .thenReturn(UpdateResult.acknowledged(0, 0L, null));
+
+        assertFalse(jobLeases.renew("advance-orders"));
+
+        assertEquals(0, meterRegistry.get("store.batch.lease.held").tag("lease", "advance-orders").gauge().value());
+        assertEquals(1, meterRegistry.get("store.batch.lease.lost").tag("lease", "advance-orders").counter().count());
+    }
+
+    @Test
+    void release_ShouldOnlyFreeOwnLease() {
+        jobLeases.release("advance-orders");
+
+        ArgumentCaptor<Query> query = ArgumentCaptor.forClass(Query.class);
+        ArgumentCaptor<AggregationUpdate> update = ArgumentCaptor.forClass(AggregationUpdate.class);
+        verify(mongoTemplate).updateFirst(query.capture(), update.capture(), eq(JobLease.class));
+        assertEquals("node-a", query.getValue().getQueryObject().get("owner"));
+        assertEquals(true, set(update.getValue()).get("released"));
+    }
+
+    private static Document set(AggregationUpdate update) {
+        return update.toPipeline(Aggregation.DEFAULT_CONTEXT).get(0).get("$set", Document.class);
+    }
+}
@@ -0,0 +1,117 @@
+package org.shop.sportwebstore.service.batch;
+
+import org.bson.Document;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.shop.sportwebstore.model.entity.Order;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class MongoBatchJobTest {
+
+    @Mock
+    private MongoTemplate mongoTemplate;
+
+    @Test
+    void read_ShouldChunkOneSortedCursorAndCloseIt() {
+        AtomicBoolean closed = new AtomicBoolean();
+        when(mongoTemplate.stream(any(Query.class), eq(Order.class)))
+                .thenReturn(Stream.of(order("1"), order("2"), order("3")).onClose(() -> closed.set(true)));
+        Date now = new Date();
+
+        List<List<String>> chunks = new ArrayList<>();
+        try (Stream<List<Order>> read = job().read(new BatchRun("orders", now, null, 2, KeyRange.ALL))) {
+            read.forEach(chunk -> chunks.add(chunk.stream().map(Order::getId).toList()));
+        }
+
+        assertEquals(List.of(List.of("1", "2"), List.of("3")), chunks);
+        assertTrue(closed.get());
+        ArgumentCaptor<Query> query = ArgumentCaptor.forClass(Query.class);
+        verify(mongoTemplate).stream(query.capture(), eq(Order.class));
+        assertEquals(now, query.getValue().getQueryObject().get("nextTransitionAt", Document.class).get("$lte"));
+        assertEquals(new Document("nextTransitionAt", 1), query.getValue().getSortObject());
+    }
+
+    @Test
+    void read_ShouldContinueFromCheckpoint() {
+        when(mongoTemplate.stream(any(Query.class), eq(Order.class))).thenReturn(Stream.empty());
+        Date now = new Date();
+        Date checkpoint = new Date(now.getTime() - 1_000);
+
+        job().read(new BatchRun("orders", now, checkpoint, 2, KeyRange.ALL)).close();
+
+        ArgumentCaptor<Query> query = ArgumentCaptor.forClass(Query.class);
+        verify(mongoTemplate).stream(query.capture(), eq(Order.class));
+        List<?> and = query.getValue().getQueryObject().get("$and", List.class);
+        assertEquals(2, and.size());
+        assertEquals(checkpoint, ((Document) and.get(1)).get("nextTransitionAt", Document.class).get("$gte"));
+    }
+
+    @Test
+    void read_ShouldStayWithinRange() {
+        when(mongoTemplate.stream(any(Query.class), eq(Order.class))).thenReturn(Stream.empty());
+        Date from = new Date(1_000);
+        Date to = new Date(2_000);
+
+        job().read(new BatchRun("orders", new Date(), null, 2, new KeyRange(from, to))).close();
+
+        ArgumentCaptor<Query> query = ArgumentCaptor.forClass(Query.class);
+        verify(mongoTemplate).stream(query.capture(), eq(Order.class));
+        List<?> and = query.getValue().getQueryObject().get("$and", List.class);
+        assertEquals(from, ((Document) and.get(1)).get("nextTransitionAt", Document.class).get("$gte"));
+        assertEquals(to, ((Document) and.get(2)).get("nextTransitionAt", Document.class).get("$lt"));
+    }
+
+    @Test
+    void split_ShouldCutAtQuantilesAndDropRepeatedKeys() {
+        when(mongoTemplate.count(any(Query.class), eq(Order.class))).thenReturn(90L);
+        Order first = order("30");
+        first.setNextTransitionAt(new Date(3_000));
+        Order repeated = order("60");
+        repeated.setNextTransitionAt(new Date(3_000));
+        when(mongoTemplate.findOne(any(Query.class), eq(Order.class))).thenReturn(first, repeated);
+
+        List<Object> bounds = job().split(new BatchRun("orders", new Date(), null, 2, KeyRange.ALL), 3);
+
+        assertEquals(List.of(new Date(3_000)), bounds);
+        ArgumentCaptor<Query> at = ArgumentCaptor.forClass(Query.class);
+        verify(mongoTemplate, times(2)).findOne(at.capture(), eq(Order.class));
+        assertEquals(List.of(30L, 60L), at.getAllValues().stream().map(Query::getSkip).toList());
+        assertEquals(1, at.getValue().getLimit());
+    }
+
+    private MongoBatchJob<Order> job() {
+        return MongoBatchJob.<Order>builder()
+                .name("orders")
+                .mongoTemplate(mongoTemplate)
+                .type(Order.class)
+                .criteria(run -> Criteria.where("nextTransitionAt").lte(run.startedAt()))
+                .sortKey("nextTransitionAt")
+                .position(Order::getNextTransitionAt)
+                .writer((orders, run) -> {
+                })
+                .build();
+    }
+
+    private static Order order(String id) {
+        Order order = new Order();
+        order.setId(id);
+        return order;
+    }
+}
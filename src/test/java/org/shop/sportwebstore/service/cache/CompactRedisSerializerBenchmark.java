@@ -0,0 +1,119 @@
+package org.shop.sportwebstore.service.cache;
+
+import org.shop.sportwebstore.model.dto.ProductDetailsDto;
+import org.shop.sportwebstore.model.dto.ProductDto;
+import org.shop.sportwebstore.model.entity.Cart;
+import org.springframework.data.redis.serializer.GenericJackson2JsonRedisSerializer;
+import org.springframework.data.redis.serializer.RedisSerializer;
+
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Bytes per value and encode/decode cost of the typed JSON serializer against {@link CompactRedisSerializer}.
+ * Run with {@code gradle benchmark -PbenchmarkClass=org.shop.sportwebstore.service.cache.CompactRedisSerializerBenchmark}.
+ */
+public class CompactRedisSerializerBenchmark {
+
+    private static final int WARMUP = 50_000;
+    private static final int ITERATIONS = 200_000;
+
+    /**
+     * keeps the JIT from dropping the measured work
+     */
+    private static volatile long blackhole;
+
+    public static void main(String[] args) {
+        GenericJackson2JsonRedisSerializer json = new GenericJackson2JsonRedisSerializer();
+        CompactRedisSerializer compact = new CompactRedisSerializer(List.of(
+                new BigDecimalCodec(), new JsonValueCodec<>(3, ProductDetailsDto.class)),
+                CompactRedisSerializer.DEFAULT_COMPRESSION_THRESHOLD);
+
+        System.out.printf("%-22s %-8s %8s %12s %12s%n", "value", "format", "bytes", "encode ns", "decode ns");
+        for (int lines : new int[]{1, 5, 20}) {
+            Cart cart = cart(lines);
+            String name = "cart, " + lines + " lines";
+            run(name, "json", json, cart);
+            run(name, "compact", compact, cart);
+            System.out.printf("%-22s %-8s %8d%n", name, "hash", hashBytes(cart));
+        }
+        ProductDetailsDto details = details();
+        run("product details", "json", json, details);
+        run("product details", "compact", compact, details);
+        run("price", "json", json, new BigDecimal("1299.90"));
+        run("price", "compact", compact, new BigDecimal("1299.90"));
+    }
+
+    private static void run(String name, String format, RedisSerializer<Object> serializer, Object value) {
+        byte[] bytes = serializer.serialize(value);
+        long sink = 0;
+        for (int i = 0; i < WARMUP; i++) {
+            sink += serializer.serialize(value).length;
+            sink += serializer.deserialize(bytes).hashCode();
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            sink += serializer.serialize(value).length;
+        }
+        long encode = (System.nanoTime() - start) / ITERATIONS;
+        start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            sink += serializer.deserialize(bytes).hashCode();
+        }
+        long decode = (System.nanoTime() - start) / ITERATIONS;
+        blackhole += sink;
+        System.out.printf("%-22s %-8s %8d %12d %12d%n", name, format, bytes.length, encode, decode);
+    }
+
+    /**
+     * field and value bytes of the hash layout CartService stores, without redis' own overhead
+     */
+    private static int hashBytes(Cart cart) {
+        int bytes = "userId".length() + cart.getUserId().length() + "processing".length() + 1
+                + "lastModified".length() + String.valueOf(cart.getLastModified().getTime()).length();
+        for (var line : cart.getProducts().entrySet()) {
+            bytes += ("p:" + line.getKey()).getBytes(StandardCharsets.UTF_8).length + String.valueOf(line.getValue()).length();
+        }
+        return bytes;
+    }
+
+    private static Cart cart(int lines) {
+        Cart cart = new Cart(objectId());
+        for (int i = 0; i < lines; i++) {
+            cart.addProduct(objectId(), 1 + i % 3);
+        }
+        return cart;
+    }
+
+    private static ProductDetailsDto details() {
+        List<ProductDto> related = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            related.add(product());
+        }
+        return new ProductDetailsDto(product(), related);
+    }
+
+    private static ProductDto product() {
+        ProductDto product = new ProductDto();
+        product.setId(objectId());
+        product.setName("Trail running shoe");
+        product.setDescription("Lightweight trail running shoe with a breathable mesh upper, rock plate and grippy outsole.");
+        product.setPrice(new BigDecimal("129.99"));
+        product.setQuantity(40);
+        product.setRating(4.5);
+        product.setImage("/images/" + objectId() + ".jpg");
+        product.setAvailable(true);
+        product.setCategories(List.of("Running", "Shoes"));
+        return product;
+    }
+
+    private static String objectId() {
+        byte[] bytes = new byte[12];
+        ThreadLocalRandom.current().nextBytes(bytes);
+        return HexFormat.of().formatHex(bytes);
+    }
+}
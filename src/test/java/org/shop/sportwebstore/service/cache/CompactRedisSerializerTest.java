@@ -0,0 +1,84 @@
+package org.shop.sportwebstore.service.cache;
+
+import org.junit.jupiter.api.Test;
+import org.shop.sportwebstore.model.dto.ProductDetailsDto;
+import org.shop.sportwebstore.model.dto.ProductDto;
+import org.shop.sportwebstore.model.entity.Cart;
+import org.springframework.cache.support.NullValue;
+import org.springframework.data.redis.serializer.GenericJackson2JsonRedisSerializer;
+import org.springframework.data.redis.serializer.SerializationException;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CompactRedisSerializerTest {
+
+    private final CompactRedisSerializer serializer = new CompactRedisSerializer(List.of(
+            new BigDecimalCodec(), new JsonValueCodec<>(3, ProductDetailsDto.class)), 512);
+
+    @Test
+    void deserialize_ShouldReadValuesWrittenAsJson() {
+        Cart cart = new Cart("user1");
+        cart.addProduct("prod1", 3);
+        byte[] legacy = new GenericJackson2JsonRedisSerializer().serialize(cart);
+
+        Cart result = (Cart) serializer.deserialize(legacy);
+
+        assertEquals("user1", result.getUserId());
+        assertEquals(Map.of("prod1", 3), result.getProducts());
+    }
+
+    @Test
+    void bigDecimal_ShouldKeepScale() {
+        BigDecimal price = new BigDecimal("1299.90");
+
+        assertEquals(price, serializer.deserialize(serializer.serialize(price)));
+        assertEquals(new BigDecimal("1299.90").scale(), ((BigDecimal) serializer.deserialize(serializer.serialize(price))).scale());
+    }
+
+    @Test
+    void unregisteredType_ShouldFallBackToTypedJson() {
+        byte[] bytes = serializer.serialize(NullValue.INSTANCE);
+
+        assertEquals(CompactRedisSerializer.JSON_CODEC, bytes[1]);
+        assertSame(NullValue.INSTANCE, serializer.deserialize(bytes));
+    }
+
+    @Test
+    void largeValue_ShouldBeDeflated() {
+        List<ProductDto> related = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            related.add(product("related" + i));
+        }
+        ProductDetailsDto details = new ProductDetailsDto(product("main"), related);
+
+        byte[] bytes = serializer.serialize(details);
+        ProductDetailsDto result = (ProductDetailsDto) serializer.deserialize(bytes);
+
+        assertEquals(CompactRedisSerializer.DEFLATED, bytes[2] & CompactRedisSerializer.DEFLATED);
+        assertEquals("main", result.getProduct().getId());
+        assertEquals(4, result.getRelatedProducts().size());
+        assertEquals(new BigDecimal("49.99"), result.getRelatedProducts().get(3).getPrice());
+    }
+
+    @Test
+    void deserialize_ShouldRejectUnknownCodec() {
+        byte[] bytes = {CompactRedisSerializer.FORMAT_V1, 42, 0, 1};
+
+        assertThrows(SerializationException.class, () -> serializer.deserialize(bytes));
+    }
+
+    private ProductDto product(String id) {
+        ProductDto product = new ProductDto();
+        product.setId(id);
+        product.setName("Product " + id);
+        product.setDescription("Lightweight running shoe with a breathable mesh upper and cushioned sole.");
+        product.setPrice(new BigDecimal("49.99"));
+        product.setCategories(List.of("Running", "Shoes"));
+        return product;
+    }
+}
@@ -0,0 +1,160 @@
+package org.shop.sportwebstore.service.cache;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.shop.sportwebstore.config.CacheProperties;
+import org.springframework.cache.Cache;
+import org.springframework.data.redis.RedisConnectionFailureException;
+import org.springframework.data.redis.connection.DefaultMessage;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.ValueOperations;
+import org.springframework.data.redis.serializer.GenericJackson2JsonRedisSerializer;
+import org.springframework.data.redis.serializer.RedisSerializer;
+
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.AdditionalMatchers.aryEq;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class TwoLevelCacheTest {
+
+    private static final List<String> KEYS =
+            List.of("cache:maxPrice:key", "cache-generation:maxPrice:key", "cache-generation:maxPrice");
+
+    @Mock
+    private RedisTemplate<String, Object> redisTemplate;
+
+    @Mock
+    private ValueOperations<String, Object> valueOperations;
+
+    private final MeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private TwoLevelCacheManager cacheManager;
+
+    @BeforeEach
+    void setUp() {
+        CacheProperties properties = new CacheProperties();
+        CacheProperties.Spec spec = new CacheProperties.Spec();
+        spec.setTtl(Duration.ofMinutes(5));
+        properties.getSpecs().put("maxPrice", spec);
+        cacheManager = new TwoLevelCacheManager(redisTemplate, properties, meterRegistry);
+    }
+
+    @Test
+    void get_ShouldLoadOnceAndServeFromLocal() {
+        when(redisTemplate.opsForValue()).thenReturn(valueOperations);
+        when(redisTemplate.execute(eq(TwoLevelCache.GENERATIONS), anyList())).thenReturn(List.of(0L, 0L));
+        doReturn(new GenericJackson2JsonRedisSerializer()).when(redisTemplate).getValueSerializer();
+        Cache cache = cacheManager.getCache("maxPrice");
+        AtomicInteger loads = new AtomicInteger();
+
+        BigDecimal first = cache.get("key", () -> {
+            loads.incrementAndGet();
+            return new BigDecimal("99.99");
+        });
+        BigDecimal second = cache.get("key", () -> {
+            loads.incrementAndGet();
+            return BigDecimal.ZERO;
+        });
+
+        assertEquals(new BigDecimal("99.99"), first);
+        assertEquals(first, second);
+        assertEquals(1, loads.get());
+        verify(redisTemplate).execute(eq(TwoLevelCache.WRITE_IF_CURRENT), anySerializer(), anySerializer(), eq(KEYS),
+                any(Object[].class));
+        assertEquals(1.0, count("local", "hit"));
+        assertEquals(1.0, count("redis", "miss"));
+    }
+
+    @Test
+    void get_ShouldUseRedisValueBeforeLoader() {
+        when(redisTemplate.opsForValue()).thenReturn(valueOperations);
+        when(valueOperations.get("cache:maxPrice:key")).thenReturn(BigDecimal.TEN);
+
+        BigDecimal value = cacheManager.getCache("maxPrice").get("key", () -> fail("loader called"));
+
+        assertEquals(BigDecimal.TEN, value);
+        assertEquals(1.0, count("redis", "hit"));
+        verify(redisTemplate, never()).execute(eq(TwoLevelCache.WRITE_IF_CURRENT), anySerializer(), anySerializer(),
+                anyList(), any(Object[].class));
+    }
+
+    @Test
+    void get_ShouldWriteOnlyIfGenerationsReadBeforeLoadAreCurrent() {
+        when(redisTemplate.opsForValue()).thenReturn(valueOperations);
+        when(redisTemplate.execute(eq(TwoLevelCache.GENERATIONS), anyList())).thenReturn(List.of(3L, 1L));
+        doReturn(new GenericJackson2JsonRedisSerializer()).when(redisTemplate).getValueSerializer();
+
+        BigDecimal value = cacheManager.getCache("maxPrice").get("key", () -> {
+            verify(redisTemplate).execute(eq(TwoLevelCache.GENERATIONS), anyList());
+            return BigDecimal.ONE;
+        });
+
+        assertEquals(BigDecimal.ONE, value);
+        verify(redisTemplate).execute(eq(TwoLevelCache.WRITE_IF_CURRENT), anySerializer(), anySerializer(), eq(KEYS),
+                aryEq(ascii("3")), aryEq(ascii("1")), aryEq(ascii("300000")), any(byte[].class));
+    }
+
+    @Test
+    void get_ShouldFallBackToLoaderWhenRedisIsDown() {
+        when(redisTemplate.opsForValue()).thenReturn(valueOperations);
+        when(valueOperations.get(anyString())).thenThrow(new RedisConnectionFailureException("down"));
+
+        BigDecimal value = cacheManager.getCache("maxPrice").get("key", () -> BigDecimal.ONE);
+
+        assertEquals(BigDecimal.ONE, value);
+    }
+
+    @Test
+    void evict_ShouldDeleteFromRedisAndNotifyOtherNodes() {
+        when(redisTemplate.opsForValue()).thenReturn(valueOperations);
+        Cache cache = cacheManager.getCache("maxPrice");
+        cache.get("key", () -> BigDecimal.ONE);
+
+        cache.evict("key");
+
+        verify(redisTemplate).execute(eq(TwoLevelCache.EVICT), anySerializer(), anySerializer(),
+                eq(List.of("cache:maxPrice:key", "cache-generation:maxPrice:key")), eq("300000"));
+        verify(redisTemplate).convertAndSend(eq("cache:invalidate"), endsWith("|maxPrice|key"));
+        assertEquals(1.0, meterRegistry.get("store.cache.evictions").tag("cause", "explicit").counter().count());
+    }
+
+    @Test
+    void onMessage_ShouldDropLocalEntryPublishedByOtherNode() {
+        when(redisTemplate.opsForValue()).thenReturn(valueOperations);
+        RedisSerializer<Object> serializer = new GenericJackson2JsonRedisSerializer();
+        doReturn(serializer).when(redisTemplate).getValueSerializer();
+        Cache cache = cacheManager.getCache("maxPrice");
+        cache.get("key", () -> BigDecimal.ONE);
+
+        cacheManager.onMessage(new DefaultMessage("cache:invalidate".getBytes(),
+                serializer.serialize("other-node|maxPrice|key")), null);
+
+        assertEquals(BigDecimal.TEN, cache.get("key", () -> BigDecimal.TEN));
+        assertEquals(1.0, meterRegistry.get("store.cache.invalidations").tag("origin", "remote").counter().count());
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> RedisSerializer<T> anySerializer() {
+        return any(RedisSerializer.class);
+    }
+
+    private static byte[] ascii(String text) {
+        return text.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    private double count(String level, String result) {
+        return meterRegistry.get("store.cache.gets").tag("level", level).tag("result", result).counter().count();
+    }
+}
@@ -0,0 +1,211 @@
+package org.shop.sportwebstore.service.catalog;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.shop.sportwebstore.model.dto.PriceBucket;
+import org.shop.sportwebstore.model.entity.Category;
+import org.shop.sportwebstore.model.entity.Product;
+import org.shop.sportwebstore.repository.ProductRepository;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.core.task.TaskExecutor;
+import org.springframework.data.redis.connection.DefaultMessage;
+import org.springframework.data.redis.core.RedisTemplate;
+
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.endsWith;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class ProductCatalogTest {
+
+    @Mock
+    private ProductRepository productRepository;
+
+    @Mock
+    private RedisTemplate<String, String> redisTemplate;
+
+    @Mock
+    private TaskExecutor taskExecutor;
+
+    @Mock
+    private ApplicationEventPublisher eventPublisher;
+
+    private ProductCatalog productCatalog;
+
+    @BeforeEach
+    void setUp() {
+        productCatalog = new ProductCatalog(productRepository, redisTemplate, taskExecutor, eventPublisher,
+                "catalog:changed");
+        when(productRepository.streamAllBy()).thenReturn(Stream.of(
+                product("1", "Ball", "10.00", true, "Balls"),
+                product("2", "Racket", "80.00", true, "Tennis"),
+                product("3", "Tennis Ball", "5.50", true, "Balls", "Tennis"),
+                product("4", "Old Ball", "7.00", false, "Balls")
+        ));
+        productCatalog.rebuild();
+    }
+
+    @Test
+    void page_ShouldFilterAndSort() {
+        CatalogPage page = productCatalog.page(filter(null, List.of("Balls"), true, 0, 5000), "price", true, 0, 10);
+
+        assertTrue(productCatalog.isReady());
+        assertEquals(List.of("3", "1"), page.getIds());
+        assertEquals(2, page.getTotal());
+    }
+
+    @Test
+    void page_ShouldSkipOffsetAndIncludeUnavailableForAdmin() {
+        CatalogPage page = productCatalog.page(filter(null, null, false, 0, 100_00), "price", false, 1, 2);
+
+        assertEquals(List.of("1", "4"), page.getIds());
+        assertEquals(4, page.getTotal());
+    }
+
+    @Test
+    void pageInOrder_ShouldKeepGivenOrder() {
+        CatalogPage page = productCatalog.pageInOrder(filter(Set.of("1", "2", "4"), null, true, 0, 100_00),
+                List.of("4", "2", "1"), 0, 10);
+
+        assertEquals(List.of("2", "1"), page.getIds());
+        assertEquals(2, page.getTotal());
+    }
+
+    @Test
+    void facets_ShouldIgnoreOwnFilter() {
+        CatalogFacets facets = productCatalog.facets(filter(null, List.of("Tennis"), true, 0, 1000), 10);
+
+        assertEquals(Map.of("Balls", 2L, "Tennis", 1L), facets.getCategoryCounts());
+        List<PriceBucket> histogram = facets.getPriceHistogram();
+        assertEquals(2, histogram.size());
+        assertEquals(new BigDecimal("5.50"), histogram.get(0).getMin());
+        assertEquals(new BigDecimal("80.00"), histogram.get(1).getMax());
+    }
+
+    @Test
+    void update_ShouldReplaceColumnsAndInvalidateOrder() {
+        productCatalog.page(filter(null, null, true, 0, 100_00), "price", true, 0, 10);
+
+        productCatalog.update(product("2", "Racket", "1.00", true, "Tennis"));
+        productCatalog.remove("3");
+
+        CatalogPage page = productCatalog.page(filter(null, null, true, 0, 100_00), "price", true, 0, 10);
+        assertEquals(List.of("2", "1"), page.getIds());
+    }
+
+    @Test
+    void update_ShouldMoveRowWithinCachedOrders() {
+        CatalogFilter all = filter(null, null, false, 0, 100_00);
+        productCatalog.page(all, "amountLeft", true, 0, 10);
+        productCatalog.page(all, "name", true, 0, 10);
+
+        Product stocked = product("1", "Ball", "10.00", true, "Balls");
+        stocked.setAmountLeft(5);
+        productCatalog.update(stocked);
+        productCatalog.update(product("5", "Net", "3.00", true, "Tennis"));
+        productCatalog.remove("2");
+        productCatalog.update(product("2", "Ace Racket", "80.00", true, "Tennis"));
+
+        assertEquals(List.of("2", "3", "4", "5", "1"), productCatalog.page(all, "amountLeft", true, 0, 10).getIds());
+        assertEquals(List.of("2", "1", "5", "4", "3"), productCatalog.page(all, "name", true, 0, 10).getIds());
+        assertEquals(List.of("5", "3", "4", "1", "2"), productCatalog.page(all, "price", true, 0, 10).getIds());
+    }
+
+    @Test
+    void rebuild_ShouldKeepWritesMadeWhileStreaming() {
+        Product renamed = product("2", "Racket Pro", "1.00", true, "Tennis");
+        when(productRepository.streamAllBy()).thenReturn(Stream.of(
+                product("1", "Ball", "10.00", true, "Balls"),
+                product("2", "Racket", "80.00", true, "Tennis"),
+                product("3", "Tennis Ball", "5.50", true, "Balls", "Tennis")
+        ).peek(product -> {
+            if (product.getId().equals("1")) {
+                productCatalog.update(renamed);
+                productCatalog.remove("3");
+            }
+        }));
+
+        productCatalog.rebuild();
+
+        CatalogPage page = productCatalog.page(filter(null, null, true, 0, 100_00), "price", true, 0, 10);
+        assertEquals(List.of("2", "1"), page.getIds());
+    }
+
+    @Test
+    void onMessage_ShouldReloadAnnouncedRowsFromOtherNodes() {
+        when(productRepository.findAllById(List.of("2", "3")))
+                .thenReturn(List.of(product("2", "Racket", "1.00", true, "Tennis")));
+
+        productCatalog.onMessage(new DefaultMessage("catalog:changed".getBytes(),
+                "other-node|2,3".getBytes()), null);
+
+        CatalogPage page = productCatalog.page(filter(null, null, true, 0, 100_00), "price", true, 0, 10);
+        assertEquals(List.of("2", "1"), page.getIds());
+        verify(eventPublisher).publishEvent(any(CatalogChangedEvent.class));
+        verifyNoInteractions(redisTemplate);
+    }
+
+    @Test
+    void onProductsChanged_ShouldReloadOffThePublishingThreadAndAnnounce() {
+        productCatalog.onProductsChanged(new ProductsChangedEvent(List.of("2")));
+        productCatalog.onProductsChanged(new ProductsChangedEvent(List.of("3")));
+
+        verify(taskExecutor).execute(any(Runnable.class));
+        verify(productRepository, never()).findAllById(any());
+
+        when(productRepository.findAllById(any())).thenReturn(List.of(
+                product("2", "Racket", "1.00", true, "Tennis"),
+                product("3", "Tennis Ball", "5.50", true, "Balls", "Tennis")));
+        productCatalog.reloadPending();
+
+        CatalogPage page = productCatalog.page(filter(null, null, true, 0, 100_00), "price", true, 0, 10);
+        assertEquals(List.of("2", "3", "1"), page.getIds());
+        verify(redisTemplate).convertAndSend(eq("catalog:changed"), endsWith("|2,3"));
+    }
+
+    @Test
+    void related_ShouldPreferSharedCategoriesAndSkipUnavailable() {
+        productCatalog.update(product("5", "Tennis Kit", "30.00", true, "Balls", "Tennis"));
+
+        assertEquals(List.of("3", "5"), productCatalog.related("1", 4));
+        assertEquals(List.of("5", "1", "2"), productCatalog.related("3", 4));
+        assertEquals(List.of("5"), productCatalog.related("3", 1));
+    }
+
+    @Test
+    void relatedOfAvailable_ShouldMatchRelatedOfEachProduct() {
+        productCatalog.update(product("5", "Tennis Kit", "30.00", true, "Balls", "Tennis"));
+        productCatalog.update(product("6", "Grip", "2.00", true, "Tennis"));
+        productCatalog.update(product("7", "Cone", "1.00", true));
+
+        Map<String, List<String>> all = productCatalog.relatedOfAvailable(2);
+
+        assertEquals(Set.of("1", "2", "3", "5", "6", "7"), all.keySet());
+        all.forEach((id, related) -> assertEquals(productCatalog.related(id, 2), related, id));
+    }
+
+    private CatalogFilter filter(Set<String> ids, List<String> categories, boolean onlyAvailable, long min, long max) {
+        return new CatalogFilter(ids, categories, onlyAvailable, min, max);
+    }
+
+    private Product product(String id, String name, String price, boolean available, String... categories) {
+        Product product = new Product();
+        product.setId(id);
+        product.setName(name);
+        product.setPrice(new BigDecimal(price));
+        product.setAvailable(available);
+        product.setCategories(Stream.of(categories).map(Category::new).toList());
+        return product;
+    }
+}
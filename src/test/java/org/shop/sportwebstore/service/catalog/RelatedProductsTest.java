@@ -0,0 +1,91 @@
+package org.shop.sportwebstore.service.catalog;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
+import org.springframework.core.task.TaskExecutor;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class RelatedProductsTest {
+
+    @Mock
+    private ProductCatalog productCatalog;
+
+    @Mock
+    private CacheManager cacheManager;
+
+    @Mock
+    private Cache details;
+
+    @Mock
+    private TaskExecutor taskExecutor;
+
+    @InjectMocks
+    private RelatedProducts relatedProducts;
+
+    @Test
+    void recompute_ShouldOnlyRecomputeProductsAffectedByChange() {
+        computeAll();
+
+        when(productCatalog.isAvailable(anyString())).thenReturn(true);
+        when(productCatalog.related("1", RelatedProducts.LIMIT)).thenReturn(List.of("2", "3"));
+        when(productCatalog.related("2", RelatedProducts.LIMIT)).thenReturn(List.of("1"));
+        relatedProducts.onCatalogChanged(new CatalogChangedEvent(List.of("2")));
+        relatedProducts.recompute();
+
+        assertEquals(List.of("2", "3"), relatedProducts.get("1"));
+        assertEquals(List.of("1"), relatedProducts.get("2"));
+        verify(taskExecutor).execute(any(Runnable.class));
+        verify(productCatalog).relatedOfAvailable(RelatedProducts.LIMIT);
+        verify(productCatalog, never()).related("3", RelatedProducts.LIMIT);
+        verify(details).evict("2");
+        verify(details).evict("1");
+        verify(details, never()).evict("3");
+        verify(details, never()).evict("4");
+    }
+
+    @Test
+    void recompute_ShouldDropProductThatBecameUnavailable() {
+        computeAll();
+
+        when(productCatalog.isAvailable("1")).thenReturn(true);
+        when(productCatalog.isAvailable("2")).thenReturn(false);
+        when(productCatalog.related("1", RelatedProducts.LIMIT)).thenReturn(List.of());
+        relatedProducts.refresh(List.of("2"));
+        relatedProducts.recompute();
+
+        assertNull(relatedProducts.get("2"));
+        assertEquals(List.of(), relatedProducts.get("1"));
+        verify(details).evict("1");
+        verify(details).evict("2");
+    }
+
+    private void computeAll() {
+        when(productCatalog.isReady()).thenReturn(true);
+        when(productCatalog.relatedOfAvailable(RelatedProducts.LIMIT)).thenReturn(Map.of(
+                "1", List.of("2"), "2", List.of("1"), "3", List.of("4"), "4", List.of("3")));
+        when(cacheManager.getCache(RelatedProducts.DETAILS_CACHE)).thenReturn(details);
+        relatedProducts.recompute();
+        verify(details).clear();
+    }
+
+    @Test
+    void recompute_ShouldWaitForCatalog() {
+        relatedProducts.recompute();
+
+        assertNull(relatedProducts.get("1"));
+        verifyNoInteractions(cacheManager);
+    }
+}
@@ -0,0 +1,219 @@
+package org.shop.sportwebstore.service.mail;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.bson.Document;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.shop.sportwebstore.model.OutboxStatus;
+import org.shop.sportwebstore.model.entity.OutboxEmail;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.mail.javamail.JavaMailSenderImpl;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class EmailOutboxTest {
+
+    @Mock
+    private MongoTemplate mongoTemplate;
+
+    @Mock
+    private BulkOperations bulkOperations;
+
+    private SmtpStandIn standIn;
+    private SmtpConnection connection;
+    private EmailOutbox emailOutbox;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        standIn = new SmtpStandIn(0, Duration.ZERO, 0);
+        connect(standIn);
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        connection.close();
+        standIn.close();
+    }
+
+    @Test
+    void enqueue_ShouldStorePendingEmail() {
+        emailOutbox.enqueue("jan@example.com", "Subject", "<p>Hi</p>", "order");
+
+        ArgumentCaptor<OutboxEmail> stored = ArgumentCaptor.forClass(OutboxEmail.class);
+        verify(mongoTemplate).insert(stored.capture());
+        assertEquals(OutboxStatus.PENDING, stored.getValue().getStatus());
+        assertEquals("jan@example.com", stored.getValue().getRecipient());
+        assertNotNull(stored.getValue().getNextAttemptAt());
+        assertEquals(0, standIn.connections());
+    }
+
+    @Test
+    void sendBatch_ShouldReuseOneSessionAcrossBatches() {
+        claim(email("1", "a@example.com", 1), email("2", "b@example.com", 1), email("3", "c@example.com", 1));
+        assertEquals(3, emailOutbox.sendBatch());
+        claim(email("4", "d@example.com", 1));
+        assertEquals(1, emailOutbox.sendBatch());
+
+        assertEquals(1, standIn.connections());
+        assertEquals(4, standIn.received().size());
+        assertEquals(List.of("d@example.com"), standIn.received().get(3).recipients());
+        assertTrue(standIn.received().get(0).data().contains("Subject 1"));
+        List<Update> updates = updates(4);
+        updates.forEach(update -> assertEquals(OutboxStatus.SENT, status(update)));
+        verify(bulkOperations, times(2)).execute();
+    }
+
+    @Test
+    void sendBatch_ShouldDeadLetterRefusedRecipientAndKeepSession() {
+        claim(email("1", "nobody@invalid", 1), email("2", "b@example.com", 1));
+
+        emailOutbox.sendBatch();
+
+        List<Update> updates = updates(2);
+        assertEquals(OutboxStatus.DEAD, status(updates.get(0)));
+        assertEquals(OutboxStatus.SENT, status(updates.get(1)));
+        assertEquals(1, standIn.connections());
+        assertEquals(1, standIn.received().size());
+    }
+
+    @Test
+    void sendBatch_ShouldDeadLetterMalformedAddressAndKeepSession() {
+        claim(email("1", "<broken@example.com", 1), email("2", "b@example.com", 1));
+
+        emailOutbox.sendBatch();
+
+        List<Update> updates = updates(2);
+        assertEquals(OutboxStatus.DEAD, status(updates.get(0)));
+        assertEquals(OutboxStatus.SENT, status(updates.get(1)));
+        assertTrue(connection.isOpen());
+        assertEquals(1, standIn.received().size());
+    }
+
+    @Test
+    void sendBatch_ShouldFailBrokenEmailAndStillWriteBatch() {
+        OutboxEmail broken = email("1", "a@example.com", 1);
+        broken.setHtml(null);
+        claim(broken, email("2", "b@example.com", 1));
+
+        assertEquals(2, emailOutbox.sendBatch());
+
+        List<Update> updates = updates(2);
+        assertEquals(OutboxStatus.PENDING, status(updates.get(0)));
+        assertNotNull(updates.get(0).getUpdateObject().get("$set", Document.class).get("lastError"));
+        assertEquals(OutboxStatus.SENT, status(updates.get(1)));
+        verify(bulkOperations).execute();
+    }
+
+    @Test
+    void sendBatch_ShouldRetryTemporaryFailureWithBackoff() throws Exception {
+        connection.close();
+        standIn.close();
+        standIn = new SmtpStandIn(0, Duration.ZERO, 1);
+        connect(standIn);
+        claim(email("1", "a@example.com", 2));
+
+        long before = System.currentTimeMillis();
+        emailOutbox.sendBatch();
+
+        Update update = updates(1).get(0);
+        assertEquals(OutboxStatus.PENDING, status(update));
+        Date next = (Date) update.getUpdateObject().get("$set", Document.class).get("nextAttemptAt");
+        assertTrue(next.getTime() >= before + Duration.ofSeconds(60).toMillis());
+        assertTrue(update.getUpdateObject().get("$set", Document.class).getString("lastError").startsWith("451"));
+    }
+
+    @Test
+    void sendBatch_ShouldDeadLetterAfterMaxAttempts() throws Exception {
+        connection.close();
+        standIn.close();
+        standIn = new SmtpStandIn(0, Duration.ZERO, 1);
+        connect(standIn);
+        claim(email("1", "a@example.com", 3));
+
+        emailOutbox.sendBatch();
+
+        assertEquals(OutboxStatus.DEAD, status(updates(1).get(0)));
+    }
+
+    @Test
+    void sendBatch_ShouldReleaseBatchWhenServerIsDown() throws Exception {
+        standIn.close();
+        claim(email("1", "a@example.com", 1), email("2", "b@example.com", 1));
+
+        emailOutbox.sendBatch();
+
+        for (Update update : updates(2)) {
+            assertEquals(OutboxStatus.PENDING, status(update));
+            assertEquals(-1, update.getUpdateObject().get("$inc", Document.class).get("attempts"));
+        }
+        assertFalse(connection.isOpen());
+    }
+
+    @Test
+    void sendBatch_ShouldReturnZeroWhenNothingIsDue() {
+        when(mongoTemplate.find(any(Query.class), eq(OutboxEmail.class))).thenReturn(List.of());
+
+        assertEquals(0, emailOutbox.sendBatch());
+        verify(mongoTemplate, never()).updateMulti(any(Query.class), any(Update.class), eq(OutboxEmail.class));
+    }
+
+    @Test
+    void backoff_ShouldGrowExponentiallyUpToMax() {
+        assertEquals(Duration.ofSeconds(30), emailOutbox.backoff(1));
+        assertEquals(Duration.ofSeconds(120), emailOutbox.backoff(3));
+        assertEquals(Duration.ofMinutes(10), emailOutbox.backoff(30));
+    }
+
+    private void connect(SmtpStandIn server) {
+        JavaMailSenderImpl mailSender = new JavaMailSenderImpl();
+        mailSender.setHost(server.host());
+        mailSender.setPort(server.port());
+        mailSender.getJavaMailProperties().setProperty("mail.smtp.timeout", "2000");
+        connection = new SmtpConnection(mailSender, Duration.ofSeconds(10), new SimpleMeterRegistry());
+        emailOutbox = new EmailOutbox(mongoTemplate, connection, new SimpleMeterRegistry(), "store@example.com",
+                50, 3, Duration.ofSeconds(30), Duration.ofMinutes(10), Duration.ofMinutes(5),
+                Duration.ofSeconds(5), Duration.ofSeconds(60));
+    }
+
+    private void claim(OutboxEmail... emails) {
+        List<OutboxEmail> claimed = List.of(emails);
+        when(mongoTemplate.find(any(Query.class), eq(OutboxEmail.class))).thenReturn(claimed, claimed);
+        lenient().when(mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, OutboxEmail.class)).thenReturn(bulkOperations);
+    }
+
+    private List<Update> updates(int count) {
+        ArgumentCaptor<Update> updates = ArgumentCaptor.forClass(Update.class);
+        verify(bulkOperations, times(count)).updateOne(any(Query.class), updates.capture());
+        return new ArrayList<>(updates.getAllValues());
+    }
+
+    private static Object status(Update update) {
+        return update.getUpdateObject().get("$set", Document.class).get("status");
+    }
+
+    private static OutboxEmail email(String id, String recipient, int attempts) {
+        OutboxEmail email = new OutboxEmail(recipient, "Subject " + id, "<p>Body " + id + "</p>", "order", new Date());
+        email.setId(id);
+        email.setAttempts(attempts);
+        email.setStatus(OutboxStatus.SENDING);
+        email.setClaim("claim");
+        return email;
+    }
+}
@@ -0,0 +1,57 @@
+package org.shop.sportwebstore.service.mail;
+
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class EmailTemplateTest {
+
+    @Test
+    void render_ShouldFillRepeatedPlaceholdersAndKeepLiterals() {
+        EmailTemplate template = EmailTemplate.compile("<a href='{{link}}'>{{ link }}</a> 100% until {{expiration}}",
+                "link", "expiration");
+
+        assertEquals("<a href='http://x/1'>http://x/1</a> 100% until tomorrow", template.render("http://x/1", "tomorrow"));
+    }
+
+    @Test
+    void render_ShouldWritePartsInline() {
+        EmailTemplate row = EmailTemplate.compile("<tr>{{name}}:{{price}}</tr>", "name", "price");
+        EmailTemplate body = EmailTemplate.compile("<table>{{rows}}</table>{{total}}", "total", "rows");
+        EmailTemplate.Part rows = out -> {
+            row.renderTo(out, "Ball", new BigDecimal("9.90"));
+            row.renderTo(out, "Net", 12);
+        };
+
+        assertEquals("<table><tr>Ball:9.90</tr><tr>Net:12</tr></table>21.90", body.render(new BigDecimal("21.90"), rows));
+    }
+
+    @Test
+    void render_ShouldNotLeakPreviousRender() {
+        EmailTemplate template = EmailTemplate.compile("Dear {{name}}", "name");
+
+        template.render("a".repeat(1000));
+
+        assertEquals("Dear Jan", template.render("Jan"));
+    }
+
+    @Test
+    void render_ShouldRenderTemplateWithoutPlaceholders() {
+        assertEquals("plain", EmailTemplate.compile("plain").render());
+    }
+
+    @Test
+    void compile_ShouldRejectUndeclaredPlaceholder() {
+        assertThrows(IllegalArgumentException.class, () -> EmailTemplate.compile("{{name}} {{other}}", "name"));
+        assertThrows(IllegalArgumentException.class, () -> EmailTemplate.compile("{{name", "name"));
+    }
+
+    @Test
+    void render_ShouldRejectWrongNumberOfValues() {
+        EmailTemplate template = EmailTemplate.compile("{{a}}{{b}}", "a", "b");
+
+        assertThrows(IllegalArgumentException.class, () -> template.render("only one"));
+    }
+}
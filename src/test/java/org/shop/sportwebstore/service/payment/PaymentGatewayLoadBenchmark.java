@@ -0,0 +1,97 @@
+package org.shop.sportwebstore.service.payment;
+
+import com.stripe.StripeClient;
+import com.stripe.net.HttpURLConnectionClient;
+import com.stripe.net.LiveStripeResponseGetter;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.distribution.ValueAtPercentile;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+import java.net.http.HttpClient;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Concurrent checkout sessions against the local {@link StripeStandIn}, through the same client, pool,
+ * timeouts and breaker as production. Prints throughput and the recorded latency percentiles.
+ * Run with {@code gradle benchmark -PbenchmarkClass=org.shop.sportwebstore.service.payment.PaymentGatewayLoadBenchmark}.
+ */
+public class PaymentGatewayLoadBenchmark {
+
+    private static final int CALLERS = 64;
+    private static final int WARMUP = 500;
+    private static final int CALLS = 2_000;
+
+    public static void main(String[] args) throws Exception {
+        // the JDK server leaves Nagle on, which adds delayed-ack stalls to small responses; read on first use
+        System.setProperty("sun.net.httpserver.nodelay", "true");
+        for (double failureRate : new double[]{0, 0.2}) {
+            for (boolean pooled : new boolean[]{false, true}) {
+                try (StripeStandIn standIn = new StripeStandIn(0, 128, Duration.ofMillis(50), Duration.ofMillis(50), failureRate)) {
+                    run(standIn, failureRate, pooled);
+                }
+            }
+        }
+    }
+
+    private static void run(StripeStandIn standIn, double failureRate, boolean pooled) throws Exception {
+        StripeClientOptions options = new StripeClientOptions("sk_test_standin", Duration.ofSeconds(2),
+                Duration.ofSeconds(2), 0, standIn.baseUrl());
+        ExecutorService httpExecutor = Executors.newFixedThreadPool(8);
+        HttpClient httpClient = HttpClient.newBuilder()
+                .connectTimeout(Duration.ofSeconds(2))
+                .executor(httpExecutor)
+                .build();
+        StripeClient client = new StripeClient(new LiveStripeResponseGetter(options,
+                pooled ? new PooledStripeHttpClient(httpClient) : new HttpURLConnectionClient()));
+        call(new StripePaymentGateway(client, new CircuitBreaker(50, 20, 0.5, Duration.ofSeconds(30)),
+                new SimpleMeterRegistry()), WARMUP);
+
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        StripePaymentGateway gateway = new StripePaymentGateway(client,
+                new CircuitBreaker(50, 20, 0.5, Duration.ofSeconds(30)), meterRegistry);
+        long start = System.nanoTime();
+        int errors = call(gateway, CALLS);
+        double seconds = (System.nanoTime() - start) / 1e9;
+        httpExecutor.shutdown();
+
+        System.out.printf("%s client, failure rate %.0f%%: %d calls in %.1fs (%.0f/s), %d errors%n",
+                pooled ? "pooled" : "default", failureRate * 100, CALLS, seconds, CALLS / seconds, errors);
+        for (Timer timer : meterRegistry.get("store.payment.gateway.latency").timers()) {
+            if (timer.count() == 0) {
+                continue;
+            }
+            StringBuilder line = new StringBuilder(String.format("  %-8s n=%-5d", timer.getId().getTag("result"), timer.count()));
+            for (ValueAtPercentile percentile : timer.takeSnapshot().percentileValues()) {
+                line.append(String.format(" p%.0f=%.1fms", percentile.percentile() * 100, percentile.value(TimeUnit.MILLISECONDS)));
+            }
+            System.out.println(line);
+        }
+    }
+
+    private static int call(StripePaymentGateway gateway, int calls) throws Exception {
+        CheckoutRequest request = new CheckoutRequest("order1", 12_999, "eur", "CARD", "load@example.com",
+                "http://localhost:4200/order?paid=true&orderId=order1",
+                "http://localhost:4200/order?paid=false&orderId=order1");
+        ExecutorService callers = Executors.newFixedThreadPool(CALLERS);
+        AtomicInteger errors = new AtomicInteger();
+        List<Future<?>> futures = new ArrayList<>();
+        for (int i = 0; i < calls; i++) {
+            futures.add(callers.submit(() -> {
+                try {
+                    gateway.createCheckoutSession(request);
+                } catch (RuntimeException e) {
+                    errors.incrementAndGet();
+                }
+            }));
+        }
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        callers.shutdown();
+        return errors.get();
+    }
+}
@@ -0,0 +1,94 @@
+package org.shop.sportwebstore.service.payment;
+
+import com.stripe.StripeClient;
+import com.stripe.net.LiveStripeResponseGetter;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.shop.sportwebstore.exception.PaymentUnavailableException;
+
+import java.io.IOException;
+import java.net.http.HttpClient;
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class StripePaymentGatewayTest {
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private StripeStandIn standIn;
+
+    @AfterEach
+    void tearDown() {
+        standIn.close();
+    }
+
+    @Test
+    void createCheckoutSession_ShouldGoThroughPooledClient() throws IOException {
+        StripePaymentGateway gateway = gateway(0, Duration.ofSeconds(5), new CircuitBreaker(10, 5, 0.5, Duration.ofSeconds(30)));
+
+        CheckoutSession session = gateway.createCheckoutSession(request());
+
+        assertTrue(session.id().startsWith("cs_test_"));
+        assertEquals("http://localhost:4200/order?paid=true&orderId=order1", session.url());
+        Timer latency = meterRegistry.get("store.payment.gateway.latency").tag("result", "success").timer();
+        assertEquals(1, latency.count());
+    }
+
+    @Test
+    void createCheckoutSession_ShouldOpenBreakerOnServerErrors() throws IOException {
+        CircuitBreaker breaker = new CircuitBreaker(10, 2, 0.5, Duration.ofSeconds(30));
+        StripePaymentGateway gateway = gateway(1, Duration.ofSeconds(5), breaker);
+
+        assertThrows(PaymentUnavailableException.class, () -> gateway.createCheckoutSession(request()));
+        assertThrows(PaymentUnavailableException.class, () -> gateway.createCheckoutSession(request()));
+        PaymentUnavailableException rejected = assertThrows(PaymentUnavailableException.class,
+                () -> gateway.createCheckoutSession(request()));
+
+        assertEquals(CircuitBreaker.State.OPEN, breaker.state());
+        assertEquals(30, rejected.getRetryAfter());
+        assertEquals(1, meterRegistry.get("store.payment.gateway.rejected").counter().count());
+    }
+
+    @Test
+    void createCheckoutSession_ShouldTimeOutSlowProvider() throws IOException {
+        CircuitBreaker breaker = new CircuitBreaker(10, 5, 0.5, Duration.ofSeconds(30));
+        StripePaymentGateway gateway = gateway(0, Duration.ofMillis(100), breaker);
+
+        long start = System.nanoTime();
+        assertThrows(PaymentUnavailableException.class, () -> gateway.createCheckoutSession(request()));
+
+        assertTrue(Duration.ofNanos(System.nanoTime() - start).compareTo(Duration.ofSeconds(1)) < 0);
+    }
+
+    @Test
+    void createCheckoutSession_ShouldReportUnexpectedErrorsToBreaker() throws IOException {
+        CircuitBreaker breaker = new CircuitBreaker(10, 1, 0.5, Duration.ofSeconds(30));
+        StripePaymentGateway gateway = gateway(0, Duration.ofSeconds(5), breaker);
+        CheckoutRequest unknownMethod = new CheckoutRequest("order1", 12_999, "eur", "UNKNOWN", "user@example.com",
+                "http://localhost:4200/order?paid=true&orderId=order1",
+                "http://localhost:4200/order?paid=false&orderId=order1");
+
+        assertThrows(IllegalArgumentException.class, () -> gateway.createCheckoutSession(unknownMethod));
+
+        assertEquals(CircuitBreaker.State.OPEN, breaker.state());
+        assertEquals(1, meterRegistry.get("store.payment.gateway.latency").tag("result", "failure").timer().count());
+    }
+
+    private StripePaymentGateway gateway(double failureRate, Duration readTimeout, CircuitBreaker breaker) throws IOException {
+        standIn = new StripeStandIn(0, 4, readTimeout.compareTo(Duration.ofSeconds(1)) < 0 ? Duration.ofMillis(500) : Duration.ZERO,
+                Duration.ZERO, failureRate);
+        StripeClientOptions options = new StripeClientOptions("sk_test_standin", Duration.ofSeconds(1), readTimeout, 0,
+                standIn.baseUrl());
+        HttpClient httpClient = HttpClient.newBuilder().connectTimeout(Duration.ofSeconds(1)).build();
+        StripeClient client = new StripeClient(new LiveStripeResponseGetter(options, new PooledStripeHttpClient(httpClient)));
+        return new StripePaymentGateway(client, breaker, meterRegistry);
+    }
+
+    private static CheckoutRequest request() {
+        return new CheckoutRequest("order1", 12_999, "eur", "CARD", "user@example.com",
+                "http://localhost:4200/order?paid=true&orderId=order1",
+                "http://localhost:4200/order?paid=false&orderId=order1");
+    }
+}
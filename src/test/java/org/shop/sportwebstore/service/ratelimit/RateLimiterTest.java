@@ -0,0 +1,120 @@
+package org.shop.sportwebstore.service.ratelimit;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.shop.sportwebstore.config.RateLimitProperties;
+import org.springframework.data.redis.RedisConnectionFailureException;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.script.RedisScript;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class RateLimiterTest {
+
+    @Mock
+    private RedisTemplate<String, String> redisRateLimitTemplate;
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final AtomicLong clock = new AtomicLong(1_000_000);
+    private RateLimiter rateLimiter;
+
+    @BeforeEach
+    void setUp() {
+        RateLimitProperties properties = new RateLimitProperties();
+        RateLimitProperties.Rule summary = new RateLimitProperties.Rule();
+        summary.setPatterns(List.of("/api/payment/summary"));
+        summary.setLimit(2);
+        summary.setPeriod(Duration.ofMinutes(1));
+        properties.getRules().put("summary", summary);
+        RateLimitProperties.Rule login = new RateLimitProperties.Rule();
+        login.setPatterns(List.of("/api/auth/**"));
+        login.setMethod("post");
+        login.setLimit(1);
+        login.setKey(RateLimitProperties.Key.IP);
+        properties.getRules().put("auth", login);
+        rateLimiter = new RateLimiter(redisRateLimitTemplate, properties, meterRegistry, clock::get);
+    }
+
+    @Test
+    void acquire_ShouldRefuseOverLimitWithRetryHint() {
+        assertTrue(rateLimiter.acquire("GET", "/api/payment/summary", "user1", "10.0.0.1").allowed());
+        assertTrue(rateLimiter.acquire("GET", "/api/payment/summary", "user1", "10.0.0.1").allowed());
+
+        RateLimiter.Decision decision = rateLimiter.acquire("GET", "/api/payment/summary", "user1", "10.0.0.1");
+
+        assertFalse(decision.allowed());
+        assertEquals("summary", decision.rule());
+        assertEquals(30_000, decision.retryAfterMillis());
+        assertEquals(1, meterRegistry.counter("store.ratelimit.requests", "rule", "summary", "result", "limited").count());
+        assertEquals(2, meterRegistry.counter("store.ratelimit.requests", "rule", "summary", "result", "allowed").count());
+    }
+
+    @Test
+    void acquire_ShouldRefillOverTime() {
+        rateLimiter.acquire("GET", "/api/payment/summary", "user1", "10.0.0.1");
+        rateLimiter.acquire("GET", "/api/payment/summary", "user1", "10.0.0.1");
+
+        clock.addAndGet(30_000);
+
+        assertTrue(rateLimiter.acquire("GET", "/api/payment/summary", "user1", "10.0.0.1").allowed());
+    }
+
+    @Test
+    void acquire_ShouldKeepSeparateBucketsPerUserAndIgnoreOtherRoutes() {
+        rateLimiter.acquire("GET", "/api/payment/summary", "user1", "10.0.0.1");
+        rateLimiter.acquire("GET", "/api/payment/summary", "user1", "10.0.0.1");
+
+        assertTrue(rateLimiter.acquire("GET", "/api/payment/summary", "user2", "10.0.0.1").allowed());
+        assertTrue(rateLimiter.acquire("GET", "/api/store", "user1", "10.0.0.1").allowed());
+        assertTrue(rateLimiter.acquire("GET", "/api/auth/role", null, "10.0.0.1").allowed());
+    }
+
+    @Test
+    void acquire_ShouldLimitByAddressWhenRuleSaysSo() {
+        assertTrue(rateLimiter.acquire("POST", "/api/auth/login", "user1", "10.0.0.1").allowed());
+
+        assertFalse(rateLimiter.acquire("POST", "/api/auth/login", "user2", "10.0.0.1").allowed());
+        assertTrue(rateLimiter.acquire("POST", "/api/auth/login", null, "10.0.0.2").allowed());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void sync_ShouldReportConsumptionAndAdoptClusterTokens() {
+        rateLimiter.acquire("GET", "/api/payment/summary", "user1", "10.0.0.1");
+        when(redisRateLimitTemplate.execute(any(RedisScript.class), eq(List.of("{rl}:summary:u:user1")), any(Object[].class)))
+                .thenReturn(List.of("-0.5"));
+
+        rateLimiter.sync();
+
+        verify(redisRateLimitTemplate).execute(any(RedisScript.class), eq(List.of("{rl}:summary:u:user1")),
+                eq("2"), eq("60000"), eq("1"));
+        assertFalse(rateLimiter.acquire("GET", "/api/payment/summary", "user1", "10.0.0.1").allowed());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void sync_ShouldKeepConsumptionForNextSyncWhenRedisFails() {
+        rateLimiter.acquire("GET", "/api/payment/summary", "user1", "10.0.0.1");
+        when(redisRateLimitTemplate.execute(any(RedisScript.class), anyList(), any(Object[].class)))
+                .thenThrow(new RedisConnectionFailureException("down"))
+                .thenReturn(List.of("0"));
+
+        rateLimiter.sync();
+        rateLimiter.acquire("GET", "/api/payment/summary", "user1", "10.0.0.1");
+        rateLimiter.sync();
+
+        verify(redisRateLimitTemplate).execute(any(RedisScript.class), anyList(), eq("2"), eq("60000"), eq("2"));
+        assertEquals(1, meterRegistry.counter("store.ratelimit.sync.failures").count());
+    }
+}
@@ -0,0 +1,98 @@
+package org.shop.sportwebstore.service.search;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.shop.sportwebstore.model.entity.Category;
+import org.shop.sportwebstore.model.entity.Product;
+import org.shop.sportwebstore.repository.ProductRepository;
+
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class ProductSearchIndexTest {
+
+    @Mock
+    private ProductRepository productRepository;
+
+    @InjectMocks
+    private ProductSearchIndex productSearchIndex;
+
+    @BeforeEach
+    void setUp() {
+        when(productRepository.streamAllBy()).thenReturn(Stream.of(
+                product("1", "Running Shoes", "Light shoe for long runs", "Shoes"),
+                product("2", "Basketball", "Official size ball", "Balls"),
+                product("3", "Tennis Balls", "Pack of three balls", "Tennis")
+        ));
+        productSearchIndex.rebuild();
+    }
+
+    @Test
+    void search_ShouldMatchStemmedWords() {
+        Map<String, Double> result = productSearchIndex.search("shoe");
+
+        assertEquals(List.of("1"), List.copyOf(result.keySet()));
+    }
+
+    @Test
+    void search_ShouldRankNameMatchesFirst() {
+        List<String> result = ProductSearchIndex.best(productSearchIndex.search("balls"));
+
+        assertEquals("3", result.get(0));
+        assertTrue(result.contains("2"));
+    }
+
+    @Test
+    void search_ShouldKeepEveryMatchButRankOnlyTheBest() {
+        for (int i = 0; i <= ProductSearchIndex.MAX_RESULTS; i++) {
+            productSearchIndex.index(product("ball-" + i, "Ball " + i, "", "Balls"));
+        }
+
+        Map<String, Double> result = productSearchIndex.search("ball");
+
+        assertEquals(ProductSearchIndex.MAX_RESULTS + 3, result.size());
+        assertEquals(ProductSearchIndex.MAX_RESULTS, ProductSearchIndex.best(result).size());
+    }
+
+    @Test
+    void search_ShouldRequireAllWordsAndExpandLastPrefix() {
+        assertEquals(List.of("3"), List.copyOf(productSearchIndex.search("tennis ba").keySet()));
+        assertTrue(productSearchIndex.search("tennis shoe").isEmpty());
+    }
+
+    @Test
+    void index_ShouldReplacePreviousTerms() {
+        Product renamed = product("1", "Hiking Boots", "Waterproof", "Shoes");
+
+        productSearchIndex.index(renamed);
+
+        assertTrue(productSearchIndex.search("running").isEmpty());
+        assertEquals(List.of("1"), List.copyOf(productSearchIndex.search("boot").keySet()));
+        assertEquals(3, productSearchIndex.size());
+    }
+
+    @Test
+    void remove_ShouldDropProduct() {
+        productSearchIndex.remove("2");
+
+        assertFalse(productSearchIndex.search("basketball").containsKey("2"));
+    }
+
+    private Product product(String id, String name, String description, String category) {
+        Product product = new Product();
+        product.setId(id);
+        product.setName(name);
+        product.setDescription(description);
+        product.setCategories(List.of(new Category(category)));
+        return product;
+    }
+}
@@ -3,20 +3,19 @@ package org.shop.sportwebstore.service.store;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
-import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
 import org.shop.sportwebstore.exception.ProductException;
 import org.shop.sportwebstore.model.entity.Cart;
 import org.shop.sportwebstore.model.entity.Product;
-import org.shop.sportwebstore.model.entity.User;
 import org.shop.sportwebstore.repository.ProductRepository;
-import org.shop.sportwebstore.repository.UserRepository;
+import org.shop.sportwebstore.service.ConstantStrings;
+import org.shop.sportwebstore.service.user.SecurityContextWrapper;
+import org.springframework.data.redis.core.HashOperations;
 import org.springframework.data.redis.core.RedisTemplate;
-import org.springframework.data.redis.core.ValueOperations;
-import org.springframework.security.core.Authentication;
-import org.springframework.security.core.context.SecurityContext;
-import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.data.redis.core.SessionCallback;
+import org.springframework.data.redis.core.ZSetOperations;
+import org.springframework.data.redis.core.script.RedisScript;
 
 import java.math.BigDecimal;
 import java.util.*;
@@ -28,50 +27,57 @@ import static org.mockito.Mockito.*;
 class CartServiceTest {
 
     @Mock
-    private RedisTemplate<String, Cart> redisCartTemplate;
+    private RedisTemplate<String, String> redisCartStore;
 
     @Mock
-    private ValueOperations<String, Cart> valueOperations;
+    private HashOperations<String, Object, Object> hashOperations;
 
     @Mock
-    private ProductRepository productRepository;
+    private RedisTemplate<String, Cart> redisCartTemplate;
 
     @Mock
-    private UserRepository userRepository;
+    private ZSetOperations<String, String> zSetOperations;
+
+    @Mock
+    private ProductRepository productRepository;
 
     @Mock
-    private SecurityContext securityContext;
+    private SecurityContextWrapper securityContextWrapper;
 
     @Mock
-    private Authentication authentication;
+    private StockReservationService stockReservationService;
 
-    @InjectMocks
     private CartService cartService;
 
     private final String userId = "user123";
     private final String productId1 = "prod1";
-    private final String userEmail = "user@example.com";
 
     @BeforeEach
     void setUp() {
-        SecurityContextHolder.setContext(securityContext);
+        cartService = new CartService(redisCartStore, redisCartTemplate, productRepository, securityContextWrapper,
+                stockReservationService);
     }
 
     @Test
     void getCart_ReturnsCartWhenExists() {
-        when(redisCartTemplate.opsForValue()).thenReturn(valueOperations);
-        Cart expectedCart = new Cart(userId);
-        when(valueOperations.get("cart:" + userId)).thenReturn(expectedCart);
+        doReturn(hashOperations).when(redisCartStore).opsForHash();
+        when(hashOperations.entries("cart:" + userId)).thenReturn(Map.of(
+                "userId", userId, "p:" + productId1, "2", "processing", "1", "reservationId", "reservation1",
+                "lastModified", "1000"));
 
         Cart result = cartService.getCart(userId);
 
-        assertEquals(expectedCart, result);
+        assertEquals(userId, result.getUserId());
+        assertEquals(Map.of(productId1, 2), result.getProducts());
+        assertTrue(result.isOrderProcessing());
+        assertEquals("reservation1", result.getReservationId());
+        assertEquals(new Date(1000), result.getLastModified());
     }
 
     @Test
     void getCart_ReturnsNullWhenNotExists() {
-        when(redisCartTemplate.opsForValue()).thenReturn(valueOperations);
-        when(valueOperations.get("cart:" + userId)).thenReturn(null);
+        doReturn(hashOperations).when(redisCartStore).opsForHash();
+        when(hashOperations.entries("cart:" + userId)).thenReturn(Map.of());
 
         Cart result = cartService.getCart(userId);
 
@@ -79,44 +85,42 @@ class CartServiceTest {
     }
 
     @Test
+    @SuppressWarnings("unchecked")
     void saveCart_SavesCartSuccessfully() {
-        when(redisCartTemplate.opsForValue()).thenReturn(valueOperations);
         Cart cart = new Cart(userId);
 
         cartService.saveCart(userId, cart);
 
-        verify(valueOperations).set("cart:" + userId, cart);
+        verify(redisCartStore).execute(any(SessionCallback.class));
     }
 
     @Test
     void deleteCart_DeletesCartSuccessfully() {
+        when(redisCartStore.opsForZSet()).thenReturn(zSetOperations);
+
         cartService.deleteCart(userId);
 
-        verify(redisCartTemplate).delete("cart:" + userId);
+        verify(redisCartStore).delete("cart:" + userId);
+        verify(zSetOperations).remove(CartService.PROCESSING_CARTS, userId);
     }
 
     @Test
+    @SuppressWarnings("unchecked")
     void addToCart_AddsProductToNewCart() {
-        when(redisCartTemplate.opsForValue()).thenReturn(valueOperations);
-        when(securityContext.getAuthentication()).thenReturn(authentication);
-        when(authentication.getName()).thenReturn(userEmail);
+        when(securityContextWrapper.getCurrentUserId()).thenReturn(Optional.of(userId));
 
         Product product = new Product();
         product.setId(productId1);
         product.setAmountLeft(10);
         product.setAvailable(true);
 
-        User user = new User();
-        user.setId(userId);
-
         when(productRepository.findByIdAndAmountLeftIsGreaterThanAndAvailableTrue(productId1, 0))
                 .thenReturn(Optional.of(product));
-        when(userRepository.findByEmail(userEmail)).thenReturn(Optional.of(user));
-        when(valueOperations.get("cart:" + userId)).thenReturn(null);
 
         cartService.addToCart(productId1);
 
-        verify(valueOperations).set(eq("cart:" + userId), any(Cart.class));
+        verify(redisCartStore).execute(any(RedisScript.class), eq(List.of("cart:" + userId)),
+                eq("p:" + productId1), eq("1"), eq("10"), eq(userId), anyString());
     }
 
     @Test
@@ -128,45 +132,37 @@ class CartServiceTest {
     }
 
     @Test
+    @SuppressWarnings("unchecked")
     void removeFromCart_RemovesProduct() {
-        when(redisCartTemplate.opsForValue()).thenReturn(valueOperations);
-        when(securityContext.getAuthentication()).thenReturn(authentication);
-        when(authentication.getName()).thenReturn(userEmail);
+        when(securityContextWrapper.getCurrentUserId()).thenReturn(Optional.of(userId));
 
-        Cart cart = new Cart(userId);
-        cart.addProduct(productId1, 2);
+        when(redisCartStore.execute(any(RedisScript.class), eq(List.of("cart:" + userId)),
+                eq("p:" + productId1), eq("-1"), anyString(), eq(userId), anyString())).thenReturn(1L);
 
-        User user = new User();
-        user.setId(userId);
+        cartService.removeFromCart(productId1);
+    }
 
-        when(userRepository.findByEmail(userEmail)).thenReturn(Optional.of(user));
-        when(valueOperations.get("cart:" + userId)).thenReturn(cart);
+    @Test
+    @SuppressWarnings("unchecked")
+    void removeFromCart_ThrowsWhenCartMissing() {
+        when(securityContextWrapper.getCurrentUserId()).thenReturn(Optional.of(userId));
 
-        cartService.removeFromCart(productId1);
+        when(redisCartStore.execute(any(RedisScript.class), eq(List.of("cart:" + userId)),
+                eq("p:" + productId1), eq("-1"), anyString(), eq(userId), anyString())).thenReturn(-2L);
 
-        assertEquals(1, cart.getProducts().get(productId1));
-        verify(valueOperations).set("cart:" + userId, cart);
+        assertThrows(ProductException.class, () -> cartService.removeFromCart(productId1));
     }
 
     @Test
+    @SuppressWarnings("unchecked")
     void deleteAllFromProduct_RemovesAllQuantity() {
-        when(redisCartTemplate.opsForValue()).thenReturn(valueOperations);
-        when(securityContext.getAuthentication()).thenReturn(authentication);
-        when(authentication.getName()).thenReturn(userEmail);
-
-        Cart cart = new Cart(userId);
-        cart.addProduct(productId1, 3);
+        when(securityContextWrapper.getCurrentUserId()).thenReturn(Optional.of(userId));
 
-        User user = new User();
-        user.setId(userId);
-
-        when(userRepository.findByEmail(userEmail)).thenReturn(Optional.of(user));
-        when(valueOperations.get("cart:" + userId)).thenReturn(cart);
+        when(redisCartStore.execute(any(RedisScript.class), eq(List.of("cart:" + userId)),
+                eq("p:" + productId1), eq(String.valueOf(Integer.MIN_VALUE)), anyString(), eq(userId), anyString()))
+                .thenReturn(0L);
 
         cartService.removeAllAmountOfProductFromCart(productId1);
-
-        assertFalse(cart.getProducts().containsKey(productId1));
-        verify(valueOperations).set("cart:" + userId, cart);
     }
 
     @Test
@@ -223,55 +219,92 @@ class CartServiceTest {
 
     @Test
     void getCart_ReturnsEmptyMapWhenCartNotExists() {
-        when(redisCartTemplate.opsForValue()).thenReturn(valueOperations);
-        when(securityContext.getAuthentication()).thenReturn(authentication);
-        when(authentication.getName()).thenReturn(userEmail);
-
-        User user = new User();
-        user.setId(userId);
+        doReturn(hashOperations).when(redisCartStore).opsForHash();
+        when(securityContextWrapper.getCurrentUserId()).thenReturn(Optional.of(userId));
 
-        when(userRepository.findByEmail(userEmail)).thenReturn(Optional.of(user));
-        when(valueOperations.get("cart:" + userId)).thenReturn(null);
+        when(hashOperations.entries("cart:" + userId)).thenReturn(Map.of());
 
         Map<String, Object> result = cartService.getCart();
 
         assertEquals(List.of(), result.get("products"));
     }
 
+    @Test
+    void blockAmountItem_ReservesStockForCart() {
+        doReturn(hashOperations).when(redisCartStore).opsForHash();
+        when(redisCartStore.opsForZSet()).thenReturn(zSetOperations);
+        Cart cart = new Cart(userId);
+        cart.addProduct(productId1, 2);
+        when(stockReservationService.reserve(cart.getProducts(), userId)).thenReturn("reservation1");
+
+        cartService.blockAmountItem(cart);
+
+        assertEquals("reservation1", cart.getReservationId());
+        assertTrue(cart.isOrderProcessing());
+        verify(hashOperations).putAll("cart:" + userId, Map.of("processing", "1", "reservationId", "reservation1",
+                "lastModified", String.valueOf(cart.getLastModified().getTime())));
+        verify(zSetOperations).add(CartService.PROCESSING_CARTS, userId,
+                cart.getLastModified().getTime() + ConstantStrings.ORDER_EXPIRATION.toMillis());
+    }
+
+    @Test
+    void blockAmountItem_KeepsCartWhenStockMissing() {
+        Cart cart = new Cart(userId);
+        cart.addProduct(productId1, 2);
+        when(stockReservationService.reserve(cart.getProducts(), userId))
+                .thenThrow(new ProductException("Not enough products in stock."));
+
+        assertThrows(ProductException.class, () -> cartService.blockAmountItem(cart));
+        assertFalse(cart.isOrderProcessing());
+        verifyNoInteractions(redisCartStore);
+    }
+
     @Test
     void cancelPayment_ReleasesBlockedProducts() {
-        when(redisCartTemplate.opsForValue()).thenReturn(valueOperations);
+        doReturn(hashOperations).when(redisCartStore).opsForHash();
+        when(redisCartStore.opsForZSet()).thenReturn(zSetOperations);
         Cart cart = new Cart(userId);
         cart.addProduct(productId1, 2);
         cart.setOrderProcessing(true);
+        cart.setReservationId("reservation1");
 
-        Product product = new Product();
-        product.setId(productId1);
-        product.setAmountLeft(5);
+        cartService.cancelPayment(cart);
 
-        cartService.cancelPayment(cart, List.of(product));
-
-        assertEquals(7, product.getAmountLeft());
+        verify(stockReservationService).release("reservation1");
+        assertNull(cart.getReservationId());
         assertFalse(cart.isOrderProcessing());
-        verify(valueOperations).set("cart:" + userId, cart);
+        verify(hashOperations).delete("cart:" + userId, "reservationId");
+        verify(zSetOperations).remove(CartService.PROCESSING_CARTS, userId);
     }
 
     @Test
-    void findCartsByIsOrderProcessing_ReturnsExpiredCarts() {
-        when(redisCartTemplate.opsForValue()).thenReturn(valueOperations);
+    @SuppressWarnings("unchecked")
+    void findExpiredProcessingCarts_ReadsDueCartsAndDropsStaleEntries() {
+        when(redisCartStore.opsForZSet()).thenReturn(zSetOperations);
         Date now = new Date();
-        Date expiredDate = new Date(now.getTime() - 3600000);
-
-        Cart expiredCart = new Cart(userId);
-        expiredCart.setOrderProcessing(true);
-        expiredCart.setLastModified(expiredDate);
 
-        when(redisCartTemplate.keys("cart:*")).thenReturn(Set.of("cart:1"));
-        when(valueOperations.get("cart:1")).thenReturn(expiredCart);
+        when(zSetOperations.rangeByScore(CartService.PROCESSING_CARTS, 0, now.getTime(), 0, 10))
+                .thenReturn(new LinkedHashSet<>(List.of(userId, "user2", "user3")));
+        when(redisCartStore.executePipelined(any(SessionCallback.class))).thenReturn(List.of(
+                Map.of("userId", userId, "p:" + productId1, "1", "processing", "1", "lastModified", "1000"),
+                Map.of(),
+                Map.of("userId", "user3", "processing", "0")));
 
-        List<Cart> result = cartService.findCartsByIsOrderProcessing(true, now);
+        List<Cart> result = cartService.findExpiredProcessingCarts(now, 10);
 
         assertEquals(1, result.size());
-        assertEquals(expiredCart, result.get(0));
+        assertEquals(userId, result.get(0).getUserId());
+        verify(zSetOperations).remove(CartService.PROCESSING_CARTS, "user2", "user3");
+        verify(redisCartStore, never()).keys(anyString());
+    }
+
+    @Test
+    void deleteCarts_DeletesCartsAndIndexEntries() {
+        when(redisCartStore.opsForZSet()).thenReturn(zSetOperations);
+
+        cartService.deleteCarts(List.of(userId, "user2"));
+
+        verify(redisCartStore).delete(List.of("cart:" + userId, "cart:user2"));
+        verify(zSetOperations).remove(CartService.PROCESSING_CARTS, userId, "user2");
     }
 }
\ No newline at end of file
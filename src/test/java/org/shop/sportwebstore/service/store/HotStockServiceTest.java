@@ -0,0 +1,180 @@
+package org.shop.sportwebstore.service.store;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.shop.sportwebstore.exception.ProductException;
+import org.shop.sportwebstore.model.entity.Product;
+import org.shop.sportwebstore.service.catalog.ProductsChangedEvent;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.SetOperations;
+import org.springframework.data.redis.core.ValueOperations;
+import org.springframework.data.redis.core.script.RedisScript;
+
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class HotStockServiceTest {
+
+    @Mock
+    private RedisTemplate<String, String> redisTemplate;
+
+    @Mock
+    private SetOperations<String, String> setOperations;
+
+    @Mock
+    private ValueOperations<String, String> valueOperations;
+
+    @Mock
+    private MongoTemplate mongoTemplate;
+
+    @Mock
+    private ApplicationEventPublisher eventPublisher;
+
+    @Mock
+    private BulkOperations bulkOperations;
+
+    private SimpleMeterRegistry meterRegistry;
+
+    private HotStockService hotStockService;
+
+    @BeforeEach
+    void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+        hotStockService = new HotStockService(redisTemplate, mongoTemplate, eventPublisher, meterRegistry);
+    }
+
+    @Test
+    void hotLines_ShouldPickOnlyHotProducts() {
+        Map<String, Integer> items = Map.of("prod1", 2, "prod2", 1);
+        assertTrue(hotStockService.hotLines(items).isEmpty());
+
+        when(redisTemplate.opsForSet()).thenReturn(setOperations);
+        when(setOperations.members("{stock}:hot")).thenReturn(Set.of("prod1"));
+        hotStockService.refreshHotIds();
+
+        assertEquals(Map.of("prod1", 2), hotStockService.hotLines(items));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void reserve_ShouldReturnLinesThatAreNotHot() {
+        when(redisTemplate.execute(any(RedisScript.class), eq(List.of("{stock}:hot", "{stock}:delta")), eq("prod1"), eq("2")))
+                .thenReturn(List.of("OK", "prod1"));
+
+        assertEquals(List.of("prod1"), hotStockService.reserve(Map.of("prod1", 2)));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void reserve_ShouldThrowWhenHotLineLacksStock() {
+        when(redisTemplate.execute(any(RedisScript.class), eq(List.of("{stock}:hot", "{stock}:delta")), eq("prod1"), eq("2")))
+                .thenReturn(List.of("FAIL", "prod1"));
+
+        assertThrows(ProductException.class, () -> hotStockService.reserve(Map.of("prod1", 2)));
+        assertEquals(1, meterRegistry.counter("store.stock.hot.reservations", "result", "rejected").count());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void disable_ShouldThrowWhenProductIsNotHot() {
+        when(redisTemplate.execute(any(RedisScript.class), eq(List.of("{stock}:hot", "{stock}:delta")), eq("prod1")))
+                .thenReturn(-1L);
+
+        assertThrows(ProductException.class, () -> hotStockService.disable("prod1"));
+        verifyNoInteractions(mongoTemplate);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void flush_ShouldWriteBatchInOneBulkAndDropIt() {
+        when(redisTemplate.execute(any(RedisScript.class),
+                eq(List.of("{stock}:delta", "{stock}:flushing", "{stock}:batch")), eq("#batch")))
+                .thenReturn(List.of("prod1", "-3", "prod2", "0", "#batch", "7"));
+        when(mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, Product.class)).thenReturn(bulkOperations);
+
+        hotStockService.flush();
+
+        verify(bulkOperations, times(1)).updateOne(any(Query.class), any(Update.class));
+        verify(bulkOperations).execute();
+        verify(redisTemplate).execute(any(RedisScript.class), eq(List.of("{stock}:flushing")), eq("#batch"), eq("7"));
+        verify(eventPublisher).publishEvent(any(ProductsChangedEvent.class));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void reconcile_ShouldRepairDriftedProductAndSkipNewerBatch() {
+        when(redisTemplate.execute(any(RedisScript.class),
+                eq(List.of("{stock}:hot", "{stock}:delta", "{stock}:flushing", "{stock}:batch")), eq("#batch")))
+                .thenReturn(List.of("7", "7", "prod1", "10", "-2", "-1", "prod2", "5", "0", "0"));
+        when(mongoTemplate.find(any(Query.class), eq(Product.class)))
+                .thenReturn(List.of(product("prod1", 15, 6), product("prod2", 9, 8)));
+
+        assertEquals(1, hotStockService.reconcile());
+
+        ArgumentCaptor<Update> update = ArgumentCaptor.forClass(Update.class);
+        verify(mongoTemplate).updateFirst(any(Query.class), update.capture(), eq(Product.class));
+        assertEquals(13, update.getValue().getUpdateObject().get("$set", org.bson.Document.class).get("amountLeft"));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void reconcile_ShouldLeaveFreshlyEnabledProductAlone() {
+        when(redisTemplate.execute(any(RedisScript.class),
+                eq(List.of("{stock}:hot", "{stock}:delta", "{stock}:flushing", "{stock}:batch")), eq("#batch")))
+                .thenReturn(List.of("7", "0"));
+        Product enabling = product("prod1", 10, 0);
+        enabling.setHotSince(new Date());
+        when(mongoTemplate.find(any(Query.class), eq(Product.class))).thenReturn(List.of(enabling));
+
+        hotStockService.reconcile();
+
+        verify(redisTemplate, never()).opsForValue();
+        verify(mongoTemplate, never()).updateFirst(any(Query.class), any(Update.class), eq(Product.class));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void reconcile_ShouldClearAbandonedFlagOnlyIfUnchanged() {
+        when(redisTemplate.execute(any(RedisScript.class),
+                eq(List.of("{stock}:hot", "{stock}:delta", "{stock}:flushing", "{stock}:batch")), eq("#batch")))
+                .thenReturn(List.of("7", "0"));
+        Product abandoned = product("prod1", 10, 0);
+        Date since = new Date(System.currentTimeMillis() - HotStockService.ENABLE_GRACE.toMillis() - 1000);
+        abandoned.setHotSince(since);
+        when(mongoTemplate.find(any(Query.class), eq(Product.class))).thenReturn(List.of(abandoned));
+        when(redisTemplate.opsForValue()).thenReturn(valueOperations);
+
+        hotStockService.reconcile();
+
+        ArgumentCaptor<Query> query = ArgumentCaptor.forClass(Query.class);
+        verify(mongoTemplate).updateFirst(query.capture(), any(Update.class), eq(Product.class));
+        assertEquals(since, query.getValue().getQueryObject().get("hotSince"));
+    }
+
+    private Product product(String id, int amountLeft, long stockBatch) {
+        Product product = new Product();
+        product.setId(id);
+        product.setAmountLeft(amountLeft);
+        product.setHotStock(true);
+        product.setStockBatch(stockBatch);
+        return product;
+    }
+}
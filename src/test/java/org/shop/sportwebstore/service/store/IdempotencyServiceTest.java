@@ -0,0 +1,203 @@
+package org.shop.sportwebstore.service.store;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.shop.sportwebstore.exception.IdempotencyException;
+import org.shop.sportwebstore.exception.ProductException;
+import org.shop.sportwebstore.service.user.SecurityContextWrapper;
+import org.springframework.data.redis.RedisConnectionFailureException;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.ValueOperations;
+import org.springframework.data.redis.core.script.RedisScript;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class IdempotencyServiceTest {
+
+    private static final String KEY = "idem:user1:repay:abc";
+    private static final String FINGERPRINT = "f9c7d7b3f2c5b0f1f3d4c6b1b7b8d1a55b1f46f5d3d7a0a13c2f3a6f5bd6bd3b";
+
+    @Mock
+    private RedisTemplate<String, String> redisIdempotencyTemplate;
+
+    @Mock
+    private ValueOperations<String, String> valueOperations;
+
+    @Mock
+    private SecurityContextWrapper securityContextWrapper;
+
+    private IdempotencyService idempotencyService;
+
+    @BeforeEach
+    void setUp() {
+        idempotencyService = new IdempotencyService(redisIdempotencyTemplate, securityContextWrapper, new ObjectMapper(),
+                new SimpleMeterRegistry(), Duration.ofSeconds(60), Duration.ofHours(24), Duration.ofMillis(300));
+    }
+
+    @Test
+    void execute_WithoutKey_ShouldRunAction() {
+        assertEquals("url", idempotencyService.execute("repay", null, "order1", () -> "url"));
+
+        verifyNoInteractions(redisIdempotencyTemplate);
+    }
+
+    @Test
+    void execute_FirstRequest_ShouldRunActionAndStoreResult() {
+        mockUser();
+        when(valueOperations.setIfAbsent(eq(KEY), startsWith("P:"), eq(Duration.ofSeconds(60)))).thenReturn(true);
+
+        String result = idempotencyService.execute("repay", "abc", "order1", () -> "https://checkout/1");
+
+        assertEquals("https://checkout/1", result);
+        verify(redisIdempotencyTemplate).execute(any(RedisScript.class), eq(List.of(KEY)), startsWith("P:"),
+                eq("D:" + fingerprint("order1") + ":https://checkout/1"), eq("86400000"));
+    }
+
+    @Test
+    void execute_Duplicate_ShouldReplayStoredResultWithoutRunningAction() {
+        mockUser();
+        when(valueOperations.setIfAbsent(eq(KEY), anyString(), any(Duration.class))).thenReturn(false);
+        when(valueOperations.get(KEY)).thenReturn("D:" + fingerprint("order1") + ":https://checkout/1");
+
+        String result = idempotencyService.execute("repay", "abc", "order1", () -> fail("action must not run"));
+
+        assertEquals("https://checkout/1", result);
+    }
+
+    @Test
+    void execute_DuplicateOnOtherNode_ShouldWaitForResult() {
+        mockUser();
+        when(valueOperations.setIfAbsent(eq(KEY), anyString(), any(Duration.class))).thenReturn(false);
+        when(valueOperations.get(KEY)).thenReturn(
+                "P:" + fingerprint("order1") + ":owner",
+                "P:" + fingerprint("order1") + ":owner",
+                "D:" + fingerprint("order1") + ":https://checkout/1");
+
+        String result = idempotencyService.execute("repay", "abc", "order1", () -> fail("action must not run"));
+
+        assertEquals("https://checkout/1", result);
+        verify(valueOperations, times(3)).get(KEY);
+    }
+
+    @Test
+    void execute_DifferentRequestUnderSameKey_ShouldBeRefused() {
+        mockUser();
+        when(valueOperations.setIfAbsent(eq(KEY), anyString(), any(Duration.class))).thenReturn(false);
+        when(valueOperations.get(KEY)).thenReturn("D:" + FINGERPRINT + ":https://checkout/1");
+
+        assertThrows(IdempotencyException.class,
+                () -> idempotencyService.execute("repay", "abc", "order2", () -> "url"));
+    }
+
+    @Test
+    void execute_OriginalStillRunning_ShouldTimeOut() {
+        mockUser();
+        when(valueOperations.setIfAbsent(eq(KEY), anyString(), any(Duration.class))).thenReturn(false);
+        when(valueOperations.get(KEY)).thenReturn("P:" + fingerprint("order1") + ":owner");
+
+        assertThrows(IdempotencyException.class,
+                () -> idempotencyService.execute("repay", "abc", "order1", () -> "url"));
+    }
+
+    @Test
+    void execute_FailedAction_ShouldReleaseKey() {
+        mockUser();
+        when(valueOperations.setIfAbsent(eq(KEY), anyString(), any(Duration.class))).thenReturn(true);
+
+        assertThrows(ProductException.class, () -> idempotencyService.execute("repay", "abc", "order1", () -> {
+            throw new ProductException("Reservation expired");
+        }));
+
+        verify(redisIdempotencyTemplate).execute(any(RedisScript.class), eq(List.of(KEY)), startsWith("P:"));
+    }
+
+    @Test
+    void execute_RedisUnavailable_ShouldRunActionOnce() {
+        mockUser();
+        when(valueOperations.setIfAbsent(eq(KEY), anyString(), any(Duration.class)))
+                .thenThrow(new RedisConnectionFailureException("down"));
+        AtomicInteger runs = new AtomicInteger();
+
+        assertEquals("url", idempotencyService.execute("repay", "abc", "order1", () -> {
+            runs.incrementAndGet();
+            return "url";
+        }));
+        assertEquals(1, runs.get());
+    }
+
+    @Test
+    void execute_ConcurrentDuplicatesOnSameNode_ShouldRunActionOnce() throws Exception {
+        mockUser();
+        lenient().when(valueOperations.setIfAbsent(eq(KEY), anyString(), any(Duration.class))).thenReturn(true, false);
+        lenient().when(valueOperations.get(KEY)).thenReturn("D:" + fingerprint("order1") + ":https://checkout/1");
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger runs = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Future<String> first = executor.submit(() -> idempotencyService.execute("repay", "abc", "order1", () -> {
+                runs.incrementAndGet();
+                started.countDown();
+                await(release);
+                return "https://checkout/1";
+            }));
+            assertTrue(started.await(1, TimeUnit.SECONDS));
+            Future<String> second = executor.submit(() -> idempotencyService.execute("repay", "abc", "order1", () -> {
+                runs.incrementAndGet();
+                return "https://checkout/2";
+            }));
+            release.countDown();
+
+            assertEquals("https://checkout/1", first.get(1, TimeUnit.SECONDS));
+            assertEquals("https://checkout/1", second.get(1, TimeUnit.SECONDS));
+            assertEquals(1, runs.get());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    void execute_ShouldRejectOverlongKey() {
+        assertThrows(IllegalArgumentException.class,
+                () -> idempotencyService.execute("repay", "k".repeat(256), "order1", () -> "url"));
+    }
+
+    private void mockUser() {
+        lenient().when(redisIdempotencyTemplate.opsForValue()).thenReturn(valueOperations);
+        when(securityContextWrapper.getCurrentUserId()).thenReturn(Optional.of("user1"));
+    }
+
+    private static String fingerprint(String body) {
+        try {
+            return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(body.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(1, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
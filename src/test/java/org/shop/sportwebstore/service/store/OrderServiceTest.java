@@ -1,10 +1,13 @@
 package org.shop.sportwebstore.service.store;
 
+import com.mongodb.client.result.UpdateResult;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
+import org.mockito.Spy;
 import org.mockito.junit.jupiter.MockitoExtension;
 import org.shop.sportwebstore.exception.PaymentException;
 import org.shop.sportwebstore.exception.ProductException;
@@ -13,11 +16,16 @@ import org.shop.sportwebstore.model.ProductInOrder;
 import org.shop.sportwebstore.model.ShippingAddress;
 import org.shop.sportwebstore.model.dto.OrderBaseDto;
 import org.shop.sportwebstore.model.dto.OrderDto;
+import org.shop.sportwebstore.model.dto.OrderMapper;
+import org.shop.sportwebstore.model.dto.OrderMapperImpl;
 import org.shop.sportwebstore.model.entity.*;
 import org.shop.sportwebstore.repository.*;
-import org.springframework.security.core.Authentication;
-import org.springframework.security.core.context.SecurityContext;
-import org.springframework.security.core.context.SecurityContextHolder;
+import org.shop.sportwebstore.service.user.EmailService;
+import org.shop.sportwebstore.service.user.SecurityContextWrapper;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
 
 import java.math.BigDecimal;
 import java.util.*;
@@ -40,10 +48,22 @@ class OrderServiceTest {
     private ProductRepository productRepository;
 
     @Mock
-    private SecurityContext securityContext;
+    private SecurityContextWrapper securityContextWrapper;
+
+    @Spy
+    private OrderMapper orderMapper = new OrderMapperImpl();
+
+    @Mock
+    private StockReservationService stockReservationService;
+
+    @Mock
+    private EmailService emailService;
 
     @Mock
-    private Authentication authentication;
+    private ApplicationEventPublisher eventPublisher;
+
+    @Mock
+    private MongoTemplate mongoTemplate;
 
     @InjectMocks
     private OrderService orderService;
@@ -54,15 +74,7 @@ class OrderServiceTest {
 
     @BeforeEach
     void setUp() {
-        SecurityContextHolder.setContext(securityContext);
-        when(securityContext.getAuthentication()).thenReturn(authentication);
-        String userEmail = "user@example.com";
-        when(authentication.getName()).thenReturn(userEmail);
-
-        User user = new User();
-        user.setId(userId);
-        user.setEmail(userEmail);
-        when(userRepository.findByEmail(userEmail)).thenReturn(Optional.of(user));
+        lenient().when(securityContextWrapper.getCurrentUserId()).thenReturn(Optional.of(userId));
     }
 
     @Test
@@ -92,6 +104,102 @@ class OrderServiceTest {
         assertThrows(PaymentException.class, () -> orderService.refundOrder(orderId));
     }
 
+    @Test
+    void updateOrderStatusBySessionId_ShouldFinishEffectsLeftByFailedAttempt() {
+        Order order = new Order();
+        order.setId(orderId);
+        order.setStatus(OrderStatus.PROCESSING);
+        order.setSoldCounted(true);
+        order.setProducts(new ArrayList<>(List.of(new ProductInOrder(productId, 2, BigDecimal.TEN))));
+
+        when(orderRepository.findBySessionId("session1")).thenReturn(Optional.of(order));
+
+        orderService.updateOrderStatusBySessionId("session1", OrderStatus.PROCESSING);
+
+        verify(productRepository, never()).incrementSoldById(anyString(), anyInt());
+        verify(emailService).sendEmailWithOrderDetails(order);
+        assertTrue(order.isConfirmationQueued());
+        verify(mongoTemplate).updateFirst(any(Query.class), eq(new Update().set("confirmationQueued", true)), eq(Order.class));
+    }
+
+    @Test
+    void updateOrderStatusBySessionId_ShouldNotPayOrderClaimedForDiscarding() {
+        Order order = new Order();
+        order.setId(orderId);
+        order.setProducts(new ArrayList<>(List.of(new ProductInOrder(productId, 2, BigDecimal.TEN))));
+        when(orderRepository.findBySessionId("session1")).thenReturn(Optional.of(order));
+        // the discard claimed the order after the webhook read it, the guarded status write misses
+        when(mongoTemplate.updateFirst(any(Query.class), any(Update.class), eq(Order.class)))
+                .thenReturn(UpdateResult.acknowledged(0, 0L, null));
+
+        assertThrows(PaymentException.class,
+                () -> orderService.updateOrderStatusBySessionId("session1", OrderStatus.PROCESSING));
+
+        ArgumentCaptor<Query> guard = ArgumentCaptor.forClass(Query.class);
+        verify(mongoTemplate).updateFirst(guard.capture(), any(Update.class), eq(Order.class));
+        assertEquals(OrderStatus.CREATED, guard.getValue().getQueryObject().get("status"));
+        assertNotNull(guard.getValue().getQueryObject().get("restockClaim"));
+        verifyNoInteractions(productRepository, emailService);
+        verify(orderRepository, never()).save(any(Order.class));
+    }
+
+    @Test
+    void handleNotPaidOrders_ShouldNotDeleteOrderPaidAfterClaimReadIt() {
+        Order order = deliveredOrder(userId, "p1");
+        order.setStatus(OrderStatus.CREATED);
+        when(mongoTemplate.find(any(Query.class), eq(Order.class))).thenReturn(List.of(order));
+
+        orderService.handleNotPaidOrders(List.of(order));
+
+        ArgumentCaptor<Query> removed = ArgumentCaptor.forClass(Query.class);
+        verify(mongoTemplate).remove(removed.capture(), eq(Order.class));
+        assertEquals(OrderStatus.CREATED, removed.getValue().getQueryObject().get("status"));
+    }
+
+    @Test
+    void cancelOrder_ShouldNotRestockWhenOrderChangedMeanwhile() {
+        Order order = new Order();
+        order.setId(orderId);
+        order.setProducts(new ArrayList<>(List.of(new ProductInOrder(productId, 2, BigDecimal.TEN))));
+        when(orderRepository.findById(orderId)).thenReturn(Optional.of(order));
+        when(mongoTemplate.updateFirst(any(Query.class), any(Update.class), eq(Order.class)))
+                .thenReturn(UpdateResult.acknowledged(0, 0L, null));
+
+        assertThrows(PaymentException.class, () -> orderService.cancelOrder(orderId, true));
+
+        verifyNoInteractions(stockReservationService);
+    }
+
+    @Test
+    void cancelOrder_ShouldRestockOnceStatusChanged() {
+        Order order = new Order();
+        order.setId(orderId);
+        order.setProducts(new ArrayList<>(List.of(new ProductInOrder(productId, 2, BigDecimal.TEN))));
+        when(orderRepository.findById(orderId)).thenReturn(Optional.of(order));
+        when(mongoTemplate.updateFirst(any(Query.class), any(Update.class), eq(Order.class)))
+                .thenReturn(UpdateResult.acknowledged(1, 1L, null));
+
+        orderService.cancelOrder(orderId, true);
+
+        assertEquals(OrderStatus.ANNULLED, order.getStatus());
+        verify(stockReservationService).restock(Map.of(productId, 2));
+    }
+
+    @Test
+    void updateOrderStatusBySessionId_ShouldSkipCompletedOrder() {
+        Order order = new Order();
+        order.setStatus(OrderStatus.PROCESSING);
+        order.setSoldCounted(true);
+        order.setConfirmationQueued(true);
+
+        when(orderRepository.findBySessionId("session1")).thenReturn(Optional.of(order));
+
+        orderService.updateOrderStatusBySessionId("session1", OrderStatus.PROCESSING);
+
+        verifyNoInteractions(productRepository, emailService);
+        verify(orderRepository, never()).save(any(Order.class));
+    }
+
     @Test
     void setOrderProductAsRated_ShouldMarkProductAsRated() {
         Order order = new Order();
@@ -121,6 +229,10 @@ class OrderServiceTest {
 
     @Test
     void getOrderById_ShouldReturnOrderDetails() {
+        User user = new User();
+        user.setId(userId);
+        user.setEmail("user@example.com");
+        when(securityContextWrapper.getCurrentUser()).thenReturn(Optional.of(user));
         Customer customer = new Customer();
         customer.setUserId(userId);
         when(customerRepository.findByUserId(userId)).thenReturn(Optional.of(customer));
@@ -162,4 +274,70 @@ class OrderServiceTest {
         assertEquals(1, result.size());
         assertEquals(orderId, result.get(0).getId());
     }
-}
\ No newline at end of file
+
+    @Test
+    void sendOrderDeliveredEmails_ShouldLoadRecipientsAndProductsOnce() {
+        User first = new User();
+        first.setId("u1");
+        User second = new User();
+        second.setId("u2");
+        Customer firstCustomer = new Customer();
+        firstCustomer.setUserId("u1");
+        Customer secondCustomer = new Customer();
+        secondCustomer.setUserId("u2");
+        Order a = deliveredOrder("u1", "p1", "p2");
+        Order b = deliveredOrder("u2", "p2", "p3");
+        Order orphan = deliveredOrder("u3", "p1");
+        Map<String, String> names = Map.of("p1", "Ball", "p2", "Net", "p3", "Racket");
+        when(userRepository.findAllById(Set.of("u1", "u2", "u3"))).thenReturn(List.of(first, second));
+        when(customerRepository.findAllByUserIdIn(Set.of("u1", "u2", "u3"))).thenReturn(List.of(firstCustomer, secondCustomer));
+        when(emailService.findProductNames(Set.of("p1", "p2", "p3"))).thenReturn(names);
+
+        orderService.sendOrderDeliveredEmails(List.of(a, b, orphan));
+
+        verify(emailService).sendEmailToDelivered(a, first, firstCustomer, names);
+        verify(emailService).sendEmailToDelivered(b, second, secondCustomer, names);
+        verify(emailService, times(1)).findProductNames(any());
+        verify(emailService, times(2)).sendEmailToDelivered(any(), any(), any(), any());
+        verifyNoInteractions(productRepository);
+    }
+
+    @Test
+    void handleNotPaidOrders_ShouldRestockClaimedOrdersBeforeDeletingThem() {
+        Order order = deliveredOrder(userId, "p1", "p2");
+        order.setStatus(OrderStatus.CREATED);
+        when(mongoTemplate.find(any(Query.class), eq(Order.class))).thenReturn(List.of(order));
+
+        orderService.handleNotPaidOrders(List.of(order));
+
+        var inOrder = inOrder(mongoTemplate, stockReservationService);
+        inOrder.verify(mongoTemplate).updateMulti(any(Query.class), any(Update.class), eq(Order.class));
+        inOrder.verify(stockReservationService).restock(Map.of("p1", 1, "p2", 1));
+        inOrder.verify(mongoTemplate).remove(any(Query.class), eq(Order.class));
+    }
+
+    @Test
+    void handleNotPaidOrders_ShouldKeepOrdersAndCountAttemptWhenRestockFails() {
+        Order order = deliveredOrder(userId, "p1");
+        order.setStatus(OrderStatus.CREATED);
+        when(mongoTemplate.find(any(Query.class), eq(Order.class))).thenReturn(List.of(order));
+        doThrow(new IllegalStateException("down")).when(stockReservationService).restock(any());
+
+        assertThrows(IllegalStateException.class, () -> orderService.handleNotPaidOrders(List.of(order)));
+
+        verify(mongoTemplate, times(2)).updateMulti(any(Query.class), any(Update.class), eq(Order.class));
+        verify(mongoTemplate).updateMulti(any(Query.class),
+                argThat(update -> update.getUpdateObject().containsKey("$inc")), eq(Order.class));
+        verify(mongoTemplate, never()).remove(any(Query.class), eq(Order.class));
+    }
+
+    private static Order deliveredOrder(String userId, String... productIds) {
+        Order order = new Order();
+        order.setUserId(userId);
+        order.setStatus(OrderStatus.DELIVERED);
+        order.setProducts(Arrays.stream(productIds)
+                .map(id -> new ProductInOrder(id, 1, BigDecimal.TEN))
+                .collect(ArrayList::new, ArrayList::add, ArrayList::addAll));
+        return order;
+    }
+}
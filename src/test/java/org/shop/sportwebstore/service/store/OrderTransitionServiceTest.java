@@ -0,0 +1,200 @@
+package org.shop.sportwebstore.service.store;
+
+import com.mongodb.bulk.BulkWriteResult;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.bson.Document;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.shop.sportwebstore.model.OrderStatus;
+import org.shop.sportwebstore.model.entity.Order;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class OrderTransitionServiceTest {
+
+    @Mock
+    private MongoTemplate mongoTemplate;
+
+    @Mock
+    private OrderService orderService;
+
+    @Mock
+    private BulkOperations bulkOperations;
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private OrderTransitionService orderTransitionService;
+
+    @BeforeEach
+    void setUp() {
+        orderTransitionService = new OrderTransitionService(mongoTemplate, orderService, meterRegistry);
+        lenient().when(mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, Order.class)).thenReturn(bulkOperations);
+    }
+
+    @Test
+    void advance_ShouldWriteOneUpdatePerTransition() {
+        Date now = new Date();
+        Order first = due("1", OrderStatus.PROCESSING, OrderStatus.SHIPPING);
+        Order second = due("2", OrderStatus.PROCESSING, OrderStatus.SHIPPING);
+        Order shipped = due("3", OrderStatus.SHIPPING, OrderStatus.DELIVERED);
+        Order kept = due("4", OrderStatus.DELIVERED, OrderStatus.DELIVERED);
+        executes(4);
+        when(mongoTemplate.find(any(Query.class), eq(Order.class))).thenReturn(
+                List.of(current("1", OrderStatus.SHIPPING, now), current("2", OrderStatus.SHIPPING, now),
+                        current("3", OrderStatus.DELIVERED, now), current("4", OrderStatus.DELIVERED, new Date(0))),
+                List.of(shipped));
+
+        assertEquals(4, orderTransitionService.advance(List.of(first, second, shipped, kept), now));
+
+        ArgumentCaptor<Query> queries = ArgumentCaptor.forClass(Query.class);
+        ArgumentCaptor<Update> updates = ArgumentCaptor.forClass(Update.class);
+        verify(bulkOperations, times(3)).updateMulti(queries.capture(), updates.capture());
+        verify(bulkOperations).execute();
+
+        assertEquals(List.of("1", "2"), ids(queries.getAllValues().get(0)));
+        assertEquals(OrderStatus.PROCESSING, queries.getAllValues().get(0).getQueryObject().get("status"));
+        Document toShipping = set(updates.getAllValues().get(0));
+        assertEquals(OrderStatus.SHIPPING, toShipping.get("status"));
+        assertEquals(new Date(now.getTime() + Order.STATUS_CHANGE.toMillis()), toShipping.get("nextTransitionAt"));
+
+        Document toDelivered = set(updates.getAllValues().get(1));
+        assertEquals(OrderStatus.DELIVERED, toDelivered.get("status"));
+        assertEquals(now, toDelivered.get("deliveryDate"));
+
+        Update finished = updates.getAllValues().get(2);
+        assertNull(finished.getUpdateObject().get("$set"));
+        assertTrue(finished.getUpdateObject().get("$unset", Document.class).containsKey("nextTransitionAt"));
+
+        verify(orderService).sendOrderDeliveredEmails(List.of(shipped));
+        assertEquals(2, transitions(OrderStatus.PROCESSING, OrderStatus.SHIPPING));
+        assertEquals(1, transitions(OrderStatus.DELIVERED, OrderStatus.DELIVERED));
+    }
+
+    @Test
+    void advance_ShouldOnlyCountAndEmailOrdersTheWriteChanged() {
+        Date now = new Date();
+        Order moved = due("1", OrderStatus.PROCESSING, OrderStatus.SHIPPING);
+        Order cancelled = due("2", OrderStatus.SHIPPING, OrderStatus.DELIVERED);
+        executes(1);
+        when(mongoTemplate.find(any(Query.class), eq(Order.class))).thenReturn(
+                List.of(current("1", OrderStatus.SHIPPING, now), current("2", OrderStatus.ANNULLED, new Date(0))),
+                List.of());
+
+        assertEquals(1, orderTransitionService.advance(List.of(moved, cancelled), now));
+
+        ArgumentCaptor<Query> claim = ArgumentCaptor.forClass(Query.class);
+        ArgumentCaptor<Update> claimed = ArgumentCaptor.forClass(Update.class);
+        verify(mongoTemplate).updateMulti(claim.capture(), claimed.capture(), eq(Order.class));
+        assertEquals(List.of("2"), ids(claim.getValue()));
+        assertEquals(OrderStatus.DELIVERED, claim.getValue().getQueryObject().get("status"));
+        assertEquals(true, set(claimed.getValue()).get("emailSent"));
+        verify(orderService).sendOrderDeliveredEmails(List.of());
+        assertEquals(1, transitions(OrderStatus.PROCESSING, OrderStatus.SHIPPING));
+        assertEquals(0, transitions(OrderStatus.SHIPPING, OrderStatus.DELIVERED));
+    }
+
+    @Test
+    void advance_ShouldSkipReadBackWhenNothingChanged() {
+        executes(0);
+
+        assertEquals(0, orderTransitionService.advance(List.of(due("1", OrderStatus.PROCESSING, OrderStatus.SHIPPING)),
+                new Date()));
+
+        verify(mongoTemplate, never()).find(any(Query.class), eq(Order.class));
+        verifyNoInteractions(orderService);
+    }
+
+    @Test
+    void advance_ShouldMakeAnnulledAndRefundedOrdersFinal() {
+        Date now = new Date();
+        executes(2);
+
+        orderTransitionService.advance(List.of(
+                due("1", OrderStatus.SHIPPING, OrderStatus.ANNULLED),
+                due("2", OrderStatus.DELIVERED, OrderStatus.REFUNDED)), now);
+
+        ArgumentCaptor<Update> updates = ArgumentCaptor.forClass(Update.class);
+        verify(bulkOperations, times(2)).updateMulti(any(Query.class), updates.capture());
+        for (Update update : updates.getAllValues()) {
+            assertTrue(update.getUpdateObject().get("$unset", Document.class).containsKey("nextTransitionAt"));
+            assertFalse(set(update).containsKey("nextTransitionAt"));
+        }
+        verify(orderService).sendOrderDeliveredEmails(List.of());
+    }
+
+    @Test
+    void setNewStatus_ShouldOnlyScheduleOrdersThatStillMove() {
+        Order order = new Order();
+
+        order.setNewStatus(OrderStatus.PROCESSING);
+        assertEquals(order.getLastModified().getTime() + Order.STATUS_CHANGE.toMillis(),
+                order.getNextTransitionAt().getTime());
+
+        order.setNewStatus(OrderStatus.DELIVERED);
+        assertNotNull(order.getNextTransitionAt());
+        assertEquals(order.getLastModified(), order.getDeliveryDate());
+
+        order.setNewStatus(OrderStatus.REFUNDED);
+        assertNull(order.getNextTransitionAt());
+        order.setNewStatus(OrderStatus.ANNULLED);
+        assertNull(order.getNextTransitionAt());
+    }
+
+    private void executes(int modified) {
+        when(bulkOperations.execute()).thenReturn(result(modified));
+    }
+
+    private static BulkWriteResult result(int modified) {
+        return BulkWriteResult.acknowledged(0, modified, 0, modified, new ArrayList<>(), new ArrayList<>());
+    }
+
+    private double transitions(OrderStatus from, OrderStatus to) {
+        Counter counter = meterRegistry.find("store.orders.transitions")
+                .tag("from", from.name()).tag("to", to.name()).counter();
+        return counter == null ? 0 : counter.count();
+    }
+
+    private static Order current(String id, OrderStatus status, Date lastModified) {
+        Order order = new Order();
+        order.setId(id);
+        order.setStatus(status);
+        order.setLastModified(lastModified);
+        return order;
+    }
+
+    private static Order due(String id, OrderStatus status, OrderStatus next) {
+        Order order = new Order();
+        order.setId(id);
+        order.setStatus(status);
+        order.setNextTransitionAt(new Date(0));
+        Order spied = spy(order);
+        lenient().doReturn(next).when(spied).nextStatus();
+        return spied;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<String> ids(Query query) {
+        return new ArrayList<>((Collection<String>) query.getQueryObject().get("_id", Document.class).get("$in"));
+    }
+
+    private static Document set(Update update) {
+        return update.getUpdateObject().get("$set", Document.class);
+    }
+}
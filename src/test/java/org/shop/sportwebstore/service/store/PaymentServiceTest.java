@@ -1,30 +1,33 @@
 package org.shop.sportwebstore.service.store;
 
+import com.stripe.param.checkout.SessionCreateParams;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InOrder;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
+import org.mockito.Spy;
 import org.mockito.junit.jupiter.MockitoExtension;
+import org.shop.sportwebstore.config.PaymentProperties;
+import org.shop.sportwebstore.exception.PaymentException;
+import org.shop.sportwebstore.model.DeliveryTime;
 import org.shop.sportwebstore.model.ShippingAddress;
 import org.shop.sportwebstore.model.dto.OrderDto;
 import org.shop.sportwebstore.model.entity.Cart;
 import org.shop.sportwebstore.model.entity.Customer;
-import org.shop.sportwebstore.model.entity.Product;
-import org.shop.sportwebstore.model.entity.User;
 import org.shop.sportwebstore.repository.CustomerRepository;
-import org.shop.sportwebstore.repository.ProductRepository;
 import org.shop.sportwebstore.repository.UserRepository;
-import org.springframework.security.core.Authentication;
-import org.springframework.security.core.context.SecurityContext;
-import org.springframework.security.core.context.SecurityContextHolder;
+import org.shop.sportwebstore.service.payment.PaymentGateway;
+import org.shop.sportwebstore.service.user.SecurityContextWrapper;
+import org.shop.sportwebstore.service.user.UserService;
 
 import java.math.BigDecimal;
-import java.util.List;
 import java.util.Optional;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.*;
 
 @ExtendWith(MockitoExtension.class)
@@ -37,38 +40,39 @@ class PaymentServiceTest {
     private CartService cartService;
 
     @Mock
-    private ProductRepository productRepository;
+    private CustomerRepository customerRepository;
 
     @Mock
-    private CustomerRepository customerRepository;
+    private SecurityContextWrapper securityContextWrapper;
+
+    @Mock
+    private UserService userService;
+
+    @Mock
+    private OrderService orderService;
 
     @Mock
-    private SecurityContext securityContext;
+    private StockReservationService stockReservationService;
 
     @Mock
-    private Authentication authentication;
+    private PaymentGateway paymentGateway;
+
+    @Spy
+    private PaymentProperties paymentProperties = new PaymentProperties();
 
     @InjectMocks
     private PaymentService paymentService;
 
     private final String userId = "user123";
     private final String productId = "prod123";
-    private final String userEmail = "user@example.com";
 
     @BeforeEach
     void setUp() {
-        SecurityContextHolder.setContext(securityContext);
-        when(securityContext.getAuthentication()).thenReturn(authentication);
-        when(authentication.getName()).thenReturn(userEmail);
-
+        lenient().when(securityContextWrapper.getCurrentUserId()).thenReturn(Optional.of(userId));
     }
 
     @Test
     void getSummary_ShouldReturnOrderSummary() {
-        User user = new User();
-        user.setId(userId);
-        user.setEmail(userEmail);
-
         Customer customer = new Customer();
         customer.setUserId(userId);
         customer.setFirstName("John");
@@ -78,7 +82,6 @@ class PaymentServiceTest {
         Cart cart = new Cart(userId);
         cart.addProduct(productId, 2);
 
-        when(userRepository.findByEmail(userEmail)).thenReturn(Optional.of(user));
         when(customerRepository.findByUserId(userId)).thenReturn(Optional.of(customer));
         when(cartService.getCart(userId)).thenReturn(cart);
         when(cartService.calculateTotalPrice(cart)).thenReturn(BigDecimal.valueOf(20.0));
@@ -89,26 +92,47 @@ class PaymentServiceTest {
         assertEquals("John", result.getFirstName());
         assertEquals(BigDecimal.valueOf(20.0), result.getTotalPrice());
         verify(cartService).checkCartProducts(cart);
+        verify(cartService).blockAmountItem(cart);
     }
 
     @Test
-    void cancelPayment_ShouldCancelPaymentSuccessfully() {
-        User user = new User();
-        user.setId(userId);
-
+    void createPayment_ShouldGiveReservationBackWhenSessionFails() {
+        OrderDto orderDto = OrderDto.builder()
+                .deliveryTime(DeliveryTime.STANDARD)
+                .paymentMethod(SessionCreateParams.PaymentMethodType.CARD)
+                .build();
+        Customer customer = new Customer();
+        customer.setUserId(userId);
         Cart cart = new Cart(userId);
         cart.addProduct(productId, 1);
+        cart.setReservationId("reservation1");
+
+        when(userService.findOrCreateCustomer(orderDto)).thenReturn(customer);
+        when(cartService.getCart(userId)).thenReturn(cart);
+        when(cartService.calculateTotalPrice(cart)).thenReturn(BigDecimal.TEN);
+        when(stockReservationService.commit("reservation1")).thenReturn(true);
+        when(orderService.createOrder(eq(cart), eq(customer), any(BigDecimal.class), any())).thenReturn("order1");
+        when(paymentGateway.createCheckoutSession(argThat(request -> "eur".equals(request.currency())))).thenThrow(new PaymentException("Stripe is down."));
+
+        assertThrows(PaymentException.class, () -> paymentService.createPayment(orderDto));
+
+        InOrder inOrder = inOrder(orderService, stockReservationService, cartService);
+        inOrder.verify(orderService).discardOrder("order1");
+        inOrder.verify(stockReservationService).revertCommit("reservation1");
+        inOrder.verify(cartService).cancelPayment(cart);
+        verify(cartService, never()).deleteCart(userId);
+    }
 
-        Product product = new Product();
-        product.setId(productId);
-        product.setAmountLeft(10);
+    @Test
+    void cancelPayment_ShouldCancelPaymentSuccessfully() {
+        Cart cart = new Cart(userId);
+        cart.addProduct(productId, 1);
+        cart.setReservationId("reservation1");
 
-        when(userRepository.findByEmail(userEmail)).thenReturn(Optional.of(user));
         when(cartService.getCart(userId)).thenReturn(cart);
-        when(productRepository.findAllById(any())).thenReturn(List.of(product));
 
         paymentService.cancelPayment();
 
-        verify(cartService).cancelPayment(cart, List.of(product));
+        verify(cartService).cancelPayment(cart);
     }
-}
\ No newline at end of file
+}
@@ -1,7 +1,10 @@
 package org.shop.sportwebstore.service.store;
 
+import org.bson.Document;
+import org.bson.types.Decimal128;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
@@ -11,7 +14,19 @@ import org.shop.sportwebstore.model.entity.Category;
 import org.shop.sportwebstore.model.entity.Product;
 import org.shop.sportwebstore.repository.CategoryRepository;
 import org.shop.sportwebstore.repository.ProductRepository;
+import org.shop.sportwebstore.service.catalog.CatalogFacets;
+import org.shop.sportwebstore.service.catalog.CatalogFilter;
+import org.shop.sportwebstore.service.catalog.CatalogPage;
+import org.shop.sportwebstore.service.catalog.ProductCatalog;
+import org.shop.sportwebstore.service.catalog.RelatedProducts;
+import org.shop.sportwebstore.service.search.ProductSearchIndex;
 import org.springframework.data.domain.*;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
+import org.springframework.data.mongodb.core.aggregation.AggregationResults;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
 import org.springframework.web.multipart.MultipartFile;
 
 import java.math.BigDecimal;
@@ -32,6 +47,18 @@ class ProductServiceTest {
     @Mock
     private OrderService orderService;
 
+    @Mock
+    private ProductSearchIndex productSearchIndex;
+
+    @Mock
+    private MongoTemplate mongoTemplate;
+
+    @Mock
+    private ProductCatalog productCatalog;
+
+    @Mock
+    private RelatedProducts relatedProducts;
+
     @Mock
     private MultipartFile imageFile;
 
@@ -76,13 +103,19 @@ class ProductServiceTest {
         existingProduct.setId(productId);
 
         when(productRepository.findById(productId)).thenReturn(Optional.of(existingProduct));
-        when(productRepository.save(any(Product.class))).thenReturn(existingProduct);
+        when(mongoTemplate.findAndModify(any(Query.class), any(Update.class), any(FindAndModifyOptions.class),
+                eq(Product.class))).thenReturn(existingProduct);
 
         ProductDto result = productService.changeProductData(productId, productDto);
 
         assertNotNull(result);
         assertEquals(productId, result.getId());
-        verify(productRepository).save(existingProduct);
+        ArgumentCaptor<Update> update = ArgumentCaptor.forClass(Update.class);
+        verify(mongoTemplate).findAndModify(any(Query.class), update.capture(), any(FindAndModifyOptions.class),
+                eq(Product.class));
+        Document set = update.getValue().getUpdateObject().get("$set", Document.class);
+        assertEquals(Set.of("price", "name", "amountLeft"), set.keySet());
+        verify(productRepository, never()).save(any(Product.class));
     }
 
     @Test
@@ -108,6 +141,7 @@ class ProductServiceTest {
         when(productRepository.findByNameMatchesRegexIgnoreCase(anyString(), anyBoolean(), anyInt(), anyInt(), any(Pageable.class)))
                 .thenReturn(productPage);
         when(categoryRepository.findAll()).thenReturn(List.of(new Category(categoryName)));
+        stubFacets();
 
         ProductsListInfo result = productService.getProducts(0, 10, "name", "asc", "test", 0, 9999, null, false);
 
@@ -115,6 +149,152 @@ class ProductServiceTest {
         assertEquals(1, (result.getProducts().size()));
     }
 
+    @Test
+    void getProducts_ShouldUseSearchIndexWhenReady() {
+        Pageable pageable = PageRequest.of(0, 10, Sort.Direction.ASC, "name");
+
+        Product product = new Product();
+        product.setId(productId);
+        product.setCategories(List.of(new Category(categoryName)));
+        product.setRatings(new HashMap<>(Map.of(1, 4.0)));
+
+        LinkedHashMap<String, Double> ranking = new LinkedHashMap<>(Map.of(productId, 1.5));
+        when(productSearchIndex.isReady()).thenReturn(true);
+        when(productSearchIndex.search("ball")).thenReturn(ranking);
+        when(productRepository.findByIdIn(eq(ranking.keySet()), anyBoolean(), anyInt(), anyInt(), any(Pageable.class)))
+                .thenReturn(new PageImpl<>(List.of(product), pageable, 1));
+        stubFacets();
+
+        ProductsListInfo result = productService.getProducts(0, 10, "name", "asc", "ball", 0, 9999, null, false);
+
+        assertEquals(1, result.getProducts().size());
+        verify(productRepository, never()).findByNameMatchesRegexIgnoreCase(anyString(), anyBoolean(), anyInt(), anyInt(), any(Pageable.class));
+    }
+
+    @Test
+    void getProducts_ShouldOrderByRelevance() {
+        Product first = new Product();
+        first.setId("first");
+        first.setCategories(List.of());
+        first.setRatings(new HashMap<>(Map.of(1, 4.0)));
+        Product second = new Product();
+        second.setId("second");
+        second.setCategories(List.of());
+        second.setRatings(new HashMap<>(Map.of(1, 4.0)));
+
+        LinkedHashMap<String, Double> ranking = new LinkedHashMap<>();
+        ranking.put("second", 3.0);
+        ranking.put("first", 1.0);
+        when(productSearchIndex.isReady()).thenReturn(true);
+        when(productSearchIndex.search("ball")).thenReturn(ranking);
+        when(productRepository.findIdsByIdIn(eq(ranking.keySet()), anyBoolean(), anyInt(), anyInt()))
+                .thenReturn(List.of(first, second));
+        when(productRepository.findAllById(List.of("second", "first"))).thenReturn(List.of(first, second));
+        stubFacets();
+
+        ProductsListInfo result = productService.getProducts(1, 10, "relevance", "desc", "ball", 0, 9999, null, false);
+
+        assertEquals(2, result.getTotalElements());
+        assertEquals(List.of(), result.getProducts());
+
+        result = productService.getProducts(0, 10, "relevance", "desc", "ball", 0, 9999, null, false);
+        assertEquals("second", result.getProducts().get(0).getId());
+        assertEquals("first", result.getProducts().get(1).getId());
+    }
+
+    @Test
+    void getProductsAfter_ShouldReturnNextCursorAndKeepTotal() {
+        Product first = new Product();
+        first.setId("first");
+        first.setPrice(new BigDecimal("10.00"));
+        first.setCategories(List.of());
+        first.setRatings(new HashMap<>(Map.of(1, 4.0)));
+        Product second = new Product();
+        second.setId("second");
+        second.setPrice(new BigDecimal("20.00"));
+        second.setCategories(List.of());
+        second.setRatings(new HashMap<>(Map.of(1, 4.0)));
+
+        when(mongoTemplate.count(any(Query.class), eq(Product.class))).thenReturn(42L);
+        when(mongoTemplate.find(any(Query.class), eq(Product.class))).thenReturn(List.of(first, second));
+        stubFacets();
+
+        ProductsListInfo result = productService.getProductsAfter("", 1, "price", "asc", "", 0, 9999, null, false);
+
+        assertEquals(1, result.getProducts().size());
+        assertEquals(42, result.getTotalElements());
+        ProductCursor cursor = ProductCursor.decode(result.getNextCursor());
+        assertEquals("10.00", cursor.getValue());
+        assertEquals("first", cursor.getId());
+
+        when(mongoTemplate.find(any(Query.class), eq(Product.class))).thenReturn(List.of(second));
+        ProductsListInfo next = productService.getProductsAfter(result.getNextCursor(), 1, "price", "asc", "", 0, 9999, null, false);
+
+        assertEquals(42, next.getTotalElements());
+        assertNull(next.getNextCursor());
+        verify(mongoTemplate, times(1)).count(any(Query.class), eq(Product.class));
+    }
+
+    @Test
+    void getProductsAfter_ShouldRejectCursorForDifferentSort() {
+        String cursor = new ProductCursor("price", "ASC", "10.00", "first", 1, false).encode();
+
+        assertThrows(IllegalArgumentException.class,
+                () -> productService.getProductsAfter(cursor, 1, "name", "asc", "", 0, 9999, null, false));
+        assertThrows(IllegalArgumentException.class,
+                () -> productService.getProductsAfter("not-a-cursor", 1, "price", "asc", "", 0, 9999, null, false));
+    }
+
+    @Test
+    void getProducts_ShouldReturnFacetsOnFirstPage() {
+        Pageable pageable = PageRequest.of(0, 10);
+        when(productRepository.findByPriceRange(anyBoolean(), anyInt(), anyInt(), any(Pageable.class)))
+                .thenReturn(new PageImpl<>(List.of(), pageable, 0));
+        stubFacets();
+
+        ProductsListInfo result = productService.getProducts(0, 10, "id", "asc", "", 0, 9999, List.of(), false);
+
+        assertEquals(Map.of(categoryName, 3L), result.getCategoryCounts());
+        assertEquals(1, result.getPriceHistogram().size());
+        assertEquals(new BigDecimal("10.00"), result.getPriceHistogram().get(0).getMin());
+        assertEquals(3, result.getPriceHistogram().get(0).getCount());
+
+        productService.getProducts(1, 10, "id", "asc", "", 0, 9999, List.of(), false);
+        verify(mongoTemplate, times(1)).aggregate(any(Aggregation.class), eq(Product.class), eq(Document.class));
+    }
+
+    @Test
+    void getProducts_ShouldServeFromCatalogWhenReady() {
+        Product first = new Product();
+        first.setId("first");
+        first.setCategories(List.of());
+        first.setRatings(new HashMap<>(Map.of(1, 4.0)));
+        Product hidden = new Product();
+        hidden.setId("hidden");
+        hidden.setAvailable(false);
+        Product second = new Product();
+        second.setId("second");
+        second.setCategories(List.of());
+        second.setRatings(new HashMap<>(Map.of(1, 4.0)));
+
+        when(productCatalog.isReady()).thenReturn(true);
+        when(productCatalog.page(any(CatalogFilter.class), eq("price"), eq(true), eq(0), eq(10)))
+                .thenReturn(new CatalogPage(List.of("second", "hidden", "first"), 3));
+        when(productCatalog.facets(any(CatalogFilter.class), anyInt()))
+                .thenReturn(new CatalogFacets(Map.of(categoryName, 2L),
+                        List.of(new PriceBucket(BigDecimal.ONE, BigDecimal.TEN, 2))));
+        when(productRepository.findAllById(List.of("second", "hidden", "first"))).thenReturn(List.of(first, hidden, second));
+        when(categoryRepository.findAll()).thenReturn(List.of(new Category(categoryName)));
+
+        ProductsListInfo result = productService.getProducts(0, 10, "price", "asc", null, 1, 100, null, false);
+
+        assertEquals(List.of("second", "first"), result.getProducts().stream().map(ProductDto::getId).toList());
+        assertEquals(3, result.getTotalElements());
+        assertEquals(Map.of(categoryName, 2L), result.getCategoryCounts());
+        verify(productCatalog).update(hidden);
+        verifyNoInteractions(mongoTemplate);
+    }
+
     @Test
     void getFeaturedProducts_ShouldReturnTopProducts() {
         product.setId(productId);
@@ -131,19 +311,38 @@ class ProductServiceTest {
 
     @Test
     void getDetails_ShouldReturnProductWithRelated() {
-        product.setId(productId);
-        product.setCategories(List.of(new Category(categoryName)));
-
         when(productRepository.findByIdAndAvailableTrue(productId)).thenReturn(Optional.of(product));
-        when(productRepository.findTop4ByCategoriesInAndIdNotAndAvailableTrue(any(), anyString()))
+        when(product.getCategories()).thenReturn(List.of(new Category(categoryName)));
+        when(relatedProducts.get(productId)).thenReturn(null);
+        when(productRepository.findTop4ByCategoriesNameInAndIdNotAndAvailableTrue(List.of(categoryName), productId))
                 .thenReturn(List.of(new Product()));
         when(product.getRatings()).thenReturn(new HashMap<>(Map.of(1, 4.0)));
 
-        Map<String, Object> result = productService.getDetails(productId);
+        ProductDetailsDto result = productService.getDetails(productId);
 
-        assertNotNull(result);
-        assertTrue(result.containsKey("product"));
-        assertTrue(result.containsKey("relatedProducts"));
+        assertNotNull(result.getProduct());
+        assertEquals(1, result.getRelatedProducts().size());
+    }
+
+    @Test
+    void getDetails_ShouldUsePrecomputedRelatedProducts() {
+        Product detail = new Product();
+        detail.setId(productId);
+        detail.setCategories(List.of(new Category(categoryName)));
+        detail.setRatings(new HashMap<>(Map.of(1, 4.0)));
+        Product first = new Product();
+        first.setId("first");
+        Product second = new Product();
+        second.setId("second");
+
+        when(productRepository.findByIdAndAvailableTrue(productId)).thenReturn(Optional.of(detail));
+        when(relatedProducts.get(productId)).thenReturn(List.of("second", "first"));
+        when(productRepository.findAllById(List.of("second", "first"))).thenReturn(List.of(first, second));
+
+        ProductDetailsDto result = productService.getDetails(productId);
+
+        assertEquals(List.of("second", "first"), result.getRelatedProducts().stream().map(ProductDto::getId).toList());
+        verify(productRepository, never()).findTop4ByCategoriesNameInAndIdNotAndAvailableTrue(any(), anyString());
     }
 
     @Test
@@ -155,11 +354,14 @@ class ProductServiceTest {
         RateProductDto rateDto = new RateProductDto(productId, 5, "order123");
 
         when(productRepository.findById(productId)).thenReturn(Optional.of(product));
-        when(productRepository.save(any(Product.class))).thenReturn(product);
+        when(mongoTemplate.findAndModify(any(Query.class), any(Update.class), any(FindAndModifyOptions.class),
+                eq(Product.class))).thenReturn(product);
 
         productService.rateProduct(rateDto);
 
-        verify(productRepository).save(product);
+        verify(mongoTemplate).findAndModify(any(Query.class),
+                eq(new Update().set("ratings", Map.of(2, 4.5))), any(FindAndModifyOptions.class), eq(Product.class));
+        verify(productRepository, never()).save(any(Product.class));
         verify(orderService).setOrderProductAsRated("order123", productId);
     }
 
@@ -194,16 +396,22 @@ class ProductServiceTest {
     void changeProductAvailability_ShouldUpdateAvailability() {
         Product product = new Product();
         product.setId(productId);
-        product.setAvailable(false);
+        product.setAvailable(true);
         ProductAvailability availability = new ProductAvailability(true);
 
-        when(productRepository.findById(productId)).thenReturn(Optional.of(product));
-        when(productRepository.save(product)).thenReturn(product);
+        when(mongoTemplate.findAndModify(any(Query.class), eq(new Update().set("available", true)),
+                any(FindAndModifyOptions.class), eq(Product.class))).thenReturn(product);
 
         ProductDto result = productService.changeProductAvailability(productId, availability);
 
         assertNotNull(result);
-        assertTrue(product.isAvailable());
+        verify(productRepository, never()).save(any(Product.class));
+    }
+
+    @Test
+    void changeProductAvailability_ShouldThrowForMissingProduct() {
+        assertThrows(ProductException.class,
+                () -> productService.changeProductAvailability(productId, new ProductAvailability(false)));
     }
 
     @Test
@@ -213,6 +421,15 @@ class ProductServiceTest {
         assertThrows(RuntimeException.class, () -> productService.saveImage(imageFile));
     }
 
+    private void stubFacets() {
+        Document facets = new Document("categories", List.of(new Document("_id", categoryName).append("count", 3)))
+                .append("prices", List.of(new Document("_id",
+                        new Document("min", new Decimal128(new BigDecimal("10.00"))).append("max", new Decimal128(new BigDecimal("99.99"))))
+                        .append("count", 3)));
+        when(mongoTemplate.aggregate(any(Aggregation.class), eq(Product.class), eq(Document.class)))
+                .thenReturn(new AggregationResults<>(List.of(facets), new Document()));
+    }
+
     private ProductDto createTestProductDto() {
         ProductDto dto = new ProductDto();
         dto.setId(productId);
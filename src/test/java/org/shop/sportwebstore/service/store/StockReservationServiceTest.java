@@ -0,0 +1,241 @@
+package org.shop.sportwebstore.service.store;
+
+import com.mongodb.bulk.BulkWriteResult;
+import com.mongodb.client.result.UpdateResult;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.shop.sportwebstore.exception.ProductException;
+import org.shop.sportwebstore.model.entity.Product;
+import org.shop.sportwebstore.model.entity.Reservation;
+import org.shop.sportwebstore.repository.ReservationRepository;
+import org.shop.sportwebstore.service.catalog.ProductsChangedEvent;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class StockReservationServiceTest {
+
+    @Mock
+    private MongoTemplate mongoTemplate;
+
+    @Mock
+    private ReservationRepository reservationRepository;
+
+    @Mock
+    private ApplicationEventPublisher eventPublisher;
+
+    @Mock
+    private HotStockService hotStockService;
+
+    @Mock
+    private BulkOperations bulkOperations;
+
+    @Mock
+    private BulkWriteResult bulkWriteResult;
+
+    @InjectMocks
+    private StockReservationService stockReservationService;
+
+    private final Map<String, Integer> items = new LinkedHashMap<>(Map.of("prod1", 2, "prod2", 1));
+
+    @Test
+    void reserve_ShouldHoldAllLinesInOneBulkWrite() {
+        stubReservationSave();
+        when(mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, Product.class)).thenReturn(bulkOperations);
+        when(bulkOperations.execute()).thenReturn(bulkWriteResult);
+        when(bulkWriteResult.getModifiedCount()).thenReturn(2);
+
+        String reservationId = stockReservationService.reserve(items, "user1");
+
+        assertEquals("reservation1", reservationId);
+        verify(bulkOperations, times(2)).updateOne(any(Query.class), any(Update.class));
+        verify(bulkOperations).execute();
+        verify(eventPublisher).publishEvent(any(ProductsChangedEvent.class));
+        verify(mongoTemplate, never()).updateFirst(any(Query.class), any(Update.class), eq(Reservation.class));
+    }
+
+    @Test
+    void reserve_ShouldGiveBackHeldLinesWhenAnyLineFails() {
+        Reservation reservation = stubReservationSave();
+        when(mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, Product.class)).thenReturn(bulkOperations);
+        when(bulkOperations.execute()).thenReturn(bulkWriteResult);
+        when(bulkWriteResult.getModifiedCount()).thenReturn(1);
+        when(mongoTemplate.updateFirst(any(Query.class), any(Update.class), eq(Reservation.class)))
+                .thenReturn(UpdateResult.acknowledged(1, 1L, null));
+        when(reservationRepository.findById("reservation1")).thenReturn(Optional.of(reservation));
+
+        assertThrows(ProductException.class, () -> stockReservationService.reserve(items, "user1"));
+
+        verify(bulkOperations, times(4)).updateOne(any(Query.class), any(Update.class));
+        verify(bulkOperations, times(2)).execute();
+    }
+
+    @Test
+    void reserve_ShouldTakeHotLinesFromRedisAndRestFromMongo() {
+        when(hotStockService.hotLines(items)).thenReturn(new HashMap<>(Map.of("prod1", 2)));
+        when(hotStockService.reserve(Map.of("prod1", 2))).thenReturn(List.of());
+        stubReservationSave();
+        when(mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, Product.class)).thenReturn(bulkOperations);
+        when(bulkOperations.execute()).thenReturn(bulkWriteResult);
+        when(bulkWriteResult.getModifiedCount()).thenReturn(1);
+
+        stockReservationService.reserve(items, "user1");
+
+        ArgumentCaptor<Reservation> saved = ArgumentCaptor.forClass(Reservation.class);
+        verify(reservationRepository).save(saved.capture());
+        assertEquals(Map.of("prod2", 1), saved.getValue().getItems());
+        assertEquals(Map.of("prod1", 2), saved.getValue().getHotItems());
+        verify(bulkOperations, times(1)).updateOne(any(Query.class), any(Update.class));
+    }
+
+    @Test
+    void reserve_ShouldSkipMongoWhenAllLinesAreHot() {
+        when(hotStockService.hotLines(items)).thenReturn(new HashMap<>(items));
+        when(hotStockService.reserve(items)).thenReturn(List.of());
+        stubReservationSave();
+
+        assertEquals("reservation1", stockReservationService.reserve(items, "user1"));
+        verify(mongoTemplate, never()).bulkOps(any(BulkOperations.BulkMode.class), eq(Product.class));
+    }
+
+    @Test
+    void reserve_ShouldGiveHotLinesBackWhenReservationCannotBeSaved() {
+        when(hotStockService.hotLines(items)).thenReturn(new HashMap<>(Map.of("prod1", 2)));
+        when(hotStockService.reserve(Map.of("prod1", 2))).thenReturn(List.of());
+        when(reservationRepository.save(any(Reservation.class))).thenThrow(new DataAccessResourceFailureException("down"));
+
+        assertThrows(DataAccessResourceFailureException.class, () -> stockReservationService.reserve(items, "user1"));
+
+        verify(hotStockService).release(Map.of("prod1", 2));
+        verify(mongoTemplate, never()).bulkOps(any(BulkOperations.BulkMode.class), eq(Product.class));
+    }
+
+    @Test
+    void release_ShouldGiveHotLinesBackToRedis() {
+        Reservation reservation = new Reservation("user1", Map.of(), Map.of("prod1", 2));
+        reservation.setId("reservation1");
+        when(mongoTemplate.updateFirst(any(Query.class), any(Update.class), eq(Reservation.class)))
+                .thenReturn(UpdateResult.acknowledged(1, 1L, null));
+        when(reservationRepository.findById("reservation1")).thenReturn(Optional.of(reservation));
+        when(hotStockService.release(Map.of("prod1", 2))).thenReturn(List.of());
+
+        stockReservationService.release("reservation1");
+
+        verify(hotStockService).release(Map.of("prod1", 2));
+        verify(mongoTemplate, never()).bulkOps(any(BulkOperations.BulkMode.class), eq(Product.class));
+    }
+
+    @Test
+    void restock_ShouldGiveBackInMongoLinesNoLongerHot() {
+        when(hotStockService.hotLines(items)).thenReturn(new HashMap<>(Map.of("prod1", 2)));
+        when(hotStockService.release(Map.of("prod1", 2))).thenReturn(List.of("prod1"));
+        when(mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, Product.class)).thenReturn(bulkOperations);
+        when(bulkOperations.execute()).thenReturn(bulkWriteResult);
+        when(bulkWriteResult.getMatchedCount()).thenReturn(2);
+
+        stockReservationService.restock(items);
+
+        verify(bulkOperations, times(2)).updateOne(any(Query.class), any(Update.class));
+        verify(eventPublisher).publishEvent(any(ProductsChangedEvent.class));
+    }
+
+    @Test
+    void restock_ShouldSendLinesOfProductsTurnedHotToRedis() {
+        Product turnedHot = new Product();
+        turnedHot.setId("prod2");
+        when(hotStockService.hotLines(items)).thenReturn(new HashMap<>());
+        when(mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, Product.class)).thenReturn(bulkOperations);
+        when(bulkOperations.execute()).thenReturn(bulkWriteResult);
+        when(bulkWriteResult.getMatchedCount()).thenReturn(1);
+        when(mongoTemplate.find(any(Query.class), eq(Product.class))).thenReturn(List.of(turnedHot));
+        when(hotStockService.release(any())).thenReturn(List.of());
+
+        stockReservationService.restock(items);
+
+        verify(hotStockService).release(Map.of("prod2", 1));
+        verify(bulkOperations, times(2)).updateOne(any(Query.class), any(Update.class));
+    }
+
+    @Test
+    void commit_ShouldFailForReleasedReservation() {
+        when(mongoTemplate.updateFirst(any(Query.class), any(Update.class), eq(Reservation.class)))
+                .thenReturn(UpdateResult.acknowledged(0, 0L, null));
+
+        assertFalse(stockReservationService.commit("reservation1"));
+        verify(mongoTemplate, never()).updateMulti(any(Query.class), any(Update.class), eq(Product.class));
+    }
+
+    @Test
+    void revertCommit_ShouldRestockColdAndHotLines() {
+        Reservation reservation = new Reservation("user1", Map.of("prod1", 2), Map.of("prod2", 1));
+        when(mongoTemplate.updateFirst(any(Query.class), any(Update.class), eq(Reservation.class)))
+                .thenReturn(UpdateResult.acknowledged(1, 1L, null));
+        when(reservationRepository.findById("reservation1")).thenReturn(Optional.of(reservation));
+        when(hotStockService.hotLines(items)).thenReturn(new HashMap<>(Map.of("prod2", 1)));
+        when(hotStockService.release(Map.of("prod2", 1))).thenReturn(List.of());
+        when(mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, Product.class)).thenReturn(bulkOperations);
+        when(bulkOperations.execute()).thenReturn(bulkWriteResult);
+        when(bulkWriteResult.getMatchedCount()).thenReturn(1);
+
+        stockReservationService.revertCommit("reservation1");
+
+        verify(hotStockService).release(Map.of("prod2", 1));
+        verify(bulkOperations).updateOne(any(Query.class), eq(new Update().inc("amountLeft", 2)));
+    }
+
+    @Test
+    void release_ShouldDoNothingWhenAlreadyReleased() {
+        when(mongoTemplate.updateFirst(any(Query.class), any(Update.class), eq(Reservation.class)))
+                .thenReturn(UpdateResult.acknowledged(0, 0L, null));
+
+        stockReservationService.release("reservation1");
+
+        verifyNoInteractions(reservationRepository, eventPublisher);
+        verify(mongoTemplate, never()).bulkOps(any(BulkOperations.BulkMode.class), eq(Product.class));
+    }
+
+    @Test
+    void releaseAll_ShouldGiveBackClaimedReservationsInOneBulkWrite() {
+        Reservation first = new Reservation("user1", Map.of("prod1", 2), Map.of());
+        first.setId("reservation1");
+        Reservation second = new Reservation("user2", Map.of("prod1", 1, "prod2", 1), Map.of());
+        second.setId("reservation2");
+        when(mongoTemplate.find(any(Query.class), eq(Reservation.class))).thenReturn(List.of(first, second));
+        when(mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, Product.class)).thenReturn(bulkOperations);
+        when(bulkOperations.execute()).thenReturn(bulkWriteResult);
+        when(bulkWriteResult.getModifiedCount()).thenReturn(3);
+
+        assertEquals(2, stockReservationService.releaseAll(List.of("reservation1", "reservation2", "reservation3")));
+
+        verify(mongoTemplate).updateMulti(any(Query.class), any(Update.class), eq(Reservation.class));
+        verify(bulkOperations, times(3)).updateOne(any(Query.class), any(Update.class));
+        verify(bulkOperations).execute();
+        verify(eventPublisher).publishEvent(any(ProductsChangedEvent.class));
+    }
+
+    private Reservation stubReservationSave() {
+        Reservation reservation = new Reservation("user1", items, Map.of());
+        reservation.setId("reservation1");
+        when(reservationRepository.save(any(Reservation.class))).thenReturn(reservation);
+        return reservation;
+    }
+}
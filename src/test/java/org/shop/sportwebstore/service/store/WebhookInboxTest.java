@@ -0,0 +1,164 @@
+package org.shop.sportwebstore.service.store;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.bson.Document;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.shop.sportwebstore.exception.PaymentException;
+import org.shop.sportwebstore.model.WebhookStatus;
+import org.shop.sportwebstore.model.entity.WebhookEvent;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Date;
+import java.util.HexFormat;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class WebhookInboxTest {
+
+    private static final String SECRET = "whsec_test";
+    private static final String SESSION = "{\"id\":\"cs_1\",\"object\":\"checkout.session\"}";
+
+    @Mock
+    private MongoTemplate mongoTemplate;
+
+    @Mock
+    private PaymentService paymentService;
+
+    private WebhookInbox webhookInbox;
+
+    @BeforeEach
+    void setUp() {
+        webhookInbox = new WebhookInbox(mongoTemplate, paymentService, new SimpleMeterRegistry(), SECRET,
+                2, 3, Duration.ofSeconds(5), Duration.ofMinutes(1), Duration.ofMinutes(2), Duration.ofSeconds(5));
+    }
+
+    @Test
+    void receive_ShouldStoreVerifiedEvent() throws Exception {
+        String payload = event("evt_1", WebhookInbox.CHECKOUT_COMPLETED);
+
+        webhookInbox.receive(payload, sign(payload));
+
+        ArgumentCaptor<WebhookEvent> stored = ArgumentCaptor.forClass(WebhookEvent.class);
+        verify(mongoTemplate).insert(stored.capture());
+        assertEquals("evt_1", stored.getValue().getId());
+        assertEquals(WebhookStatus.PENDING, stored.getValue().getStatus());
+        assertTrue(stored.getValue().getData().contains("cs_1"));
+        verifyNoInteractions(paymentService);
+    }
+
+    @Test
+    void receive_ShouldAcknowledgeRedeliveredEvent() throws Exception {
+        String payload = event("evt_1", WebhookInbox.CHECKOUT_COMPLETED);
+        when(mongoTemplate.insert(any(WebhookEvent.class))).thenThrow(new DuplicateKeyException("evt_1"));
+
+        assertDoesNotThrow(() -> webhookInbox.receive(payload, sign(payload)));
+    }
+
+    @Test
+    void receive_ShouldIgnoreUnhandledTypes() throws Exception {
+        String payload = event("evt_2", "customer.created");
+
+        webhookInbox.receive(payload, sign(payload));
+
+        verifyNoInteractions(mongoTemplate);
+    }
+
+    @Test
+    void receive_ShouldRejectInvalidSignature() {
+        String payload = event("evt_1", WebhookInbox.CHECKOUT_COMPLETED);
+
+        assertThrows(PaymentException.class, () -> webhookInbox.receive(payload, "t=1,v1=deadbeef"));
+        verifyNoInteractions(mongoTemplate);
+    }
+
+    @Test
+    void processNext_ShouldReturnFalseWhenNothingIsDue() {
+        assertFalse(webhookInbox.processNext());
+    }
+
+    @Test
+    void processNext_ShouldCompleteCheckoutAndMarkDone() {
+        claim(1);
+
+        assertTrue(webhookInbox.processNext());
+
+        verify(paymentService).completeCheckout(SESSION);
+        assertEquals(WebhookStatus.DONE, savedUpdate().getUpdateObject().get("$set", Document.class).get("status"));
+    }
+
+    @Test
+    void processNext_ShouldScheduleRetryOnFailure() {
+        claim(1);
+        doThrow(new PaymentException("Order not found.")).when(paymentService).completeCheckout(SESSION);
+
+        assertTrue(webhookInbox.processNext());
+
+        Document set = savedUpdate().getUpdateObject().get("$set", Document.class);
+        assertEquals(WebhookStatus.PENDING, set.get("status"));
+        assertEquals("Order not found.", set.get("lastError"));
+        assertTrue(((Date) set.get("nextAttemptAt")).after(new Date()));
+    }
+
+    @Test
+    void processNext_ShouldDeadLetterAfterMaxAttempts() {
+        claim(3);
+        doThrow(new PaymentException("Order not found.")).when(paymentService).completeCheckout(SESSION);
+
+        webhookInbox.processNext();
+
+        assertEquals(WebhookStatus.DEAD, savedUpdate().getUpdateObject().get("$set", Document.class).get("status"));
+    }
+
+    @Test
+    void backoff_ShouldDoubleUpToMaximum() {
+        assertEquals(Duration.ofSeconds(5), webhookInbox.backoff(1));
+        assertEquals(Duration.ofSeconds(20), webhookInbox.backoff(3));
+        assertEquals(Duration.ofMinutes(1), webhookInbox.backoff(10));
+    }
+
+    private void claim(int attempts) {
+        WebhookEvent event = new WebhookEvent("evt_1", WebhookInbox.CHECKOUT_COMPLETED, SESSION, new Date());
+        event.setStatus(WebhookStatus.PROCESSING);
+        event.setAttempts(attempts);
+        event.setLockedUntil(new Date(System.currentTimeMillis() + 120_000));
+        when(mongoTemplate.findAndModify(any(Query.class), any(Update.class), any(FindAndModifyOptions.class),
+                eq(WebhookEvent.class))).thenReturn(event);
+    }
+
+    private Update savedUpdate() {
+        ArgumentCaptor<Update> update = ArgumentCaptor.forClass(Update.class);
+        verify(mongoTemplate).updateFirst(any(Query.class), update.capture(), eq(WebhookEvent.class));
+        return update.getValue();
+    }
+
+    private static String event(String id, String type) {
+        return """
+                {"id":"%s","object":"event","type":"%s","data":{"object":%s}}
+                """.formatted(id, type, SESSION);
+    }
+
+    private static String sign(String payload) throws Exception {
+        long timestamp = System.currentTimeMillis() / 1000;
+        Mac mac = Mac.getInstance("HmacSHA256");
+        mac.init(new SecretKeySpec(SECRET.getBytes(StandardCharsets.UTF_8), "HmacSHA256"));
+        byte[] signature = mac.doFinal((timestamp + "." + payload).getBytes(StandardCharsets.UTF_8));
+        return "t=" + timestamp + ",v1=" + HexFormat.of().formatHex(signature);
+    }
+}
@@ -0,0 +1,80 @@
+package org.shop.sportwebstore.service.user;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.shop.sportwebstore.exception.TooManyRequestsException;
+import org.springframework.security.crypto.password.PasswordEncoder;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BoundedPasswordEncoderTest {
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final CountDownLatch started = new CountDownLatch(1);
+    private final CountDownLatch release = new CountDownLatch(1);
+    private final ExecutorService callers = Executors.newFixedThreadPool(2);
+    private BoundedPasswordEncoder encoder;
+
+    @AfterEach
+    void tearDown() {
+        release.countDown();
+        callers.shutdownNow();
+        encoder.close();
+    }
+
+    @Test
+    void matches_ShouldRunOnPoolAndReturnDelegateResult() {
+        encoder = new BoundedPasswordEncoder(new PlainEncoder(), 1, 1, meterRegistry);
+
+        assertTrue(encoder.matches("secret", "{plain}secret"));
+        assertFalse(encoder.matches("wrong", "{plain}secret"));
+        assertEquals("{plain}secret", encoder.encode("secret"));
+        assertEquals(3, meterRegistry.timer("store.auth.password.hash").count());
+    }
+
+    @Test
+    void matches_ShouldRejectAtOnceWhenPoolAndQueueAreFull() throws InterruptedException {
+        encoder = new BoundedPasswordEncoder(new BlockingEncoder(), 1, 1, meterRegistry);
+        callers.submit(() -> encoder.matches("a", "a"));
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        callers.submit(() -> encoder.matches("b", "b"));
+        while (meterRegistry.get("store.auth.password.queue").gauge().value() < 1) {
+            Thread.onSpinWait();
+        }
+
+        TooManyRequestsException ex = assertThrows(TooManyRequestsException.class, () -> encoder.matches("c", "c"));
+        assertTrue(ex.getRetryAfter() > 0);
+        assertEquals(1, meterRegistry.counter("store.auth.password.rejected").count());
+    }
+
+    private static class PlainEncoder implements PasswordEncoder {
+        @Override
+        public String encode(CharSequence rawPassword) {
+            return "{plain}" + rawPassword;
+        }
+
+        @Override
+        public boolean matches(CharSequence rawPassword, String encodedPassword) {
+            return encode(rawPassword).equals(encodedPassword);
+        }
+    }
+
+    private class BlockingEncoder extends PlainEncoder {
+        @Override
+        public boolean matches(CharSequence rawPassword, String encodedPassword) {
+            started.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return true;
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package org.shop.sportwebstore.service.user;
+
+import org.shop.sportwebstore.model.ProductInOrder;
+import org.shop.sportwebstore.model.ShippingAddress;
+import org.shop.sportwebstore.model.entity.Customer;
+import org.shop.sportwebstore.model.entity.Order;
+import org.shop.sportwebstore.service.ConstantStrings;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * Delivered-order emails per second for a 50-line order: the compiled {@code EmailTemplate} against the
+ * previous {@code String.format} rendering, which re-escaped and re-parsed the whole body on every email.
+ * Run with {@code gradle benchmark -PbenchmarkClass=org.shop.sportwebstore.service.user.EmailRenderBenchmark}.
+ */
+public class EmailRenderBenchmark {
+
+    private static final String URL = "http://localhost:4200/";
+    private static final int LINES = 50;
+    private static final int WARMUP = 20_000;
+    private static final int ITERATIONS = 50_000;
+
+    /**
+     * keeps the JIT from dropping the measured work
+     */
+    private static volatile long blackhole;
+
+    public static void main(String[] args) {
+        EmailService emailService = new EmailService(null, null, null, null);
+        ReflectionTestUtils.setField(emailService, "url", URL);
+        Order order = order();
+        Customer customer = new Customer();
+        customer.setFirstName("Jan");
+        customer.setLastName("Kowalski");
+        Map<String, String> names = new HashMap<>();
+        order.getProducts().forEach(item -> names.put(item.getProductId(), "Product " + item.getProductId()));
+
+        String compiled = emailService.renderDelivered(order, customer, names);
+        String legacy = legacy(order, customer, names);
+        System.out.printf("%d lines, %d chars, same text as before: %s%n", LINES, compiled.length(),
+                strip(compiled).equals(strip(legacy)));
+        System.out.printf("%-10s %12s %12s%n", "renderer", "emails/s", "us/email");
+        run("format", () -> legacy(order, customer, names));
+        run("compiled", () -> emailService.renderDelivered(order, customer, names));
+    }
+
+    private static void run(String name, Supplier<String> render) {
+        long sink = 0;
+        for (int i = 0; i < WARMUP; i++) {
+            sink += render.get().length();
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            sink += render.get().length();
+        }
+        long elapsed = System.nanoTime() - start;
+        blackhole = sink;
+        System.out.printf("%-10s %12.0f %12.2f%n", name, ITERATIONS / (elapsed / 1e9), elapsed / 1e3 / ITERATIONS);
+    }
+
+    /**
+     * the rendering EmailService did before templates were compiled, with the template in its old format
+     */
+    private static String legacy(Order order, Customer customer, Map<String, String> names) {
+        StringBuilder itemsHtml = new StringBuilder();
+        for (ProductInOrder item : order.getProducts()) {
+            itemsHtml.append(String.format("""
+                    <tr>
+                        <td style="padding: 10px; border-bottom: 1px solid #ddd;">%s</td>
+                        <td style="padding: 10px; border-bottom: 1px solid #ddd;">%d</td>
+                        <td style="padding: 10px; border-bottom: 1px solid #ddd;">%.2f€</td>
+                    </tr>
+                    """, names.get(item.getProductId()), item.getAmount(), item.getPrice()));
+        }
+        String emailTemplate = ConstantStrings.ORDER_SUMMARY_EMAIL_BODY.replaceAll("\\{\\{[a-zA-Z]+}}", "%s")
+                .replace("%", "%%")
+                .replace("%%s", "%s")
+                .replace("%%n", "%n");
+        return String.format(emailTemplate,
+                customer.getFirstName() + " " + customer.getLastName(),
+                order.getId(),
+                order.getOrderDate(),
+                order.getTotalPrice(),
+                customer.getFirstName(),
+                customer.getLastName(),
+                order.getOrderAddress().getAddress(),
+                order.getOrderAddress().getCity(),
+                order.getOrderAddress().getZipCode(),
+                order.getOrderAddress().getCountry(),
+                itemsHtml.toString(),
+                URL + "profile/orders/" + order.getId());
+    }
+
+    private static String strip(String html) {
+        return html.replaceAll("\\s+", "");
+    }
+
+    private static Order order() {
+        List<ProductInOrder> products = new ArrayList<>();
+        for (int i = 0; i < LINES; i++) {
+            products.add(new ProductInOrder("p" + i, 1 + i % 3, new BigDecimal("19.90").add(BigDecimal.valueOf(i))));
+        }
+        ShippingAddress address = new ShippingAddress();
+        address.setAddress("Main Street 1");
+        address.setCity("Warsaw");
+        address.setZipCode("00-001");
+        address.setCountry("Poland");
+        Order order = new Order(products, "user", address, new BigDecimal("2499.50"), "card");
+        order.setId("order-1");
+        return order;
+    }
+}
@@ -0,0 +1,90 @@
+package org.shop.sportwebstore.service.user;
+
+import io.jsonwebtoken.Jwts;
+import io.jsonwebtoken.io.Decoders;
+import io.jsonwebtoken.security.Keys;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.shop.sportwebstore.model.Roles;
+import org.shop.sportwebstore.model.entity.User;
+import org.springframework.data.redis.core.Cursor;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.ScanOptions;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.Duration;
+import java.util.Date;
+import java.util.function.ToLongFunction;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Cost of decoding one access token: the old path (signing key and parser rebuilt per call),
+ * verification with the shared parser, and a hit in the verified-token cache.
+ * Revocation runs against a built blacklist, so no call leaves the JVM.
+ * Run with {@code gradle benchmark -PbenchmarkClass=org.shop.sportwebstore.service.user.JwtDecodeBenchmark}.
+ */
+public class JwtDecodeBenchmark {
+
+    private static final int WARMUP = 100_000;
+    private static final int ITERATIONS = 500_000;
+
+    /**
+     * keeps the JIT from dropping the measured work
+     */
+    private static volatile long blackhole;
+
+    @SuppressWarnings("unchecked")
+    public static void main(String[] args) {
+        RedisTemplate<String, String> redis = mock(RedisTemplate.class);
+        Cursor<String> empty = mock(Cursor.class);
+        when(redis.scan(any(ScanOptions.class))).thenReturn(empty);
+        TokenBlacklist blacklist = new TokenBlacklist(redis, "jwt:revoked", 100_000, 0.01, new SimpleMeterRegistry());
+        blacklist.rebuild();
+
+        JwtService jwtService = new JwtService(blacklist);
+        ReflectionTestUtils.setField(jwtService, "secret", JwtDecoderImplTest.SECRET);
+        User user = User.builder().id("65f1c2a9e4b0a1b2c3d4e5f6").email("customer@example.com").role(Roles.ROLE_CUSTOMER).build();
+        String token = Jwts.builder()
+                .id("Zk3Qm2rV1xN8cT0pL5sW9g")
+                .subject(user.getEmail())
+                .claim(JwtService.ROLE_CLAIM, user.getRole().name())
+                .claim(JwtService.USER_ID_CLAIM, user.getId())
+                .claim(JwtService.ROLE_VERSION_CLAIM, 0)
+                .claim(JwtService.EPOCH_CLAIM, 0)
+                .issuedAt(new Date())
+                .expiration(new Date(System.currentTimeMillis() + 3_600_000))
+                .signWith(jwtService.getSigningKey())
+                .compact();
+
+        RoleVersions roleVersions = mock(RoleVersions.class);
+        JwtDecoderImpl uncached = new JwtDecoderImpl(jwtService, roleVersions, 0, Duration.ZERO, new SimpleMeterRegistry());
+        JwtDecoderImpl cached = new JwtDecoderImpl(jwtService, roleVersions, 10_000, Duration.ofMinutes(5), new SimpleMeterRegistry());
+
+        System.out.printf("%-28s %10s%n", "path", "ns/op");
+        run("rebuilt key and parser", token, t -> Jwts.parser()
+                .verifyWith(Keys.hmacShaKeyFor(Decoders.BASE64.decode(JwtDecoderImplTest.SECRET)))
+                .build()
+                .parseSignedClaims(t)
+                .getPayload()
+                .getSubject()
+                .length());
+        run("verify, shared parser", token, t -> uncached.decode(t).getSubject().length());
+        run("verified-token cache hit", token, t -> cached.decode(t).getSubject().length());
+    }
+
+    private static void run(String name, String token, ToLongFunction<String> decode) {
+        long sink = 0;
+        for (int i = 0; i < WARMUP; i++) {
+            sink += decode.applyAsLong(token);
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            sink += decode.applyAsLong(token);
+        }
+        long perOp = (System.nanoTime() - start) / ITERATIONS;
+        blackhole += sink;
+        System.out.printf("%-28s %10d%n", name, perOp);
+    }
+}
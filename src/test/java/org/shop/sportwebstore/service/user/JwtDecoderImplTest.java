@@ -0,0 +1,106 @@
+package org.shop.sportwebstore.service.user;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.shop.sportwebstore.model.Roles;
+import org.shop.sportwebstore.model.entity.User;
+import org.springframework.security.oauth2.jwt.Jwt;
+import org.springframework.security.oauth2.jwt.JwtException;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class JwtDecoderImplTest {
+
+    static final String SECRET = "c2VjcmV0LWtleS1mb3ItdGVzdHMtdGhhdC1pcy1sb25nLWVub3VnaC1mb3ItaHMyNTY=";
+
+    @Mock
+    private TokenBlacklist tokenBlacklist;
+
+    @Mock
+    private RoleVersions roleVersions;
+
+    private JwtService jwtService;
+    private String token;
+
+    @BeforeEach
+    void setUp() {
+        jwtService = spy(new JwtService(tokenBlacklist));
+        ReflectionTestUtils.setField(jwtService, "secret", SECRET);
+        User user = User.builder().id("user123").email("user@example.com").role(Roles.ROLE_CUSTOMER).build();
+        token = jwtService.generateToken(user, 60_000);
+    }
+
+    @Test
+    void decode_ShouldReuseVerifiedToken() {
+        JwtDecoderImpl decoder = new JwtDecoderImpl(jwtService, roleVersions, 100, Duration.ofMinutes(5), new SimpleMeterRegistry());
+
+        Jwt first = decoder.decode(token);
+        Jwt second = decoder.decode(token);
+
+        assertEquals(first.getClaims(), second.getClaims());
+        assertEquals(token, second.getTokenValue());
+        assertEquals("user@example.com", first.getSubject());
+        assertEquals("user123", first.getClaimAsString(JwtService.USER_ID_CLAIM));
+        assertNotNull(first.getId());
+        verify(tokenBlacklist, times(2)).isRevoked(eq(first.getId()), eq("user123"), anyLong());
+        verify(jwtService, times(1)).extractAllClaims(token);
+    }
+
+    @Test
+    void decode_ShouldNotKeepTokenTextInCache() {
+        JwtDecoderImpl decoder = new JwtDecoderImpl(jwtService, roleVersions, 100, Duration.ofMinutes(5), new SimpleMeterRegistry());
+        decoder.decode(token);
+
+        Cache<?, ?> verified = (Cache<?, ?>) ReflectionTestUtils.getField(decoder, "verified");
+        assertEquals(1, verified.estimatedSize());
+        assertFalse(verified.asMap().toString().contains(token));
+    }
+
+    @Test
+    void decode_ShouldRejectCachedTokenOnceRevoked() {
+        JwtDecoderImpl decoder = new JwtDecoderImpl(jwtService, roleVersions, 100, Duration.ofMinutes(5), new SimpleMeterRegistry());
+        decoder.decode(token);
+        when(tokenBlacklist.isRevoked(anyString(), eq("user123"), anyLong())).thenReturn(true);
+
+        assertThrows(JwtException.class, () -> decoder.decode(token));
+    }
+
+    @Test
+    void decode_ShouldRejectTokenIssuedBeforeRoleChange() {
+        JwtDecoderImpl decoder = new JwtDecoderImpl(jwtService, roleVersions, 100, Duration.ofMinutes(5), new SimpleMeterRegistry());
+        decoder.decode(token);
+        when(roleVersions.isOutdated(any())).thenReturn(true);
+
+        assertThrows(JwtException.class, () -> decoder.decode(token));
+    }
+
+    @Test
+    void decode_ShouldVerifyEveryTimeWhenCacheDisabled() {
+        JwtDecoderImpl decoder = new JwtDecoderImpl(jwtService, roleVersions, 0, Duration.ZERO, new SimpleMeterRegistry());
+
+        decoder.decode(token);
+        decoder.decode(token);
+
+        verify(jwtService, times(2)).extractAllClaims(token);
+    }
+
+    @Test
+    void decode_ShouldRejectTamperedToken() {
+        JwtDecoderImpl decoder = new JwtDecoderImpl(jwtService, roleVersions, 100, Duration.ofMinutes(5), new SimpleMeterRegistry());
+        decoder.decode(token);
+        String tampered = token.substring(0, token.length() - 2) + (token.endsWith("A") ? "BB" : "AA");
+
+        assertThrows(JwtException.class, () -> decoder.decode(tampered));
+    }
+}
@@ -0,0 +1,86 @@
+package org.shop.sportwebstore.service.user;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.shop.sportwebstore.exception.TooManyRequestsException;
+import org.springframework.data.redis.RedisConnectionFailureException;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.ValueOperations;
+import org.springframework.data.redis.core.script.RedisScript;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class LoginThrottleTest {
+
+    @Mock
+    private RedisTemplate<String, String> redisLoginTemplate;
+
+    @Mock
+    private ValueOperations<String, String> valueOperations;
+
+    private LoginThrottle loginThrottle;
+
+    private final List<String> keys = List.of("login_fail:acct:user@example.com", "login_fail:ip:10.0.0.1");
+
+    @BeforeEach
+    void setUp() {
+        loginThrottle = new LoginThrottle(redisLoginTemplate, 5, 50, 900_000, new SimpleMeterRegistry());
+    }
+
+    @Test
+    void check_ShouldPassBelowLimits() {
+        when(redisLoginTemplate.opsForValue()).thenReturn(valueOperations);
+        when(valueOperations.multiGet(keys)).thenReturn(Arrays.asList("4", null));
+
+        assertDoesNotThrow(() -> loginThrottle.check("User@Example.com", "10.0.0.1"));
+    }
+
+    @Test
+    void check_ShouldRefuseLockedAccountWithRetryHint() {
+        when(redisLoginTemplate.opsForValue()).thenReturn(valueOperations);
+        when(valueOperations.multiGet(keys)).thenReturn(Arrays.asList("5", "5"));
+        when(redisLoginTemplate.getExpire(keys.get(0), TimeUnit.SECONDS)).thenReturn(120L);
+
+        TooManyRequestsException ex = assertThrows(TooManyRequestsException.class,
+                () -> loginThrottle.check("user@example.com", "10.0.0.1"));
+        assertEquals(120, ex.getRetryAfter());
+    }
+
+    @Test
+    void check_ShouldRefuseBusyAddress() {
+        when(redisLoginTemplate.opsForValue()).thenReturn(valueOperations);
+        when(valueOperations.multiGet(keys)).thenReturn(Arrays.asList(null, "50"));
+        when(redisLoginTemplate.getExpire(keys.get(1), TimeUnit.SECONDS)).thenReturn(-2L);
+
+        TooManyRequestsException ex = assertThrows(TooManyRequestsException.class,
+                () -> loginThrottle.check("user@example.com", "10.0.0.1"));
+        assertEquals(900, ex.getRetryAfter());
+    }
+
+    @Test
+    void check_ShouldLetLoginsThroughWhenRedisIsDown() {
+        when(redisLoginTemplate.opsForValue()).thenThrow(new RedisConnectionFailureException("down"));
+
+        assertDoesNotThrow(() -> loginThrottle.check("user@example.com", "10.0.0.1"));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void failed_ShouldCountBothKeysInOneScript() {
+        loginThrottle.failed("user@example.com", "10.0.0.1");
+
+        verify(redisLoginTemplate).execute(any(RedisScript.class), eq(keys), eq("900000"));
+    }
+}
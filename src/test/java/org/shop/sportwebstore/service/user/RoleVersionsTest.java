@@ -0,0 +1,67 @@
+package org.shop.sportwebstore.service.user;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.shop.sportwebstore.model.entity.User;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.security.oauth2.jwt.Jwt;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class RoleVersionsTest {
+
+    @Mock
+    private MongoTemplate mongoTemplate;
+
+    private RoleVersions roleVersions;
+
+    @BeforeEach
+    void setUp() {
+        roleVersions = new RoleVersions(mongoTemplate, 100, 60_000);
+    }
+
+    @Test
+    void isOutdated_ShouldRefuseTokensOlderThanStoredVersion() {
+        User user = new User();
+        user.setRoleVersion(2);
+        when(mongoTemplate.findOne(any(Query.class), eq(User.class))).thenReturn(user);
+
+        assertTrue(roleVersions.isOutdated(token("user123", 1)));
+        assertFalse(roleVersions.isOutdated(token("user123", 2)));
+        verify(mongoTemplate, times(1)).findOne(any(Query.class), eq(User.class));
+    }
+
+    @Test
+    void isOutdated_ShouldReloadVersionOnceInvalidated() {
+        User before = new User();
+        User after = new User();
+        after.setRoleVersion(1);
+        when(mongoTemplate.findOne(any(Query.class), eq(User.class))).thenReturn(before, after);
+        assertFalse(roleVersions.isOutdated(token("user123", 0)));
+
+        roleVersions.invalidate("user123");
+
+        assertTrue(roleVersions.isOutdated(token("user123", 0)));
+    }
+
+    @Test
+    void isOutdated_ShouldRefuseTokensOfDeletedUsers() {
+        assertTrue(roleVersions.isOutdated(token("gone", 5)));
+    }
+
+    private static Jwt token(String userId, long roleVersion) {
+        return Jwt.withTokenValue("token")
+                .header("alg", "HS256")
+                .claim(JwtService.USER_ID_CLAIM, userId)
+                .claim(JwtService.ROLE_VERSION_CLAIM, roleVersion)
+                .build();
+    }
+}
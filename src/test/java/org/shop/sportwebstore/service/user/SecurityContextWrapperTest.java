@@ -0,0 +1,91 @@
+package org.shop.sportwebstore.service.user;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.shop.sportwebstore.model.Roles;
+import org.shop.sportwebstore.model.entity.User;
+import org.shop.sportwebstore.repository.UserRepository;
+import org.springframework.security.authentication.AbstractAuthenticationToken;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.security.oauth2.jwt.Jwt;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class SecurityContextWrapperTest {
+
+    @Mock
+    private UserRepository userRepository;
+
+    private SecurityContextWrapper securityContextWrapper;
+
+    @BeforeEach
+    void setUp() {
+        securityContextWrapper = new SecurityContextWrapper(userRepository);
+    }
+
+    @AfterEach
+    void tearDown() {
+        SecurityContextHolder.clearContext();
+    }
+
+    @Test
+    void getCurrentUserId_ShouldReadIdFromTokenWithoutLookup() {
+        AbstractAuthenticationToken authentication = new JwtUserConverter().convert(jwt("user123"));
+        SecurityContextHolder.getContext().setAuthentication(authentication);
+
+        assertEquals(Optional.of("user123"), securityContextWrapper.getCurrentUserId());
+        assertEquals("user@example.com", authentication.getName());
+        assertEquals("ROLE_ADMIN", authentication.getAuthorities().iterator().next().getAuthority());
+        AuthenticatedUser principal = securityContextWrapper.getPrincipal().orElseThrow();
+        assertEquals(Roles.ROLE_ADMIN, principal.role());
+        assertEquals(3, principal.roleVersion());
+        verifyNoInteractions(userRepository);
+    }
+
+    @Test
+    void getCurrentUserId_ShouldLookUpTokensWithoutIdClaim() {
+        User user = new User();
+        user.setId("user123");
+        SecurityContextHolder.getContext().setAuthentication(new JwtUserConverter().convert(jwt(null)));
+        when(userRepository.findByEmail("user@example.com")).thenReturn(Optional.of(user));
+
+        assertEquals(Optional.of("user123"), securityContextWrapper.getCurrentUserId());
+    }
+
+    @Test
+    void getCurrentUser_ShouldLoadByIdFromToken() {
+        User user = new User();
+        user.setId("user123");
+        SecurityContextHolder.getContext().setAuthentication(new UsernamePasswordAuthenticationToken(
+                new AuthenticatedUser("user123", "user@example.com", Roles.ROLE_CUSTOMER, 0), null, List.of()));
+        when(userRepository.findById("user123")).thenReturn(Optional.of(user));
+
+        assertSame(user, securityContextWrapper.getCurrentUser().orElseThrow());
+        verify(userRepository, never()).findByEmail(any());
+    }
+
+    private Jwt jwt(String userId) {
+        Jwt.Builder builder = Jwt.withTokenValue("token")
+                .header("alg", "HS256")
+                .subject("user@example.com")
+                .issuedAt(Instant.now())
+                .expiresAt(Instant.now().plusSeconds(60))
+                .claim(JwtService.ROLE_CLAIM, "ROLE_ADMIN")
+                .claim(JwtService.ROLE_VERSION_CLAIM, 3);
+        if (userId != null) {
+            builder.claim(JwtService.USER_ID_CLAIM, userId);
+        }
+        return builder.build();
+    }
+}
@@ -0,0 +1,158 @@
+package org.shop.sportwebstore.service.user;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.redis.connection.DefaultMessage;
+import org.springframework.data.redis.core.Cursor;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.ScanOptions;
+import org.springframework.data.redis.core.ValueOperations;
+import org.springframework.data.redis.core.script.RedisScript;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class TokenBlacklistTest {
+
+    @Mock
+    private RedisTemplate<String, String> redisBlacklistTemplate;
+
+    @Mock
+    private ValueOperations<String, String> valueOperations;
+
+    @Mock
+    private Cursor<String> cursor;
+
+    @Mock
+    private Cursor<String> epochCursor;
+
+    private final MeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    private TokenBlacklist tokenBlacklist;
+
+    @BeforeEach
+    void setUp() {
+        tokenBlacklist = new TokenBlacklist(redisBlacklistTemplate, "jwt:revoked", 1000, 0.01, meterRegistry);
+    }
+
+    @Test
+    void isRevoked_ShouldAskRedisUntilFilterIsBuilt() {
+        when(redisBlacklistTemplate.hasKey("black_list:token")).thenReturn(true);
+
+        assertTrue(tokenBlacklist.isRevoked("token", null, 0));
+    }
+
+    @Test
+    void isRevoked_ShouldSkipRedisOnFilterMiss() {
+        rebuildWith("black_list:revoked");
+
+        assertFalse(tokenBlacklist.isRevoked("other", null, 0));
+        verify(redisBlacklistTemplate, never()).hasKey(any());
+        assertEquals(1, meterRegistry.counter("store.jwt.blacklist.lookups", "result", "filtered").count());
+    }
+
+    @Test
+    void isRevoked_ShouldConfirmFilterHitInRedis() {
+        rebuildWith("black_list:revoked");
+        when(redisBlacklistTemplate.hasKey("black_list:revoked")).thenReturn(true);
+
+        assertTrue(tokenBlacklist.isRevoked("revoked", null, 0));
+    }
+
+    @Test
+    void add_ShouldStoreRememberAndPublish() {
+        rebuildWith();
+        when(redisBlacklistTemplate.opsForValue()).thenReturn(valueOperations);
+
+        tokenBlacklist.add("token", 1000, "access");
+
+        verify(valueOperations).set("black_list:token", "access", 1000, TimeUnit.MILLISECONDS);
+        verify(redisBlacklistTemplate).convertAndSend("jwt:revoked", "t:token");
+        when(redisBlacklistTemplate.hasKey("black_list:token")).thenReturn(true);
+        assertTrue(tokenBlacklist.isRevoked("token", null, 0));
+    }
+
+    @Test
+    void onMessage_ShouldAddRevocationFromOtherNode() {
+        rebuildWith();
+        tokenBlacklist.onMessage(new DefaultMessage("jwt:revoked".getBytes(StandardCharsets.UTF_8),
+                "t:remote".getBytes(StandardCharsets.UTF_8)), null);
+        when(redisBlacklistTemplate.hasKey("black_list:remote")).thenReturn(true);
+
+        assertTrue(tokenBlacklist.isRevoked("remote", null, 0));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void revokeAll_ShouldRevokeTokensFromEarlierEpochsWithoutRedis() {
+        rebuildWith();
+        when(redisBlacklistTemplate.execute(any(RedisScript.class), eq(List.of("token_epoch:user1")), anyString(), eq("5000")))
+                .thenReturn(1_700_000_000_000L);
+
+        tokenBlacklist.revokeAll("user1", 5000);
+
+        assertTrue(tokenBlacklist.isRevoked("old", "user1", 0));
+        assertFalse(tokenBlacklist.isRevoked("new", "user1", 1_700_000_000_000L));
+        assertFalse(tokenBlacklist.isRevoked("other", "user2", 0));
+        verify(redisBlacklistTemplate, never()).hasKey(any());
+        verify(redisBlacklistTemplate).convertAndSend("jwt:revoked", "e:1700000000000:user1");
+    }
+
+    @Test
+    void onMessage_ShouldApplyEpochFromOtherNode() {
+        rebuildWith();
+        tokenBlacklist.onMessage(new DefaultMessage("jwt:revoked".getBytes(StandardCharsets.UTF_8),
+                "e:42:user1".getBytes(StandardCharsets.UTF_8)), null);
+
+        assertTrue(tokenBlacklist.isRevoked("token", "user1", 41));
+        assertFalse(tokenBlacklist.isRevoked("token", "user1", 42));
+    }
+
+    @Test
+    void isRevoked_ShouldReadEpochFromRedisUntilBuilt() {
+        when(redisBlacklistTemplate.opsForValue()).thenReturn(valueOperations);
+        when(valueOperations.get("token_epoch:user1")).thenReturn("42");
+
+        assertTrue(tokenBlacklist.isRevoked("token", "user1", 41));
+    }
+
+    @Test
+    void bloomFilter_ShouldStayNearConfiguredFalsePositiveRate() {
+        BloomFilter filter = BloomFilter.create(10_000, 0.01);
+        for (int i = 0; i < 10_000; i++) {
+            filter.put("revoked-" + i);
+        }
+        int falsePositives = 0;
+        for (int i = 0; i < 100_000; i++) {
+            assertTrue(i >= 10_000 || filter.mightContain("revoked-" + i));
+            if (filter.mightContain("valid-" + i)) {
+                falsePositives++;
+            }
+        }
+
+        assertTrue(falsePositives < 2_000, "false positives: " + falsePositives);
+        assertEquals(0.01, filter.expectedFpp(), 0.005);
+    }
+
+    private void rebuildWith(String... keys) {
+        var iterator = List.of(keys).iterator();
+        when(redisBlacklistTemplate.scan(any(ScanOptions.class))).thenReturn(cursor, epochCursor);
+        when(cursor.hasNext()).thenAnswer(invocation -> iterator.hasNext());
+        lenient().when(cursor.next()).thenAnswer(invocation -> iterator.next());
+        when(epochCursor.hasNext()).thenReturn(false);
+        tokenBlacklist.rebuild();
+    }
+}